@@ -0,0 +1,206 @@
+package com.mediscreen.note.benchmark;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.IPatientIdentityRepository;
+import com.mediscreen.note.repository.ISequenceRepository;
+import com.mediscreen.note.repository.ITriggerTermRollupRepository;
+import com.mediscreen.note.repository.NoteRepository;
+import com.mediscreen.note.repository.ReadPreferenceRouterImpl;
+import org.bson.types.ObjectId;
+import org.springframework.data.util.CloseableIterator;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class providing the data and the in-memory stand-ins of the repositories used by the benchmarks.
+ */
+final class BenchmarkData {
+
+    static final String[] TRIGGER_TERMS = {
+            "H\u00e9moglobine A1C", "Microalbumine", "Taille", "Poids", "Fumeur", "Anormal", "Cholest\u00e9rol", "Vertige", "Rechute", "R\u00e9action", "Anticorps"
+    };
+
+    private static final String NOTE_TEXT = "The patient reports that he feels tired during the day<br>He also complains of muscle pain<br>Lab reports Microalbumine high";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Return the history of a patient.
+     *
+     * @param patientId The id of the patient
+     * @param nbNotes The number of notes of the history
+     * @return The list of notes of the patient
+     */
+    static List<Note> patientHistory(long patientId, int nbNotes) {
+        List<Note> notes = new ArrayList<>(nbNotes);
+        for (int i = 0; i < nbNotes; i++) {
+            Note note = new Note("PatientLastName" + patientId, "PatientFirstName" + patientId, NOTE_TEXT);
+            note.setId(new ObjectId().toHexString());
+            note.setPatientId(patientId);
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    /**
+     * Return an in-memory stand-in of the NoteRepository, holding the histories of a number of patients.
+     *
+     * @param nbPatients The number of patients, having ids from 1 to nbPatients
+     * @param nbNotesPerPatient The number of notes of each patient
+     * @return The NoteRepository stand-in
+     */
+    static NoteRepository noteRepository(int nbPatients, int nbNotesPerPatient) {
+        Map<Long, List<Note>> notesByPatientId = new ConcurrentHashMap<>();
+        Map<String, List<Note>> notesByPatientName = new ConcurrentHashMap<>();
+        for (long patientId = 1L; patientId <= nbPatients; patientId++) {
+            List<Note> notes = patientHistory(patientId, nbNotesPerPatient);
+            notesByPatientId.put(patientId, notes);
+            notesByPatientName.put(notes.get(0).getPatientLastName() + '|' + notes.get(0).getPatientFirstName(), notes);
+        }
+        return (NoteRepository) Proxy.newProxyInstance(NoteRepository.class.getClassLoader(), new Class<?>[]{NoteRepository.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "findByPatientId":
+                    return notesByPatientId.getOrDefault((Long) args[0], Collections.emptyList());
+                case "findByPatientLastNameAndPatientFirstName":
+                    return notesByPatientName.getOrDefault(args[0] + "|" + args[1], Collections.emptyList());
+                case "save":
+                    Note note = (Note) args[0];
+                    if (note.getId() == null) {
+                        note.setId(new ObjectId().toHexString());
+                    }
+                    return note;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Return an in-memory stand-in of the INoteRepositoryCustom, only supporting findMaxPatientId.
+     *
+     * @param maxPatientId The max patient id to return
+     * @return The INoteRepositoryCustom stand-in
+     */
+    static INoteRepositoryCustom noteRepositoryCustom(long maxPatientId) {
+        return (INoteRepositoryCustom) Proxy.newProxyInstance(INoteRepositoryCustom.class.getClassLoader(), new Class<?>[]{INoteRepositoryCustom.class}, (proxy, method, args) -> {
+            if ("findMaxPatientId".equals(method.getName())) {
+                return maxPatientId;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    /**
+     * Return an in-memory stand-in of the ISequenceRepository.
+     *
+     * @return The ISequenceRepository stand-in
+     */
+    static ISequenceRepository sequenceRepository() {
+        Map<String, AtomicLong> sequences = new HashMap<>();
+        return new ISequenceRepository() {
+            @Override
+            public synchronized long incrementSequence(String sequenceName, long increment) {
+                return sequences.computeIfAbsent(sequenceName, name -> new AtomicLong()).addAndGet(increment);
+            }
+
+            @Override
+            public synchronized void ensureSequenceAtLeast(String sequenceName, long minimumValue) {
+                sequences.computeIfAbsent(sequenceName, name -> new AtomicLong()).accumulateAndGet(minimumValue, Math::max);
+            }
+        };
+    }
+
+    /**
+     * Return an in-memory stand-in of the ITriggerTermRollupRepository, only supporting the writes of the term counts of notes, which do nothing.
+     *
+     * @return The ITriggerTermRollupRepository stand-in
+     */
+    static ITriggerTermRollupRepository triggerTermRollupRepository() {
+        return (ITriggerTermRollupRepository) Proxy.newProxyInstance(ITriggerTermRollupRepository.class.getClassLoader(), new Class<?>[]{ITriggerTermRollupRepository.class}, (proxy, method, args) -> {
+            if ("setNoteTermCounts".equals(method.getName()) || "removeNoteTermCounts".equals(method.getName())) {
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    /**
+     * Return a read preference router sending all the operations to the primary : the queries and the writes run directly, without database factory.
+     *
+     * @return The ReadPreferenceRouterImpl
+     */
+    static ReadPreferenceRouterImpl readPreferenceRouter() {
+        return new ReadPreferenceRouterImpl(null, Collections.emptyMap());
+    }
+
+    /**
+     * Return an in-memory stand-in of the IPatientIdentityRepository, holding the identities of a number of patients.
+     *
+     * @param nbPatients The number of patients, having ids from 1 to nbPatients
+     * @return The IPatientIdentityRepository stand-in
+     */
+    static IPatientIdentityRepository patientIdentityRepository(int nbPatients) {
+        Map<Long, PatientIdentity> identitiesById = new ConcurrentHashMap<>();
+        for (long patientId = 1L; patientId <= nbPatients; patientId++) {
+            identitiesById.put(patientId, new PatientIdentity(patientId, "PatientLastName" + patientId, "PatientFirstName" + patientId));
+        }
+        return new IPatientIdentityRepository() {
+            @Override
+            public List<PatientIdentity> findIdentities(Collection<Long> patientIds, Collection<PatientIdentity> patientNames) {
+                List<PatientIdentity> identities = new ArrayList<>();
+                for (PatientIdentity identity : identitiesById.values()) {
+                    if (patientIds.contains(identity.getPatientId())
+                            || patientNames.contains(new PatientIdentity(0L, identity.getPatientLastName(), identity.getPatientFirstName()))) {
+                        identities.add(identity);
+                    }
+                }
+                return identities;
+            }
+
+            @Override
+            public List<PatientIdentity> saveIdentities(List<PatientIdentity> identities) {
+                for (PatientIdentity identity : identities) {
+                    identitiesById.put(identity.getPatientId(), identity);
+                }
+                return new ArrayList<>();
+            }
+
+            @Override
+            public CloseableIterator<PatientIdentity> streamIdentities() {
+                Iterator<PatientIdentity> iterator = new ArrayList<>(identitiesById.values()).iterator();
+                return new CloseableIterator<PatientIdentity>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public PatientIdentity next() {
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+
+            @Override
+            public boolean existsIdentity() {
+                return !identitiesById.isEmpty();
+            }
+        };
+    }
+}
@@ -0,0 +1,296 @@
+package com.mediscreen.note.benchmark;
+
+import com.mediscreen.note.NoteApplication;
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.service.ITriggerTermRollupService;
+import com.mediscreen.note.service.PatientDirectoryImpl;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test of the NoteController endpoints, against the application started with an embedded MongoDB server filled with a synthetic corpus.
+ * Each virtual user sends a request, waits for its response then sends the next one, without think time : the throughput is the one the application sustains
+ * with this number of concurrent users. The requests are reads of patient histories, summaries and trigger term rollups, or additions of notes, in a given proportion.
+ * The latencies are recorded after the warm-up, from the sending of the request to the reading of the whole response.
+ * The virtual users run in the JVM of the application : the results compare commits and configurations, they are not absolute capacities.
+ * <p>
+ * Arguments : the JSON results file, the number of notes, the history length distribution, the mean history length, the trigger term density,
+ * the number of virtual users, the proportion of reads, the warm-up duration and the measure duration in seconds.
+ */
+public final class LoadTestHarness {
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private static final String NOTE_TEXT = "Patient reports feeling tired during the day<br>Lab reports Microalbumine high";
+
+    /**
+     * Operations sent by the virtual users.
+     */
+    private enum Operation {
+        HISTORY_BY_PATIENT_ID(true),
+        HISTORY_SUMMARY_BY_PATIENT_ID(true),
+        TRIGGER_TERM_ROLLUP_BY_PATIENT_ID(true),
+        ADD_NOTE_BY_PATIENT_ID(false);
+
+        private static final Operation[] READ_OPERATIONS = Arrays.stream(values()).filter(operation -> operation.read).toArray(Operation[]::new);
+
+        private final boolean read;
+
+        Operation(boolean read) {
+            this.read = read;
+        }
+    }
+
+    private LoadTestHarness() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length < 9) {
+            throw new IllegalArgumentException("Expected arguments : <results file> <notes> <history length distribution> <mean history length> <trigger term density> "
+                    + "<users> <read ratio> <warm-up seconds> <measure seconds>");
+        }
+
+        File resultsFile = new File(args[0]);
+        NoteCorpusGenerator generator = new NoteCorpusGenerator(Long.parseLong(args[1]), NoteCorpusGenerator.HistoryLengthDistribution.valueOf(args[2].toUpperCase(Locale.ROOT)),
+                Double.parseDouble(args[3]), Double.parseDouble(args[4]), 1L);
+        int nbUsers = Integer.parseInt(args[5]);
+        double readRatio = Double.parseDouble(args[6]);
+        long warmupSeconds = Long.parseLong(args[7]);
+        long measureSeconds = Long.parseLong(args[8]);
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(NoteApplication.class).run(
+                "--spring.profiles.active=loadtest",
+                "--server.port=0",
+                "--spring.data.mongodb.port=0",
+                "--spring.data.mongodb.database=noteloadtest",
+                "--spring.mongodb.embedded.version=4.0.2",
+                "--note.patient-directory.load-on-startup=false",
+                "--note.trigger-term-rollups.rebuild-on-startup=false",
+                "--logging.level.org.springframework=WARN")) {
+
+            long nbPatients = loadCorpus(context, generator);
+
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+            Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new ConcurrentHistogram(3));
+                errors.put(operation, new AtomicLong());
+            }
+
+            System.out.printf("Load test : %d users, %.0f%% reads, %d s warm-up, %d s measure%n", nbUsers, readRatio * 100, warmupSeconds, measureSeconds);
+            long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            long measureEnd = measureStart + TimeUnit.SECONDS.toNanos(measureSeconds);
+
+            ExecutorService users = Executors.newFixedThreadPool(nbUsers);
+            for (int user = 0; user < nbUsers; user++) {
+                users.execute(() -> runUser(baseUrl, nbPatients, readRatio, measureStart, measureEnd, latencies, errors));
+            }
+            users.shutdown();
+            if (!users.awaitTermination(warmupSeconds + measureSeconds + 60L, TimeUnit.SECONDS)) {
+                users.shutdownNow();
+                throw new IllegalStateException("Virtual users not stopped at the end of the load test");
+            }
+
+            writeResults(resultsFile, generator, nbPatients, nbUsers, readRatio, measureSeconds, latencies, errors);
+        }
+    }
+
+    /**
+     * Insert the notes of the corpus in the database, then load the patient directory and rebuild the trigger term rollups from them.
+     *
+     * @param context The application context
+     * @param generator The generator of the corpus
+     * @return The number of patients of the corpus
+     */
+    private static long loadCorpus(ConfigurableApplicationContext context, NoteCorpusGenerator generator) {
+
+        long start = System.nanoTime();
+        MongoTemplate mongoTemplate = context.getBean(MongoTemplate.class);
+        List<Note> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        long nbPatients = generator.generate(note -> {
+            batch.add(note);
+            if (batch.size() == INSERT_BATCH_SIZE) {
+                mongoTemplate.insert(batch, Note.class);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            mongoTemplate.insert(batch, Note.class);
+        }
+        System.out.printf("Corpus of %d patients inserted in %d ms%n", nbPatients, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        context.getBean(PatientDirectoryImpl.class).load();
+        context.getBean(ITriggerTermRollupService.class).rebuildRollups();
+        System.out.printf("Patient directory and trigger term rollups loaded in %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        return nbPatients;
+    }
+
+    /**
+     * Send requests in a closed loop until the end of the measure, recording the latencies of the requests sent during the measure.
+     *
+     * @param baseUrl The base URL of the application
+     * @param nbPatients The number of patients, the patient of each request being drawn uniformly
+     * @param readRatio The proportion of reads
+     * @param measureStart The start of the measure, as returned by System.nanoTime
+     * @param measureEnd The end of the measure, as returned by System.nanoTime
+     * @param latencies The latencies of each operation, in microseconds
+     * @param errors The number of errors of each operation
+     */
+    private static void runUser(String baseUrl, long nbPatients, double readRatio, long measureStart, long measureEnd,
+                                Map<Operation, Histogram> latencies, Map<Operation, AtomicLong> errors) {
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.nanoTime();
+
+        while (now < measureEnd) {
+            Operation operation = random.nextDouble() < readRatio ? Operation.READ_OPERATIONS[random.nextInt(Operation.READ_OPERATIONS.length)] : Operation.ADD_NOTE_BY_PATIENT_ID;
+            long patientId = random.nextLong(1L, nbPatients + 1L);
+
+            long start = System.nanoTime();
+            boolean successful = send(baseUrl, operation, patientId);
+            now = System.nanoTime();
+
+            if (start >= measureStart && now < measureEnd) {
+                latencies.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(now - start));
+                if (!successful) {
+                    errors.get(operation).incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the request of an operation and read its whole response.
+     *
+     * @param baseUrl The base URL of the application
+     * @param operation The operation
+     * @param patientId The id of the patient
+     * @return true if the response status is below 400, false otherwise
+     */
+    private static boolean send(String baseUrl, Operation operation, long patientId) {
+        try {
+            HttpURLConnection connection;
+            switch (operation) {
+                case HISTORY_BY_PATIENT_ID:
+                    connection = (HttpURLConnection) new URL(baseUrl + "/patHistoryByPatientId?patId=" + patientId).openConnection();
+                    break;
+                case HISTORY_SUMMARY_BY_PATIENT_ID:
+                    connection = (HttpURLConnection) new URL(baseUrl + "/patHistorySummaryByPatientId?patId=" + patientId).openConnection();
+                    break;
+                case TRIGGER_TERM_ROLLUP_BY_PATIENT_ID:
+                    connection = (HttpURLConnection) new URL(baseUrl + "/patHistoryTriggerTermRollupByPatientId?patId=" + patientId).openConnection();
+                    break;
+                case ADD_NOTE_BY_PATIENT_ID:
+                    connection = (HttpURLConnection) new URL(baseUrl + "/patHistory/add?patId=" + patientId + "&note=" + encode(NOTE_TEXT)).openConnection();
+                    connection.setRequestMethod("POST");
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation : " + operation);
+            }
+            int status = connection.getResponseCode();
+            // The whole response is read so that the connection is reused by the next request
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) != -1) {
+                        // Response body discarded
+                    }
+                }
+            }
+            return status < 400;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Print the throughput and the latency percentiles of each operation and of all operations, then write them in the JSON results file.
+     *
+     * @param resultsFile The JSON results file
+     * @param generator The generator of the corpus
+     * @param nbPatients The number of patients of the corpus
+     * @param nbUsers The number of virtual users
+     * @param readRatio The proportion of reads
+     * @param measureSeconds The duration of the measure in seconds
+     * @param latencies The latencies of each operation, in microseconds
+     * @param errors The number of errors of each operation
+     */
+    private static void writeResults(File resultsFile, NoteCorpusGenerator generator, long nbPatients, int nbUsers, double readRatio, long measureSeconds,
+                                     Map<Operation, Histogram> latencies, Map<Operation, AtomicLong> errors) throws IOException {
+
+        Histogram allLatencies = new Histogram(3);
+        long allErrors = 0L;
+        StringBuilder json = new StringBuilder(String.format(Locale.ROOT,
+                "{\n  \"corpus\": %s,\n  \"patients\": %d,\n  \"users\": %d,\n  \"readRatio\": %.2f,\n  \"measureSeconds\": %d,\n  \"operations\": [\n",
+                generator.toJson(), nbPatients, nbUsers, readRatio, measureSeconds));
+
+        for (Map.Entry<Operation, Histogram> entry : latencies.entrySet()) {
+            allLatencies.add(entry.getValue());
+            allErrors += errors.get(entry.getKey()).get();
+            json.append(operationResult(entry.getKey().name(), entry.getValue(), errors.get(entry.getKey()).get(), measureSeconds)).append(",\n");
+        }
+        json.append(operationResult("ALL", allLatencies, allErrors, measureSeconds)).append("\n  ]\n}\n");
+
+        File resultsDirectory = resultsFile.getAbsoluteFile().getParentFile();
+        if (!resultsDirectory.isDirectory() && !resultsDirectory.mkdirs()) {
+            throw new IOException("Results directory not created : " + resultsDirectory);
+        }
+        Files.write(resultsFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written in " + resultsFile);
+    }
+
+    /**
+     * Print the throughput and the latency percentiles of an operation and return them as JSON.
+     *
+     * @param operation The name of the operation
+     * @param latencies The latencies of the operation, in microseconds
+     * @param nbErrors The number of errors of the operation
+     * @param measureSeconds The duration of the measure in seconds
+     * @return The JSON result of the operation
+     */
+    private static String operationResult(String operation, Histogram latencies, long nbErrors, long measureSeconds) {
+        double throughput = (double) latencies.getTotalCount() / measureSeconds;
+        System.out.printf(Locale.ROOT, "%-34s %9d requests %9.1f req/s %6d errors   p50 %8.2f ms   p90 %8.2f ms   p99 %8.2f ms   p99.9 %8.2f ms   max %8.2f ms%n",
+                operation, latencies.getTotalCount(), throughput, nbErrors, millis(latencies, 50.0), millis(latencies, 90.0), millis(latencies, 99.0),
+                millis(latencies, 99.9), latencies.getMaxValue() / 1000.0);
+        return String.format(Locale.ROOT, "    {\"operation\": \"%s\", \"requests\": %d, \"errors\": %d, \"throughputPerSecond\": %.1f, "
+                        + "\"p50Millis\": %.3f, \"p90Millis\": %.3f, \"p99Millis\": %.3f, \"p999Millis\": %.3f, \"maxMillis\": %.3f}",
+                operation, latencies.getTotalCount(), nbErrors, throughput, millis(latencies, 50.0), millis(latencies, 90.0), millis(latencies, 99.0),
+                millis(latencies, 99.9), latencies.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Histogram latencies, double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,246 @@
+package com.mediscreen.note.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mediscreen.note.domain.Note;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Generator of synthetic note corpora, reproducing locally the volumes of the production database.
+ * The patients get ids from 1, the length of the history of each patient following a distribution of a given mean,
+ * and the trigger terms being spread in the notes with a given mean number of trigger terms per note.
+ * The generation is deterministic for a given seed and streams the notes, so that millions of notes are generated without being held in memory.
+ * <p>
+ * Used as a main, the corpus is written as a NDJSON file which can be posted to the POST /patHistory/bulk endpoint.
+ * Arguments : the NDJSON file, the number of notes, the history length distribution, the mean history length, the trigger term density, then optionally the seed.
+ */
+public final class NoteCorpusGenerator {
+
+    /**
+     * Distribution of the number of notes of the patients.
+     */
+    public enum HistoryLengthDistribution {
+
+        /**
+         * All patients have the mean number of notes.
+         */
+        CONSTANT,
+
+        /**
+         * The number of notes is uniformly distributed between 1 and twice the mean.
+         */
+        UNIFORM,
+
+        /**
+         * The number of notes follows a geometric distribution : many short histories, few long ones.
+         */
+        GEOMETRIC,
+
+        /**
+         * The number of notes follows a log-normal distribution : a heavy tail of patients with very long histories.
+         */
+        LOG_NORMAL;
+
+        private static final double LOG_NORMAL_SIGMA = 1.0;
+
+        /**
+         * Return the number of notes of a patient.
+         *
+         * @param random The random generator
+         * @param mean The mean number of notes of the patients
+         * @return The number of notes, at least 1
+         */
+        int sample(Random random, double mean) {
+            switch (this) {
+                case CONSTANT:
+                    return Math.max(1, (int) Math.round(mean));
+                case UNIFORM:
+                    return 1 + random.nextInt(Math.max(1, (int) Math.round(2 * mean) - 1));
+                case GEOMETRIC:
+                    if (mean <= 1.0) {
+                        return 1;
+                    }
+                    return 1 + (int) Math.floor(Math.log(1.0 - random.nextDouble()) / Math.log(1.0 - 1.0 / mean));
+                case LOG_NORMAL:
+                    double mu = Math.log(mean) - LOG_NORMAL_SIGMA * LOG_NORMAL_SIGMA / 2;
+                    return Math.max(1, (int) Math.round(Math.exp(mu + LOG_NORMAL_SIGMA * random.nextGaussian())));
+                default:
+                    throw new IllegalStateException("Unknown history length distribution : " + this);
+            }
+        }
+    }
+
+    private static final String[] LAST_NAMES = {
+            "Ferguson", "Rees", "Arnold", "Sharp", "Ince", "Ross", "Wilson", "Buckland", "Clark", "Bailey", "Bell", "Hunt", "Porter", "Stone", "Wright", "Moore"
+    };
+
+    private static final String[] FIRST_NAMES = {
+            "Lucas", "Pippa", "Edward", "Anthony", "Wendy", "Tracey", "Claire", "Max", "Natalie", "Piers", "Alice", "Hugo", "Emma", "Victor", "Laura", "Paul"
+    };
+
+    private static final String[] SENTENCES = {
+            "Patient states that they are feeling terrific",
+            "Patient states that they are feeling a great deal of stress at work",
+            "Patient reports that they have not been sleeping well",
+            "Patient reports feeling tired during the day",
+            "Patient complains of muscle pain",
+            "Patient states that they are experiencing back pain when seated for a long time",
+            "Patient reports frequent headaches since the last visit",
+            "Tests ordered during the last visit show results within the normal range",
+            "Patient was advised to exercise more regularly",
+            "Patient states that they have been following the prescribed diet"
+    };
+
+    private static final String[] TRIGGER_TERM_SENTENCES = {
+            "Lab reports %s high", "%s checked during the visit", "Patient asks about %s", "%s to be monitored at the next visit"
+    };
+
+    private static final int MIN_SENTENCES = 2;
+    private static final int MAX_SENTENCES = 5;
+
+    private final long nbNotes;
+    private final HistoryLengthDistribution historyLengthDistribution;
+    private final double meanHistoryLength;
+    private final double triggerTermDensity;
+    private final long seed;
+
+    /**
+     * Build a generator of note corpus.
+     *
+     * @param nbNotes The total number of notes of the corpus
+     * @param historyLengthDistribution The distribution of the number of notes of the patients
+     * @param meanHistoryLength The mean number of notes of the patients
+     * @param triggerTermDensity The mean number of trigger terms per note
+     * @param seed The seed of the random generator
+     */
+    public NoteCorpusGenerator(long nbNotes, HistoryLengthDistribution historyLengthDistribution, double meanHistoryLength, double triggerTermDensity, long seed) {
+        if (nbNotes < 1 || meanHistoryLength < 1.0 || triggerTermDensity < 0.0) {
+            throw new IllegalArgumentException("Expected at least 1 note, a mean history length of at least 1 and a non negative trigger term density");
+        }
+        this.nbNotes = nbNotes;
+        this.historyLengthDistribution = historyLengthDistribution;
+        this.meanHistoryLength = meanHistoryLength;
+        this.triggerTermDensity = triggerTermDensity;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 5) {
+            throw new IllegalArgumentException("Expected arguments : <ndjson file> <notes> <history length distribution> <mean history length> <trigger term density> [seed]");
+        }
+
+        File corpusFile = new File(args[0]);
+        NoteCorpusGenerator generator = new NoteCorpusGenerator(Long.parseLong(args[1]), HistoryLengthDistribution.valueOf(args[2].toUpperCase(Locale.ROOT)),
+                Double.parseDouble(args[3]), Double.parseDouble(args[4]), args.length > 5 ? Long.parseLong(args[5]) : 1L);
+
+        File corpusDirectory = corpusFile.getAbsoluteFile().getParentFile();
+        if (!corpusDirectory.isDirectory() && !corpusDirectory.mkdirs()) {
+            throw new IOException("Corpus directory not created : " + corpusDirectory);
+        }
+
+        ObjectWriter noteWriter = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL).writerFor(Note.class);
+        long start = System.nanoTime();
+        long nbPatients;
+        try (BufferedWriter writer = Files.newBufferedWriter(corpusFile.toPath(), StandardCharsets.UTF_8)) {
+            nbPatients = generator.generate(note -> {
+                try {
+                    writer.write(noteWriter.writeValueAsString(note));
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        System.out.printf("%d notes of %d patients written in %s in %d ms%n", generator.nbNotes, nbPatients, corpusFile, (System.nanoTime() - start) / 1_000_000L);
+    }
+
+    /**
+     * Generate the notes of the corpus, patient after patient, the notes of a patient being consecutive.
+     *
+     * @param consumer The consumer of the generated notes
+     * @return The number of patients of the corpus, having ids from 1 to this number
+     */
+    public long generate(Consumer<Note> consumer) {
+
+        Random random = new Random(seed);
+        long nbNotesGenerated = 0L;
+        long patientId = 0L;
+
+        while (nbNotesGenerated < nbNotes) {
+            patientId++;
+            String patientLastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)] + "-" + patientId;
+            String patientFirstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            long historyLength = Math.min(historyLengthDistribution.sample(random, meanHistoryLength), nbNotes - nbNotesGenerated);
+            for (long i = 0; i < historyLength; i++) {
+                Note note = new Note(patientLastName, patientFirstName, noteText(random));
+                note.setPatientId(patientId);
+                consumer.accept(note);
+            }
+            nbNotesGenerated += historyLength;
+        }
+
+        return patientId;
+    }
+
+    /**
+     * Return the parameters of the corpus as JSON.
+     *
+     * @return The JSON parameters of the corpus
+     */
+    String toJson() {
+        return String.format(Locale.ROOT, "{\"notes\": %d, \"historyLengthDistribution\": \"%s\", \"meanHistoryLength\": %.1f, \"triggerTermDensity\": %.2f, \"seed\": %d}",
+                nbNotes, historyLengthDistribution, meanHistoryLength, triggerTermDensity, seed);
+    }
+
+    /**
+     * Return the text of a note, made of sentences separated by line breaks, the number of trigger terms following a Poisson distribution.
+     *
+     * @param random The random generator
+     * @return The text of the note
+     */
+    private String noteText(Random random) {
+        List<String> sentences = new ArrayList<>();
+        int nbSentences = MIN_SENTENCES + random.nextInt(MAX_SENTENCES - MIN_SENTENCES + 1);
+        for (int i = 0; i < nbSentences; i++) {
+            sentences.add(SENTENCES[random.nextInt(SENTENCES.length)]);
+        }
+        int nbTriggerTerms = poisson(random, triggerTermDensity);
+        for (int i = 0; i < nbTriggerTerms; i++) {
+            String triggerTerm = BenchmarkData.TRIGGER_TERMS[random.nextInt(BenchmarkData.TRIGGER_TERMS.length)];
+            String sentence = String.format(TRIGGER_TERM_SENTENCES[random.nextInt(TRIGGER_TERM_SENTENCES.length)], triggerTerm);
+            sentences.add(random.nextInt(sentences.size() + 1), sentence);
+        }
+        return String.join("<br>", sentences);
+    }
+
+    /**
+     * Return a number following a Poisson distribution.
+     *
+     * @param random The random generator
+     * @param mean The mean of the distribution
+     * @return The number
+     */
+    private static int poisson(Random random, double mean) {
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int number = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            number++;
+        }
+        return number;
+    }
+}
@@ -0,0 +1,98 @@
+package com.mediscreen.note.benchmark;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the Thymeleaf rendering of the notes/list view, for pages of several sizes.
+ * The view is rendered either into a String, as for the notes/list endpoint, or streamed from an iterator to a writer, as for the notes/list/stream endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteListRenderingBenchmark {
+
+    @Param({"20", "100", "1000"})
+    private int nbNotes;
+
+    private SpringTemplateEngine templateEngine;
+
+    private WebContext context;
+
+    private WebContext streamContext;
+
+    private List<Note> notes;
+
+    @Setup
+    public void setup() {
+        // Same template location and mode as the Thymeleaf configuration of Spring Boot, with the template cache enabled
+        ClassLoaderTemplateResolver templateResolver = new ClassLoaderTemplateResolver();
+        templateResolver.setPrefix("templates/");
+        templateResolver.setSuffix(".html");
+        templateResolver.setTemplateMode(TemplateMode.HTML);
+        templateResolver.setCharacterEncoding("UTF-8");
+        templateResolver.setCacheable(true);
+        templateEngine = new SpringTemplateEngine();
+        templateEngine.setTemplateResolver(templateResolver);
+
+        MockServletContext servletContext = new MockServletContext();
+        context = new WebContext(new MockHttpServletRequest(servletContext), new MockHttpServletResponse(), servletContext, Locale.ENGLISH);
+        notes = BenchmarkData.patientHistory(1L, nbNotes);
+        context.setVariable("notes", notes);
+        context.setVariable("page", new NotePage(notes, notes.get(notes.size() - 1).getId(), notes.get(0).getId()));
+        context.setVariable("size", nbNotes);
+        streamContext = new WebContext(new MockHttpServletRequest(servletContext), new MockHttpServletResponse(), servletContext, Locale.ENGLISH);
+    }
+
+    @Benchmark
+    public String renderNoteList() {
+        return templateEngine.process("notes/list", context);
+    }
+
+    @Benchmark
+    public Writer renderNoteListStreamed() {
+        Writer writer = new NullWriter();
+        streamContext.setVariable("notes", notes.iterator());
+        templateEngine.process("notes/list", streamContext, writer);
+        return writer;
+    }
+
+    /**
+     * Writer discarding the characters written, standing for the response of the client.
+     */
+    private static final class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            // Characters discarded
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.mediscreen.note.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mediscreen.note.domain.Note;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the Jackson serialization of patient histories of several sizes, as done by the JSON endpoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteSerializationBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    private int nbNotes;
+
+    private ObjectWriter historyWriter;
+
+    private List<Note> patientHistory;
+
+    @Setup
+    public void setup() {
+        // Same defaults as the ObjectMapper configured by Spring Boot
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        historyWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, Note.class));
+        patientHistory = BenchmarkData.patientHistory(1L, nbNotes);
+    }
+
+    @Benchmark
+    public byte[] serializePatientHistory() throws JsonProcessingException {
+        return historyWriter.writeValueAsBytes(patientHistory);
+    }
+}
@@ -0,0 +1,98 @@
+package com.mediscreen.note.benchmark;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.service.NoteServiceImpl;
+import com.mediscreen.note.service.PatientDirectoryImpl;
+import com.mediscreen.note.service.PatientHistoryInvalidatorImpl;
+import com.mediscreen.note.service.PatientHistoryResponseCacheImpl;
+import com.mediscreen.note.service.PatientIdAllocatorImpl;
+import com.mediscreen.note.service.TriggerTermMatcher;
+import com.mediscreen.note.service.TriggerTermRollupServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cache.support.NoOpCacheManager;
+
+import javax.validation.Validation;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the NoteServiceImpl lookups and creation, against in-memory repository stand-ins.
+ * They measure the cost of the service layer itself, without the database round-trips.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NoteServiceBenchmark {
+
+    private static final int NB_PATIENTS = 500;
+
+    @Param({"1", "10", "100"})
+    private int nbNotesPerPatient;
+
+    private NoteServiceImpl noteService;
+
+    @Setup
+    public void setup() {
+        PatientIdAllocatorImpl patientIdAllocator = new PatientIdAllocatorImpl(BenchmarkData.sequenceRepository(), BenchmarkData.noteRepositoryCustom(NB_PATIENTS), 20L);
+        PatientDirectoryImpl patientDirectory = new PatientDirectoryImpl(BenchmarkData.patientIdentityRepository(NB_PATIENTS), BenchmarkData.noteRepositoryCustom(NB_PATIENTS),
+                patientIdAllocator, false);
+        patientDirectory.load();
+        noteService = new NoteServiceImpl(
+                BenchmarkData.noteRepository(NB_PATIENTS, nbNotesPerPatient),
+                BenchmarkData.noteRepositoryCustom(NB_PATIENTS),
+                patientIdAllocator,
+                new PatientHistoryInvalidatorImpl(new NoOpCacheManager(),
+                        new PatientHistoryResponseCacheImpl(100000L, 64L * 1024L * 1024L, new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class))),
+                new TriggerTermRollupServiceImpl(BenchmarkData.triggerTermRollupRepository(), BenchmarkData.noteRepositoryCustom(NB_PATIENTS),
+                        new TriggerTermMatcher(Arrays.asList(BenchmarkData.TRIGGER_TERMS)), 1, false),
+                patientDirectory,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                BenchmarkData.readPreferenceRouter());
+    }
+
+    @Benchmark
+    public PatientIdentity findPatientIdentityById() {
+        return noteService.findPatientIdentityById(randomPatientId());
+    }
+
+    @Benchmark
+    public PatientIdentity getOrCreatePatientIdentity() {
+        long patientId = randomPatientId();
+        return noteService.getOrCreatePatientIdentity("PatientLastName" + patientId, "PatientFirstName" + patientId);
+    }
+
+    @Benchmark
+    public List<Note> findNotesByPatientId() {
+        return noteService.findNotesByPatientId(randomPatientId());
+    }
+
+    @Benchmark
+    public List<Note> findNotesByPatientLastNameAndFirstName() {
+        long patientId = randomPatientId();
+        return noteService.findNotesByPatientLastNameAndFirstName("PatientLastName" + patientId, "PatientFirstName" + patientId);
+    }
+
+    @Benchmark
+    public Note createNote() {
+        long patientId = randomPatientId();
+        Note note = new Note("PatientLastName" + patientId, "PatientFirstName" + patientId, "NoteText");
+        note.setPatientId(patientId);
+        return noteService.createNote(note);
+    }
+
+    private static long randomPatientId() {
+        return ThreadLocalRandom.current().nextLong(1L, NB_PATIENTS + 1L);
+    }
+}
@@ -0,0 +1,45 @@
+package com.mediscreen.note.benchmark;
+
+import com.mediscreen.note.service.PatientIdAllocatorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the patient id allocation for several block sizes, with one thread and with concurrent threads.
+ * The sequence repository is an in-memory stand-in : the results show the in-process cost and the contention of the allocator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PatientIdAllocatorBenchmark {
+
+    @Param({"1", "20", "100"})
+    private long blockSize;
+
+    private PatientIdAllocatorImpl patientIdAllocator;
+
+    @Setup
+    public void setup() {
+        patientIdAllocator = new PatientIdAllocatorImpl(BenchmarkData.sequenceRepository(), BenchmarkData.noteRepositoryCustom(0L), blockSize);
+    }
+
+    @Benchmark
+    public long nextPatientId() {
+        return patientIdAllocator.nextPatientId();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextPatientIdConcurrent() {
+        return patientIdAllocator.nextPatientId();
+    }
+}
@@ -0,0 +1,156 @@
+package com.mediscreen.note.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Harness measuring the time to the first successful request of the application, started in a new JVM as a new pod would be.
+ * The application jar is started several times with each set of profiles. The time is measured from the start of the JVM
+ * to the first response to the request path with a status below 400, the path being requested every 10 ms.
+ * The database of the profiles must be running (the local MongoDB server for the dev profile).
+ * <p>
+ * Arguments : the application jar, the JSON results file, the number of runs per set of profiles, the request path, then the sets of profiles.
+ */
+public final class StartupTimeHarness {
+
+    private static final long POLL_INTERVAL_MILLIS = 10L;
+
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private StartupTimeHarness() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length < 5) {
+            throw new IllegalArgumentException("Expected arguments : <application jar> <results file> <runs> <request path> <profiles>...");
+        }
+
+        String jar = args[0];
+        File resultsFile = new File(args[1]);
+        int nbRuns = Integer.parseInt(args[2]);
+        String requestPath = args[3];
+        List<String> profileSets = Arrays.asList(args).subList(4, args.length);
+
+        Map<String, List<Long>> startupTimes = new LinkedHashMap<>();
+        for (String profiles : profileSets) {
+            List<Long> times = new ArrayList<>();
+            for (int run = 1; run <= nbRuns; run++) {
+                long time = measureStartup(jar, profiles, requestPath);
+                System.out.printf("Profiles %s, run %d/%d : first successful request after %d ms%n", profiles, run, nbRuns, time);
+                times.add(time);
+            }
+            startupTimes.put(profiles, times);
+        }
+
+        StringBuilder json = new StringBuilder("[\n");
+        for (Map.Entry<String, List<Long>> entry : startupTimes.entrySet()) {
+            List<Long> times = new ArrayList<>(entry.getValue());
+            Collections.sort(times);
+            long median = times.get(times.size() / 2);
+            System.out.printf("Profiles %s : min %d ms, median %d ms, max %d ms%n", entry.getKey(), times.get(0), median, times.get(times.size() - 1));
+            if (json.length() > 2) {
+                json.append(",\n");
+            }
+            json.append(String.format("  {\"profiles\": \"%s\", \"requestPath\": \"%s\", \"minMillis\": %d, \"medianMillis\": %d, \"maxMillis\": %d, \"runsMillis\": %s}",
+                    entry.getKey(), requestPath, times.get(0), median, times.get(times.size() - 1), entry.getValue()));
+        }
+        json.append("\n]\n");
+
+        File resultsDirectory = resultsFile.getAbsoluteFile().getParentFile();
+        if (!resultsDirectory.isDirectory() && !resultsDirectory.mkdirs()) {
+            throw new IOException("Results directory not created : " + resultsDirectory);
+        }
+        Files.write(resultsFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written in " + resultsFile);
+    }
+
+    /**
+     * Start the application in a new JVM and return the time to its first successful response, the application being stopped afterwards.
+     *
+     * @param jar The application jar
+     * @param profiles The active profiles, separated by commas
+     * @param requestPath The path of the request
+     * @return The time from the start of the JVM to the first successful response, in milliseconds
+     */
+    private static long measureStartup(String jar, String profiles, String requestPath) throws IOException, InterruptedException {
+
+        int port = freePort();
+        URL url = new URL("http://localhost:" + port + requestPath);
+        File logFile = File.createTempFile("startup-" + profiles.replace(',', '-') + "-", ".log");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        long start = System.nanoTime();
+        Process application = new ProcessBuilder(java, "-jar", jar, "--spring.profiles.active=" + profiles, "--server.port=" + port)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start();
+
+        try {
+            while (true) {
+                if (isSuccessful(url)) {
+                    long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    Files.delete(logFile.toPath());
+                    return time;
+                }
+                if (!application.isAlive()) {
+                    throw new IllegalStateException("Application stopped before its first successful request, see " + logFile);
+                }
+                if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > STARTUP_TIMEOUT_MILLIS) {
+                    throw new IllegalStateException("No successful request after " + STARTUP_TIMEOUT_MILLIS + " ms, see " + logFile);
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+        } finally {
+            application.destroy();
+            if (!application.waitFor(30, TimeUnit.SECONDS)) {
+                application.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Return whether a request to the application gets a response with a status below 400.
+     *
+     * @param url The URL of the request
+     * @return true if the response status is below 400, false if the status is an error or if the application does not accept connections yet
+     */
+    private static boolean isSuccessful(URL url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout(30000);
+            try {
+                return connection.getResponseCode() < 400;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return a TCP port free on the local host.
+     *
+     * @return The port
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
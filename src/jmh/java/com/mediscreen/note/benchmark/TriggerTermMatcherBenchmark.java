@@ -0,0 +1,48 @@
+package com.mediscreen.note.benchmark;
+
+import com.mediscreen.note.service.TriggerTermMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the extraction of the trigger terms of a note, done for each note written, for several note text lengths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TriggerTermMatcherBenchmark {
+
+    private static final String NOTE_TEXT_PARAGRAPH = "Le patient d\u00e9clare qu'il fume depuis peu. Taille et poids stables, R\u00e9action aux anticorps normale, H\u00e9moglobine A1C \u00e9lev\u00e9e. ";
+
+    @Param({"1", "10", "1000"})
+    private int nbParagraphs;
+
+    private TriggerTermMatcher triggerTermMatcher;
+
+    private String noteText;
+
+    @Setup
+    public void setup() {
+        triggerTermMatcher = new TriggerTermMatcher(Arrays.asList(BenchmarkData.TRIGGER_TERMS));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < nbParagraphs; i++) {
+            text.append(NOTE_TEXT_PARAGRAPH);
+        }
+        noteText = text.toString();
+    }
+
+    @Benchmark
+    public Map<String, Long> countTerms() {
+        return triggerTermMatcher.countTerms(noteText);
+    }
+}
@@ -0,0 +1,25 @@
+package com.mediscreen.note.configuration;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration Class used to enable the patient history caches.
+ * The caches are Caffeine caches bounded in size and time, configured with the "spring.cache.*" properties.
+ * Hit, miss and eviction counters are exposed by the actuator metrics endpoint under the "cache.*" metrics.
+ */
+@EnableCaching
+@Configuration
+public class CacheConfiguration {
+
+    /**
+     * Name of the cache containing the notes of a patient, with the patient id as key.
+     */
+    public static final String NOTES_BY_PATIENT_ID_CACHE = "notesByPatientId";
+
+    /**
+     * Name of the cache containing the notes of a patient, with the patient last name and first name as key.
+     */
+    public static final String NOTES_BY_PATIENT_NAME_CACHE = "notesByPatientName";
+
+}
@@ -0,0 +1,101 @@
+package com.mediscreen.note.configuration;
+
+import com.mediscreen.note.domain.Note;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.repository.init.Jackson2RepositoryPopulatorFactoryBean;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Repository populator loading the notes of json files, only when they are not already loaded.
+ * The checksum of the files is saved in the populatorChecksums collection once they are loaded : the files are not loaded again
+ * while they keep the same checksum and the database contains notes, which avoids reading them and inserting their notes again at each startup.
+ */
+public class ChecksumRepositoryPopulatorFactoryBean extends Jackson2RepositoryPopulatorFactoryBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChecksumRepositoryPopulatorFactoryBean.class);
+
+    static final String CHECKSUMS_COLLECTION = "populatorChecksums";
+
+    private static final String CHECKSUM_FIELD = "checksum";
+
+    private final MongoTemplate mongoTemplate;
+    private final String populatorName;
+
+    private Resource[] resources = new Resource[0];
+    private ApplicationContext applicationContext;
+
+    public ChecksumRepositoryPopulatorFactoryBean(MongoTemplate mongoTemplate, String populatorName) {
+        this.mongoTemplate = mongoTemplate;
+        this.populatorName = populatorName;
+    }
+
+    @Override
+    public void setResources(Resource[] resources) {
+        this.resources = resources.clone();
+        super.setResources(resources);
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+        super.setApplicationContext(applicationContext);
+    }
+
+    /**
+     * Load the json files when the application context is refreshed, unless they are already loaded.
+     *
+     * @param event The event published when the application context is refreshed
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+
+        if (!event.getApplicationContext().equals(applicationContext)) {
+            return;
+        }
+
+        String checksum = checksum();
+
+        Document savedChecksum = mongoTemplate.findById(populatorName, Document.class, CHECKSUMS_COLLECTION);
+        if (savedChecksum != null && checksum.equals(savedChecksum.getString(CHECKSUM_FIELD)) && mongoTemplate.exists(new Query(), Note.class)) {
+            logger.info("Repository population {} skipped : files already loaded with checksum {}", populatorName, checksum);
+            return;
+        }
+
+        super.onApplicationEvent(event);
+
+        mongoTemplate.save(new Document("_id", populatorName).append(CHECKSUM_FIELD, checksum), CHECKSUMS_COLLECTION);
+
+        logger.info("Repository population {} done : files loaded with checksum {}", populatorName, checksum);
+    }
+
+    /**
+     * Return the checksum of the json files, made of the MD5 digest of each file.
+     *
+     * @return The checksum of the json files
+     */
+    String checksum() {
+        StringBuilder checksum = new StringBuilder();
+        for (Resource resource : resources) {
+            try (InputStream inputStream = resource.getInputStream()) {
+                if (checksum.length() > 0) {
+                    checksum.append('-');
+                }
+                checksum.append(DigestUtils.md5DigestAsHex(inputStream));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return checksum.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.mediscreen.note.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration Class used to build the bounded executors running the NoteController endpoints, so that each kind of endpoint has its own threads (bulkheads) :
+ * the JSON endpoints called by the other microservices, the HTML endpoints of the UI, and the streaming exports.
+ * A request arriving when the threads and the queue of its executor are all busy is rejected with a 503 response, without affecting the other executors.
+ * Active threads, pool size and queue depth of each executor are exposed by the actuator metrics endpoint under the "executor.*" metrics, tagged by name.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ExecutorConfiguration implements WebMvcConfigurer {
+
+    /**
+     * Name of the executor running the JSON endpoints.
+     */
+    public static final String JSON_EXECUTOR = "jsonExecutor";
+
+    /**
+     * Name of the executor running the HTML endpoints.
+     */
+    public static final String UI_EXECUTOR = "uiExecutor";
+
+    /**
+     * Name of the executor writing the streamed responses.
+     */
+    public static final String EXPORT_EXECUTOR = "exportExecutor";
+
+    private final ThreadPoolExecutor exportExecutor;
+
+    public ExecutorConfiguration(@Qualifier(EXPORT_EXECUTOR) ThreadPoolExecutor exportExecutor) {
+        this.exportExecutor = exportExecutor;
+    }
+
+    @Bean(JSON_EXECUTOR)
+    public static ThreadPoolExecutor jsonExecutor(@Value("${note.executors.json.pool-size:32}") int poolSize,
+                                                  @Value("${note.executors.json.queue-capacity:200}") int queueCapacity,
+                                                  ObjectProvider<MeterRegistry> meterRegistry) {
+        return boundedExecutor("json", poolSize, queueCapacity, meterRegistry);
+    }
+
+    @Bean(UI_EXECUTOR)
+    public static ThreadPoolExecutor uiExecutor(@Value("${note.executors.ui.pool-size:8}") int poolSize,
+                                                @Value("${note.executors.ui.queue-capacity:50}") int queueCapacity,
+                                                ObjectProvider<MeterRegistry> meterRegistry) {
+        return boundedExecutor("ui", poolSize, queueCapacity, meterRegistry);
+    }
+
+    @Bean(EXPORT_EXECUTOR)
+    public static ThreadPoolExecutor exportExecutor(@Value("${note.executors.export.pool-size:4}") int poolSize,
+                                                    @Value("${note.executors.export.queue-capacity:10}") int queueCapacity,
+                                                    ObjectProvider<MeterRegistry> meterRegistry) {
+        return boundedExecutor("export", poolSize, queueCapacity, meterRegistry);
+    }
+
+    /**
+     * Write the StreamingResponseBody responses with the export executor, instead of a new thread per response.
+     *
+     * @param configurer The configurer of the asynchronous request processing
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new ConcurrentTaskExecutor(exportExecutor));
+    }
+
+    /**
+     * Build an executor with a fixed number of threads and a bounded queue, rejecting the tasks when both are full.
+     *
+     * @param name The name of the executor, prefixing its thread names and tagging its metrics
+     * @param poolSize The number of threads
+     * @param queueCapacity The maximum number of tasks waiting for a thread
+     * @param meterRegistry The registry of the executor metrics, if any
+     * @return The executor
+     */
+    private static ThreadPoolExecutor boundedExecutor(String name, int poolSize, int queueCapacity, ObjectProvider<MeterRegistry> meterRegistry) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("note-" + name + "-"), new ThreadPoolExecutor.AbortPolicy());
+
+        meterRegistry.ifAvailable(registry -> new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(registry));
+
+        return executor;
+    }
+}
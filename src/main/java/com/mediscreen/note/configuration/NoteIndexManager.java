@@ -0,0 +1,155 @@
+package com.mediscreen.note.configuration;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Component in charge of managing the indexes of the Note and PatientIdentity collections.
+ * The indexes are declared with annotations on the Note and PatientIdentity classes and created in the background when the application starts.
+ * As a HealthIndicator, it reports the application as not ready until all declared indexes exist.
+ */
+@Component
+public class NoteIndexManager implements HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(NoteIndexManager.class);
+
+    private static final String ID_INDEX_NAME = "_id_";
+
+    private static final List<Class<?>> INDEXED_ENTITY_CLASSES = Arrays.asList(Note.class, PatientIdentity.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private volatile boolean indexesReady;
+    private volatile Exception indexesError;
+
+    public NoteIndexManager(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Start the creation of the indexes in a background thread when the application is started.
+     *
+     * @param event The event published when the application is started
+     */
+    @EventListener(ApplicationStartedEvent.class)
+    public void onApplicationStarted(ApplicationStartedEvent event) {
+        Thread indexThread = new Thread(this::ensureIndexes, "note-index-manager");
+        indexThread.setDaemon(true);
+        indexThread.start();
+    }
+
+    /**
+     * Log the drift between the declared and the actual indexes, then create the declared indexes which do not exist yet.
+     */
+    public void ensureIndexes() {
+
+        try {
+            for (Class<?> entityClass : INDEXED_ENTITY_CLASSES) {
+                IndexOperations indexOperations = mongoTemplate.indexOps(entityClass);
+                Map<String, IndexDefinition> declaredIndexes = getDeclaredIndexes(entityClass);
+
+                logIndexesDrift(entityClass, declaredIndexes, indexOperations.getIndexInfo());
+
+                for (IndexDefinition indexDefinition : declaredIndexes.values()) {
+                    indexOperations.ensureIndex(indexDefinition);
+                }
+
+                logger.info("Indexes of the {} collection ready : {}", entityClass.getSimpleName(), declaredIndexes.keySet());
+            }
+
+            indexesReady = true;
+            indexesError = null;
+
+        } catch (Exception e) {
+            indexesError = e;
+            logger.error("Error : indexes of the Note and PatientIdentity collections not created", e);
+        }
+    }
+
+    /**
+     * Report the status of the indexes of the Note and PatientIdentity collections.
+     *
+     * @return UP if all declared indexes exist, DOWN if their creation failed, OUT_OF_SERVICE while they are being created
+     */
+    @Override
+    public Health health() {
+        if (indexesReady) {
+            return Health.up().build();
+        }
+        if (indexesError != null) {
+            return Health.down(indexesError).build();
+        }
+        return Health.outOfService().withDetail("reason", "Indexes of the Note and PatientIdentity collections are being created").build();
+    }
+
+    /**
+     * Return the indexes declared on an entity class, by index name.
+     *
+     * @param entityClass The entity class
+     * @return The declared indexes
+     */
+    private Map<String, IndexDefinition> getDeclaredIndexes(Class<?> entityClass) {
+        MongoPersistentEntityIndexResolver indexResolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        Map<String, IndexDefinition> declaredIndexes = new LinkedHashMap<>();
+        for (IndexDefinition indexDefinition : indexResolver.resolveIndexFor(entityClass)) {
+            declaredIndexes.put(indexDefinition.getIndexOptions().getString("name"), indexDefinition);
+        }
+        return declaredIndexes;
+    }
+
+    /**
+     * Log the declared indexes which are missing or have different keys, and the existing indexes which are not declared.
+     *
+     * @param entityClass The entity class
+     * @param declaredIndexes The declared indexes, by index name
+     * @param actualIndexes The indexes existing in the database
+     */
+    private void logIndexesDrift(Class<?> entityClass, Map<String, IndexDefinition> declaredIndexes, List<IndexInfo> actualIndexes) {
+
+        List<String> actualIndexNames = new ArrayList<>();
+
+        for (IndexInfo indexInfo : actualIndexes) {
+            actualIndexNames.add(indexInfo.getName());
+            IndexDefinition indexDefinition = declaredIndexes.get(indexInfo.getName());
+            if (indexDefinition == null) {
+                if (!ID_INDEX_NAME.equals(indexInfo.getName())) {
+                    logger.warn("Index drift : index {} exists in the {} collection but is not declared", indexInfo.getName(), entityClass.getSimpleName());
+                }
+                continue;
+            }
+            List<String> declaredKeys = new ArrayList<>(indexDefinition.getIndexKeys().keySet());
+            List<String> actualKeys = indexInfo.getIndexFields().stream().map(IndexField::getKey).collect(Collectors.toList());
+            if (!declaredKeys.equals(actualKeys)) {
+                logger.warn("Index drift : index {} of the {} collection is declared on {} but exists on {}", indexInfo.getName(), entityClass.getSimpleName(), declaredKeys, actualKeys);
+            }
+        }
+
+        for (Map.Entry<String, IndexDefinition> declaredIndex : declaredIndexes.entrySet()) {
+            if (!actualIndexNames.contains(declaredIndex.getKey())) {
+                Document indexKeys = declaredIndex.getValue().getIndexKeys();
+                logger.warn("Index drift : index {} on {} of the {} collection is declared but missing, it will be created", declaredIndex.getKey(), indexKeys.keySet(), entityClass.getSimpleName());
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.mediscreen.note.configuration;
+
+import com.mediscreen.note.repository.ReadOperation;
+import com.mediscreen.note.repository.ReadPreferenceRouterImpl;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.mongo.MongoProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Configuration Class used to build the database factory of the MongoTemplate, routing the queries of each read operation to the members of the replica set
+ * given by its "note.read-preference.{operation}" property : primary, primaryPreferred, secondary, secondaryPreferred or nearest, primary by default.
+ * The factory replaces the one of the Spring Boot auto-configuration, built from the same client and database.
+ */
+@Configuration
+public class ReadPreferenceConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadPreferenceConfiguration.class);
+
+    @Bean
+    public ReadPreferenceRouterImpl mongoDatabaseFactory(MongoClient mongoClient, MongoProperties mongoProperties, Environment environment) {
+
+        Map<ReadOperation, ReadPreference> readPreferences = new EnumMap<>(ReadOperation.class);
+        for (ReadOperation operation : ReadOperation.values()) {
+            String readPreference = environment.getProperty("note.read-preference." + operation.getPropertyName(), ReadPreference.primary().getName());
+            readPreferences.put(operation, ReadPreference.valueOf(readPreference));
+        }
+
+        logger.info("Read preferences of the read operations : {}", readPreferences);
+
+        return new ReadPreferenceRouterImpl(new SimpleMongoClientDatabaseFactory(mongoClient, mongoProperties.getMongoClientDatabase()), readPreferences);
+    }
+}
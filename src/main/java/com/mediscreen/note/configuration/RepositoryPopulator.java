@@ -5,18 +5,20 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.repository.init.Jackson2RepositoryPopulatorFactoryBean;
 
 /**
  * Configuration Class used to populate the database with initial data contained in a json file.
+ * The file is only loaded when its checksum differs from the one of the last loading, or when the database contains no note.
  */
 @Profile("dev")
 @Configuration
 public class RepositoryPopulator {
 
     @Bean
-    public Jackson2RepositoryPopulatorFactoryBean getRespositoryPopulator() {
-        Jackson2RepositoryPopulatorFactoryBean factory = new Jackson2RepositoryPopulatorFactoryBean();
+    public Jackson2RepositoryPopulatorFactoryBean getRespositoryPopulator(MongoTemplate mongoTemplate) {
+        Jackson2RepositoryPopulatorFactoryBean factory = new ChecksumRepositoryPopulatorFactoryBean(mongoTemplate, "data.json");
         factory.setResources(new Resource[]{new ClassPathResource("data.json")});
         return factory;
     }
@@ -0,0 +1,78 @@
+package com.mediscreen.note.configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerAdapter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ViewResolver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Component in charge of creating, in the background once the application is ready, the beans not created at startup by the fast-startup profile.
+ * With this profile beans are created when first used : the web stack (handler mappings including the Spring Data REST ones, view resolvers
+ * including the Thymeleaf one) is created first so that the first requests do not wait for it, then all the remaining singletons.
+ */
+@Component
+@Lazy(false)
+@Profile("fast-startup")
+public class StartupWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private final ConfigurableListableBeanFactory beanFactory;
+
+    public StartupWarmup(ConfigurableListableBeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * Start the creation of the remaining beans in a background thread when the application is ready.
+     *
+     * @param event The event published when the application is ready
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        Thread warmupThread = new Thread(this::warmUp, "startup-warmup");
+        warmupThread.setDaemon(true);
+        warmupThread.start();
+    }
+
+    /**
+     * Create the web stack beans, then all the remaining singletons.
+     */
+    public void warmUp() {
+
+        long start = System.nanoTime();
+
+        beanFactory.getBeansOfType(HandlerMapping.class);
+        beanFactory.getBeansOfType(HandlerAdapter.class);
+        beanFactory.getBeansOfType(ViewResolver.class);
+
+        logger.info("Startup warm-up : web stack created in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        int nbBeans = 0;
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+            if (!beanDefinition.isSingleton() || beanDefinition.isAbstract()) {
+                continue;
+            }
+            try {
+                beanFactory.getBean(beanName);
+                nbBeans++;
+            } catch (BeansException e) {
+                logger.warn("Startup warm-up : bean {} not created", beanName, e);
+            }
+        }
+
+        logger.info("Startup warm-up : {} singletons created in {} ms", nbBeans, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
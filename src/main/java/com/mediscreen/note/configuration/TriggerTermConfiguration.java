@@ -0,0 +1,20 @@
+package com.mediscreen.note.configuration;
+
+import com.mediscreen.note.service.TriggerTermMatcher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Arrays;
+
+/**
+ * Configuration Class used to build the trigger term matcher from the trigger term dictionary, configured with the "note.trigger-terms" property.
+ */
+@Configuration
+public class TriggerTermConfiguration {
+
+    @Bean
+    public TriggerTermMatcher triggerTermMatcher(@Value("${note.trigger-terms}") String[] triggerTerms) {
+        return new TriggerTermMatcher(Arrays.asList(triggerTerms));
+    }
+}
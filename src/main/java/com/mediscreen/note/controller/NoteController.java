@@ -1,61 +1,220 @@
 package com.mediscreen.note.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mediscreen.note.configuration.ExecutorConfiguration;
+import com.mediscreen.note.domain.BulkItemResult;
 import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePage;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
+import com.mediscreen.note.domain.TriggerTermCountRequest;
 import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.service.INoteIngestionQueue;
 import com.mediscreen.note.service.INoteService;
+import com.mediscreen.note.service.IPatientHistoryResponseCache;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.WebContext;
 
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Controller in charge of managing the endpoints for Note entities.
  */
 @Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class NoteController {
 
     private static final Logger logger = LoggerFactory.getLogger(NoteController.class);
 
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private static final int EXPORT_FLUSH_INTERVAL = 500;
+
+    private static final int LIST_STREAM_FLUSH_INTERVAL = 50;
+
+    private static final MediaType TEXT_HTML_UTF8 = new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8);
+
+    private static final int MAX_PREVIEW_LENGTH = 1000;
+
+    private static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
+    private static final String READ_AFTER_WRITE_COOKIE = "noteReadAfterWrite";
+
     @Value("${patientMicroserviceUrl}")
     private String patientMicroserviceUrl;
 
-    private final INoteService noteService;
+    @Value("${note.history-batch.max-patients:500}")
+    private int maxHistoryBatchSize;
+
+    @Value("${note.trigger-term-counts.max-patients:500}")
+    private int maxTriggerTermCountPatients;
+
+    @Value("${note.trigger-term-counts.max-terms:50}")
+    private int maxTriggerTermCountTerms;
+
+    @Value("${note.read-preference.read-after-write-cookie-max-age-seconds:60}")
+    private int readAfterWriteCookieMaxAge;
 
-    public NoteController(INoteService noteService) {
+    private final INoteService noteService;
+    private final IPatientHistoryResponseCache patientHistoryResponseCache;
+    private final ObjectMapper objectMapper;
+    private final Executor jsonExecutor;
+    private final Executor uiExecutor;
+    private final ITemplateEngine templateEngine;
+    private final INoteIngestionQueue noteIngestionQueue;
+
+    public NoteController(INoteService noteService, IPatientHistoryResponseCache patientHistoryResponseCache, ObjectMapper objectMapper,
+                          @Qualifier(ExecutorConfiguration.JSON_EXECUTOR) Executor jsonExecutor, @Qualifier(ExecutorConfiguration.UI_EXECUTOR) Executor uiExecutor,
+                          ITemplateEngine templateEngine, INoteIngestionQueue noteIngestionQueue) {
         this.noteService = noteService;
+        this.patientHistoryResponseCache = patientHistoryResponseCache;
+        this.objectMapper = objectMapper;
+        this.jsonExecutor = jsonExecutor;
+        this.uiExecutor = uiExecutor;
+        this.templateEngine = templateEngine;
+        this.noteIngestionQueue = noteIngestionQueue;
     }
 
     /**
-     * Method managing the GET "/notes/list" endpoint HTTP request to get the list of all notes, in HTML format.
+     * Method managing the GET "/notes/list" endpoint HTTP request to get a page of notes, in HTML format.
+     * Pages are ordered by note id and navigated with the cursors of the next and previous pages.
+     * After a note is added or updated with a HTML form, the page is read causally consistent with the write given by the read-after-write cookie.
      *
-     * @param model The Model containing the list of all notes
-     * @return The name of the View
+     * @param after The id of the note after which the page starts, or null for the first page
+     * @param before The id of the note before which the page ends, or null
+     * @param size The maximum number of notes in the page
+     * @param readAfterWriteToken The read-after-write token of the last note added or updated by the user, or null
+     * @param model The Model containing the page of notes
+     * @return The name of the View, completed by the UI executor
      */
     @GetMapping("/notes/list")
-    public String getNotes(Model model) {
+    public CompletableFuture<String> getNotes(@RequestParam(value = "after", required = false) String after, @RequestParam(value = "before", required = false) String before, @RequestParam(value = "size", defaultValue = "20") int size,
+                                              @CookieValue(value = READ_AFTER_WRITE_COOKIE, required = false) String readAfterWriteToken, Model model) {
+
+        logger.info("Request : GET /notes/list with after = {} & before = {} & size = {}", after, before, size);
+
+        // The cursors come from the query string : a malformed one is rejected before it reaches the query
+        if ((after != null && !ObjectId.isValid(after)) || (before != null && !ObjectId.isValid(before))) {
+            logger.error("Error in page cursors : after = {} & before = {} are not note ids", after, before);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Page cursors must be note ids");
+        }
+
+        int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
 
-        logger.info("Request : GET /notes/list");
+        return CompletableFuture.supplyAsync(() -> {
+            NotePage page = noteService.findNotesPage(after, before, pageSize, readAfterWriteToken);
+            model.addAttribute("notes", page.getNotes());
+            model.addAttribute("page", page);
+            model.addAttribute("size", pageSize);
 
-        List<Note> notes = noteService.findAllNotes();
-        model.addAttribute("notes", notes);
+            logger.info("Success : notes found, returning 'notes/list' view");
 
-        logger.info("Success : notes found, returning 'notes/list' view");
+            return "notes/list";
+        }, uiExecutor);
+    }
+
+    /**
+     * Method managing the GET "/notes/list/stream" endpoint HTTP request to get all notes, or the notes of a range of patient ids, in HTML format.
+     * The notes/list view is rendered while the notes are read with a database cursor : rows are sent to the client in chunks as they are read,
+     * so the time to the first byte and the memory used do not depend on the number of notes.
+     *
+     * @param fromPatientId The lowest patient id of the notes to list (inclusive), or null
+     * @param toPatientId The highest patient id of the notes to list (inclusive), or null
+     * @param request The HTTP request
+     * @param response The HTTP response
+     * @return A ResponseEntity object containing the streamed view and the HTTP status code
+     */
+    @GetMapping("/notes/list/stream")
+    public ResponseEntity<StreamingResponseBody> getNotesStream(@RequestParam(value = "fromPatientId", required = false) Long fromPatientId, @RequestParam(value = "toPatientId", required = false) Long toPatientId,
+                                                                HttpServletRequest request, HttpServletResponse response) {
+
+        logger.info("Request : GET /notes/list/stream with from patient id = {} & to patient id = {}", fromPatientId, toPatientId);
+
+        Locale locale = LocaleContextHolder.getLocale();
+
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            try (CloseableIterator<Note> notes = noteService.streamNotes(fromPatientId, toPatientId)) {
+                long[] nbNotesRendered = {0L};
+                WebContext context = new WebContext(request, response, request.getServletContext(), locale);
+                // The rows are rendered while the template iterates over the cursor : regular flushes hand the rendered rows to the client
+                context.setVariable("notes", new Iterator<Note>() {
+                    @Override
+                    public boolean hasNext() {
+                        return notes.hasNext();
+                    }
+
+                    @Override
+                    public Note next() {
+                        if (nbNotesRendered[0]++ % LIST_STREAM_FLUSH_INTERVAL == 0) {
+                            try {
+                                writer.flush();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                        return notes.next();
+                    }
+                });
+                templateEngine.process("notes/list", context, writer);
+                writer.flush();
+                logger.info("Success : {} notes listed", nbNotesRendered[0]);
+            }
+        };
 
-        return "notes/list";
+        return ResponseEntity.ok().contentType(TEXT_HTML_UTF8).body(body);
     }
 
     /**
@@ -63,19 +222,21 @@ public class NoteController {
      *
      * @param id The id of the note to get
      * @param model The Model containing the note to get
-     * @return The name of the View
+     * @return The name of the View, completed by the UI executor
      */
     @GetMapping("/notes/{id}")
-    public String getNoteById(@PathVariable("id") String id, Model model) {
+    public CompletableFuture<String> getNoteById(@PathVariable("id") String id, Model model) {
 
         logger.info("Request : GET /notes/{}", id);
 
-        Note note = noteService.findNoteById(id);
-        model.addAttribute("notes", note);
+        return CompletableFuture.supplyAsync(() -> {
+            Note note = noteService.findNoteById(id);
+            model.addAttribute("notes", note);
 
-        logger.info("Success : note with id {} found, returning '/notes/list' view", id);
+            logger.info("Success : note with id {} found, returning '/notes/list' view", id);
 
-        return "notes/list";
+            return "notes/list";
+        }, uiExecutor);
     }
 
     /**
@@ -84,57 +245,290 @@ public class NoteController {
      * @param patientLastName The last name of the patient to get the notes
      * @param patientFirstName The first name of the patient to get the notes
      * @param model The Model containing the notes
-     * @return The name of the View
+     * @return The name of the View, completed by the UI executor
      */
     @GetMapping("/patHistoryByPatientLastNameAndFirstName")
-    public String getPatientHistoryByPatientLastNameAndFirstName(@RequestParam("lastName") String patientLastName, @RequestParam("firstName") String patientFirstName, Model model) {
+    public CompletableFuture<String> getPatientHistoryByPatientLastNameAndFirstName(@RequestParam("lastName") String patientLastName, @RequestParam("firstName") String patientFirstName, Model model) {
 
         logger.info("Request : GET /patHistoryByPatientLastNameAndFirstName with patient last name = {} & first name = {}", patientLastName, patientFirstName);
 
-        List<Note> notes = noteService.findNotesByPatientLastNameAndFirstName(patientLastName, patientFirstName);
-        model.addAttribute("notes", notes);
+        return CompletableFuture.supplyAsync(() -> {
+            List<Note> notes = noteService.findNotesByPatientLastNameAndFirstName(patientLastName, patientFirstName);
+            model.addAttribute("notes", notes);
 
-        logger.info("Success : notes for patient with patient last name {} and first name {} found, returning '/notes/list' view", patientLastName, patientFirstName);
+            logger.info("Success : notes for patient with patient last name {} and first name {} found, returning '/notes/list' view", patientLastName, patientFirstName);
 
-        return "notes/list";
+            return "notes/list";
+        }, uiExecutor);
     }
 
     /**
      * Method managing the GET "/patHistoryByFamilyAndGiven" endpoint HTTP request to get notes for a patient given its last name and first name, in JSON format.
+     * The response has an entity tag changing when a note of the patient is written : a request whose If-None-Match header matches it gets a 304 response,
+     * without reading the notes. The serialized notes are cached for the current entity tag.
      *
      * @param patientLastName The last name of the patient to get the notes
      * @param patientFirstName The first name of the patient to get the notes
-     * @return The name of the View
+     * @param request The request, giving the entity tag known by the client
+     * @return A ResponseEntity object containing the serialized list of notes and the HTTP status code, completed by the JSON executor
      */
     @GetMapping("/patHistoryByFamilyAndGiven")
-    public ResponseEntity<List<Note>> getPatientHistoryByFamilyAndGiven(@RequestParam("family") String patientLastName, @RequestParam("given") String patientFirstName) {
+    public CompletableFuture<ResponseEntity<byte[]>> getPatientHistoryByFamilyAndGiven(@RequestParam("family") String patientLastName, @RequestParam("given") String patientFirstName, WebRequest request) {
 
         logger.info("Request : GET /patHistoryByFamilyAndGiven with patient family = {} & given = {}", patientLastName, patientFirstName);
 
-        List<Note> notes = noteService.findNotesByPatientLastNameAndFirstName(patientLastName, patientFirstName);
+        String eTag = patientHistoryResponseCache.getETagByPatientName(patientLastName, patientFirstName);
+        if (request.checkNotModified(eTag)) {
+            logger.info("Success : notes for patient with patient family {} and given {} not modified", patientLastName, patientFirstName);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).<byte[]>build());
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] notes = patientHistoryResponseCache.getResponseByPatientName(patientLastName, patientFirstName, eTag,
+                    () -> serialize(noteService.findNotesByPatientLastNameAndFirstName(patientLastName, patientFirstName)));
 
-        logger.info("Success : notes for patient with patient family {} and given {} found", patientLastName, patientFirstName);
+            logger.info("Success : notes for patient with patient family {} and given {} found", patientLastName, patientFirstName);
 
-        return new ResponseEntity<>(notes, HttpStatus.OK);
+            return ResponseEntity.status(HttpStatus.OK).eTag(eTag).cacheControl(CacheControl.noCache()).contentType(MediaType.APPLICATION_JSON).body(notes);
+        }, jsonExecutor);
     }
 
     /**
      * Method managing the GET "/patHistoryByPatientId" endpoint HTTP request to get notes for a patient given its id, in JSON format.
+     * The response has an entity tag changing when a note of the patient is written : a request whose If-None-Match header matches it gets a 304 response,
+     * without reading the notes. The serialized notes are cached for the current entity tag.
      *
      * @param patientId The id of the patient to get the notes
-     * @param model The Model containing the notes
-     * @return A ResponseEntity object containing the list of notes and the HTTP status code
+     * @param request The request, giving the entity tag known by the client
+     * @return A ResponseEntity object containing the serialized list of notes and the HTTP status code, completed by the JSON executor
      */
     @GetMapping("/patHistoryByPatientId")
-    public ResponseEntity<List<Note>> getPatientHistoryByPatientId(@RequestParam("patId") long patientId, Model model) {
+    public CompletableFuture<ResponseEntity<byte[]>> getPatientHistoryByPatientId(@RequestParam("patId") long patientId, WebRequest request) {
 
         logger.info("Request : GET /patHistoryByPatientId with patient id = {}", patientId);
 
-        List<Note> notes = noteService.findNotesByPatientId(patientId);
+        String eTag = patientHistoryResponseCache.getETagByPatientId(patientId);
+        if (request.checkNotModified(eTag)) {
+            logger.info("Success : notes for patient with patient id {} not modified", patientId);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).<byte[]>build());
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] notes = patientHistoryResponseCache.getResponseByPatientId(patientId, eTag, () -> serialize(noteService.findNotesByPatientId(patientId)));
+
+            logger.info("Success : notes for patient with patient id {} found", patientId);
+
+            return ResponseEntity.status(HttpStatus.FOUND).eTag(eTag).cacheControl(CacheControl.noCache()).contentType(MediaType.APPLICATION_JSON).body(notes);
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the GET "/patHistorySummaryByPatientId" endpoint HTTP request to get the summaries of the notes for a patient given its id, in JSON format.
+     * Summaries only contain the note ids, the patient identity and a preview of the note texts.
+     *
+     * @param patientId The id of the patient to get the note summaries
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return A ResponseEntity object containing the list of note summaries and the HTTP status code, completed by the JSON executor
+     */
+    @GetMapping("/patHistorySummaryByPatientId")
+    public CompletableFuture<ResponseEntity<List<NoteSummary>>> getPatientHistorySummaryByPatientId(@RequestParam("patId") long patientId, @RequestParam(value = "previewLength", defaultValue = "100") int previewLength) {
 
-        logger.info("Success : notes for patient with patient id {} found", patientId);
+        logger.info("Request : GET /patHistorySummaryByPatientId with patient id = {} & preview length = {}", patientId, previewLength);
 
-        return new ResponseEntity<>(notes, HttpStatus.FOUND);
+        return CompletableFuture.supplyAsync(() -> {
+            List<NoteSummary> noteSummaries = noteService.findNoteSummariesByPatientId(patientId, Math.min(Math.max(previewLength, 0), MAX_PREVIEW_LENGTH));
+
+            logger.info("Success : note summaries for patient with patient id {} found", patientId);
+
+            return new ResponseEntity<>(noteSummaries, HttpStatus.OK);
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the GET "/patHistorySummaryByFamilyAndGiven" endpoint HTTP request to get the summaries of the notes for a patient given its last name and first name, in JSON format.
+     * Summaries only contain the note ids, the patient identity and a preview of the note texts.
+     *
+     * @param patientLastName The last name of the patient to get the note summaries
+     * @param patientFirstName The first name of the patient to get the note summaries
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return A ResponseEntity object containing the list of note summaries and the HTTP status code, completed by the JSON executor
+     */
+    @GetMapping("/patHistorySummaryByFamilyAndGiven")
+    public CompletableFuture<ResponseEntity<List<NoteSummary>>> getPatientHistorySummaryByFamilyAndGiven(@RequestParam("family") String patientLastName, @RequestParam("given") String patientFirstName, @RequestParam(value = "previewLength", defaultValue = "100") int previewLength) {
+
+        logger.info("Request : GET /patHistorySummaryByFamilyAndGiven with patient family = {} & given = {} & preview length = {}", patientLastName, patientFirstName, previewLength);
+
+        return CompletableFuture.supplyAsync(() -> {
+            List<NoteSummary> noteSummaries = noteService.findNoteSummariesByPatientLastNameAndFirstName(patientLastName, patientFirstName, Math.min(Math.max(previewLength, 0), MAX_PREVIEW_LENGTH));
+
+            logger.info("Success : note summaries for patient with patient family {} and given {} found", patientLastName, patientFirstName);
+
+            return new ResponseEntity<>(noteSummaries, HttpStatus.OK);
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the GET "/patHistoryTriggerTermCountsByPatientId" endpoint HTTP request to count trigger terms in the notes of a patient given its id, in JSON format.
+     * Terms are counted case and accent insensitively by the database, no note text being returned.
+     * A blank term, which would match at every position of the notes, is rejected with a 400 response.
+     *
+     * @param patientId The id of the patient
+     * @param terms The trigger terms to count, at most "note.trigger-term-counts.max-terms"
+     * @return A ResponseEntity object containing the trigger term counts and the HTTP status code, completed by the JSON executor
+     */
+    @GetMapping("/patHistoryTriggerTermCountsByPatientId")
+    public CompletableFuture<ResponseEntity<TriggerTermCount>> getTriggerTermCountsByPatientId(@RequestParam("patId") long patientId, @RequestParam("terms") List<String> terms) {
+
+        logger.info("Request : GET /patHistoryTriggerTermCountsByPatientId with patient id = {} & {} terms", patientId, terms.size());
+
+        checkTriggerTerms(terms);
+
+        return CompletableFuture.supplyAsync(() -> {
+            TriggerTermCount triggerTermCount = noteService.countTriggerTermsByPatientId(patientId, terms);
+
+            logger.info("Success : trigger terms counted for patient with patient id {}", patientId);
+
+            return new ResponseEntity<>(triggerTermCount, HttpStatus.OK);
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the GET "/patHistoryTriggerTermRollupByPatientId" endpoint HTTP request to get the counts of the configured trigger terms in the notes of a patient given its id, in JSON format.
+     * The counts are read from the rollup of the patient, maintained when its notes are written.
+     *
+     * @param patientId The id of the patient
+     * @return A ResponseEntity object containing the trigger term counts and the HTTP status code, completed by the JSON executor
+     */
+    @GetMapping("/patHistoryTriggerTermRollupByPatientId")
+    public CompletableFuture<ResponseEntity<TriggerTermCount>> getTriggerTermRollupByPatientId(@RequestParam("patId") long patientId) {
+
+        logger.info("Request : GET /patHistoryTriggerTermRollupByPatientId with patient id = {}", patientId);
+
+        return CompletableFuture.supplyAsync(() -> {
+            TriggerTermCount triggerTermCount = noteService.getTriggerTermRollupByPatientId(patientId);
+
+            logger.info("Success : trigger term rollup for patient with patient id {} found", patientId);
+
+            return new ResponseEntity<>(triggerTermCount, HttpStatus.OK);
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the POST "/patHistory/triggerTermCounts" endpoint HTTP request to count trigger terms in the notes of a batch of patients, in JSON format.
+     * Terms are counted case and accent insensitively by the database, no note text being returned.
+     *
+     * @param triggerTermCountRequest The request containing the ids of the patients and the trigger terms to count,
+     *                                at most "note.trigger-term-counts.max-patients" patient ids and "note.trigger-term-counts.max-terms" terms
+     * @return A ResponseEntity object containing the trigger term counts of each patient having notes and the HTTP status code, completed by the JSON executor
+     */
+    @PostMapping(value = "/patHistory/triggerTermCounts", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<List<TriggerTermCount>>> getTriggerTermCounts(@Valid @RequestBody TriggerTermCountRequest triggerTermCountRequest) {
+
+        logger.info("Request : POST /patHistory/triggerTermCounts with {} patient ids & {} terms", triggerTermCountRequest.getPatientIds().size(), triggerTermCountRequest.getTerms().size());
+
+        if (triggerTermCountRequest.getPatientIds().size() > maxTriggerTermCountPatients) {
+            logger.error("Error in patient ids : at most {} patient ids expected, {} given", maxTriggerTermCountPatients, triggerTermCountRequest.getPatientIds().size());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxTriggerTermCountPatients + " patient ids expected");
+        }
+        checkTriggerTerms(triggerTermCountRequest.getTerms());
+
+        return CompletableFuture.supplyAsync(() -> {
+            List<TriggerTermCount> triggerTermCounts = noteService.countTriggerTerms(triggerTermCountRequest.getPatientIds(), triggerTermCountRequest.getTerms());
+
+            logger.info("Success : trigger terms counted for {} patients", triggerTermCounts.size());
+
+            return new ResponseEntity<>(triggerTermCounts, HttpStatus.OK);
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the GET "/notes/export" endpoint HTTP request to export all notes, or the notes of a range of patient ids, in NDJSON format.
+     * Notes are read with a database cursor and written one per line as they are read, so the memory used does not depend on the number of notes.
+     *
+     * @param fromPatientId The lowest patient id of the notes to export (inclusive), or null
+     * @param toPatientId The highest patient id of the notes to export (inclusive), or null
+     * @return A ResponseEntity object containing the streamed notes and the HTTP status code
+     */
+    @GetMapping("/notes/export")
+    public ResponseEntity<StreamingResponseBody> exportNotes(@RequestParam(value = "fromPatientId", required = false) Long fromPatientId, @RequestParam(value = "toPatientId", required = false) Long toPatientId) {
+
+        logger.info("Request : GET /notes/export with from patient id = {} & to patient id = {}", fromPatientId, toPatientId);
+
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                long[] nbNotesWritten = {0L};
+                long nbNotes = noteService.exportNotes(fromPatientId, toPatientId, note -> {
+                    try {
+                        generator.writeObject(note);
+                        generator.writeRaw('\n');
+                        // Regular flushes hand the notes to the client : a slow client blocks the writes and so the reading of the cursor
+                        if (++nbNotesWritten[0] % EXPORT_FLUSH_INTERVAL == 0) {
+                            generator.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                logger.info("Success : {} notes exported", nbNotes);
+            }
+        };
+
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Method managing the POST "/patHistory/byPatientIds" endpoint HTTP request to get the notes of a batch of patients given their ids, in JSON format.
+     * Notes are read with one query ordered by patient id, and written grouped by patient id as they are read : {"1":[notes],"2":[notes]}.
+     * Patients without notes are not in the response.
+     *
+     * @param patientIds The ids of the patients, at most "note.history-batch.max-patients"
+     * @return A ResponseEntity object containing the streamed notes grouped by patient id and the HTTP status code
+     */
+    @PostMapping(value = "/patHistory/byPatientIds", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getPatientHistoriesByPatientIds(@RequestBody List<Long> patientIds) {
+
+        logger.info("Request : POST /patHistory/byPatientIds with {} patient ids", patientIds.size());
+
+        Set<Long> distinctPatientIds = new LinkedHashSet<>(patientIds);
+        distinctPatientIds.remove(null);
+        if (distinctPatientIds.isEmpty() || distinctPatientIds.size() > maxHistoryBatchSize) {
+            logger.error("Error in patient ids : between 1 and {} patient ids expected, {} given", maxHistoryBatchSize, distinctPatientIds.size());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Between 1 and " + maxHistoryBatchSize + " patient ids expected");
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartObject();
+                long[] nbNotesWritten = {0L};
+                Long[] currentPatientId = {null};
+                long nbNotes = noteService.exportPatientHistories(distinctPatientIds, note -> {
+                    try {
+                        // Notes are ordered by patient id -> a new patient id closes the notes of the previous patient
+                        if (currentPatientId[0] == null || currentPatientId[0] != note.getPatientId()) {
+                            if (currentPatientId[0] != null) {
+                                generator.writeEndArray();
+                            }
+                            currentPatientId[0] = note.getPatientId();
+                            generator.writeArrayFieldStart(String.valueOf(note.getPatientId()));
+                        }
+                        generator.writeObject(note);
+                        if (++nbNotesWritten[0] % EXPORT_FLUSH_INTERVAL == 0) {
+                            generator.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (currentPatientId[0] != null) {
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+                logger.info("Success : {} notes found for {} patients", nbNotes, distinctPatientIds.size());
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     /**
@@ -142,19 +536,21 @@ public class NoteController {
      *
      * @param id The id of the note to update
      * @param model The Model containing the note to update
-     * @return The name of the View
+     * @return The name of the View, completed by the UI executor
      */
     @GetMapping("/notes/updateform/{id}")
-    public String showNoteUpdateForm(@PathVariable("id") String id, Model model) {
+    public CompletableFuture<String> showNoteUpdateForm(@PathVariable("id") String id, Model model) {
 
         logger.info("Request : GET /notes/updateform/{}", id);
 
-        Note note = noteService.findNoteById(id);
-        model.addAttribute("note", note);
+        return CompletableFuture.supplyAsync(() -> {
+            Note note = noteService.findNoteById(id);
+            model.addAttribute("note", note);
 
-        logger.info("Success : note with id {} to update found, returning '/notes/updateform' view", id);
+            logger.info("Success : note with id {} to update found, returning '/notes/updateform' view", id);
 
-        return "notes/updateform";
+            return "notes/updateform";
+        }, uiExecutor);
     }
 
     /**
@@ -162,10 +558,11 @@ public class NoteController {
      *
      * @param note The note to update
      * @param result The BindingResult containing the result of the fields validation
-     * @return The name of the View
+     * @param response The HTTP response, holding the read-after-write cookie of the update
+     * @return The name of the View, completed by the UI executor
      */
     @PostMapping("/notes/updateform/{id}")
-    public String updateNoteForm(@Valid Note note, BindingResult result) {
+    public CompletableFuture<String> updateNoteForm(@Valid Note note, BindingResult result, HttpServletResponse response) {
 
         logger.info("Request : POST /notes/updateform/{}", note.getId());
 
@@ -173,14 +570,17 @@ public class NoteController {
 
             logger.error("Error in fields validation : note with id {} not updated, returning '/notes/update' view", note.getId());
 
-            return "notes/updateform";
+            return CompletableFuture.completedFuture("notes/updateform");
         }
 
-        noteService.updateNote(note);
+        return CompletableFuture.supplyAsync(() -> {
+            noteService.updateNote(note);
+            addReadAfterWriteCookie(response);
 
-        logger.info("Success : note with id {} updated, redirect to '/notes/list'", note.getId());
+            logger.info("Success : note with id {} updated, redirect to '/notes/list'", note.getId());
 
-        return "redirect:/notes/list";
+            return "redirect:/notes/list";
+        }, uiExecutor);
     }
 
     /**
@@ -203,70 +603,84 @@ public class NoteController {
      *
      * @param note The note to add
      * @param result The BindingResult containing the result of the fields validation
-     * @return The name of the View
+     * @param response The HTTP response, holding the read-after-write cookie of the creation
+     * @return The name of the View, completed by the UI executor
      */
     @PostMapping("/notes/validateform")
-    public String validateNoteForm(@Valid Note note, BindingResult result) {
+    public CompletableFuture<String> validateNoteForm(@Valid Note note, BindingResult result, HttpServletResponse response) {
 
         logger.info("Request : POST /notes/validateform");
 
         if (!result.hasErrors()) {
 
-            List<Note> notes = noteService.findNotesByPatientLastNameAndFirstName(note.getPatientLastName(), note.getPatientFirstName());
+            return CompletableFuture.supplyAsync(() -> {
+                // Patient is already existing -> we get its id from the patient directory, else a new id is allocated
+                PatientIdentity identity = noteService.getOrCreatePatientIdentity(note.getPatientLastName(), note.getPatientFirstName());
+                note.setPatientId(identity.getPatientId());
 
-            if (notes.isEmpty()) {
-                // New patient for Notes -> we put its id at the max id in the database +1
-                note.setPatientId(noteService.getMaxPatientId()+1L);
-            } else {
-                // Patient is already existing -> we get its id from notes
-                note.setPatientId(notes.get(0).getPatientId());
-            }
-
-            noteService.createNote(note);
+                noteService.createNote(note);
+                addReadAfterWriteCookie(response);
 
-            logger.info("Success : new note created, redirect to '/notes/list' view");
+                logger.info("Success : new note created, redirect to '/notes/list' view");
 
-            return "redirect:/notes/list";
+                return "redirect:/notes/list";
+            }, uiExecutor);
         }
 
         logger.error("Error in fields validation : new note not created, returning '/notes/addform' view");
 
-        return "notes/addform";
+        return CompletableFuture.completedFuture("notes/addform");
     }
 
     /**
      * Method managing the POST "/patHistory/add" endpoint HTTP request to add a patient based on its id and using a command line HTTP client and parameters in the URL request.
+     * When the ingestion queue is enabled, the note is accepted once appended to the ingestion log, and inserted later in bulk.
      *
      * @param patId The id of the patient
      * @param note The note to add to the patient history
-     * @return A ResponseEntity containing the location of the note created and the HTTP status code
+     * @return A ResponseEntity containing the location of the note created (201) or accepted (202) and the HTTP status code, completed by the JSON executor
      */
     @PostMapping("/patHistory/add")
-    public ResponseEntity<Note> addNoteByPatientId(@RequestParam long patId, @RequestParam String note) {
+    public CompletableFuture<ResponseEntity<Note>> addNoteByPatientId(@RequestParam long patId, @RequestParam String note) {
 
         logger.info("Request : POST /patHistory/add");
 
-        Note noteToAdd = new Note();
+        // The current request is only known by the request thread
+        ServletUriComponentsBuilder locationBuilder = ServletUriComponentsBuilder.fromCurrentRequestUri();
 
-        try {
-            List<Note> notes = noteService.findNotesByPatientId(patId);
-            // Patient is already existing -> we get its id, last name and first name
-            noteToAdd.setPatientId(patId);
-            noteToAdd.setPatientLastName(notes.get(0).getPatientLastName());
-            noteToAdd.setPatientFirstName(notes.get(0).getPatientFirstName());
-            noteToAdd.setNoteText(note);
-            noteService.createNote(noteToAdd);
+        return CompletableFuture.supplyAsync(() -> {
+            Note noteToAdd = new Note();
 
-        } catch (ResourceNotFoundException e) {
-            throw new ResourceNotFoundException(patId);
-        }
+            try {
+                PatientIdentity identity = noteService.findPatientIdentityById(patId);
+                // Patient is already existing -> we get its id, last name and first name
+                noteToAdd.setPatientId(patId);
+                noteToAdd.setPatientLastName(identity.getPatientLastName());
+                noteToAdd.setPatientFirstName(identity.getPatientFirstName());
+                noteToAdd.setNoteText(note);
+
+            } catch (ResourceNotFoundException e) {
+                throw new ResourceNotFoundException(patId);
+            }
+
+            if (noteIngestionQueue.isEnabled()) {
+                noteIngestionQueue.append(noteToAdd);
+
+                logger.info("Success : new note accepted");
 
-        logger.info("Success : new note created");
+                URI location = locationBuilder.path("/{id}").buildAndExpand(noteToAdd.getId()).toUri();
 
-        URI location = ServletUriComponentsBuilder.fromCurrentRequestUri().path("/{id}")
-                .buildAndExpand(noteToAdd.getId()).toUri();
+                return ResponseEntity.accepted().location(location).<Note>build();
+            }
+
+            noteService.createNote(noteToAdd);
 
-        return ResponseEntity.created(location).build();
+            logger.info("Success : new note created");
+
+            URI location = locationBuilder.path("/{id}").buildAndExpand(noteToAdd.getId()).toUri();
+
+            return ResponseEntity.created(location).<Note>build();
+        }, jsonExecutor);
     }
 
     /**
@@ -275,37 +689,123 @@ public class NoteController {
      * @param lastName The last name of the patient
      * @param firstName The first name of the patient
      * @param note The note to add to the patient history
-     * @return A ResponseEntity containing the location of the note created and the HTTP status code
+     * @return A ResponseEntity containing the location of the note created and the HTTP status code, completed by the JSON executor
      */
     @PostMapping("/patHistory/addByLastNameAndFirstName")
-    public ResponseEntity<Note> addNoteByPatientLastNameAndFirstName(@RequestParam String lastName, @RequestParam String firstName, @RequestParam String note) {
+    public CompletableFuture<ResponseEntity<Note>> addNoteByPatientLastNameAndFirstName(@RequestParam String lastName, @RequestParam String firstName, @RequestParam String note) {
 
         logger.info("Request : POST /patHistory/addByLastNameAndFirstName");
 
-        Note noteToAdd = new Note();
+        // The current request is only known by the request thread
+        ServletUriComponentsBuilder locationBuilder = ServletUriComponentsBuilder.fromCurrentRequestUri();
+
+        return CompletableFuture.supplyAsync(() -> {
+            Note noteToAdd = new Note();
+
+            // Patient is already existing -> we get its id from the patient directory, else a new id is allocated
+            PatientIdentity identity = noteService.getOrCreatePatientIdentity(lastName, firstName);
+            noteToAdd.setPatientId(identity.getPatientId());
+
+            noteToAdd.setPatientLastName(lastName);
+            noteToAdd.setPatientFirstName(firstName);
+            noteToAdd.setNoteText(note);
+
+            noteService.createNote(noteToAdd);
+
+            logger.info("Success : new patientToAdd created");
+
+            URI location = locationBuilder.path("/{id}").buildAndExpand(noteToAdd.getId()).toUri();
+
+            return ResponseEntity.created(location).<Note>build();
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the POST "/patHistory/bulk" endpoint HTTP request to add notes in bulk, given as a JSON array.
+     * The patient of each note is given either by its id or by its last name and first name.
+     *
+     * @param notes The notes to add
+     * @return A ResponseEntity containing the result of the creation of each note and the HTTP status code, completed by the JSON executor
+     */
+    @PostMapping(value = "/patHistory/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<List<BulkItemResult>>> addNotesInBulk(@RequestBody List<Note> notes) {
+
+        logger.info("Request : POST /patHistory/bulk with {} notes", notes.size());
+
+        return CompletableFuture.supplyAsync(() -> createNotes(notes), jsonExecutor);
+    }
+
+    /**
+     * Method managing the POST "/patHistory/bulk" endpoint HTTP request to add notes in bulk, given in NDJSON format (one note per line).
+     * The patient of each note is given either by its id or by its last name and first name.
+     *
+     * @param body The request body containing the notes to add
+     * @return A ResponseEntity containing the result of the creation of each note and the HTTP status code, completed by the JSON executor
+     * @throws IOException if the request body can not be read
+     */
+    @PostMapping(value = "/patHistory/bulk", consumes = "application/x-ndjson")
+    public CompletableFuture<ResponseEntity<List<BulkItemResult>>> addNotesInBulkFromNdjson(InputStream body) throws IOException {
 
-        List<Note> notes = noteService.findNotesByPatientLastNameAndFirstName(lastName, firstName);
+        logger.info("Request : POST /patHistory/bulk in NDJSON format");
 
-        if (notes.isEmpty()) {
-            // New patient for Notes -> we put its id at the max id in the database +1
-            noteToAdd.setPatientId(noteService.getMaxPatientId()+1L);
-        } else {
-            // Patient is already existing -> we get its id from notes
-            noteToAdd.setPatientId(notes.get(0).getPatientId());
+        List<Note> notes;
+        try {
+            notes = objectMapper.readerFor(Note.class).<Note>readValues(body).readAll();
+        } catch (JsonProcessingException e) {
+            logger.error("Error in request body : notes not readable");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Notes not readable", e);
         }
 
-        noteToAdd.setPatientLastName(lastName);
-        noteToAdd.setPatientFirstName(firstName);
-        noteToAdd.setNoteText(note);
+        return CompletableFuture.supplyAsync(() -> createNotes(notes), jsonExecutor);
+    }
+
+    /**
+     * Method managing the PATCH "/patHistory/{id}" endpoint HTTP request to patch a note with a JSON merge patch, only the fields of the patch being written.
+     * The fields given with a null value are removed, which the constraints on the mandatory fields reject.
+     *
+     * @param id The id of the note to patch
+     * @param version The version the note must have to be patched, or null to patch the note whatever its version
+     * @param patch The JSON merge patch
+     * @return A ResponseEntity containing the note patched and the HTTP status code, completed by the JSON executor
+     */
+    @PatchMapping(value = "/patHistory/{id}", consumes = {MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public CompletableFuture<ResponseEntity<Note>> patchNote(@PathVariable String id, @RequestParam(required = false) Long version, @RequestBody Map<String, Object> patch) {
+
+        logger.info("Request : PATCH /patHistory/{} with fields {}", id, patch.keySet());
+
+        return CompletableFuture.supplyAsync(() -> {
+            Note notePatched;
+            try {
+                notePatched = noteService.patchNote(id, version, patch);
+            } catch (IllegalArgumentException e) {
+                logger.error("Error in patch validation : note with id {} not patched", id);
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+            }
+
+            logger.info("Success : note with id {} patched", id);
+
+            return new ResponseEntity<>(notePatched, HttpStatus.OK);
+        }, jsonExecutor);
+    }
+
+    /**
+     * Method managing the PATCH "/patHistory/bulk" endpoint HTTP request to patch notes in bulk with JSON merge patches, written in one bulk write.
+     *
+     * @param notePatches The patches of the notes, each one with the id of its note and optionally the version the note must have
+     * @return A ResponseEntity containing the result of the patch of each note and the HTTP status code, completed by the JSON executor
+     */
+    @PatchMapping(value = "/patHistory/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<List<BulkItemResult>>> patchNotesInBulk(@RequestBody List<NotePatch> notePatches) {
 
-        noteService.createNote(noteToAdd);
+        logger.info("Request : PATCH /patHistory/bulk with {} patches", notePatches.size());
 
-        logger.info("Success : new patientToAdd created");
+        return CompletableFuture.supplyAsync(() -> {
+            List<BulkItemResult> results = noteService.patchNotes(notePatches);
 
-        URI location = ServletUriComponentsBuilder.fromCurrentRequestUri().path("/{id}")
-                .buildAndExpand(noteToAdd.getId()).toUri();
+            logger.info("Success : bulk of {} patches processed", results.size());
 
-        return ResponseEntity.created(location).build();
+            return new ResponseEntity<>(results, HttpStatus.OK);
+        }, jsonExecutor);
     }
 
     /**
@@ -324,4 +824,74 @@ public class NoteController {
 
         return new ModelAndView("redirect:" + redirectedURL);
     }
+
+    /**
+     * Check the trigger terms to count : between 1 and "note.trigger-term-counts.max-terms" terms, none of them blank.
+     *
+     * @param terms The trigger terms to count
+     * @throws ResponseStatusException with the 400 status code if the terms are not valid
+     */
+    private void checkTriggerTerms(List<String> terms) {
+
+        if (terms.isEmpty() || terms.size() > maxTriggerTermCountTerms) {
+            logger.error("Error in trigger terms : between 1 and {} terms expected, {} given", maxTriggerTermCountTerms, terms.size());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Between 1 and " + maxTriggerTermCountTerms + " terms expected");
+        }
+
+        // A blank term gives an empty regular expression, matching at every position of the notes
+        for (String term : terms) {
+            if (term == null || term.trim().isEmpty()) {
+                logger.error("Error in trigger terms : blank term given");
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Terms must not be blank");
+            }
+        }
+    }
+
+    /**
+     * Add the read-after-write cookie of the writes known by the instance to the response, so that the notes list the user is redirected to shows its write
+     * even when read from a secondary, or by another instance. The cookie is added before the view name completes the request.
+     *
+     * @param response The HTTP response
+     */
+    private void addReadAfterWriteCookie(HttpServletResponse response) {
+
+        String readAfterWriteToken = noteService.getReadAfterWriteToken();
+
+        if (readAfterWriteToken != null) {
+            Cookie cookie = new Cookie(READ_AFTER_WRITE_COOKIE, readAfterWriteToken);
+            cookie.setPath("/notes");
+            cookie.setMaxAge(readAfterWriteCookieMaxAge);
+            cookie.setHttpOnly(true);
+            response.addCookie(cookie);
+        }
+    }
+
+    /**
+     * Create notes in bulk.
+     *
+     * @param notes The notes to create
+     * @return A ResponseEntity containing the result of the creation of each note and the HTTP status code
+     */
+    private ResponseEntity<List<BulkItemResult>> createNotes(List<Note> notes) {
+
+        List<BulkItemResult> results = noteService.createNotes(notes);
+
+        logger.info("Success : bulk of {} notes processed", results.size());
+
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    /**
+     * Serialize notes in JSON format.
+     *
+     * @param notes The notes to serialize
+     * @return The serialized notes
+     */
+    private byte[] serialize(List<Note> notes) {
+        try {
+            return objectMapper.writeValueAsBytes(notes);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package com.mediscreen.note.controller;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.service.IReactiveNoteService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Controller in charge of managing the JSON patient history endpoints for Note entities without blocking any thread.
+ * It is used instead of the NoteController when the application runs as a reactive web application (reactive profile),
+ * with the same URLs, parameters and HTTP status codes.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveNoteController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveNoteController.class);
+
+    private final IReactiveNoteService reactiveNoteService;
+
+    public ReactiveNoteController(IReactiveNoteService reactiveNoteService) {
+        this.reactiveNoteService = reactiveNoteService;
+    }
+
+    /**
+     * Method managing the GET "/patHistoryByFamilyAndGiven" endpoint HTTP request to get notes for a patient given its last name and first name, in JSON format.
+     *
+     * @param patientLastName The last name of the patient to get the notes
+     * @param patientFirstName The first name of the patient to get the notes
+     * @return A Mono of ResponseEntity object containing the list of notes and the HTTP status code
+     */
+    @GetMapping("/patHistoryByFamilyAndGiven")
+    public Mono<ResponseEntity<List<Note>>> getPatientHistoryByFamilyAndGiven(@RequestParam("family") String patientLastName, @RequestParam("given") String patientFirstName) {
+
+        logger.info("Request : GET /patHistoryByFamilyAndGiven with patient family = {} & given = {}", patientLastName, patientFirstName);
+
+        return reactiveNoteService.findNotesByPatientLastNameAndFirstName(patientLastName, patientFirstName)
+                .collectList()
+                .map(notes -> {
+                    logger.info("Success : notes for patient with patient family {} and given {} found", patientLastName, patientFirstName);
+                    return new ResponseEntity<>(notes, HttpStatus.OK);
+                });
+    }
+
+    /**
+     * Method managing the GET "/patHistoryByPatientId" endpoint HTTP request to get notes for a patient given its id, in JSON format.
+     *
+     * @param patientId The id of the patient to get the notes
+     * @return A Mono of ResponseEntity object containing the list of notes and the HTTP status code
+     */
+    @GetMapping("/patHistoryByPatientId")
+    public Mono<ResponseEntity<List<Note>>> getPatientHistoryByPatientId(@RequestParam("patId") long patientId) {
+
+        logger.info("Request : GET /patHistoryByPatientId with patient id = {}", patientId);
+
+        return reactiveNoteService.findNotesByPatientId(patientId)
+                .collectList()
+                .map(notes -> {
+                    logger.info("Success : notes for patient with patient id {} found", patientId);
+                    return new ResponseEntity<>(notes, HttpStatus.FOUND);
+                });
+    }
+
+    /**
+     * Method managing the POST "/patHistory/add" endpoint HTTP request to add a note to a patient based on its id and using parameters in the URL request.
+     *
+     * @param patId The id of the patient
+     * @param note The note to add to the patient history
+     * @param request The HTTP request
+     * @return A Mono of ResponseEntity containing the location of the note created and the HTTP status code
+     */
+    @PostMapping("/patHistory/add")
+    public Mono<ResponseEntity<Note>> addNoteByPatientId(@RequestParam long patId, @RequestParam String note, ServerHttpRequest request) {
+
+        logger.info("Request : POST /patHistory/add");
+
+        return reactiveNoteService.createNoteByPatientId(patId, note)
+                .map(noteAdded -> {
+                    logger.info("Success : new note created");
+                    return ResponseEntity.created(getLocation(request, noteAdded)).<Note>build();
+                });
+    }
+
+    /**
+     * Method managing the POST "/patHistory/addByLastNameAndFirstName" endpoint HTTP request to add a note to a patient based on its last name and first name and using parameters in the URL request.
+     *
+     * @param lastName The last name of the patient
+     * @param firstName The first name of the patient
+     * @param note The note to add to the patient history
+     * @param request The HTTP request
+     * @return A Mono of ResponseEntity containing the location of the note created and the HTTP status code
+     */
+    @PostMapping("/patHistory/addByLastNameAndFirstName")
+    public Mono<ResponseEntity<Note>> addNoteByPatientLastNameAndFirstName(@RequestParam String lastName, @RequestParam String firstName, @RequestParam String note, ServerHttpRequest request) {
+
+        logger.info("Request : POST /patHistory/addByLastNameAndFirstName");
+
+        return reactiveNoteService.createNoteByPatientLastNameAndFirstName(lastName, firstName, note)
+                .map(noteAdded -> {
+                    logger.info("Success : new note created");
+                    return ResponseEntity.created(getLocation(request, noteAdded)).<Note>build();
+                });
+    }
+
+    /**
+     * Method managing the ResourceNotFoundException.
+     *
+     * @param e The exception
+     * @return A ResponseEntity with the HTTP status code
+     */
+    @ExceptionHandler(ResourceNotFoundException.class)
+    public ResponseEntity<Void> handleResourceNotFoundException(ResourceNotFoundException e) {
+
+        logger.error("Error : resource not found");
+
+        return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Return the location of a note created, relative to the URI of the request which created it.
+     *
+     * @param request The HTTP request
+     * @param note The note created
+     * @return The location of the note created
+     */
+    private URI getLocation(ServerHttpRequest request, Note note) {
+        return UriComponentsBuilder.fromUri(request.getURI()).replaceQuery(null).path("/{id}")
+                .buildAndExpand(note.getId()).toUri();
+    }
+}
@@ -0,0 +1,90 @@
+package com.mediscreen.note.domain;
+
+import java.io.Serializable;
+
+/**
+ * Class materializing the result of the processing of one item of a bulk request.
+ */
+public class BulkItemResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Status of an item which has been processed successfully.
+     */
+    public static final String STATUS_SUCCESS = "SUCCESS";
+
+    /**
+     * Status of an item which has not been processed because of an error.
+     */
+    public static final String STATUS_ERROR = "ERROR";
+
+    private int index;
+
+    private String status;
+
+    private String id;
+
+    private long patientId;
+
+    private String error;
+
+    public BulkItemResult() {
+    }
+
+    public BulkItemResult(int index, String status, String id, long patientId, String error) {
+        this.index = index;
+        this.status = status;
+        this.id = id;
+        this.patientId = patientId;
+        this.error = error;
+    }
+
+    public static BulkItemResult success(int index, String id, long patientId) {
+        return new BulkItemResult(index, STATUS_SUCCESS, id, patientId, null);
+    }
+
+    public static BulkItemResult error(int index, String error) {
+        return new BulkItemResult(index, STATUS_ERROR, null, 0L, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(long patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -1,15 +1,24 @@
 package com.mediscreen.note.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import javax.validation.constraints.NotBlank;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 /**
  * Class materializing a note.
  */
 @Document
+@CompoundIndex(name = "patientLastName_patientFirstName", def = "{'patientLastName': 1, 'patientFirstName': 1}", background = true)
 public class Note implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -17,6 +26,7 @@ public class Note implements Serializable {
     @Id
     private String id;
 
+    @Indexed(name = "patientId", background = true)
     private long patientId;
 
     @NotBlank(message = "PatientLastName is mandatory")
@@ -28,6 +38,14 @@ public class Note implements Serializable {
     @NotBlank(message = "Note text is mandatory")
     private String noteText;
 
+    // Incremented by each update, null for the notes inserted without version
+    @Version
+    private Long version;
+
+    // Set when the note text is stored compressed or in GridFS : the text is decompressed when first accessed
+    @Transient
+    private transient volatile Supplier<String> noteTextLoader;
+
     public Note() {
     }
 
@@ -70,10 +88,51 @@ public class Note implements Serializable {
     }
 
     public String getNoteText() {
+        Supplier<String> loader = noteTextLoader;
+        if (loader != null) {
+            // The text is written before the loader is cleared : a thread seeing no loader sees the text
+            noteText = loader.get();
+            noteTextLoader = null;
+        }
         return noteText;
     }
 
     public void setNoteText(String noteText) {
         this.noteText = noteText;
+        this.noteTextLoader = null;
+    }
+
+    /**
+     * Set the loader of the note text stored compressed or in GridFS, called when the note text is first accessed.
+     *
+     * @param noteTextLoader The loader of the note text
+     */
+    @JsonIgnore
+    public void setNoteTextLoader(Supplier<String> noteTextLoader) {
+        this.noteText = null;
+        this.noteTextLoader = noteTextLoader;
+    }
+
+    /**
+     * Return whether the note text is loaded, i.e. not waiting to be decompressed.
+     *
+     * @return true if the note text is loaded
+     */
+    @JsonIgnore
+    public boolean isNoteTextLoaded() {
+        return noteTextLoader == null;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getNoteText();
+        out.defaultWriteObject();
     }
 }
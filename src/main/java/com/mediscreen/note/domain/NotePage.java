@@ -0,0 +1,46 @@
+package com.mediscreen.note.domain;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Class materializing a page of notes, ordered by note id, with the cursors used to get the next and previous pages.
+ */
+public class NotePage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Note> notes;
+
+    private final String nextCursor;
+
+    private final String previousCursor;
+
+    public NotePage(List<Note> notes, String nextCursor, String previousCursor) {
+        this.notes = notes;
+        this.nextCursor = nextCursor;
+        this.previousCursor = previousCursor;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * Return the cursor of the next page, i.e. the id of the last note of this page.
+     *
+     * @return The cursor of the next page, or null if this page is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Return the cursor of the previous page, i.e. the id of the first note of this page.
+     *
+     * @return The cursor of the previous page, or null if this page is the first one
+     */
+    public String getPreviousCursor() {
+        return previousCursor;
+    }
+}
@@ -0,0 +1,49 @@
+package com.mediscreen.note.domain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class materializing a JSON merge patch of a note : the fields to set, the fields given with a null value being removed.
+ */
+public class NotePatch {
+
+    private String id;
+
+    private Long version;
+
+    private Map<String, Object> patch = new LinkedHashMap<>();
+
+    public NotePatch() {
+    }
+
+    public NotePatch(String id, Long version, Map<String, Object> patch) {
+        this.id = id;
+        this.version = version;
+        this.patch = patch;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Map<String, Object> getPatch() {
+        return patch;
+    }
+
+    public void setPatch(Map<String, Object> patch) {
+        this.patch = patch;
+    }
+}
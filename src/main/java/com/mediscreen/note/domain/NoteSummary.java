@@ -0,0 +1,72 @@
+package com.mediscreen.note.domain;
+
+import java.io.Serializable;
+
+/**
+ * Class materializing a lightweight view of a note : its id, the identity of its patient and a preview of its text.
+ */
+public class NoteSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+
+    private long patientId;
+
+    private String patientLastName;
+
+    private String patientFirstName;
+
+    private String noteTextPreview;
+
+    public NoteSummary() {
+    }
+
+    public NoteSummary(String id, long patientId, String patientLastName, String patientFirstName, String noteTextPreview) {
+        this.id = id;
+        this.patientId = patientId;
+        this.patientLastName = patientLastName;
+        this.patientFirstName = patientFirstName;
+        this.noteTextPreview = noteTextPreview;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(long patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getPatientLastName() {
+        return patientLastName;
+    }
+
+    public void setPatientLastName(String patientLastName) {
+        this.patientLastName = patientLastName;
+    }
+
+    public String getPatientFirstName() {
+        return patientFirstName;
+    }
+
+    public void setPatientFirstName(String patientFirstName) {
+        this.patientFirstName = patientFirstName;
+    }
+
+    public String getNoteTextPreview() {
+        return noteTextPreview;
+    }
+
+    public void setNoteTextPreview(String noteTextPreview) {
+        this.noteTextPreview = noteTextPreview;
+    }
+}
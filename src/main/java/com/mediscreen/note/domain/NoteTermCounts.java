@@ -0,0 +1,39 @@
+package com.mediscreen.note.domain;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class materializing the trigger term counts of one version of a note, held by the rollup of its patient.
+ * A version of a note is applied to a rollup only once, and never over a later version of the note.
+ */
+public class NoteTermCounts {
+
+    private long noteVersion;
+
+    private Map<String, Long> termCounts = new HashMap<>();
+
+    public NoteTermCounts() {
+    }
+
+    public NoteTermCounts(long noteVersion, Map<String, Long> termCounts) {
+        this.noteVersion = noteVersion;
+        this.termCounts = termCounts;
+    }
+
+    public long getNoteVersion() {
+        return noteVersion;
+    }
+
+    public void setNoteVersion(long noteVersion) {
+        this.noteVersion = noteVersion;
+    }
+
+    public Map<String, Long> getTermCounts() {
+        return termCounts;
+    }
+
+    public void setTermCounts(Map<String, Long> termCounts) {
+        this.termCounts = termCounts;
+    }
+}
@@ -0,0 +1,76 @@
+package com.mediscreen.note.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Class materializing the identity of a patient : its id, last name and first name.
+ * The identities of the patients are stored in their own collection, a patient last name and first name identifying only one patient.
+ */
+@Document(collection = "patientIdentities")
+@CompoundIndex(name = "patientLastName_patientFirstName", def = "{'patientLastName': 1, 'patientFirstName': 1}", unique = true, background = true)
+public class PatientIdentity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    private long patientId;
+
+    private String patientLastName;
+
+    private String patientFirstName;
+
+    public PatientIdentity() {
+    }
+
+    public PatientIdentity(long patientId, String patientLastName, String patientFirstName) {
+        this.patientId = patientId;
+        this.patientLastName = patientLastName;
+        this.patientFirstName = patientFirstName;
+    }
+
+    public long getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(long patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getPatientLastName() {
+        return patientLastName;
+    }
+
+    public void setPatientLastName(String patientLastName) {
+        this.patientLastName = patientLastName;
+    }
+
+    public String getPatientFirstName() {
+        return patientFirstName;
+    }
+
+    public void setPatientFirstName(String patientFirstName) {
+        this.patientFirstName = patientFirstName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PatientIdentity that = (PatientIdentity) o;
+        return patientId == that.patientId && Objects.equals(patientLastName, that.patientLastName) && Objects.equals(patientFirstName, that.patientFirstName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(patientId, patientLastName, patientFirstName);
+    }
+}
@@ -0,0 +1,52 @@
+package com.mediscreen.note.domain;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class materializing the counts of trigger terms in the notes of a patient : the number of occurrences of each term and the number of distinct terms found.
+ */
+public class TriggerTermCount implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long patientId;
+
+    private Map<String, Long> termCounts = new LinkedHashMap<>();
+
+    private int distinctTermCount;
+
+    public TriggerTermCount() {
+    }
+
+    public TriggerTermCount(long patientId, Map<String, Long> termCounts, int distinctTermCount) {
+        this.patientId = patientId;
+        this.termCounts = termCounts;
+        this.distinctTermCount = distinctTermCount;
+    }
+
+    public long getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(long patientId) {
+        this.patientId = patientId;
+    }
+
+    public Map<String, Long> getTermCounts() {
+        return termCounts;
+    }
+
+    public void setTermCounts(Map<String, Long> termCounts) {
+        this.termCounts = termCounts;
+    }
+
+    public int getDistinctTermCount() {
+        return distinctTermCount;
+    }
+
+    public void setDistinctTermCount(int distinctTermCount) {
+        this.distinctTermCount = distinctTermCount;
+    }
+}
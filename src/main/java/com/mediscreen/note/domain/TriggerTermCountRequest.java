@@ -0,0 +1,43 @@
+package com.mediscreen.note.domain;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class materializing a request to count trigger terms in the notes of a batch of patients.
+ */
+public class TriggerTermCountRequest {
+
+    @NotEmpty(message = "Patient ids are mandatory")
+    private List<@NotNull(message = "Patient ids must not be null") Long> patientIds = new ArrayList<>();
+
+    @NotEmpty(message = "Terms are mandatory")
+    private List<@NotBlank(message = "Terms must not be blank") String> terms = new ArrayList<>();
+
+    public TriggerTermCountRequest() {
+    }
+
+    public TriggerTermCountRequest(List<Long> patientIds, List<String> terms) {
+        this.patientIds = patientIds;
+        this.terms = terms;
+    }
+
+    public List<Long> getPatientIds() {
+        return patientIds;
+    }
+
+    public void setPatientIds(List<Long> patientIds) {
+        this.patientIds = patientIds;
+    }
+
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    public void setTerms(List<String> terms) {
+        this.terms = terms;
+    }
+}
@@ -0,0 +1,80 @@
+package com.mediscreen.note.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class materializing the trigger term counts of all the notes of a patient, maintained when notes are written.
+ * The counts are held per note, by note id, so that writing the counts of a note twice does not count it twice : the totals are their sum.
+ * The hash of the dictionary the counts were computed with tells whether the rollup is up to date, a rollup created by the writes of notes having none.
+ * The version is incremented by every write of the rollup, so that a rollup recomputed from the notes only replaces the one it has read.
+ */
+@Document(collection = "triggerTermRollups")
+public class TriggerTermRollup {
+
+    @Id
+    private long patientId;
+
+    private Map<String, NoteTermCounts> notes = new HashMap<>();
+
+    private String dictionaryHash;
+
+    private long version;
+
+    public TriggerTermRollup() {
+    }
+
+    public TriggerTermRollup(long patientId, Map<String, NoteTermCounts> notes, String dictionaryHash) {
+        this.patientId = patientId;
+        this.notes = notes;
+        this.dictionaryHash = dictionaryHash;
+    }
+
+    public long getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(long patientId) {
+        this.patientId = patientId;
+    }
+
+    public Map<String, NoteTermCounts> getNotes() {
+        return notes;
+    }
+
+    public void setNotes(Map<String, NoteTermCounts> notes) {
+        this.notes = notes;
+    }
+
+    public String getDictionaryHash() {
+        return dictionaryHash;
+    }
+
+    public void setDictionaryHash(String dictionaryHash) {
+        this.dictionaryHash = dictionaryHash;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Return the trigger term counts of all the notes of the rollup.
+     *
+     * @return The sum of the term counts of the notes, by term
+     */
+    public Map<String, Long> sumTermCounts() {
+        Map<String, Long> termCounts = new HashMap<>();
+        for (NoteTermCounts noteTermCounts : notes.values()) {
+            noteTermCounts.getTermCounts().forEach((term, count) -> termCounts.merge(term, count, Long::sum));
+        }
+        return termCounts;
+    }
+}
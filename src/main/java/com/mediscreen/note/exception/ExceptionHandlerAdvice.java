@@ -2,16 +2,21 @@ package com.mediscreen.note.exception;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.servlet.ModelAndView;
 
+import java.util.concurrent.RejectedExecutionException;
+
 /**
- * Class in charge of managing ResourceNotFoundException.
+ * Class in charge of managing ResourceNotFoundException, OptimisticLockingFailureException and RejectedExecutionException.
  */
 @ControllerAdvice(basePackages = {"com.mediscreen.note"})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ExceptionHandlerAdvice {
 
     private static final Logger logger = LoggerFactory.getLogger(ExceptionHandlerAdvice.class);
@@ -34,4 +39,40 @@ public class ExceptionHandlerAdvice {
         return mav;
     }
 
+    /**
+     * Method managing the OptimisticLockingFailureException, thrown when a note has been updated since it was read.
+     *
+     * @param e The exception
+     * @return A ModelAndView object including information for this exception
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(value = HttpStatus.CONFLICT)
+    public ModelAndView handleException(OptimisticLockingFailureException e) {
+
+        logger.error("Error : note updated since it was read");
+
+        ModelAndView mav = new ModelAndView();
+        mav.addObject("exception", e);
+        mav.setViewName("errorConflict");
+        return mav;
+    }
+
+    /**
+     * Method managing the RejectedExecutionException, thrown when the threads and the queue of the executor of an endpoint are all busy.
+     *
+     * @param e The exception
+     * @return A ModelAndView object including information for this exception
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+    public ModelAndView handleException(RejectedExecutionException e) {
+
+        logger.error("Error : request rejected, executor saturated");
+
+        ModelAndView mav = new ModelAndView();
+        mav.addObject("exception", e);
+        mav.setViewName("errorServiceUnavailable");
+        return mav;
+    }
+
 }
@@ -0,0 +1,129 @@
+package com.mediscreen.note.metrics;
+
+import com.mediscreen.note.domain.NotePage;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Aspect in charge of recording the latency, the number and the result size of the INoteService calls and of the repository calls.
+ * Timers and result size distributions are tagged by operation (the method name) and by outcome (found, not-found, success for the calls returning nothing, or error),
+ * and published with percentile histograms so that percentiles per operation can be computed from the scrape endpoint.
+ * It is the outermost advice, so service latencies include the patient history caches.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class NoteMetricsAspect {
+
+    static final String SERVICE_CALLS_METRIC = "note.service.calls";
+    static final String SERVICE_RESULT_SIZE_METRIC = "note.service.result.size";
+    static final String REPOSITORY_CALLS_METRIC = "note.repository.calls";
+    static final String REPOSITORY_RESULT_SIZE_METRIC = "note.repository.result.size";
+
+    static final String OUTCOME_FOUND = "found";
+    static final String OUTCOME_NOT_FOUND = "not-found";
+    static final String OUTCOME_SUCCESS = "success";
+    static final String OUTCOME_ERROR = "error";
+
+    private final MeterRegistry meterRegistry;
+
+    public NoteMetricsAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Record the metrics of the INoteService calls.
+     *
+     * @param joinPoint The INoteService method call
+     * @return The result of the call
+     * @throws Throwable the exception thrown by the call
+     */
+    @Around("execution(public * com.mediscreen.note.service.INoteService.*(..))")
+    public Object recordServiceCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        return record(joinPoint, SERVICE_CALLS_METRIC, SERVICE_RESULT_SIZE_METRIC);
+    }
+
+    /**
+     * Record the metrics of the NoteRepository and INoteRepositoryCustom calls.
+     *
+     * @param joinPoint The repository method call
+     * @return The result of the call
+     * @throws Throwable the exception thrown by the call
+     */
+    @Around("(this(com.mediscreen.note.repository.NoteRepository) || this(com.mediscreen.note.repository.INoteRepositoryCustom)) && !execution(* java.lang.Object.*(..))")
+    public Object recordRepositoryCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        return record(joinPoint, REPOSITORY_CALLS_METRIC, REPOSITORY_RESULT_SIZE_METRIC);
+    }
+
+    private Object record(ProceedingJoinPoint joinPoint, String callsMetric, String resultSizeMetric) throws Throwable {
+
+        String operation = joinPoint.getSignature().getName();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = OUTCOME_ERROR;
+
+        try {
+            Object result = joinPoint.proceed();
+            if (((MethodSignature) joinPoint.getSignature()).getReturnType() == void.class) {
+                // Nothing returned -> nothing to be found
+                outcome = OUTCOME_SUCCESS;
+                return result;
+            }
+            Integer resultSize = getResultSize(result);
+            outcome = (result == null || (resultSize != null && resultSize == 0)) ? OUTCOME_NOT_FOUND : OUTCOME_FOUND;
+            if (resultSize != null) {
+                DistributionSummary.builder(resultSizeMetric)
+                        .tag("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(resultSize);
+            }
+            return result;
+
+        } catch (ResourceNotFoundException e) {
+            outcome = OUTCOME_NOT_FOUND;
+            throw e;
+
+        } finally {
+            sample.stop(Timer.builder(callsMetric)
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Return the number of elements of a result, for the results being collections of elements.
+     *
+     * @param result The result of a call
+     * @return The number of elements of the result, or null if the result is not a collection of elements
+     */
+    private static Integer getResultSize(Object result) {
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof Map) {
+            return ((Map<?, ?>) result).size();
+        }
+        if (result instanceof NotePage) {
+            return ((NotePage) result).getNotes().size();
+        }
+        if (result instanceof Optional) {
+            return ((Optional<?>) result).isPresent() ? 1 : 0;
+        }
+        return null;
+    }
+}
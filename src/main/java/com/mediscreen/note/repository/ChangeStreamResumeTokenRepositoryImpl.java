@@ -0,0 +1,71 @@
+package com.mediscreen.note.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Class in charge of storing the resume tokens of the change stream listeners in the changeStreamResumeTokens collection, one document per listener.
+ * The tokens are read and written as raw BSON, so that they are given back to the server exactly as it returned them.
+ */
+@Repository
+public class ChangeStreamResumeTokenRepositoryImpl implements IChangeStreamResumeTokenRepository {
+
+    static final String RESUME_TOKENS_COLLECTION = "changeStreamResumeTokens";
+
+    private static final String RESUME_TOKEN_FIELD = "resumeToken";
+
+    private final MongoTemplate mongoTemplate;
+
+    public ChangeStreamResumeTokenRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Return the last resume token stored by a change stream listener.
+     *
+     * @param listenerName The name of the listener
+     * @return The resume token, or null if the listener has stored none
+     */
+    @Override
+    public BsonDocument findResumeToken(String listenerName) {
+        BsonDocument document = resumeTokens().find(Filters.eq("_id", listenerName)).first();
+        if (document == null || !document.isDocument(RESUME_TOKEN_FIELD)) {
+            return null;
+        }
+        return document.getDocument(RESUME_TOKEN_FIELD);
+    }
+
+    /**
+     * Store the resume token of a change stream listener, replacing the previous one.
+     *
+     * @param listenerName The name of the listener
+     * @param resumeToken The resume token
+     */
+    @Override
+    public void saveResumeToken(String listenerName, BsonDocument resumeToken) {
+        BsonDocument document = new BsonDocument("_id", new BsonString(listenerName))
+                .append(RESUME_TOKEN_FIELD, resumeToken)
+                .append("savedAt", new BsonDateTime(System.currentTimeMillis()));
+        resumeTokens().replaceOne(Filters.eq("_id", listenerName), document, new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Delete the resume token of a change stream listener, so that it starts from the current time.
+     *
+     * @param listenerName The name of the listener
+     */
+    @Override
+    public void deleteResumeToken(String listenerName) {
+        resumeTokens().deleteOne(Filters.eq("_id", listenerName));
+    }
+
+    private MongoCollection<BsonDocument> resumeTokens() {
+        return mongoTemplate.getCollection(RESUME_TOKENS_COLLECTION).withDocumentClass(BsonDocument.class);
+    }
+}
@@ -0,0 +1,33 @@
+package com.mediscreen.note.repository;
+
+import org.bson.BsonDocument;
+
+/**
+ * Interface used to define the methods managing the resume tokens of the change stream listeners, stored by listener name.
+ */
+public interface IChangeStreamResumeTokenRepository {
+
+    /**
+     * Return the last resume token stored by a change stream listener.
+     *
+     * @param listenerName The name of the listener
+     * @return The resume token, or null if the listener has stored none
+     */
+    BsonDocument findResumeToken(String listenerName);
+
+    /**
+     * Store the resume token of a change stream listener, replacing the previous one.
+     *
+     * @param listenerName The name of the listener
+     * @param resumeToken The resume token
+     */
+    void saveResumeToken(String listenerName, BsonDocument resumeToken);
+
+    /**
+     * Delete the resume token of a change stream listener, so that it starts from the current time.
+     *
+     * @param listenerName The name of the listener
+     */
+    void deleteResumeToken(String listenerName);
+
+}
@@ -1,10 +1,27 @@
 package com.mediscreen.note.repository;
 
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Interface used to define custom repository methods not provided by the Spring data MongoRepository interface.
  */
 public interface INoteRepositoryCustom {
 
+    /**
+     * Error of a note not inserted by insertNotesIfAbsent because a note with the same id already exists.
+     */
+    String NOTE_ALREADY_INSERTED = "Note already inserted";
+
+
     /**
      * Return the maximum (highest) patient id in the mongo database.
      *
@@ -12,4 +29,143 @@ public interface INoteRepositoryCustom {
      */
     long findMaxPatientId();
 
+    /**
+     * Return the notes having an id greater than a given note id, in ascending order of id.
+     *
+     * @param afterId The id after which notes are returned, or null to start from the first note
+     * @param limit The maximum number of notes to return
+     * @return The list of notes
+     */
+    List<Note> findNotesAfterId(String afterId, int limit);
+
+    /**
+     * Return the notes having an id lower than a given note id, in descending order of id.
+     *
+     * @param beforeId The id before which notes are returned
+     * @param limit The maximum number of notes to return
+     * @return The list of notes
+     */
+    List<Note> findNotesBeforeId(String beforeId, int limit);
+
+
+    /**
+     * Return a cursor over the notes, optionally restricted to a range of patient ids.
+     * Notes are read from the database batch by batch while the cursor is consumed. The cursor must be closed after use.
+     *
+     * @param fromPatientId The lowest patient id of the notes (inclusive), or null
+     * @param toPatientId The highest patient id of the notes (inclusive), or null
+     * @return The cursor over the notes
+     */
+    CloseableIterator<Note> streamNotes(Long fromPatientId, Long toPatientId);
+
+    /**
+     * Return a cursor over the notes of a batch of patients, ordered by patient id.
+     * Notes are read with one query from the database batch by batch while the cursor is consumed. The cursor must be closed after use.
+     *
+     * @param patientIds The ids of the patients
+     * @return The cursor over the notes
+     */
+    CloseableIterator<Note> streamNotesByPatientIds(Collection<Long> patientIds);
+
+    /**
+     * Return in one query the identities of the patients having notes, given their ids or their last names and first names.
+     *
+     * @param patientIds The ids of the patients
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities found
+     */
+    List<PatientIdentity> findPatientIdentities(Collection<Long> patientIds, Collection<PatientIdentity> patientNames);
+
+    /**
+     * Return in one query the identities of all the patients having notes.
+     *
+     * @return The list of the identities of all the patients having notes
+     */
+    List<PatientIdentity> findAllPatientIdentities();
+
+    /**
+     * Update a note in one conditional write, only if its version in the database is still the version of the note given.
+     * The version of the note in the database is incremented.
+     *
+     * @param note The note to update, with the version it was read with
+     * @return The note as it was before the update, with its note text loaded, or null if no note has the id and the version of the note given
+     */
+    Note updateNoteIfVersionMatches(Note note);
+
+    /**
+     * Return in one query the notes given their ids.
+     *
+     * @param ids The ids of the notes
+     * @return The list of the notes found
+     */
+    List<Note> findNotesByIds(Collection<String> ids);
+
+    /**
+     * Patch a note in one write, setting the fields given with a value and removing the fields given with a null value.
+     * The version of the note in the database is incremented.
+     *
+     * @param id The id of the note
+     * @param version The version the note must have to be patched, or null to patch the note whatever its version
+     * @param fieldValues The values of the fields to patch, by field name
+     * @return The note as it was before the patch, with its note text loaded if it is patched, or null if no note has the id (and the version) given
+     */
+    Note patchNote(String id, Long version, Map<String, Object> fieldValues);
+
+    /**
+     * Patch notes with one unordered bulk write, each note only if its version in the database is still the version of its patch.
+     * The version of each note patched is incremented. The GridFS files of the previous note texts are deleted :
+     * the note texts of the notes read before the patches must be loaded first.
+     *
+     * @param notePatches The patches, with the versions the notes must have (a null version matching the notes inserted without version)
+     * @return The number of notes matched by the patches
+     */
+    long patchNotesIfVersionsMatch(List<NotePatch> notePatches);
+
+    /**
+     * Insert notes with unordered batched inserts. A note failing to be inserted does not prevent the others from being inserted.
+     *
+     * @param notes The notes to insert, with their ids already set
+     * @return The error messages of the notes not inserted, by index in the list of notes
+     */
+    Map<Integer, String> insertNotes(List<Note> notes);
+
+    /**
+     * Insert notes with unordered batched inserts, a note whose id already exists being reported as already inserted instead of failing.
+     * Used to insert again notes which may have been inserted before, such as the notes replayed from the ingestion log.
+     *
+     * @param notes The notes to insert, with their ids already set
+     * @return The error messages of the notes not inserted, by index in the list of notes, NOTE_ALREADY_INSERTED for the notes already existing
+     */
+    Map<Integer, String> insertNotesIfAbsent(List<Note> notes);
+
+    /**
+     * Return the summaries of the notes of a patient given its id.
+     * Only the needed fields are read, the preview being computed by the database.
+     *
+     * @param patientId The id of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     */
+    List<NoteSummary> findNoteSummariesByPatientId(long patientId, int previewLength);
+
+    /**
+     * Return the summaries of the notes of a patient given its last name and first name.
+     * Only the needed fields are read, the preview being computed by the database.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     */
+    List<NoteSummary> findNoteSummariesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName, int previewLength);
+
+    /**
+     * Count, case and accent insensitively, the occurrences of trigger terms in the note texts of a batch of patients.
+     * The counts are computed by the database, no note text being read.
+     *
+     * @param patientIds The ids of the patients
+     * @param terms The trigger terms to count
+     * @return The trigger term counts of each patient having notes
+     */
+    List<TriggerTermCount> countTriggerTerms(Collection<Long> patientIds, List<String> terms);
 }
@@ -0,0 +1,52 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.Note;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Interface used to define the storage of the note texts : inline, compressed above a size threshold, or in GridFS when too large even compressed.
+ */
+public interface INoteTextStorage {
+
+    /**
+     * Replace in the document of a note being written its note text by its compressed form or by a reference to a GridFS file, if it is large enough.
+     *
+     * @param document The document of the note
+     */
+    void encode(Document document);
+
+    /**
+     * Set on a note read the loader of its note text, if it is stored compressed or in GridFS.
+     *
+     * @param note The note read
+     * @param document The document of the note
+     */
+    void decode(Note note, Document document);
+
+    /**
+     * Add to an update of a note the writing of its note text, inline, compressed or in GridFS.
+     *
+     * @param noteId The id of the note
+     * @param noteText The note text, or null to remove it
+     * @param update The update of the note
+     * @return The id of the GridFS file referenced by the update, or null if the note text is not stored in GridFS
+     */
+    ObjectId encodeUpdate(Object noteId, String noteText, Update update);
+
+    /**
+     * Delete the GridFS files of a note, except the one referenced by the note.
+     *
+     * @param noteId The id of the note
+     * @param referencedFileId The id of the GridFS file referenced by the note, or null if none
+     */
+    void deleteUnreferencedFiles(Object noteId, ObjectId referencedFileId);
+
+    /**
+     * Delete a GridFS file of note text.
+     *
+     * @param fileId The id of the file
+     */
+    void deleteFile(ObjectId fileId);
+}
@@ -0,0 +1,46 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.PatientIdentity;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Interface used to define the methods managing the collection of the identities of the patients.
+ */
+public interface IPatientIdentityRepository {
+
+    /**
+     * Return in one query the identities of patients, given their ids or their last names and first names.
+     *
+     * @param patientIds The ids of the patients
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities found
+     */
+    List<PatientIdentity> findIdentities(Collection<Long> patientIds, Collection<PatientIdentity> patientNames);
+
+    /**
+     * Save identities with an unordered bulk write, setting the last name and first name of the patients given by their ids.
+     * An identity whose last name and first name are already the ones of another patient is not saved.
+     *
+     * @param identities The identities to save
+     * @return The identities not saved because their last name and first name are already the ones of another patient
+     */
+    List<PatientIdentity> saveIdentities(List<PatientIdentity> identities);
+
+    /**
+     * Return a cursor over all the identities, to be closed once consumed.
+     *
+     * @return The cursor over the identities
+     */
+    CloseableIterator<PatientIdentity> streamIdentities();
+
+    /**
+     * Return if at least one identity exists.
+     *
+     * @return true if at least one identity exists
+     */
+    boolean existsIdentity();
+
+}
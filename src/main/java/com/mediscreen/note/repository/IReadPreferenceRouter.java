@@ -0,0 +1,58 @@
+package com.mediscreen.note.repository;
+
+import org.bson.BsonTimestamp;
+
+import java.util.function.Supplier;
+
+/**
+ * Interface used to define the routing of the queries of an operation to the members of the replica set given by its read preference.
+ * The reads sent to the secondaries are causally consistent with the writes known by the instance : they wait until the secondary has applied them.
+ */
+public interface IReadPreferenceRouter {
+
+    /**
+     * Run the queries of a read operation with the read preference configured for it.
+     *
+     * @param operation The read operation
+     * @param query The queries of the operation
+     * @param <T> The type of the result
+     * @return The result of the queries
+     */
+    <T> T read(ReadOperation operation, Supplier<T> query);
+
+    /**
+     * Run the queries of a read operation with the read preference configured for it, causally consistent with the writes of a read-after-write token,
+     * possibly made by another instance.
+     *
+     * @param operation The read operation
+     * @param readAfterWriteToken The token returned after the writes, or null
+     * @param query The queries of the operation
+     * @param <T> The type of the result
+     * @return The result of the queries
+     */
+    <T> T readAfterWrite(ReadOperation operation, String readAfterWriteToken, Supplier<T> query);
+
+    /**
+     * Run writes on the primary, their operation time being known by the instance for the reads which follow.
+     *
+     * @param write The writes
+     * @param <T> The type of the result
+     * @return The result of the writes
+     */
+    <T> T write(Supplier<T> write);
+
+    /**
+     * Advance the operation time known by the instance to the time of a write of another instance, received from the change stream.
+     *
+     * @param operationTime The cluster time of the write
+     */
+    void advanceOperationTime(BsonTimestamp operationTime);
+
+    /**
+     * Return a token of the writes known by the instance, to be given back by the reads of the same user which must see them.
+     *
+     * @return The read-after-write token, or null if no write is known
+     */
+    String getReadAfterWriteToken();
+
+}
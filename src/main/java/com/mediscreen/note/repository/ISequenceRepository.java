@@ -0,0 +1,25 @@
+package com.mediscreen.note.repository;
+
+/**
+ * Interface used to define the methods managing named sequences in the counters collection.
+ */
+public interface ISequenceRepository {
+
+    /**
+     * Atomically increment a sequence and return its new value. The sequence is created if it does not exist.
+     *
+     * @param sequenceName The name of the sequence
+     * @param increment The value to add to the sequence
+     * @return The value of the sequence after the increment
+     */
+    long incrementSequence(String sequenceName, long increment);
+
+    /**
+     * Atomically raise a sequence to a minimum value. The sequence is created if it does not exist.
+     *
+     * @param sequenceName The name of the sequence
+     * @param minimumValue The minimum value of the sequence
+     */
+    void ensureSequenceAtLeast(String sequenceName, long minimumValue);
+
+}
@@ -0,0 +1,89 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.NoteTermCounts;
+import com.mediscreen.note.domain.TriggerTermRollup;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interface used to define the methods managing the per-patient trigger term rollups.
+ */
+public interface ITriggerTermRollupRepository {
+
+    /**
+     * Return the trigger term rollup of a patient.
+     *
+     * @param patientId The id of the patient
+     * @return The rollup of the patient, or null if the patient has no rollup
+     */
+    TriggerTermRollup findRollup(long patientId);
+
+    /**
+     * Return the versions of the rollups of a range of patients.
+     *
+     * @param fromPatientId The lowest patient id (inclusive)
+     * @param toPatientId The highest patient id (inclusive)
+     * @return The versions of the existing rollups, by patient id
+     */
+    Map<Long, Long> findRollupVersions(long fromPatientId, long toPatientId);
+
+    /**
+     * Atomically set the trigger term counts of notes in the rollups of their patients, and increment the versions of the rollups.
+     * The counts of a note are not set over the ones of the same or of a later version of the note.
+     * The rollup of a patient not having one is created without dictionary hash, so that it is computed from the notes of the patient when read.
+     *
+     * @param noteTermCounts The term counts of the notes, by note id, by patient id
+     */
+    void setNoteTermCounts(Map<Long, Map<String, NoteTermCounts>> noteTermCounts);
+
+    /**
+     * Atomically remove the trigger term counts of notes from the rollups of patients, and increment the versions of the rollups.
+     * The counts of a note are not removed if they are the ones of a later version of the note.
+     *
+     * @param noteVersions The versions of the notes whose counts are removed, by note id, by patient id
+     */
+    void removeNoteTermCounts(Map<Long, Map<String, Long>> noteVersions);
+
+    /**
+     * Save rollups, replacing the trigger term counts of the existing ones only if their versions are still the ones of the rollups to save.
+     * The rollups saved have their versions incremented.
+     *
+     * @param rollups The rollups to save, with the version of the rollup read before their computation, 0 if none
+     * @return The ids of the patients whose rollups have been written since they were read, and are not saved
+     */
+    Set<Long> saveRollupsIfUnchanged(List<TriggerTermRollup> rollups);
+
+    /**
+     * Delete the rollups of patients.
+     *
+     * @param patientIds The ids of the patients
+     */
+    void deleteRollups(Collection<Long> patientIds);
+
+    /**
+     * Delete the rollups not computed with a given dictionary.
+     *
+     * @param dictionaryHash The hash of the dictionary
+     * @return The number of rollups deleted
+     */
+    long deleteRollupsWithDictionaryHashNot(String dictionaryHash);
+
+    /**
+     * Return whether there are rollups computed with another dictionary than a given one. The rollups not computed yet are ignored.
+     *
+     * @param dictionaryHash The hash of the dictionary
+     * @return true if at least one rollup was computed with another dictionary
+     */
+    boolean existsRollupWithDictionaryHashNot(String dictionaryHash);
+
+    /**
+     * Return whether there is at least one rollup.
+     *
+     * @return true if at least one rollup exists
+     */
+    boolean existsRollup();
+
+}
@@ -1,21 +1,69 @@
 package com.mediscreen.note.repository;
 
 import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Repository;
 
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  *  Class in charge of managing the custom repository methods not provided by the Spring data MongoRepository interface.
  */
 @Repository
 public class NoteRepositoryCustomImpl implements INoteRepositoryCustom {
 
+    private static final int STREAM_BATCH_SIZE = 1000;
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+    private static final String TERM_COUNT_FIELD_PREFIX = "term";
+
+    private static final String DISTINCT_TERM_COUNT_FIELD = "distinctTermCount";
+
+    private static final String[] ACCENTED_LETTERS = {
+            "aàáâãäå", "cç", "eèéêë", "iìíîï", "nñ", "oòóôõöø", "uùúûü", "yýÿ"
+    };
+
+    private static final String REGEX_SPECIAL_CHARACTERS = "\\^$.|?*+()[]{}";
+
     private final MongoTemplate mongoTemplate;
+    private final INoteTextStorage noteTextStorage;
 
-    public NoteRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+    public NoteRepositoryCustomImpl(MongoTemplate mongoTemplate, INoteTextStorage noteTextStorage) {
         this.mongoTemplate = mongoTemplate;
+        this.noteTextStorage = noteTextStorage;
     }
 
     /**
@@ -34,4 +82,473 @@ public class NoteRepositoryCustomImpl implements INoteRepositoryCustom {
         }
         return maxObject.getPatientId();
     }
+
+    /**
+     * Return the notes having an id greater than a given note id, in ascending order of id.
+     *
+     * @param afterId The id after which notes are returned, or null to start from the first note
+     * @param limit The maximum number of notes to return
+     * @return The list of notes
+     */
+    @Override
+    public List<Note> findNotesAfterId(String afterId, int limit) {
+        Query query = new Query();
+        if (afterId != null) {
+            query.addCriteria(Criteria.where("_id").gt(new ObjectId(afterId)));
+        }
+        query.with(Sort.by(Sort.Direction.ASC, "_id"));
+        query.limit(limit);
+        return mongoTemplate.find(query, Note.class);
+    }
+
+    /**
+     * Return the notes having an id lower than a given note id, in descending order of id.
+     *
+     * @param beforeId The id before which notes are returned
+     * @param limit The maximum number of notes to return
+     * @return The list of notes
+     */
+    @Override
+    public List<Note> findNotesBeforeId(String beforeId, int limit) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("_id").lt(new ObjectId(beforeId)));
+        query.with(Sort.by(Sort.Direction.DESC, "_id"));
+        query.limit(limit);
+        return mongoTemplate.find(query, Note.class);
+    }
+
+    /**
+     * Return a cursor over the notes, optionally restricted to a range of patient ids.
+     * Notes are read from the database batch by batch while the cursor is consumed. The cursor must be closed after use.
+     *
+     * @param fromPatientId The lowest patient id of the notes (inclusive), or null
+     * @param toPatientId The highest patient id of the notes (inclusive), or null
+     * @return The cursor over the notes
+     */
+    @Override
+    public CloseableIterator<Note> streamNotes(Long fromPatientId, Long toPatientId) {
+        Query query = new Query();
+        if (fromPatientId != null || toPatientId != null) {
+            Criteria criteria = Criteria.where("patientId");
+            if (fromPatientId != null) {
+                criteria.gte(fromPatientId);
+            }
+            if (toPatientId != null) {
+                criteria.lte(toPatientId);
+            }
+            query.addCriteria(criteria);
+        }
+        query.cursorBatchSize(STREAM_BATCH_SIZE);
+        return mongoTemplate.stream(query, Note.class);
+    }
+
+    /**
+     * Return a cursor over the notes of a batch of patients, ordered by patient id.
+     * Notes are read with one query from the database batch by batch while the cursor is consumed. The cursor must be closed after use.
+     *
+     * @param patientIds The ids of the patients
+     * @return The cursor over the notes
+     */
+    @Override
+    public CloseableIterator<Note> streamNotesByPatientIds(Collection<Long> patientIds) {
+        Query query = Query.query(Criteria.where("patientId").in(patientIds));
+        // Sorting on the indexed patient id only : the notes are read in the index order, without sort in memory by the database
+        query.with(Sort.by(Sort.Direction.ASC, "patientId"));
+        query.cursorBatchSize(STREAM_BATCH_SIZE);
+        return mongoTemplate.stream(query, Note.class);
+    }
+
+    /**
+     * Return in one query the identities of the patients having notes, given their ids or their last names and first names.
+     *
+     * @param patientIds The ids of the patients
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities found
+     */
+    @Override
+    public List<PatientIdentity> findPatientIdentities(Collection<Long> patientIds, Collection<PatientIdentity> patientNames) {
+        List<Criteria> criterias = new ArrayList<>();
+        if (!patientIds.isEmpty()) {
+            criterias.add(Criteria.where("patientId").in(patientIds));
+        }
+        for (PatientIdentity patientName : patientNames) {
+            criterias.add(Criteria.where("patientLastName").is(patientName.getPatientLastName()).and("patientFirstName").is(patientName.getPatientFirstName()));
+        }
+        if (criterias.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return aggregatePatientIdentities(new Criteria().orOperator(criterias.toArray(new Criteria[0])));
+    }
+
+    /**
+     * Return in one query the identities of all the patients having notes.
+     *
+     * @return The list of the identities of all the patients having notes
+     */
+    @Override
+    public List<PatientIdentity> findAllPatientIdentities() {
+        return aggregatePatientIdentities(new Criteria());
+    }
+
+    /**
+     * Return the identities of the patients of the notes matching a criteria, the first note of a patient giving its last name and first name.
+     *
+     * @param criteria The criteria on the notes
+     * @return The list of the identities found
+     */
+    private List<PatientIdentity> aggregatePatientIdentities(Criteria criteria) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("patientId").first("patientLastName").as("patientLastName").first("patientFirstName").as("patientFirstName"),
+                Aggregation.project("patientLastName", "patientFirstName"));
+        return mongoTemplate.aggregate(aggregation, Note.class, PatientIdentity.class).getMappedResults();
+    }
+
+    /**
+     * Update a note in one conditional write, only if its version in the database is still the version of the note given.
+     * The version of the note in the database is incremented.
+     *
+     * @param note The note to update, with the version it was read with
+     * @return The note as it was before the update, with its note text loaded, or null if no note has the id and the version of the note given
+     */
+    @Override
+    public Note updateNoteIfVersionMatches(Note note) {
+        // A null version also matches the notes inserted without version
+        Query query = Query.query(Criteria.where("id").is(note.getId()).and("version").is(note.getVersion()));
+        Update update = new Update()
+                .set("patientId", note.getPatientId())
+                .set("patientLastName", note.getPatientLastName())
+                .set("patientFirstName", note.getPatientFirstName())
+                .inc("version", 1L);
+        ObjectId noteTextFileId = noteTextStorage.encodeUpdate(note.getId(), note.getNoteText(), update);
+        Note previousNote = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(false), Note.class);
+        completeNoteTextUpdate(note.getId(), noteTextFileId, previousNote);
+        return previousNote;
+    }
+
+    /**
+     * Return in one query the notes given their ids.
+     *
+     * @param ids The ids of the notes
+     * @return The list of the notes found
+     */
+    @Override
+    public List<Note> findNotesByIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return mongoTemplate.find(Query.query(Criteria.where("id").in(ids)), Note.class);
+    }
+
+    /**
+     * Patch a note in one write, setting the fields given with a value and removing the fields given with a null value.
+     * The version of the note in the database is incremented.
+     *
+     * @param id The id of the note
+     * @param version The version the note must have to be patched, or null to patch the note whatever its version
+     * @param fieldValues The values of the fields to patch, by field name
+     * @return The note as it was before the patch, with its note text loaded if it is patched, or null if no note has the id (and the version) given
+     */
+    @Override
+    public Note patchNote(String id, Long version, Map<String, Object> fieldValues) {
+        Criteria criteria = Criteria.where("id").is(id);
+        if (version != null) {
+            criteria.and("version").is(version);
+        }
+        Update update = toPatchUpdate(fieldValues);
+        if (!fieldValues.containsKey(NoteTextStorageImpl.NOTE_TEXT_FIELD)) {
+            return mongoTemplate.findAndModify(Query.query(criteria), update, FindAndModifyOptions.options().returnNew(false), Note.class);
+        }
+        ObjectId noteTextFileId = noteTextStorage.encodeUpdate(id, (String) fieldValues.get(NoteTextStorageImpl.NOTE_TEXT_FIELD), update);
+        Note previousNote = mongoTemplate.findAndModify(Query.query(criteria), update, FindAndModifyOptions.options().returnNew(false), Note.class);
+        completeNoteTextUpdate(id, noteTextFileId, previousNote);
+        return previousNote;
+    }
+
+    /**
+     * Patch notes with one unordered bulk write, each note only if its version in the database is still the version of its patch.
+     * The version of each note patched is incremented. The GridFS files of the previous note texts are deleted :
+     * the note texts of the notes read before the patches must be loaded first.
+     *
+     * @param notePatches The patches, with the versions the notes must have (a null version matching the notes inserted without version)
+     * @return The number of notes matched by the patches
+     */
+    @Override
+    public long patchNotesIfVersionsMatch(List<NotePatch> notePatches) {
+        if (notePatches.isEmpty()) {
+            return 0L;
+        }
+        List<Pair<Query, Update>> updates = new ArrayList<>();
+        List<Object> noteTextPatchedIds = new ArrayList<>();
+        for (NotePatch notePatch : notePatches) {
+            Query query = Query.query(Criteria.where("id").is(notePatch.getId()).and("version").is(notePatch.getVersion()));
+            Update update = toPatchUpdate(notePatch.getPatch());
+            if (notePatch.getPatch().containsKey(NoteTextStorageImpl.NOTE_TEXT_FIELD)) {
+                noteTextStorage.encodeUpdate(notePatch.getId(), (String) notePatch.getPatch().get(NoteTextStorageImpl.NOTE_TEXT_FIELD), update);
+                noteTextPatchedIds.add(ObjectId.isValid(notePatch.getId()) ? new ObjectId(notePatch.getId()) : notePatch.getId());
+            }
+            updates.add(Pair.of(query, update));
+        }
+        long nbNotesMatched = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Note.class).updateOne(updates).execute().getMatchedCount();
+
+        // The patches not matched do not tell which ones : the GridFS files kept are the ones referenced by the notes after the bulk write
+        if (!noteTextPatchedIds.isEmpty()) {
+            Query query = Query.query(Criteria.where("_id").in(noteTextPatchedIds));
+            query.fields().include(NoteTextStorageImpl.NOTE_TEXT_FILE_ID_FIELD);
+            for (Document note : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Note.class))) {
+                noteTextStorage.deleteUnreferencedFiles(note.get("_id"), note.get(NoteTextStorageImpl.NOTE_TEXT_FILE_ID_FIELD, ObjectId.class));
+            }
+        }
+
+        return nbNotesMatched;
+    }
+
+    /**
+     * Keep, after the update of the note text of a note, only the GridFS file referenced by the note.
+     * The previous note text is loaded first, its GridFS file being deleted.
+     *
+     * @param noteId The id of the note
+     * @param noteTextFileId The id of the GridFS file referenced by the update, or null if none
+     * @param previousNote The note as it was before the update, or null if the update did not match the note
+     */
+    private void completeNoteTextUpdate(String noteId, ObjectId noteTextFileId, Note previousNote) {
+        if (previousNote != null) {
+            // The previous note text is still read by the caller, to update the trigger term rollups
+            previousNote.getNoteText();
+            noteTextStorage.deleteUnreferencedFiles(noteId, noteTextFileId);
+        } else if (noteTextFileId != null) {
+            noteTextStorage.deleteFile(noteTextFileId);
+        }
+    }
+
+    /**
+     * Return the update of a patch : $set of the fields given with a value, $unset of the fields given with a null value, and $inc of the version.
+     * The note text is not part of the update, being written by the note text storage.
+     *
+     * @param fieldValues The values of the fields to patch, by field name
+     * @return The update of the patch
+     */
+    private static Update toPatchUpdate(Map<String, Object> fieldValues) {
+        Update update = new Update();
+        for (Map.Entry<String, Object> fieldValue : fieldValues.entrySet()) {
+            if (NoteTextStorageImpl.NOTE_TEXT_FIELD.equals(fieldValue.getKey())) {
+                continue;
+            }
+            if (fieldValue.getValue() == null) {
+                update.unset(fieldValue.getKey());
+            } else {
+                update.set(fieldValue.getKey(), fieldValue.getValue());
+            }
+        }
+        return update.inc("version", 1L);
+    }
+
+    /**
+     * Insert notes with unordered batched inserts. A note failing to be inserted does not prevent the others from being inserted.
+     *
+     * @param notes The notes to insert, with their ids already set
+     * @return The error messages of the notes not inserted, by index in the list of notes
+     */
+    @Override
+    public Map<Integer, String> insertNotes(List<Note> notes) {
+        return insertNotes(notes, false);
+    }
+
+    /**
+     * Insert notes with unordered batched inserts, a note whose id already exists being reported as already inserted instead of failing.
+     *
+     * @param notes The notes to insert, with their ids already set
+     * @return The error messages of the notes not inserted, by index in the list of notes, NOTE_ALREADY_INSERTED for the notes already existing
+     */
+    @Override
+    public Map<Integer, String> insertNotesIfAbsent(List<Note> notes) {
+        return insertNotes(notes, true);
+    }
+
+    private Map<Integer, String> insertNotes(List<Note> notes, boolean duplicatesAlreadyInserted) {
+        Map<Integer, String> errors = new HashMap<>();
+        for (int batchStart = 0; batchStart < notes.size(); batchStart += INSERT_BATCH_SIZE) {
+            List<Note> batch = notes.subList(batchStart, Math.min(batchStart + INSERT_BATCH_SIZE, notes.size()));
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Note.class).insert(batch).execute();
+            } catch (BulkOperationException e) {
+                for (BulkWriteError error : e.getErrors()) {
+                    boolean alreadyInserted = duplicatesAlreadyInserted && error.getCode() == DUPLICATE_KEY_ERROR_CODE;
+                    errors.put(batchStart + error.getIndex(), alreadyInserted ? NOTE_ALREADY_INSERTED : error.getMessage());
+                }
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Return the summaries of the notes of a patient given its id.
+     * Only the needed fields are read, the preview being computed by the database.
+     *
+     * @param patientId The id of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     */
+    @Override
+    public List<NoteSummary> findNoteSummariesByPatientId(long patientId, int previewLength) {
+        return findNoteSummaries(Criteria.where("patientId").is(patientId), previewLength);
+    }
+
+    /**
+     * Return the summaries of the notes of a patient given its last name and first name.
+     * Only the needed fields are read, the preview being computed by the database.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     */
+    @Override
+    public List<NoteSummary> findNoteSummariesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName, int previewLength) {
+        return findNoteSummaries(Criteria.where("patientLastName").is(patientLastName).and("patientFirstName").is(patientFirstName), previewLength);
+    }
+
+    private List<NoteSummary> findNoteSummaries(Criteria criteria, int previewLength) {
+        // The note texts stored compressed or in GridFS have their first characters kept inline as a preview
+        AggregationExpression noteTextPreview = context -> new Document("$substrCP", Arrays.asList(
+                new Document("$ifNull", Arrays.asList("$" + NoteTextStorageImpl.NOTE_TEXT_FIELD, "$" + NoteTextStorageImpl.NOTE_TEXT_PREVIEW_FIELD)), 0, previewLength));
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.project("patientId", "patientLastName", "patientFirstName")
+                        .and(noteTextPreview).as("noteTextPreview"));
+        return mongoTemplate.aggregate(aggregation, Note.class, NoteSummary.class).getMappedResults();
+    }
+
+    /**
+     * Count, case and accent insensitively, the occurrences of trigger terms in the note texts of a batch of patients.
+     * The counts are computed by the database, no note text being read : each note is projected to the number of matches of each term,
+     * then the counts are summed by patient and the number of distinct terms found is computed.
+     *
+     * @param patientIds The ids of the patients
+     * @param triggerTerms The trigger terms to count
+     * @return The trigger term counts of each patient having notes
+     */
+    @Override
+    public List<TriggerTermCount> countTriggerTerms(Collection<Long> patientIds, List<String> triggerTerms) {
+
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(triggerTerms));
+
+        // Terms are referenced by their position, as they may contain characters not allowed in field names
+        Document termCountsProjection = new Document("patientId", 1);
+        Document termCountsGroup = new Document("_id", "$patientId");
+        List<Document> termFoundIndicators = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            String field = TERM_COUNT_FIELD_PREFIX + i;
+            Document regexFindAll = new Document("input", "$noteText").append("regex", toAccentInsensitiveRegex(terms.get(i))).append("options", "i");
+            termCountsProjection.append(field, new Document("$size", new Document("$regexFindAll", regexFindAll)));
+            termCountsGroup.append(field, new Document("$sum", "$" + field));
+            termFoundIndicators.add(new Document("$cond", Arrays.asList(new Document("$gt", Arrays.asList("$" + field, 0)), 1, 0)));
+        }
+
+        AggregationOperation projectTermCounts = context -> new Document("$project", termCountsProjection);
+        AggregationOperation groupTermCounts = context -> new Document("$group", termCountsGroup);
+        AggregationOperation addDistinctTermCount = context -> new Document("$addFields", new Document(DISTINCT_TERM_COUNT_FIELD, new Document("$add", termFoundIndicators)));
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("patientId").in(patientIds)),
+                projectTermCounts,
+                groupTermCounts,
+                addDistinctTermCount);
+
+        List<TriggerTermCount> triggerTermCounts = new ArrayList<>();
+        Map<Long, TriggerTermCount> triggerTermCountsByPatientId = new HashMap<>();
+        for (Document result : mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(Note.class), Document.class)) {
+            Map<String, Long> termCounts = new LinkedHashMap<>();
+            for (int i = 0; i < terms.size(); i++) {
+                termCounts.put(terms.get(i), ((Number) result.get(TERM_COUNT_FIELD_PREFIX + i)).longValue());
+            }
+            TriggerTermCount triggerTermCount = new TriggerTermCount(((Number) result.get("_id")).longValue(), termCounts, ((Number) result.get(DISTINCT_TERM_COUNT_FIELD)).intValue());
+            triggerTermCounts.add(triggerTermCount);
+            triggerTermCountsByPatientId.put(triggerTermCount.getPatientId(), triggerTermCount);
+        }
+
+        addCompressedNoteTriggerTermCounts(patientIds, terms, triggerTermCountsByPatientId);
+
+        return triggerTermCounts;
+    }
+
+    /**
+     * Add to the trigger term counts computed by the database the occurrences of the trigger terms in the note texts stored compressed or in GridFS,
+     * which are counted after their decompression with the same regular expressions.
+     *
+     * @param patientIds The ids of the patients
+     * @param terms The distinct trigger terms to count
+     * @param triggerTermCountsByPatientId The trigger term counts of each patient having notes, by patient id
+     */
+    private void addCompressedNoteTriggerTermCounts(Collection<Long> patientIds, List<String> terms, Map<Long, TriggerTermCount> triggerTermCountsByPatientId) {
+
+        Query query = Query.query(Criteria.where("patientId").in(patientIds).and(NoteTextStorageImpl.NOTE_TEXT_FIELD).exists(false));
+        List<Note> compressedNotes = mongoTemplate.find(query, Note.class);
+        if (compressedNotes.isEmpty()) {
+            return;
+        }
+
+        List<Pattern> termPatterns = new ArrayList<>();
+        for (String term : terms) {
+            termPatterns.add(Pattern.compile(toAccentInsensitiveRegex(term), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+        }
+
+        for (Note note : compressedNotes) {
+            String noteText = note.getNoteText();
+            if (noteText == null) {
+                continue;
+            }
+            TriggerTermCount triggerTermCount = triggerTermCountsByPatientId.get(note.getPatientId());
+            for (int i = 0; i < terms.size(); i++) {
+                Matcher matcher = termPatterns.get(i).matcher(noteText);
+                long nbOccurrences = 0L;
+                while (matcher.find()) {
+                    nbOccurrences++;
+                }
+                triggerTermCount.getTermCounts().merge(terms.get(i), nbOccurrences, Long::sum);
+            }
+            triggerTermCount.setDistinctTermCount((int) triggerTermCount.getTermCounts().values().stream().filter(count -> count > 0L).count());
+        }
+    }
+
+    /**
+     * Return a regular expression matching a term whatever the accents of its letters, and whatever the number of spaces between its words.
+     * Case insensitivity is given by the "i" option of the regular expression.
+     *
+     * @param term The term
+     * @return The regular expression matching the term
+     */
+    static String toAccentInsensitiveRegex(String term) {
+        String unaccentedTerm = Normalizer.normalize(term.trim(), Normalizer.Form.NFD).replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+        StringBuilder regex = new StringBuilder();
+        boolean previousIsSpace = false;
+        for (char character : unaccentedTerm.toCharArray()) {
+            if (Character.isWhitespace(character)) {
+                if (!previousIsSpace) {
+                    regex.append("\\s+");
+                }
+                previousIsSpace = true;
+                continue;
+            }
+            previousIsSpace = false;
+            String accentedLetters = getAccentedLetters(character);
+            if (accentedLetters != null) {
+                regex.append('[').append(accentedLetters).append(accentedLetters.toUpperCase(Locale.ROOT)).append(']');
+            } else if (REGEX_SPECIAL_CHARACTERS.indexOf(character) >= 0) {
+                regex.append('\\').append(character);
+            } else {
+                regex.append(character);
+            }
+        }
+        return regex.toString();
+    }
+
+    private static String getAccentedLetters(char letter) {
+        for (String accentedLetters : ACCENTED_LETTERS) {
+            if (accentedLetters.charAt(0) == letter) {
+                return accentedLetters;
+            }
+        }
+        return null;
+    }
 }
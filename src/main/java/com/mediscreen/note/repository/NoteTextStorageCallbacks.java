@@ -0,0 +1,99 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.Note;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveCallback;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.stereotype.Component;
+
+/**
+ * Component plugging the storage of the note texts in the mapping of the notes : note texts are compressed or stored in GridFS
+ * when the notes are written, and decompressed lazily when the notes are read.
+ */
+@Component
+public class NoteTextStorageCallbacks extends AbstractMongoEventListener<Note>
+        implements BeforeConvertCallback<Note>, BeforeSaveCallback<Note>, AfterSaveCallback<Note>, AfterConvertCallback<Note> {
+
+    private final INoteTextStorage noteTextStorage;
+
+    public NoteTextStorageCallbacks(INoteTextStorage noteTextStorage) {
+        this.noteTextStorage = noteTextStorage;
+    }
+
+    /**
+     * Load the note text of a note read then written without its note text being accessed, so that it is written.
+     *
+     * @param note The note being written
+     * @param collection The collection of the note
+     * @return The note
+     */
+    @Override
+    public Note onBeforeConvert(Note note, String collection) {
+        note.getNoteText();
+        return note;
+    }
+
+    /**
+     * Compress the note text of a note being written, or store it in GridFS, if it is large enough.
+     *
+     * @param note The note being written
+     * @param document The document of the note
+     * @param collection The collection of the note
+     * @return The note
+     */
+    @Override
+    public Note onBeforeSave(Note note, Document document, String collection) {
+        noteTextStorage.encode(document);
+        return note;
+    }
+
+    /**
+     * Delete the GridFS files previously referenced by a note updated.
+     *
+     * @param note The note written
+     * @param document The document of the note
+     * @param collection The collection of the note
+     * @return The note
+     */
+    @Override
+    public Note onAfterSave(Note note, Document document, String collection) {
+        // A note inserted has no previous file : its version is 0, or null for a note without version
+        if (note.getVersion() != null && note.getVersion() > 0L) {
+            noteTextStorage.deleteUnreferencedFiles(document.get("_id"), document.get(NoteTextStorageImpl.NOTE_TEXT_FILE_ID_FIELD, ObjectId.class));
+        }
+        return note;
+    }
+
+    /**
+     * Set on a note read the loader of its note text, if it is stored compressed or in GridFS.
+     *
+     * @param note The note read
+     * @param document The document of the note
+     * @param collection The collection of the note
+     * @return The note
+     */
+    @Override
+    public Note onAfterConvert(Note note, Document document, String collection) {
+        noteTextStorage.decode(note, document);
+        return note;
+    }
+
+    /**
+     * Delete the GridFS files of a note deleted by its id.
+     *
+     * @param event The event published when notes are deleted, holding the query of the deletion
+     */
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Note> event) {
+        // The query is not mapped yet : the id is given by the "id" property or by the "_id" field
+        Object noteId = event.getSource().containsKey("id") ? event.getSource().get("id") : event.getSource().get("_id");
+        if (noteId instanceof ObjectId || noteId instanceof String) {
+            noteTextStorage.deleteUnreferencedFiles(noteId, null);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.Note;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class in charge of storing the note texts : a note text is stored inline in the note document below the compression threshold,
+ * gzip compressed in the note document above it, and in a GridFS file above the GridFS threshold once compressed.
+ * Compressed and GridFS note texts are decompressed lazily, only when the note text of the note read is accessed.
+ * Their first characters are kept inline as a preview, so that the note summaries are still computed by the database.
+ */
+@Repository
+public class NoteTextStorageImpl implements INoteTextStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(NoteTextStorageImpl.class);
+
+    static final String NOTE_TEXT_FIELD = "noteText";
+
+    static final String COMPRESSED_NOTE_TEXT_FIELD = "noteTextGzip";
+
+    static final String NOTE_TEXT_FILE_ID_FIELD = "noteTextFileId";
+
+    static final String NOTE_TEXT_PREVIEW_FIELD = "noteTextPreview";
+
+    static final String BUCKET_NAME = "noteTexts";
+
+    private static final String NOTE_ID_METADATA = "noteId";
+
+    // Longest preview returned by the note summaries endpoints
+    private static final int PREVIEW_LENGTH = 1000;
+
+    private final MongoTemplate mongoTemplate;
+    private final int compressionThresholdBytes;
+    private final int gridFsThresholdBytes;
+
+    private volatile boolean filesIndexEnsured;
+
+    public NoteTextStorageImpl(MongoTemplate mongoTemplate,
+                               @Value("${note.text-storage.compression-threshold-bytes:16384}") int compressionThresholdBytes,
+                               @Value("${note.text-storage.gridfs-threshold-bytes:4194304}") int gridFsThresholdBytes) {
+        this.mongoTemplate = mongoTemplate;
+        this.compressionThresholdBytes = compressionThresholdBytes;
+        this.gridFsThresholdBytes = gridFsThresholdBytes;
+    }
+
+    /**
+     * Replace in the document of a note being written its note text by its compressed form or by a reference to a GridFS file, if it is large enough.
+     * The document is given an id if it has none, the GridFS file being linked to the note by its id.
+     *
+     * @param document The document of the note
+     */
+    @Override
+    public void encode(Document document) {
+
+        Object noteText = document.get(NOTE_TEXT_FIELD);
+        if (!(noteText instanceof String)) {
+            return;
+        }
+
+        byte[] noteTextBytes = ((String) noteText).getBytes(StandardCharsets.UTF_8);
+        if (noteTextBytes.length < compressionThresholdBytes) {
+            return;
+        }
+
+        byte[] compressedNoteText = compress(noteTextBytes);
+        document.remove(NOTE_TEXT_FIELD);
+        document.put(NOTE_TEXT_PREVIEW_FIELD, preview((String) noteText));
+
+        if (compressedNoteText.length < gridFsThresholdBytes) {
+            document.put(COMPRESSED_NOTE_TEXT_FIELD, new Binary(compressedNoteText));
+        } else {
+            if (document.get("_id") == null) {
+                document.put("_id", new ObjectId());
+            }
+            document.put(NOTE_TEXT_FILE_ID_FIELD, store(document.get("_id"), compressedNoteText));
+        }
+    }
+
+    /**
+     * Set on a note read the loader of its note text, if it is stored compressed or in GridFS.
+     *
+     * @param note The note read
+     * @param document The document of the note
+     */
+    @Override
+    public void decode(Note note, Document document) {
+
+        Object compressedNoteText = document.get(COMPRESSED_NOTE_TEXT_FIELD);
+        if (compressedNoteText instanceof Binary) {
+            byte[] compressedNoteTextBytes = ((Binary) compressedNoteText).getData();
+            note.setNoteTextLoader(() -> decompress(compressedNoteTextBytes));
+            return;
+        }
+
+        Object fileId = document.get(NOTE_TEXT_FILE_ID_FIELD);
+        if (fileId instanceof ObjectId) {
+            note.setNoteTextLoader(() -> decompress(load((ObjectId) fileId)));
+        }
+    }
+
+    /**
+     * Add to an update of a note the writing of its note text, inline, compressed or in GridFS, the fields of the other forms being removed.
+     *
+     * @param noteId The id of the note
+     * @param noteText The note text, or null to remove it
+     * @param update The update of the note
+     * @return The id of the GridFS file referenced by the update, or null if the note text is not stored in GridFS
+     */
+    @Override
+    public ObjectId encodeUpdate(Object noteId, String noteText, Update update) {
+
+        Document document = new Document("_id", noteId).append(NOTE_TEXT_FIELD, noteText);
+        encode(document);
+
+        for (String field : new String[]{NOTE_TEXT_FIELD, COMPRESSED_NOTE_TEXT_FIELD, NOTE_TEXT_FILE_ID_FIELD, NOTE_TEXT_PREVIEW_FIELD}) {
+            if (document.get(field) != null) {
+                update.set(field, document.get(field));
+            } else {
+                update.unset(field);
+            }
+        }
+
+        return document.get(NOTE_TEXT_FILE_ID_FIELD, ObjectId.class);
+    }
+
+    /**
+     * Delete the GridFS files of a note, except the one referenced by the note.
+     *
+     * @param noteId The id of the note
+     * @param referencedFileId The id of the GridFS file referenced by the note, or null if none
+     */
+    @Override
+    public void deleteUnreferencedFiles(Object noteId, ObjectId referencedFileId) {
+        GridFSBucket bucket = bucket();
+        for (GridFSFile file : bucket.find(Filters.eq("metadata." + NOTE_ID_METADATA, noteId.toString()))) {
+            if (!file.getObjectId().equals(referencedFileId)) {
+                bucket.delete(file.getObjectId());
+                logger.info("Note text file {} of note {} deleted", file.getObjectId(), noteId);
+            }
+        }
+    }
+
+    /**
+     * Delete a GridFS file of note text.
+     *
+     * @param fileId The id of the file
+     */
+    @Override
+    public void deleteFile(ObjectId fileId) {
+        bucket().delete(fileId);
+    }
+
+    /**
+     * Store a compressed note text in a new GridFS file, linked to its note by the id of the note.
+     *
+     * @param noteId The id of the note
+     * @param compressedNoteText The compressed note text
+     * @return The id of the file
+     */
+    private ObjectId store(Object noteId, byte[] compressedNoteText) {
+        GridFSBucket bucket = bucket();
+        if (!filesIndexEnsured) {
+            // The files of a note are found by its id when its note text is replaced or when it is deleted
+            mongoTemplate.getCollection(BUCKET_NAME + ".files").createIndex(Indexes.ascending("metadata." + NOTE_ID_METADATA), new IndexOptions().background(true));
+            filesIndexEnsured = true;
+        }
+        ObjectId fileId = bucket.uploadFromStream(noteId.toString(), new ByteArrayInputStream(compressedNoteText),
+                new GridFSUploadOptions().metadata(new Document(NOTE_ID_METADATA, noteId.toString())));
+        logger.info("Note text of note {} stored in file {} : {} bytes compressed", noteId, fileId, compressedNoteText.length);
+        return fileId;
+    }
+
+    /**
+     * Return the content of a GridFS file of note text.
+     *
+     * @param fileId The id of the file
+     * @return The compressed note text
+     */
+    private byte[] load(ObjectId fileId) {
+        ByteArrayOutputStream compressedNoteText = new ByteArrayOutputStream();
+        bucket().downloadToStream(fileId, compressedNoteText);
+        return compressedNoteText.toByteArray();
+    }
+
+    private GridFSBucket bucket() {
+        return GridFSBuckets.create(mongoTemplate.getDb(), BUCKET_NAME);
+    }
+
+    static byte[] compress(byte[] bytes) {
+        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressedBytes)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressedBytes.toByteArray();
+    }
+
+    static String decompress(byte[] compressedBytes) {
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressedBytes))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressedBytes.length * 4);
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = gzip.read(buffer)) != -1) {
+                bytes.write(buffer, 0, length);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Return the first characters of a note text, without splitting a surrogate pair.
+     *
+     * @param noteText The note text
+     * @return The preview of the note text
+     */
+    private static String preview(String noteText) {
+        if (noteText.length() <= PREVIEW_LENGTH) {
+            return noteText;
+        }
+        int end = Character.isHighSurrogate(noteText.charAt(PREVIEW_LENGTH - 1)) ? PREVIEW_LENGTH - 1 : PREVIEW_LENGTH;
+        return noteText.substring(0, end);
+    }
+}
@@ -0,0 +1,110 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mongodb.bulk.BulkWriteError;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Class in charge of managing the collection of the identities of the patients, read and written without the notes of the patients.
+ */
+@Repository
+public class PatientIdentityRepositoryImpl implements IPatientIdentityRepository {
+
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+    private static final int STREAM_BATCH_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    public PatientIdentityRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Return in one query the identities of patients, given their ids or their last names and first names.
+     *
+     * @param patientIds The ids of the patients
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities found
+     */
+    @Override
+    public List<PatientIdentity> findIdentities(Collection<Long> patientIds, Collection<PatientIdentity> patientNames) {
+        List<Criteria> criterias = new ArrayList<>();
+        if (!patientIds.isEmpty()) {
+            criterias.add(Criteria.where("_id").in(patientIds));
+        }
+        for (PatientIdentity patientName : patientNames) {
+            criterias.add(Criteria.where("patientLastName").is(patientName.getPatientLastName()).and("patientFirstName").is(patientName.getPatientFirstName()));
+        }
+        if (criterias.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return mongoTemplate.find(Query.query(new Criteria().orOperator(criterias.toArray(new Criteria[0]))), PatientIdentity.class);
+    }
+
+    /**
+     * Save identities with an unordered bulk write, setting the last name and first name of the patients given by their ids.
+     * An identity whose last name and first name are already the ones of another patient is not saved.
+     *
+     * @param identities The identities to save
+     * @return The identities not saved because their last name and first name are already the ones of another patient
+     */
+    @Override
+    public List<PatientIdentity> saveIdentities(List<PatientIdentity> identities) {
+        List<PatientIdentity> identitiesNotSaved = new ArrayList<>();
+        if (identities.isEmpty()) {
+            return identitiesNotSaved;
+        }
+        List<Pair<Query, Update>> upserts = new ArrayList<>();
+        for (PatientIdentity identity : identities) {
+            Update update = new Update().set("patientLastName", identity.getPatientLastName()).set("patientFirstName", identity.getPatientFirstName());
+            upserts.add(Pair.of(Query.query(Criteria.where("_id").is(identity.getPatientId())), update));
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, PatientIdentity.class).upsert(upserts).execute();
+        } catch (BulkOperationException e) {
+            // The unique index on the last name and first name rejected the identities of patients already having another id
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    throw e;
+                }
+                identitiesNotSaved.add(identities.get(error.getIndex()));
+            }
+        }
+        return identitiesNotSaved;
+    }
+
+    /**
+     * Return a cursor over all the identities, to be closed once consumed.
+     *
+     * @return The cursor over the identities
+     */
+    @Override
+    public CloseableIterator<PatientIdentity> streamIdentities() {
+        Query query = new Query();
+        query.cursorBatchSize(STREAM_BATCH_SIZE);
+        return mongoTemplate.stream(query, PatientIdentity.class);
+    }
+
+    /**
+     * Return if at least one identity exists.
+     *
+     * @return true if at least one identity exists
+     */
+    @Override
+    public boolean existsIdentity() {
+        return mongoTemplate.exists(new Query(), PatientIdentity.class);
+    }
+}
@@ -0,0 +1,29 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.Note;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+/**
+ * Interface extending the ReactiveMongoRepository interface to manage non-blocking CRUD methods for Note entities, using Spring Data.
+ * It mirrors the NoteRepository interface.
+ */
+public interface ReactiveNoteRepository extends ReactiveMongoRepository<Note, String> {
+
+    /**
+     * Return the notes given the patient last name and first name.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The notes corresponding to the patient last name and first name
+     */
+    Flux<Note> findByPatientLastNameAndPatientFirstName (String patientLastName, String patientFirstName);
+
+    /**
+     * Return the notes given the patient id.
+     *
+     * @param patientId The id of the patient
+     * @return The notes corresponding to the patient id
+     */
+    Flux<Note> findByPatientId (long patientId);
+}
@@ -0,0 +1,50 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.Note;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveAfterConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeSaveCallback;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Component plugging the storage of the note texts in the mapping of the notes written and read by the reactive repository.
+ * The compression and the GridFS writes run on the bounded elastic scheduler, the GridFS client being blocking.
+ */
+@Component
+public class ReactiveNoteTextStorageCallbacks implements ReactiveBeforeConvertCallback<Note>, ReactiveBeforeSaveCallback<Note>, ReactiveAfterConvertCallback<Note> {
+
+    private final INoteTextStorage noteTextStorage;
+
+    public ReactiveNoteTextStorageCallbacks(INoteTextStorage noteTextStorage) {
+        this.noteTextStorage = noteTextStorage;
+    }
+
+    @Override
+    public Publisher<Note> onBeforeConvert(Note note, String collection) {
+        if (note.isNoteTextLoaded()) {
+            return Mono.just(note);
+        }
+        return Mono.fromCallable(() -> {
+            note.getNoteText();
+            return note;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Publisher<Note> onBeforeSave(Note note, Document document, String collection) {
+        return Mono.fromCallable(() -> {
+            noteTextStorage.encode(document);
+            return note;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Publisher<Note> onAfterConvert(Note note, Document document, String collection) {
+        noteTextStorage.decode(note, document);
+        return Mono.just(note);
+    }
+}
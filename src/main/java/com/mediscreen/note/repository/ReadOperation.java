@@ -0,0 +1,64 @@
+package com.mediscreen.note.repository;
+
+/**
+ * Enumeration of the read operations of the notes whose read preference is configured, with the "note.read-preference.{name}" property.
+ */
+public enum ReadOperation {
+
+    /**
+     * Read of a note given its id, before its update.
+     */
+    NOTE("note", false),
+
+    /**
+     * Read of a page of the notes list.
+     */
+    NOTE_LIST("note-list", false),
+
+    /**
+     * Read of the notes of a patient.
+     */
+    HISTORY("history", false),
+
+    /**
+     * Read of the summaries of the notes of a patient.
+     */
+    HISTORY_SUMMARY("history-summary", false),
+
+    /**
+     * Count of the trigger terms in the notes of patients.
+     */
+    TRIGGER_TERM_COUNT("trigger-term-count", false),
+
+    /**
+     * Export of the notes with a database cursor, read after the operation returns.
+     */
+    EXPORT("export", true);
+
+    private final String propertyName;
+
+    private final boolean streamed;
+
+    ReadOperation(String propertyName, boolean streamed) {
+        this.propertyName = propertyName;
+        this.streamed = streamed;
+    }
+
+    /**
+     * Return the name of the operation in the read preference property.
+     *
+     * @return The name of the operation
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * Return whether the operation returns a cursor read after the operation returns, which cannot be bound to a session closed by then.
+     *
+     * @return true if the operation returns a cursor
+     */
+    public boolean isStreamed() {
+        return streamed;
+    }
+}
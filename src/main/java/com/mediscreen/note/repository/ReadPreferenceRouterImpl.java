@@ -0,0 +1,329 @@
+package com.mediscreen.note.repository;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BSONException;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.json.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Class in charge of routing the queries of the operations to the members of the replica set given by their read preference.
+ * The MongoTemplate having no read preference per query, it gets its database from this factory : the database returned is bound to the read preference,
+ * and to the causally consistent session, of the operation running in the current thread.
+ * A read sent to a secondary after a write known by the instance runs in a causally consistent session advanced to the operation time of the write,
+ * so that the secondary waits until it has applied the write : a history evicted from the caches by a write is not loaded again from a secondary lagging behind.
+ */
+public class ReadPreferenceRouterImpl implements MongoDatabaseFactory, IReadPreferenceRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadPreferenceRouterImpl.class);
+
+    private static final ClientSessionOptions CAUSALLY_CONSISTENT = ClientSessionOptions.builder().causallyConsistent(true).build();
+
+    private static final String OPERATION_TIME = "operationTime";
+    private static final String CLUSTER_TIME = "clusterTime";
+
+    // A token from the future would make the secondaries wait for writes which do not exist
+    private static final long MAX_TOKEN_CLOCK_SKEW_SECONDS = 60L;
+
+    private final MongoDatabaseFactory delegate;
+    private final Map<ReadOperation, ReadPreference> readPreferences;
+    private final boolean secondaryReads;
+
+    private final ThreadLocal<Route> currentRoute = new ThreadLocal<>();
+    private final AtomicReference<WriteTime> lastWriteTime = new AtomicReference<>();
+
+    public ReadPreferenceRouterImpl(MongoDatabaseFactory delegate, Map<ReadOperation, ReadPreference> readPreferences) {
+        this.delegate = delegate;
+        this.readPreferences = new EnumMap<>(ReadOperation.class);
+        for (ReadOperation operation : ReadOperation.values()) {
+            this.readPreferences.put(operation, readPreferences.getOrDefault(operation, ReadPreference.primary()));
+        }
+        this.secondaryReads = this.readPreferences.values().stream().anyMatch(readPreference -> !ReadPreference.primary().equals(readPreference));
+    }
+
+    /**
+     * Return the read preference configured for a read operation.
+     *
+     * @param operation The read operation
+     * @return The read preference of the operation, primary if none is configured
+     */
+    public ReadPreference getReadPreference(ReadOperation operation) {
+        return readPreferences.get(operation);
+    }
+
+    /**
+     * Run the queries of a read operation with the read preference configured for it.
+     *
+     * @param operation The read operation
+     * @param query The queries of the operation
+     * @param <T> The type of the result
+     * @return The result of the queries
+     */
+    @Override
+    public <T> T read(ReadOperation operation, Supplier<T> query) {
+        return readAfter(operation, null, query);
+    }
+
+    /**
+     * Run the queries of a read operation with the read preference configured for it, causally consistent with the writes of a read-after-write token,
+     * possibly made by another instance.
+     *
+     * @param operation The read operation
+     * @param readAfterWriteToken The token returned after the writes, or null
+     * @param query The queries of the operation
+     * @param <T> The type of the result
+     * @return The result of the queries
+     */
+    @Override
+    public <T> T readAfterWrite(ReadOperation operation, String readAfterWriteToken, Supplier<T> query) {
+        return readAfter(operation, readAfterWriteToken, query);
+    }
+
+    /**
+     * Run writes on the primary in a causally consistent session, their operation time being kept for the reads which follow.
+     *
+     * @param write The writes
+     * @param <T> The type of the result
+     * @return The result of the writes
+     */
+    @Override
+    public <T> T write(Supplier<T> write) {
+
+        // All the reads on the primary -> they see every acknowledged write, the operation time is useless
+        if (!secondaryReads) {
+            return write.get();
+        }
+
+        try (ClientSession session = delegate.getSession(CAUSALLY_CONSISTENT)) {
+            T result = route(new Route(null, session), write);
+            // No operation time on a standalone server, which has no secondary to read from
+            if (session.getOperationTime() != null) {
+                lastWriteTime.accumulateAndGet(new WriteTime(session.getOperationTime(), session.getClusterTime()), WriteTime::latest);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Advance the operation time known by the instance to the time of a write of another instance, received from the change stream.
+     *
+     * @param operationTime The cluster time of the write
+     */
+    @Override
+    public void advanceOperationTime(BsonTimestamp operationTime) {
+        lastWriteTime.accumulateAndGet(new WriteTime(operationTime, null), WriteTime::latest);
+    }
+
+    /**
+     * Return a token of the writes known by the instance : their operation time and signed cluster time, in JSON encoded in base64url.
+     *
+     * @return The read-after-write token, or null if no write is known
+     */
+    @Override
+    public String getReadAfterWriteToken() {
+
+        WriteTime writeTime = lastWriteTime.get();
+        if (writeTime == null) {
+            return null;
+        }
+
+        // The signed cluster time is given with the operation time, so that another instance can gossip it to a secondary which has not applied the writes yet
+        BsonDocument token = new BsonDocument(OPERATION_TIME, writeTime.operationTime);
+        if (writeTime.clusterTime != null) {
+            token.append(CLUSTER_TIME, writeTime.clusterTime);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Return the database, bound to the read preference and to the session of the operation running in the current thread.
+     *
+     * @return The database
+     * @throws DataAccessException if the database cannot be returned
+     */
+    @Override
+    public MongoDatabase getMongoDatabase() throws DataAccessException {
+        Route route = currentRoute.get();
+        if (route == null) {
+            return delegate.getMongoDatabase();
+        }
+        return route.apply(route.session != null ? delegate.withSession(route.session).getMongoDatabase() : delegate.getMongoDatabase());
+    }
+
+    /**
+     * Return a database given its name, bound to the read preference and to the session of the operation running in the current thread.
+     *
+     * @param dbName The name of the database
+     * @return The database
+     * @throws DataAccessException if the database cannot be returned
+     */
+    @Override
+    public MongoDatabase getMongoDatabase(String dbName) throws DataAccessException {
+        Route route = currentRoute.get();
+        if (route == null) {
+            return delegate.getMongoDatabase(dbName);
+        }
+        return route.apply(route.session != null ? delegate.withSession(route.session).getMongoDatabase(dbName) : delegate.getMongoDatabase(dbName));
+    }
+
+    /**
+     * Return the translator of the exceptions of the driver.
+     *
+     * @return The exception translator
+     */
+    @Override
+    public PersistenceExceptionTranslator getExceptionTranslator() {
+        return delegate.getExceptionTranslator();
+    }
+
+    /**
+     * Start a session.
+     *
+     * @param options The options of the session
+     * @return The session started
+     */
+    @Override
+    public ClientSession getSession(ClientSessionOptions options) {
+        return delegate.getSession(options);
+    }
+
+    /**
+     * Return a factory of the databases bound to a session, for the MongoTemplate bound to it.
+     *
+     * @param session The session
+     * @return The factory bound to the session
+     */
+    @Override
+    public MongoDatabaseFactory withSession(ClientSession session) {
+        return delegate.withSession(session);
+    }
+
+    private <T> T readAfter(ReadOperation operation, String readAfterWriteToken, Supplier<T> query) {
+
+        ReadPreference readPreference = readPreferences.get(operation);
+
+        // The primary sees every acknowledged write
+        if (ReadPreference.primary().equals(readPreference)) {
+            return query.get();
+        }
+
+        // The cursor of a streamed operation is read after the session would be closed : the exports accept the replication lag
+        if (operation.isStreamed()) {
+            return route(new Route(readPreference, null), query);
+        }
+
+        WriteTime writeTime = WriteTime.latest(lastWriteTime.get(), decode(readAfterWriteToken));
+        if (writeTime == null) {
+            return route(new Route(readPreference, null), query);
+        }
+
+        try (ClientSession session = delegate.getSession(CAUSALLY_CONSISTENT)) {
+            if (writeTime.clusterTime != null) {
+                session.advanceClusterTime(writeTime.clusterTime);
+            }
+            session.advanceOperationTime(writeTime.operationTime);
+            return route(new Route(readPreference, session), query);
+        }
+    }
+
+    private <T> T route(Route route, Supplier<T> operation) {
+        Route previousRoute = currentRoute.get();
+        currentRoute.set(route);
+        try {
+            return operation.get();
+        } finally {
+            if (previousRoute == null) {
+                currentRoute.remove();
+            } else {
+                currentRoute.set(previousRoute);
+            }
+        }
+    }
+
+    private static WriteTime decode(String readAfterWriteToken) {
+
+        if (readAfterWriteToken == null || readAfterWriteToken.isEmpty()) {
+            return null;
+        }
+
+        try {
+            BsonDocument token = BsonDocument.parse(new String(Base64.getUrlDecoder().decode(readAfterWriteToken), StandardCharsets.UTF_8));
+            BsonTimestamp operationTime = token.getTimestamp(OPERATION_TIME);
+            BsonDocument clusterTime = token.containsKey(CLUSTER_TIME) ? token.getDocument(CLUSTER_TIME) : null;
+            long maxTimeSeconds = System.currentTimeMillis() / 1000L + MAX_TOKEN_CLOCK_SKEW_SECONDS;
+            if (operationTime.getTime() > maxTimeSeconds || (clusterTime != null && clusterTime.getTimestamp(CLUSTER_TIME).getTime() > maxTimeSeconds)) {
+                logger.warn("Read-after-write token from the future ignored : {}", readAfterWriteToken);
+                return null;
+            }
+            return new WriteTime(operationTime, clusterTime);
+        } catch (IllegalArgumentException | BSONException | JsonParseException e) {
+            logger.warn("Invalid read-after-write token ignored : {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The read preference, and the session, of the operation running in a thread.
+     */
+    private static final class Route {
+
+        private final ReadPreference readPreference;
+        private final ClientSession session;
+
+        private Route(ReadPreference readPreference, ClientSession session) {
+            this.readPreference = readPreference;
+            this.session = session;
+        }
+
+        private MongoDatabase apply(MongoDatabase database) {
+            return readPreference != null ? database.withReadPreference(readPreference) : database;
+        }
+    }
+
+    /**
+     * The operation time of a write, with the cluster time signed by the servers when it is known.
+     */
+    private static final class WriteTime {
+
+        private final BsonTimestamp operationTime;
+        private final BsonDocument clusterTime;
+
+        private WriteTime(BsonTimestamp operationTime, BsonDocument clusterTime) {
+            this.operationTime = operationTime;
+            this.clusterTime = clusterTime;
+        }
+
+        private static WriteTime latest(WriteTime writeTime1, WriteTime writeTime2) {
+            if (writeTime1 == null) {
+                return writeTime2;
+            }
+            if (writeTime2 == null) {
+                return writeTime1;
+            }
+            BsonTimestamp operationTime = writeTime1.operationTime.compareTo(writeTime2.operationTime) >= 0 ? writeTime1.operationTime : writeTime2.operationTime;
+            BsonDocument clusterTime;
+            if (writeTime1.clusterTime == null || writeTime2.clusterTime == null) {
+                clusterTime = writeTime1.clusterTime != null ? writeTime1.clusterTime : writeTime2.clusterTime;
+            } else {
+                clusterTime = writeTime1.clusterTime.getTimestamp(CLUSTER_TIME).compareTo(writeTime2.clusterTime.getTimestamp(CLUSTER_TIME)) >= 0
+                        ? writeTime1.clusterTime : writeTime2.clusterTime;
+            }
+            return new WriteTime(operationTime, clusterTime);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.Sequence;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Class in charge of managing named sequences in the counters collection, using atomic find-and-modify operations.
+ */
+@Repository
+public class SequenceRepositoryImpl implements ISequenceRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    public SequenceRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Atomically increment a sequence and return its new value. The sequence is created if it does not exist.
+     *
+     * @param sequenceName The name of the sequence
+     * @param increment The value to add to the sequence
+     * @return The value of the sequence after the increment
+     */
+    @Override
+    public long incrementSequence(String sequenceName, long increment) {
+        Query query = Query.query(Criteria.where("_id").is(sequenceName));
+        Update update = new Update().inc("value", increment);
+        FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true).upsert(true);
+        Sequence sequence;
+        try {
+            sequence = mongoTemplate.findAndModify(query, update, options, Sequence.class);
+        } catch (DuplicateKeyException e) {
+            // Two concurrent upserts created the sequence at the same time -> the retry updates the existing one
+            sequence = mongoTemplate.findAndModify(query, update, options, Sequence.class);
+        }
+        return sequence.getValue();
+    }
+
+    /**
+     * Atomically raise a sequence to a minimum value. The sequence is created if it does not exist.
+     *
+     * @param sequenceName The name of the sequence
+     * @param minimumValue The minimum value of the sequence
+     */
+    @Override
+    public void ensureSequenceAtLeast(String sequenceName, long minimumValue) {
+        Query query = Query.query(Criteria.where("_id").is(sequenceName));
+        Update update = new Update().max("value", minimumValue);
+        try {
+            mongoTemplate.upsert(query, update, Sequence.class);
+        } catch (DuplicateKeyException e) {
+            // Two concurrent upserts created the sequence at the same time -> the retry updates the existing one
+            mongoTemplate.upsert(query, update, Sequence.class);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.NoteTermCounts;
+import com.mediscreen.note.domain.TriggerTermRollup;
+import com.mongodb.bulk.BulkWriteError;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class in charge of managing the per-patient trigger term rollups, using atomic updates batched in unordered bulk writes.
+ * The term counts of the notes are upserted and the recomputed rollups are only saved over the version they were computed from, so that no note write is overwritten.
+ */
+@Repository
+public class TriggerTermRollupRepositoryImpl implements ITriggerTermRollupRepository {
+
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+    private static final String NOTES_FIELD = "notes";
+    private static final String NOTE_VERSION_FIELD = "noteVersion";
+    private static final String VERSION_FIELD = "version";
+
+    private final MongoTemplate mongoTemplate;
+
+    public TriggerTermRollupRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Return the trigger term rollup of a patient.
+     *
+     * @param patientId The id of the patient
+     * @return The rollup of the patient, or null if the patient has no rollup
+     */
+    @Override
+    public TriggerTermRollup findRollup(long patientId) {
+        return mongoTemplate.findById(patientId, TriggerTermRollup.class);
+    }
+
+    /**
+     * Return the versions of the rollups of a range of patients.
+     *
+     * @param fromPatientId The lowest patient id (inclusive)
+     * @param toPatientId The highest patient id (inclusive)
+     * @return The versions of the existing rollups, by patient id
+     */
+    @Override
+    public Map<Long, Long> findRollupVersions(long fromPatientId, long toPatientId) {
+        Query query = Query.query(Criteria.where("_id").gte(fromPatientId).lte(toPatientId));
+        query.fields().include(VERSION_FIELD);
+        Map<Long, Long> versions = new HashMap<>();
+        for (TriggerTermRollup rollup : mongoTemplate.find(query, TriggerTermRollup.class)) {
+            versions.put(rollup.getPatientId(), rollup.getVersion());
+        }
+        return versions;
+    }
+
+    /**
+     * Atomically set the trigger term counts of notes in the rollups of their patients, and increment the versions of the rollups.
+     * The counts of a note are not set over the ones of the same or of a later version of the note.
+     * The rollup of a patient not having one is created without dictionary hash, so that it is computed from the notes of the patient when read.
+     *
+     * @param noteTermCounts The term counts of the notes, by note id, by patient id
+     */
+    @Override
+    public void setNoteTermCounts(Map<Long, Map<String, NoteTermCounts>> noteTermCounts) {
+        List<Pair<Query, Update>> upserts = new ArrayList<>();
+        for (Map.Entry<Long, Map<String, NoteTermCounts>> patientNotes : noteTermCounts.entrySet()) {
+            for (Map.Entry<String, NoteTermCounts> note : patientNotes.getValue().entrySet()) {
+                String noteField = NOTES_FIELD + "." + note.getKey();
+                Criteria noteVersionCriteria = new Criteria().orOperator(
+                        Criteria.where(noteField + "." + NOTE_VERSION_FIELD).lt(note.getValue().getNoteVersion()),
+                        Criteria.where(noteField).exists(false));
+                // A rollup being recomputed from the notes read before the write is not saved over it
+                Update update = new Update().set(noteField, note.getValue()).inc(VERSION_FIELD, 1L);
+                upserts.add(Pair.of(Query.query(Criteria.where("_id").is(patientNotes.getKey())).addCriteria(noteVersionCriteria), update));
+            }
+        }
+        upsertNoteWrites(upserts);
+    }
+
+    /**
+     * Atomically remove the trigger term counts of notes from the rollups of patients, and increment the versions of the rollups.
+     * The counts of a note are not removed if they are the ones of a later version of the note.
+     *
+     * @param noteVersions The versions of the notes whose counts are removed, by note id, by patient id
+     */
+    @Override
+    public void removeNoteTermCounts(Map<Long, Map<String, Long>> noteVersions) {
+        List<Pair<Query, Update>> upserts = new ArrayList<>();
+        for (Map.Entry<Long, Map<String, Long>> patientNotes : noteVersions.entrySet()) {
+            for (Map.Entry<String, Long> note : patientNotes.getValue().entrySet()) {
+                String noteField = NOTES_FIELD + "." + note.getKey();
+                Criteria noteVersionCriteria = new Criteria().orOperator(
+                        Criteria.where(noteField + "." + NOTE_VERSION_FIELD).lte(note.getValue()),
+                        Criteria.where(noteField).exists(false));
+                Update update = new Update().unset(noteField).inc(VERSION_FIELD, 1L);
+                upserts.add(Pair.of(Query.query(Criteria.where("_id").is(patientNotes.getKey())).addCriteria(noteVersionCriteria), update));
+            }
+        }
+        upsertNoteWrites(upserts);
+    }
+
+    /**
+     * Save rollups, replacing the trigger term counts of the existing ones only if their versions are still the ones of the rollups to save.
+     * The rollups saved have their versions incremented.
+     *
+     * @param rollups The rollups to save, with the version of the rollup read before their computation, 0 if none
+     * @return The ids of the patients whose rollups have been written since they were read, and are not saved
+     */
+    @Override
+    public Set<Long> saveRollupsIfUnchanged(List<TriggerTermRollup> rollups) {
+        Set<Long> changedPatientIds = new HashSet<>();
+        if (rollups.isEmpty()) {
+            return changedPatientIds;
+        }
+        List<Pair<Query, Update>> upserts = new ArrayList<>();
+        for (TriggerTermRollup rollup : rollups) {
+            // Version 0 : no rollup was read, or one written before the rollups were versioned
+            Criteria versionCriteria = rollup.getVersion() == 0L ? Criteria.where(VERSION_FIELD).in(Arrays.asList(0L, null)) : Criteria.where(VERSION_FIELD).is(rollup.getVersion());
+            Update update = new Update().set(NOTES_FIELD, rollup.getNotes()).set("dictionaryHash", rollup.getDictionaryHash()).set(VERSION_FIELD, rollup.getVersion() + 1L);
+            upserts.add(Pair.of(Query.query(Criteria.where("_id").is(rollup.getPatientId())).addCriteria(versionCriteria), update));
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TriggerTermRollup.class).upsert(upserts).execute();
+        } catch (BulkOperationException e) {
+            // The rollup has another version -> the upsert tries to insert a second rollup with the same id
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    throw e;
+                }
+                changedPatientIds.add(rollups.get(error.getIndex()).getPatientId());
+            }
+        }
+        return changedPatientIds;
+    }
+
+    /**
+     * Delete the rollups of patients.
+     *
+     * @param patientIds The ids of the patients
+     */
+    @Override
+    public void deleteRollups(Collection<Long> patientIds) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").in(patientIds)), TriggerTermRollup.class);
+    }
+
+    /**
+     * Delete the rollups not computed with a given dictionary.
+     *
+     * @param dictionaryHash The hash of the dictionary
+     * @return The number of rollups deleted
+     */
+    @Override
+    public long deleteRollupsWithDictionaryHashNot(String dictionaryHash) {
+        return mongoTemplate.remove(Query.query(Criteria.where("dictionaryHash").ne(dictionaryHash)), TriggerTermRollup.class).getDeletedCount();
+    }
+
+    /**
+     * Return whether there are rollups computed with another dictionary than a given one. The rollups not computed yet are ignored.
+     *
+     * @param dictionaryHash The hash of the dictionary
+     * @return true if at least one rollup was computed with another dictionary
+     */
+    @Override
+    public boolean existsRollupWithDictionaryHashNot(String dictionaryHash) {
+        return mongoTemplate.exists(Query.query(Criteria.where("dictionaryHash").nin(dictionaryHash, null)), TriggerTermRollup.class);
+    }
+
+    /**
+     * Return whether there is at least one rollup.
+     *
+     * @return true if at least one rollup exists
+     */
+    @Override
+    public boolean existsRollup() {
+        return mongoTemplate.exists(new Query(), TriggerTermRollup.class);
+    }
+
+    /**
+     * Execute the upserts of the term counts of notes in one unordered bulk write.
+     *
+     * @param upserts The queries and updates of the upserts
+     */
+    private void upsertNoteWrites(List<Pair<Query, Update>> upserts) {
+        if (upserts.isEmpty()) {
+            return;
+        }
+        List<Pair<Query, Update>> failedUpserts = duplicateKeyFailures(upserts);
+        // Two concurrent upserts created the same rollup at the same time -> the retry of the failed ones updates the existing rollup.
+        // An upsert failing again did not match the rollup : it already holds the same or a later version of the note, which is kept
+        duplicateKeyFailures(failedUpserts);
+    }
+
+    /**
+     * Execute upserts in one unordered bulk write, the upserts not matching an existing rollup failing on its id.
+     *
+     * @param upserts The queries and updates of the upserts
+     * @return The upserts failed with a duplicate key error
+     */
+    private List<Pair<Query, Update>> duplicateKeyFailures(List<Pair<Query, Update>> upserts) {
+        List<Pair<Query, Update>> failedUpserts = new ArrayList<>();
+        if (upserts.isEmpty()) {
+            return failedUpserts;
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TriggerTermRollup.class).upsert(upserts).execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                    throw e;
+                }
+                failedUpserts.add(upserts.get(error.getIndex()));
+            }
+        }
+        return failedUpserts;
+    }
+}
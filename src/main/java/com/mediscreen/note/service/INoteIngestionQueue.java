@@ -0,0 +1,41 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+
+/**
+ * Interface used to define the write-behind queue of the notes added : the notes are accepted once appended to a durable local log,
+ * and inserted in the database later, in bulk.
+ */
+public interface INoteIngestionQueue {
+
+    /**
+     * Return whether the notes added are accepted by the queue instead of being inserted synchronously.
+     *
+     * @return true if the write-behind mode is enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Append a note to the log, its id being set, and queue it for insertion. The note is durable when this method returns.
+     *
+     * @param note The note to add, with its patient id, last name and first name already set
+     * @return The note accepted, with its id
+     * @throws java.util.concurrent.RejectedExecutionException if the queue is full or not opened
+     */
+    Note append(Note note);
+
+    /**
+     * Return the number of notes accepted and not inserted yet.
+     *
+     * @return The depth of the queue
+     */
+    long getDepth();
+
+    /**
+     * Return the time since the oldest note not inserted yet was accepted.
+     *
+     * @return The lag of the queue in milliseconds, 0 if the queue is empty
+     */
+    long getLagMillis();
+
+}
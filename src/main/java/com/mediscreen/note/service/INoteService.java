@@ -1,9 +1,20 @@
 package com.mediscreen.note.service;
 
+import com.mediscreen.note.domain.BulkItemResult;
 import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePage;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
 import com.mediscreen.note.exception.ResourceNotFoundException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.util.CloseableIterator;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Interface to be implemented to manage the services for Note entities.
@@ -36,6 +47,75 @@ public interface INoteService {
      * @return The list of notes corresponding to the patient last name and first name
      */
     List<Note> findNotesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName);
+
+    /**
+     * Return the identity of a patient given its id, without reading its notes.
+     *
+     * @param patientId The id of the patient
+     * @return The identity of the patient
+     * @throws ResourceNotFoundException if no patient is found for the given patient id
+     */
+    PatientIdentity findPatientIdentityById(long patientId) throws ResourceNotFoundException;
+
+    /**
+     * Return the identity of a patient given its last name and first name, without reading its notes.
+     * A new id is allocated for a new patient.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The identity of the patient
+     */
+    PatientIdentity getOrCreatePatientIdentity(String patientLastName, String patientFirstName);
+
+    /**
+     * Return the summaries of the notes of a patient given its id, without the full note texts.
+     *
+     * @param patientId The id of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    List<NoteSummary> findNoteSummariesByPatientId(long patientId, int previewLength) throws ResourceNotFoundException;
+
+    /**
+     * Return the summaries of the notes of a patient given its last name and first name, without the full note texts.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     */
+    List<NoteSummary> findNoteSummariesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName, int previewLength);
+
+    /**
+     * Count, case and accent insensitively, the occurrences of trigger terms in the notes of a patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @param terms The trigger terms to count
+     * @return The trigger term counts of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    TriggerTermCount countTriggerTermsByPatientId(long patientId, List<String> terms) throws ResourceNotFoundException;
+
+    /**
+     * Count, case and accent insensitively, the occurrences of trigger terms in the notes of a batch of patients given their ids.
+     *
+     * @param patientIds The ids of the patients
+     * @param terms The trigger terms to count
+     * @return The trigger term counts of each patient having notes
+     */
+    List<TriggerTermCount> countTriggerTerms(List<Long> patientIds, List<String> terms);
+
+    /**
+     * Return the trigger term counts of all the notes of a patient given its id, read from the rollup maintained when its notes are written.
+     * The trigger terms are the ones of the configured dictionary.
+     *
+     * @param patientId The id of the patient
+     * @return The trigger term counts of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    TriggerTermCount getTriggerTermRollupByPatientId(long patientId) throws ResourceNotFoundException;
+
     /**
      * Return all notes.
      *
@@ -44,13 +124,78 @@ public interface INoteService {
     List<Note> findAllNotes();
 
     /**
-     * Update a note.
+     * Return a page of notes, ordered by note id.
+     * The page starts after the note with the afterId cursor, or ends before the note with the beforeId cursor.
+     * The page is read causally consistent with the writes of the read-after-write token, so that a page read after a write of the same user shows it.
      *
-     * @param note The note to update
-     * @return The note updated
+     * @param afterId The id of the note after which the page starts, or null
+     * @param beforeId The id of the note before which the page ends, or null
+     * @param pageSize The maximum number of notes in the page
+     * @param readAfterWriteToken The token returned after the last writes of the user, or null
+     * @return The page of notes, with the cursors of the next and previous pages
+     */
+    NotePage findNotesPage(String afterId, String beforeId, int pageSize, String readAfterWriteToken);
+
+    /**
+     * Export the notes, optionally restricted to a range of patient ids, one by one without loading them all in memory.
+     *
+     * @param fromPatientId The lowest patient id of the notes (inclusive), or null
+     * @param toPatientId The highest patient id of the notes (inclusive), or null
+     * @param noteConsumer The consumer receiving each exported note
+     * @return The number of notes exported
+     */
+    long exportNotes(Long fromPatientId, Long toPatientId, Consumer<Note> noteConsumer);
+
+    /**
+     * Return a cursor over the notes, optionally restricted to a range of patient ids, for the consumers pulling the notes one by one.
+     * The cursor must be closed after use.
+     *
+     * @param fromPatientId The lowest patient id of the notes (inclusive), or null
+     * @param toPatientId The highest patient id of the notes (inclusive), or null
+     * @return The cursor over the notes
+     */
+    CloseableIterator<Note> streamNotes(Long fromPatientId, Long toPatientId);
+
+    /**
+     * Export the notes of a batch of patients, ordered by patient id, one by one without loading them all in memory.
+     *
+     * @param patientIds The ids of the patients
+     * @param noteConsumer The consumer receiving each exported note
+     * @return The number of notes exported
+     */
+    long exportPatientHistories(Collection<Long> patientIds, Consumer<Note> noteConsumer);
+
+    /**
+     * Update a note, only if it has not been updated since it was read.
+     *
+     * @param note The note to update, with the version it was read with
+     * @return The note updated, with its new version
      * @throws ResourceNotFoundException if the note to update does not exist
+     * @throws OptimisticLockingFailureException if the note has been updated since it was read
+     */
+    Note updateNote(Note note) throws ResourceNotFoundException, OptimisticLockingFailureException;
+
+    /**
+     * Patch a note with a JSON merge patch, only writing the fields of the patch.
+     *
+     * @param id The id of the note to patch
+     * @param version The version the note must have to be patched, or null to patch the note whatever its version
+     * @param patch The JSON merge patch, the fields given with a null value being removed
+     * @return The note patched, with its new version
+     * @throws IllegalArgumentException if the patch is not valid
+     * @throws ResourceNotFoundException if the note to patch does not exist
+     * @throws OptimisticLockingFailureException if the note does not have the version given
      */
-    Note updateNote(Note note) throws ResourceNotFoundException;
+    Note patchNote(String id, Long version, Map<String, Object> patch) throws ResourceNotFoundException, OptimisticLockingFailureException;
+
+    /**
+     * Patch notes in bulk with JSON merge patches.
+     * A note is patched only if it has not been updated since it was read, and since the version of its patch if given.
+     *
+     * @param notePatches The patches of the notes
+     * @return The result of the patch of each note, in the order of the patches
+     */
+    List<BulkItemResult> patchNotes(List<NotePatch> notePatches);
 
     /**
      * Create a note.
@@ -61,6 +206,31 @@ public interface INoteService {
      */
     Note createNote(Note note);
 
+    /**
+     * Create notes in bulk.
+     * The patient of each note is given either by its id or by its last name and first name, a new id being allocated for a new patient.
+     *
+     * @param notes The notes to create
+     * @return The result of the creation of each note, in the order of the notes
+     */
+    List<BulkItemResult> createNotes(List<Note> notes);
+
+    /**
+     * Insert notes accepted by the ingestion queue, their ids and patients being already set.
+     * A note already inserted, replayed after a restart, is reported as a success and is not counted twice in the rollups.
+     *
+     * @param notes The notes to insert
+     * @return The result of the insertion of each note, in the order of the notes
+     */
+    List<BulkItemResult> insertAcceptedNotes(List<Note> notes);
+
+    /**
+     * Return a token of the writes known by the instance, to be given back to the reads of the same user which must see them.
+     *
+     * @return The read-after-write token, or null if no write is known
+     */
+    String getReadAfterWriteToken();
+
     /**
      * Return the maximum (highest) patient id in the mongo database.
      *
@@ -68,4 +238,11 @@ public interface INoteService {
      */
     long getMaxPatientId();
 
+    /**
+     * Return a new patient id, to be used for a patient having no note yet.
+     *
+     * @return The new patient id
+     */
+    long getNextPatientId();
+
 }
@@ -0,0 +1,76 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.PatientIdentity;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Interface to be implemented to resolve the identities of the patients, by id and by last name and first name, without reading their notes.
+ */
+public interface IPatientDirectory {
+
+    /**
+     * Return the identity of a patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @return The identity of the patient, or null if the patient is unknown
+     */
+    PatientIdentity findById(long patientId);
+
+    /**
+     * Return the identity of a patient given its last name and first name.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The identity of the patient, or null if the patient is unknown
+     */
+    PatientIdentity findByName(String patientLastName, String patientFirstName);
+
+    /**
+     * Return the identities of patients, given their ids or their last names and first names.
+     *
+     * @param patientIds The ids of the patients
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities of the known patients
+     */
+    List<PatientIdentity> findIdentities(Collection<Long> patientIds, Collection<PatientIdentity> patientNames);
+
+    /**
+     * Return the identity of a patient given its last name and first name, a new id being allocated for a new patient.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The identity of the patient
+     */
+    PatientIdentity getOrCreate(String patientLastName, String patientFirstName);
+
+    /**
+     * Create the identities of new patients, a new id being allocated for each of them.
+     * A patient created meanwhile with the same last name and first name keeps its id.
+     *
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities of the patients
+     */
+    List<PatientIdentity> createIdentities(Collection<PatientIdentity> patientNames);
+
+    /**
+     * Register the identities of the patients of notes written, the last name and first name of a patient being the ones of its last note written.
+     *
+     * @param identities The identities of the patients
+     */
+    void register(Collection<PatientIdentity> identities);
+
+    /**
+     * Remove the identity of a patient from the in-memory indexes, so that it is read again from the collection of the identities.
+     *
+     * @param patientId The id of the patient
+     */
+    void evict(long patientId);
+
+    /**
+     * Remove all the identities from the in-memory indexes, so that they are read again from the collection of the identities.
+     */
+    void evictAll();
+
+}
@@ -0,0 +1,23 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+
+/**
+ * Interface used to define the invalidation of the local caches of the patient histories : the cached notes, and the serialized responses with their entity tags.
+ * It is used both by the writes of the instance and by the change stream of the writes of the other instances.
+ */
+public interface IPatientHistoryInvalidator {
+
+    /**
+     * Invalidate the cached histories of the patient of a note, so that the next reads get the notes from the database, and change their entity tags.
+     *
+     * @param note The note whose patient history has changed
+     */
+    void invalidate(Note note);
+
+    /**
+     * Invalidate the cached histories of all the patients.
+     */
+    void invalidateAll();
+
+}
@@ -0,0 +1,64 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+
+import java.util.function.Supplier;
+
+/**
+ * Interface to be implemented to manage the cache of the serialized patient history responses and their entity tags.
+ * The entity tag of a patient history changes each time a note of the patient is written.
+ */
+public interface IPatientHistoryResponseCache {
+
+    /**
+     * Return the entity tag of the current version of the history of a patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @return The strong entity tag, quoted
+     */
+    String getETagByPatientId(long patientId);
+
+    /**
+     * Return the entity tag of the current version of the history of a patient given its last name and first name.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The strong entity tag, quoted
+     */
+    String getETagByPatientName(String patientLastName, String patientFirstName);
+
+    /**
+     * Return the serialized history of a patient given its id, for a given entity tag. The history is loaded and cached if it is not cached for this entity tag.
+     *
+     * @param patientId The id of the patient
+     * @param eTag The entity tag of the history
+     * @param responseLoader The loader of the serialized history
+     * @return The serialized history
+     */
+    byte[] getResponseByPatientId(long patientId, String eTag, Supplier<byte[]> responseLoader);
+
+    /**
+     * Return the serialized history of a patient given its last name and first name, for a given entity tag. The history is loaded and cached if it is not cached for this entity tag.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param eTag The entity tag of the history
+     * @param responseLoader The loader of the serialized history
+     * @return The serialized history
+     */
+    byte[] getResponseByPatientName(String patientLastName, String patientFirstName, String eTag, Supplier<byte[]> responseLoader);
+
+    /**
+     * Change the entity tags of the histories of the patient of a note, and so invalidate their cached responses.
+     *
+     * @param note The note whose patient history has changed
+     */
+    void invalidate(Note note);
+
+    /**
+     * Change the entity tags of the histories of all the patients, and so invalidate all the cached responses.
+     * Used when the patients whose histories have changed are not known.
+     */
+    void invalidateAll();
+
+}
@@ -0,0 +1,15 @@
+package com.mediscreen.note.service;
+
+/**
+ * Interface to be implemented to allocate ids for new patients.
+ */
+public interface IPatientIdAllocator {
+
+    /**
+     * Return a new patient id, never returned before by any instance of the microservice.
+     *
+     * @return The new patient id
+     */
+    long nextPatientId();
+
+}
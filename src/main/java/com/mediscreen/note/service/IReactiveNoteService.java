@@ -0,0 +1,49 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Interface to be implemented to manage the non-blocking services for Note entities.
+ */
+public interface IReactiveNoteService {
+
+    /**
+     * Return the notes given patient id.
+     *
+     * @param patientId The id of the patient
+     * @return The notes corresponding to the patient id, or an error ResourceNotFoundException if no note is found for the given patient id
+     */
+    Flux<Note> findNotesByPatientId(long patientId);
+
+    /**
+     * Return the notes given patient last name and first name.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The notes corresponding to the patient last name and first name
+     */
+    Flux<Note> findNotesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName);
+
+    /**
+     * Create a note for an existing patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @param noteText The text of the note
+     * @return The note created, or an error ResourceNotFoundException if no note is found for the given patient id
+     */
+    Mono<Note> createNoteByPatientId(long patientId, String noteText);
+
+    /**
+     * Create a note for a patient given its last name and first name, a new id being allocated for a new patient.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param noteText The text of the note
+     * @return The note created
+     */
+    Mono<Note> createNoteByPatientLastNameAndFirstName(String patientLastName, String patientFirstName, String noteText);
+
+}
@@ -0,0 +1,43 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.TriggerTermCount;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+
+import java.util.List;
+
+/**
+ * Interface to be implemented to manage the per-patient trigger term rollups, maintained incrementally when notes are written.
+ */
+public interface ITriggerTermRollupService {
+
+    /**
+     * Add the trigger terms of created notes to the rollups of their patients.
+     *
+     * @param notes The notes created
+     */
+    void addNotes(List<Note> notes);
+
+    /**
+     * Replace the trigger terms of the previous version of an updated note by the ones of its new version, in the rollups of its patients.
+     *
+     * @param previousNote The note before the update
+     * @param updatedNote The note after the update
+     */
+    void replaceNote(Note previousNote, Note updatedNote);
+
+    /**
+     * Return the trigger term counts of all the notes of a patient, read from its rollup.
+     *
+     * @param patientId The id of the patient
+     * @return The trigger term counts of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    TriggerTermCount getTriggerTermCounts(long patientId) throws ResourceNotFoundException;
+
+    /**
+     * Recompute the rollups of all the patients from their notes.
+     */
+    void rebuildRollups();
+
+}
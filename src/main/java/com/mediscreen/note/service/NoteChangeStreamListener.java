@@ -0,0 +1,373 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.repository.IChangeStreamResumeTokenRepository;
+import com.mediscreen.note.repository.IReadPreferenceRouter;
+import com.mongodb.MongoException;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Component keeping the in-memory caches of the instance coherent with the writes of the other instances, by listening to a change stream
+ * of the Note and PatientIdentity collections in a background thread.
+ * A note written invalidates the cached histories of its patient : the serialized responses and their entity tags, and the cached notes.
+ * A note deleted, or whose patient may have changed, invalidates the cached histories of all the patients, the change events holding no previous version of the notes.
+ * A patient identity written or deleted removes it from the patient directory, so that it is read again from the database.
+ * The resume token of the last event processed is stored by listener name, so that a listener reconnecting or restarting resumes where it stopped.
+ * When it cannot resume, the events missed being unknown, all the caches are invalidated.
+ * The cluster time of each write advances the operation time after which the secondaries are read, so that no cache is loaded again with a stale history.
+ */
+@Component
+public class NoteChangeStreamListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NoteChangeStreamListener.class);
+
+    // Server error codes : change streams not supported (standalone server), resume token invalid or events no more in the oplog
+    private static final int CHANGE_STREAM_NOT_SUPPORTED = 40573;
+    private static final int INVALID_RESUME_TOKEN = 260;
+    private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    private static final String PATIENT_ID_FIELD = "patientId";
+    private static final String PATIENT_LAST_NAME_FIELD = "patientLastName";
+    private static final String PATIENT_FIRST_NAME_FIELD = "patientFirstName";
+
+    private final MongoTemplate mongoTemplate;
+    private final IChangeStreamResumeTokenRepository changeStreamResumeTokenRepository;
+    private final IPatientHistoryInvalidator patientHistoryInvalidator;
+    private final IPatientDirectory patientDirectory;
+    private final IReadPreferenceRouter readPreferenceRouter;
+    private final boolean enabled;
+    private final String listenerName;
+    private final long maxAwaitMillis;
+    private final long retryDelayMillis;
+    private final long resumeTokenSaveIntervalMillis;
+
+    private final Timer invalidationLag;
+    private final MeterRegistry meterRegistry;
+
+    private volatile boolean running;
+    private volatile boolean listening;
+    private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+
+    public NoteChangeStreamListener(MongoTemplate mongoTemplate, IChangeStreamResumeTokenRepository changeStreamResumeTokenRepository,
+                                    IPatientHistoryInvalidator patientHistoryInvalidator, IPatientDirectory patientDirectory,
+                                    IReadPreferenceRouter readPreferenceRouter, ObjectProvider<MeterRegistry> meterRegistry,
+                                    @Value("${note.change-stream.enabled:true}") boolean enabled,
+                                    @Value("${note.change-stream.listener-name:}") String listenerName,
+                                    @Value("${note.change-stream.max-await-ms:1000}") long maxAwaitMillis,
+                                    @Value("${note.change-stream.retry-delay-ms:5000}") long retryDelayMillis,
+                                    @Value("${note.change-stream.resume-token-save-interval-ms:1000}") long resumeTokenSaveIntervalMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.changeStreamResumeTokenRepository = changeStreamResumeTokenRepository;
+        this.patientHistoryInvalidator = patientHistoryInvalidator;
+        this.patientDirectory = patientDirectory;
+        this.readPreferenceRouter = readPreferenceRouter;
+        this.enabled = enabled;
+        this.listenerName = listenerName.isEmpty() ? defaultListenerName() : listenerName;
+        this.maxAwaitMillis = maxAwaitMillis;
+        this.retryDelayMillis = retryDelayMillis;
+        this.resumeTokenSaveIntervalMillis = resumeTokenSaveIntervalMillis;
+        this.meterRegistry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+        this.invalidationLag = Timer.builder("note.change-stream.invalidation.lag")
+                .description("Time between the write of a change on the primary and the invalidation of the local caches, with the second precision of the cluster time")
+                .publishPercentiles(0.5, 0.99)
+                .register(this.meterRegistry);
+    }
+
+    /**
+     * Start listening to the change stream in a background thread when the application is started.
+     *
+     * @param event The event published when the application is started
+     */
+    @EventListener(ApplicationStartedEvent.class)
+    public void onApplicationStarted(ApplicationStartedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        Thread listenerThread = new Thread(this::listen, "note-change-stream-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    /**
+     * Stop listening to the change stream when the application is stopped.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> currentCursor = cursor;
+        if (currentCursor != null) {
+            try {
+                currentCursor.close();
+            } catch (MongoException e) {
+                logger.debug("Change stream cursor closed with error", e);
+            }
+        }
+    }
+
+    /**
+     * Return whether the change stream is open, the writes made from now on invalidating the local caches.
+     *
+     * @return true if the change stream is open
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * Return the name under which the listener stores its resume token.
+     *
+     * @return The name of the listener
+     */
+    public String getListenerName() {
+        return listenerName;
+    }
+
+    /**
+     * Open the change stream and process its events until the listener is stopped, reopening it after an error.
+     */
+    private void listen() {
+
+        BsonDocument resumeToken = null;
+        try {
+            resumeToken = changeStreamResumeTokenRepository.findResumeToken(listenerName);
+        } catch (Exception e) {
+            // The caches are still empty when the application starts -> the stream can start from now
+            logger.error("Error : resume token of listener {} not read, change stream started from now", listenerName, e);
+        }
+
+        while (running) {
+            try {
+                resumeToken = processEvents(resumeToken);
+            } catch (MongoServerException e) {
+                if (!running) {
+                    return;
+                }
+                if (e.getCode() == CHANGE_STREAM_NOT_SUPPORTED) {
+                    logger.warn("Error : change streams not supported by the MongoDB server, the caches of the instance are not invalidated by the writes of the other instances");
+                    running = false;
+                    return;
+                }
+                if (isResumeError(e.getCode())) {
+                    logger.warn("Change stream not resumed from the stored resume token : caches invalidated, change stream restarted from now", e);
+                    changeStreamResumeTokenRepository.deleteResumeToken(listenerName);
+                    resumeToken = null;
+                    invalidateAll();
+                    continue;
+                }
+                logger.error("Error in change stream, retrying in {} ms", retryDelayMillis, e);
+                sleepBeforeRetry();
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Error in change stream, retrying in {} ms", retryDelayMillis, e);
+                sleepBeforeRetry();
+            } finally {
+                listening = false;
+            }
+        }
+    }
+
+    /**
+     * Open the change stream, resumed after a resume token if any, and process its events until the listener is stopped or the stream is invalidated.
+     * The resume token of the last event processed is stored at most once per save interval, and when the stream is closed.
+     *
+     * @param resumeToken The resume token to resume after, or null to start from now
+     * @return The resume token to resume after when the stream is reopened
+     */
+    private BsonDocument processEvents(BsonDocument resumeToken) {
+
+        String noteCollection = mongoTemplate.getCollectionName(Note.class);
+        String patientIdentityCollection = mongoTemplate.getCollectionName(PatientIdentity.class);
+
+        ChangeStreamIterable<Document> changeStream = mongoTemplate.getDb()
+                .watch(Collections.singletonList(Aggregates.match(Filters.in("ns.coll", Arrays.asList(noteCollection, patientIdentityCollection)))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(maxAwaitMillis, TimeUnit.MILLISECONDS);
+        if (resumeToken != null) {
+            changeStream = changeStream.resumeAfter(resumeToken);
+        }
+
+        BsonDocument savedResumeToken = resumeToken;
+        long lastSaveMillis = System.currentTimeMillis();
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> changeStreamCursor = changeStream.cursor()) {
+            cursor = changeStreamCursor;
+            listening = true;
+            logger.info("Change stream of the {} and {} collections opened by listener {}{}", noteCollection, patientIdentityCollection, listenerName,
+                    resumeToken != null ? ", resumed from the stored resume token" : "");
+
+            while (running) {
+                ChangeStreamDocument<Document> event = changeStreamCursor.tryNext();
+                if (event != null) {
+                    if (event.getOperationType() == OperationType.INVALIDATE) {
+                        // The stream cannot be resumed after an invalidate event -> it is restarted from now, the events meanwhile being unknown
+                        invalidateAll();
+                        changeStreamResumeTokenRepository.deleteResumeToken(listenerName);
+                        return null;
+                    }
+                    process(event, noteCollection);
+                }
+
+                resumeToken = changeStreamCursor.getResumeToken() != null ? changeStreamCursor.getResumeToken() : resumeToken;
+                if (resumeToken != null && !resumeToken.equals(savedResumeToken)
+                        && (event == null || System.currentTimeMillis() - lastSaveMillis >= resumeTokenSaveIntervalMillis)) {
+                    changeStreamResumeTokenRepository.saveResumeToken(listenerName, resumeToken);
+                    savedResumeToken = resumeToken;
+                    lastSaveMillis = System.currentTimeMillis();
+                }
+            }
+        } finally {
+            cursor = null;
+        }
+
+        if (resumeToken != null && !resumeToken.equals(savedResumeToken)) {
+            changeStreamResumeTokenRepository.saveResumeToken(listenerName, resumeToken);
+        }
+        return resumeToken;
+    }
+
+    /**
+     * Invalidate the local caches holding the documents changed by an event.
+     *
+     * @param event The change event
+     * @param noteCollection The name of the Note collection
+     */
+    private void process(ChangeStreamDocument<Document> event, String noteCollection) {
+
+        boolean noteEvent = event.getNamespace() != null && noteCollection.equals(event.getNamespace().getCollectionName());
+
+        // Advanced before the invalidation : the histories loaded again from a secondary wait until it has applied the write
+        if (event.getClusterTime() != null) {
+            readPreferenceRouter.advanceOperationTime(event.getClusterTime());
+        }
+
+        if (noteEvent) {
+            Note note = patientOf(event.getFullDocument());
+            if (note != null && mayKeepPatient(event)) {
+                patientHistoryInvalidator.invalidate(note);
+            } else {
+                patientHistoryInvalidator.invalidateAll();
+            }
+        } else {
+            BsonValue patientId = event.getDocumentKey() != null ? event.getDocumentKey().get("_id") : null;
+            if (patientId != null && patientId.isNumber()) {
+                patientDirectory.evict(patientId.asNumber().longValue());
+            } else {
+                patientDirectory.evictAll();
+            }
+        }
+
+        Counter.builder("note.change-stream.events")
+                .tag("collection", noteEvent ? "note" : "patientIdentity")
+                .tag("operation", event.getOperationType().getValue())
+                .register(meterRegistry)
+                .increment();
+
+        BsonTimestamp clusterTime = event.getClusterTime();
+        if (clusterTime != null) {
+            long clusterTimeMillis = clusterTime.getTime() * 1000L;
+            invalidationLag.record(Math.max(0L, System.currentTimeMillis() - clusterTimeMillis), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Return whether the patient of the note changed by an event can only be the one of its current version.
+     * The patient of a note inserted is the one of the note, whereas the previous patient of a note replaced or whose patient fields are updated is unknown.
+     *
+     * @param event The change event of a note
+     * @return true if only the history of the current patient of the note has changed
+     */
+    private static boolean mayKeepPatient(ChangeStreamDocument<Document> event) {
+        if (event.getOperationType() == OperationType.INSERT) {
+            return true;
+        }
+        if (event.getOperationType() != OperationType.UPDATE || event.getUpdateDescription() == null) {
+            return false;
+        }
+        BsonDocument updatedFields = event.getUpdateDescription().getUpdatedFields();
+        if (updatedFields != null && (updatedFields.containsKey(PATIENT_ID_FIELD) || updatedFields.containsKey(PATIENT_LAST_NAME_FIELD)
+                || updatedFields.containsKey(PATIENT_FIRST_NAME_FIELD))) {
+            return false;
+        }
+        return event.getUpdateDescription().getRemovedFields() == null
+                || Collections.disjoint(event.getUpdateDescription().getRemovedFields(), Arrays.asList(PATIENT_ID_FIELD, PATIENT_LAST_NAME_FIELD, PATIENT_FIRST_NAME_FIELD));
+    }
+
+    /**
+     * Return a note holding the patient of a note document.
+     *
+     * @param document The note document, or null if the note no longer exists
+     * @return The note holding the patient id, last name and first name, or null if they are missing
+     */
+    private static Note patientOf(Document document) {
+        if (document == null || !(document.get(PATIENT_ID_FIELD) instanceof Number)) {
+            return null;
+        }
+        Note note = new Note(document.getString(PATIENT_LAST_NAME_FIELD), document.getString(PATIENT_FIRST_NAME_FIELD), null);
+        note.setPatientId(((Number) document.get(PATIENT_ID_FIELD)).longValue());
+        return note;
+    }
+
+    /**
+     * Invalidate all the local caches, when events may have been missed.
+     */
+    private void invalidateAll() {
+        patientHistoryInvalidator.invalidateAll();
+        patientDirectory.evictAll();
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(retryDelayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static boolean isResumeError(int errorCode) {
+        return errorCode == INVALID_RESUME_TOKEN || errorCode == CHANGE_STREAM_FATAL_ERROR || errorCode == CHANGE_STREAM_HISTORY_LOST;
+    }
+
+    private static String defaultListenerName() {
+        try {
+            return "note-" + InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "note-localhost";
+        }
+    }
+}
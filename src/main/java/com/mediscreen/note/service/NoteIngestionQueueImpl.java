@@ -0,0 +1,654 @@
+package com.mediscreen.note.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mediscreen.note.domain.BulkItemResult;
+import com.mediscreen.note.domain.Note;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Class in charge of the write-behind queue of the notes added, when enabled.
+ * A note accepted is appended as a JSON line to the active segment of a local append-only log, forced to disk before the note is acknowledged :
+ * the appends waiting for the disk are forced together, the first one forcing the lines of the others.
+ * A background writer drains the queue in unordered bulk inserts, coalescing the notes accepted during a short linger time.
+ * The segments whose notes are all inserted are deleted. When the application starts, the segments left are replayed :
+ * the notes keep the ids given when they were accepted, so a note inserted before a crash is not inserted twice.
+ */
+@Service
+public class NoteIngestionQueueImpl implements INoteIngestionQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(NoteIngestionQueueImpl.class);
+
+    private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("notes-(\\d+)\\.log");
+
+    private static final String ACCEPTED_AT_FIELD = "acceptedAt";
+    private static final String NOTE_FIELD = "note";
+
+    // Time the writer waits for a note before checking whether it is stopped or whether the log can be rolled
+    private static final long IDLE_POLL_MILLIS = 100L;
+
+    private final INoteService noteService;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path directory;
+    private final boolean fsync;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final long maxPending;
+    private final long segmentBytes;
+    private final long retryDelayMillis;
+    private final long shutdownTimeoutMillis;
+
+    private final Timer writeLag;
+
+    private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong depth = new AtomicLong();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+
+    // Guarded by appendLock
+    private Segment activeSegment;
+    private FileChannel activeChannel;
+    private long writtenPosition;
+
+    private volatile long syncedPosition;
+    private volatile boolean opened;
+    private volatile boolean running;
+    private volatile Entry oldestEntryBeingWritten;
+    private volatile Thread writerThread;
+
+    public NoteIngestionQueueImpl(INoteService noteService, ObjectMapper objectMapper, ObjectProvider<MeterRegistry> meterRegistry,
+                                  @Value("${note.ingestion-queue.enabled:false}") boolean enabled,
+                                  @Value("${note.ingestion-queue.directory:data/note-ingestion}") String directory,
+                                  @Value("${note.ingestion-queue.fsync:true}") boolean fsync,
+                                  @Value("${note.ingestion-queue.max-batch-size:1000}") int maxBatchSize,
+                                  @Value("${note.ingestion-queue.linger-ms:20}") long lingerMillis,
+                                  @Value("${note.ingestion-queue.max-pending:100000}") long maxPending,
+                                  @Value("${note.ingestion-queue.segment-bytes:67108864}") long segmentBytes,
+                                  @Value("${note.ingestion-queue.retry-delay-ms:5000}") long retryDelayMillis,
+                                  @Value("${note.ingestion-queue.shutdown-timeout-ms:10000}") long shutdownTimeoutMillis) {
+        this.noteService = noteService;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.fsync = fsync;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.maxPending = maxPending;
+        this.segmentBytes = segmentBytes;
+        this.retryDelayMillis = retryDelayMillis;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+
+        MeterRegistry registry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+        Gauge.builder("note.ingestion-queue.depth", this, NoteIngestionQueueImpl::getDepth)
+                .description("Number of notes accepted and not inserted yet")
+                .register(registry);
+        Gauge.builder("note.ingestion-queue.lag", this, queue -> queue.getLagMillis() / 1000.0)
+                .description("Time since the oldest note not inserted yet was accepted")
+                .baseUnit("seconds")
+                .register(registry);
+        this.writeLag = Timer.builder("note.ingestion-queue.write.lag")
+                .description("Time between the acceptance of a note and its insertion in the database")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+    }
+
+    /**
+     * Return whether the notes added are accepted by the queue instead of being inserted synchronously.
+     *
+     * @return true if the write-behind mode is enabled
+     */
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Open the log and queue the notes of the segments left by the previous run, so that they are inserted when the writer starts.
+     * The log is opened when the write-behind mode is enabled, or when segments are left after the mode was disabled.
+     *
+     * @throws IOException if the log can not be read or created
+     */
+    @PostConstruct
+    public void open() throws IOException {
+
+        if (!enabled && !Files.isDirectory(directory)) {
+            return;
+        }
+        Files.createDirectories(directory);
+
+        Map<Long, Path> segmentFiles = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "notes-*.log")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segmentFiles.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+
+        if (!enabled && segmentFiles.isEmpty()) {
+            return;
+        }
+
+        long nbNotesReplayed = 0L;
+        long lastSegmentIndex = 0L;
+        for (Map.Entry<Long, Path> segmentFile : segmentFiles.entrySet()) {
+            Segment segment = new Segment(segmentFile.getKey(), segmentFile.getValue());
+            segments.put(segment.index, segment);
+            nbNotesReplayed += replay(segment);
+            lastSegmentIndex = segment.index;
+        }
+
+        synchronized (appendLock) {
+            activeSegment = createSegment(lastSegmentIndex + 1L);
+        }
+        deleteWrittenSegments();
+        opened = true;
+
+        logger.info("Note ingestion log opened in {} : {} notes replayed from {} segments", directory.toAbsolutePath(), nbNotesReplayed, segmentFiles.size());
+    }
+
+    /**
+     * Start the writer in a background thread when the application is started.
+     *
+     * @param event The event published when the application is started
+     */
+    @EventListener(ApplicationStartedEvent.class)
+    public void onApplicationStarted(ApplicationStartedEvent event) {
+        start();
+    }
+
+    /**
+     * Start the writer in a background thread, if the log is opened.
+     */
+    public void start() {
+        if (!opened || running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::drain, "note-ingestion-writer");
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop accepting notes and stop the writer once the notes accepted are inserted, or once the shutdown timeout is elapsed.
+     * The notes not inserted are left in the log, to be replayed on the next start.
+     */
+    @PreDestroy
+    public void stop() {
+
+        synchronized (appendLock) {
+            if (!opened) {
+                return;
+            }
+            opened = false;
+        }
+
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            try {
+                thread.join(shutdownTimeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                logger.warn("Note ingestion writer not stopped within {} ms : {} notes left in the log", shutdownTimeoutMillis, depth.get());
+                thread.interrupt();
+            }
+        }
+
+        synchronized (appendLock) {
+            closeActiveChannel();
+            if (depth.get() == 0L) {
+                // All the notes accepted are inserted -> nothing to replay on the next start
+                for (Segment segment : segments.values()) {
+                    try {
+                        Files.deleteIfExists(segment.path);
+                    } catch (IOException e) {
+                        logger.error("Error : note ingestion log segment {} not deleted", segment.path.getFileName(), e);
+                    }
+                }
+                segments.clear();
+            }
+        }
+    }
+
+    /**
+     * Append a note to the log, its id being set, and queue it for insertion. The note is durable when this method returns.
+     *
+     * @param note The note to add, with its patient id, last name and first name already set
+     * @return The note accepted, with its id
+     * @throws RejectedExecutionException if the queue is full or not opened
+     */
+    @Override
+    public Note append(Note note) {
+
+        // The id is given now, so that the location of the note is known and the note is not inserted twice when replayed
+        note.setId(new ObjectId().toHexString());
+        long acceptedAt = System.currentTimeMillis();
+        ByteBuffer line = ByteBuffer.wrap(toLine(note, acceptedAt));
+
+        long position;
+        synchronized (appendLock) {
+            if (!opened) {
+                throw new RejectedExecutionException("Note ingestion log not opened");
+            }
+            if (depth.get() >= maxPending) {
+                throw new RejectedExecutionException("Note ingestion queue full : " + depth.get() + " notes not inserted yet");
+            }
+            try {
+                if (activeSegment.size >= segmentBytes) {
+                    roll();
+                }
+                FileChannel channel = activeChannel();
+                int length = line.remaining();
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+                activeSegment.size += length;
+                writtenPosition += length;
+                position = writtenPosition;
+            } catch (IOException e) {
+                discardPartialLine();
+                throw new UncheckedIOException(e);
+            }
+            queue(new Entry(note, acceptedAt, activeSegment));
+        }
+
+        sync(position);
+
+        return note;
+    }
+
+    /**
+     * Return the number of notes accepted and not inserted yet.
+     *
+     * @return The depth of the queue
+     */
+    @Override
+    public long getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Return the time since the oldest note not inserted yet was accepted.
+     *
+     * @return The lag of the queue in milliseconds, 0 if the queue is empty
+     */
+    @Override
+    public long getLagMillis() {
+        Entry oldestEntry = oldestEntryBeingWritten;
+        if (oldestEntry == null) {
+            oldestEntry = pending.peek();
+        }
+        return oldestEntry == null ? 0L : Math.max(0L, System.currentTimeMillis() - oldestEntry.acceptedAt);
+    }
+
+    /**
+     * Insert the notes queued in bulk until the writer is stopped and the queue is empty.
+     * The notes accepted during the linger time after the first one are inserted with it, up to the maximum batch size.
+     */
+    private void drain() {
+
+        try {
+            while (running || !pending.isEmpty()) {
+                Entry first = pending.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    rollIfWritten();
+                    continue;
+                }
+
+                List<Entry> batch = new ArrayList<>();
+                batch.add(first);
+                long lingerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < maxBatchSize) {
+                    pending.drainTo(batch, maxBatchSize - batch.size());
+                    long lingerNanos = lingerDeadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || lingerNanos <= 0L) {
+                        break;
+                    }
+                    Entry next = pending.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                if (!write(batch)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Insert a batch of notes, retrying while the database is unavailable.
+     * The notes rejected by the database are logged and dropped, retrying them being pointless.
+     *
+     * @param batch The entries of the notes to insert
+     * @return true if the batch is inserted, false if the writer is stopped before
+     * @throws InterruptedException if the writer is interrupted while waiting to retry
+     */
+    private boolean write(List<Entry> batch) throws InterruptedException {
+
+        oldestEntryBeingWritten = batch.get(0);
+        List<Note> notes = batch.stream().map(entry -> entry.note).collect(Collectors.toList());
+
+        List<BulkItemResult> results;
+        while (true) {
+            try {
+                results = noteService.insertAcceptedNotes(notes);
+                break;
+            } catch (Exception e) {
+                if (!running) {
+                    logger.warn("Note ingestion writer stopped : {} notes left in the log", depth.get());
+                    return false;
+                }
+                logger.error("Error : {} notes accepted not inserted, retrying in {} ms", notes.size(), retryDelayMillis, e);
+                Thread.sleep(retryDelayMillis);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            BulkItemResult result = results.get(i);
+            if (result.getError() != null) {
+                logger.error("Error : note {} of patient {} accepted but not inserted : {}", entry.note.getId(), entry.note.getPatientId(), result.getError());
+            }
+            writeLag.record(Math.max(0L, now - entry.acceptedAt), TimeUnit.MILLISECONDS);
+            entry.segment.pendingEntries.decrementAndGet();
+        }
+        depth.addAndGet(-batch.size());
+        oldestEntryBeingWritten = null;
+
+        logger.debug("{} notes accepted inserted", batch.size());
+
+        deleteWrittenSegments();
+        return true;
+    }
+
+    /**
+     * Read the notes of a segment left by the previous run and queue them. A line not entirely written before a crash is ignored.
+     *
+     * @param segment The segment
+     * @return The number of notes queued
+     * @throws IOException if the segment can not be read
+     */
+    private long replay(Segment segment) throws IOException {
+        long nbNotes = 0L;
+        try (BufferedReader reader = Files.newBufferedReader(segment.path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    JsonNode node = objectMapper.readTree(line);
+                    Note note = objectMapper.treeToValue(node.get(NOTE_FIELD), Note.class);
+                    queue(new Entry(note, node.get(ACCEPTED_AT_FIELD).asLong(), segment));
+                    nbNotes++;
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Line of note ingestion log segment {} ignored, not readable : {}", segment.path.getFileName(), e.getMessage());
+                }
+            }
+        }
+        return nbNotes;
+    }
+
+    private void queue(Entry entry) {
+        entry.segment.pendingEntries.incrementAndGet();
+        depth.incrementAndGet();
+        pending.add(entry);
+    }
+
+    /**
+     * Force the log to disk up to a position, unless it is already forced : the appends waiting for the sync lock are forced
+     * by the first one, which forces all the lines written before it.
+     *
+     * @param position The position, in bytes written since the log was opened, up to which the log must be forced
+     */
+    private void sync(long position) {
+
+        if (!fsync || syncedPosition >= position) {
+            return;
+        }
+
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                return;
+            }
+            long positionToSync;
+            FileChannel channel;
+            synchronized (appendLock) {
+                positionToSync = writtenPosition;
+                channel = activeChannel;
+            }
+            try {
+                if (channel != null) {
+                    channel.force(false);
+                }
+            } catch (ClosedChannelException e) {
+                // The segment was rolled or the log closed meanwhile : its channel was forced before being closed
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            syncedPosition = positionToSync;
+        }
+    }
+
+    /**
+     * Roll the log when all the notes accepted are inserted, so that the active segment is deleted although not full.
+     */
+    private void rollIfWritten() {
+        synchronized (appendLock) {
+            if (!opened || depth.get() > 0L || activeSegment.size == 0L) {
+                return;
+            }
+            try {
+                roll();
+            } catch (IOException e) {
+                logger.error("Error : note ingestion log not rolled", e);
+                return;
+            }
+        }
+        deleteWrittenSegments();
+    }
+
+    /**
+     * Close the active segment, forced to disk, and create the next one. Must be called holding the append lock.
+     *
+     * @throws IOException if the segment can not be created
+     */
+    private void roll() throws IOException {
+        closeActiveChannel();
+        activeSegment = createSegment(activeSegment.index + 1L);
+    }
+
+    /**
+     * Truncate the active segment back to its complete lines after a failed append, so that the next line is not appended to a partial one.
+     * If the segment can not be truncated, the log is rolled : the partial line is left at the end of its segment and ignored when replayed.
+     * Must be called holding the append lock.
+     */
+    private void discardPartialLine() {
+        if (activeChannel == null) {
+            return;
+        }
+        try {
+            activeChannel.truncate(activeSegment.size);
+        } catch (IOException e) {
+            logger.error("Error : note ingestion log segment {} not truncated, rolling the log", activeSegment.path.getFileName(), e);
+            try {
+                roll();
+            } catch (IOException rollException) {
+                logger.error("Error : note ingestion log not rolled", rollException);
+            }
+        }
+    }
+
+    /**
+     * Delete the segments older than the active one whose notes are all inserted, in order.
+     */
+    private void deleteWrittenSegments() {
+        Segment currentSegment;
+        synchronized (appendLock) {
+            currentSegment = activeSegment;
+        }
+        for (Segment segment : segments.headMap(currentSegment.index).values()) {
+            if (segment.pendingEntries.get() > 0) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(segment.path);
+                segments.remove(segment.index);
+            } catch (IOException e) {
+                logger.error("Error : note ingestion log segment {} not deleted", segment.path.getFileName(), e);
+                return;
+            }
+        }
+    }
+
+    private Segment createSegment(long index) {
+        Segment segment = new Segment(index, directory.resolve(String.format("notes-%020d.log", index)));
+        segments.put(index, segment);
+        return segment;
+    }
+
+    /**
+     * Return the channel of the active segment, opened on first use. Must be called holding the append lock.
+     *
+     * @return The channel of the active segment
+     * @throws IOException if the segment can not be opened
+     */
+    private FileChannel activeChannel() throws IOException {
+        if (activeChannel == null) {
+            activeChannel = openChannel(activeSegment.path);
+        }
+        return activeChannel;
+    }
+
+    /**
+     * Open a segment for appending, creating it if needed.
+     *
+     * @param path The path of the segment
+     * @return The channel of the segment
+     * @throws IOException if the segment can not be opened
+     */
+    FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Force and close the channel of the active segment, if opened. Must be called holding the append lock.
+     */
+    private void closeActiveChannel() {
+        if (activeChannel == null) {
+            return;
+        }
+        try {
+            activeChannel.force(false);
+            activeChannel.close();
+        } catch (IOException e) {
+            logger.error("Error : note ingestion log segment {} not closed", activeSegment.path.getFileName(), e);
+        }
+        activeChannel = null;
+    }
+
+    private byte[] toLine(Note note, long acceptedAt) {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put(ACCEPTED_AT_FIELD, acceptedAt);
+        node.set(NOTE_FIELD, objectMapper.valueToTree(note));
+        try {
+            return (objectMapper.writeValueAsString(node) + "\n").getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A note accepted, with the time it was accepted and the segment of the log holding it.
+     */
+    private static final class Entry {
+
+        private final Note note;
+
+        private final long acceptedAt;
+
+        private final Segment segment;
+
+        private Entry(Note note, long acceptedAt, Segment segment) {
+            this.note = note;
+            this.acceptedAt = acceptedAt;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * A segment of the log, with the number of its notes not inserted yet.
+     */
+    private static final class Segment {
+
+        private final long index;
+
+        private final Path path;
+
+        private final AtomicInteger pendingEntries = new AtomicInteger();
+
+        // Guarded by appendLock, for the active segment
+        private long size;
+
+        private Segment(long index, Path path) {
+            this.index = index;
+            this.path = path;
+        }
+    }
+}
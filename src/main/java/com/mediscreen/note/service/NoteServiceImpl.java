@@ -1,12 +1,40 @@
 package com.mediscreen.note.service;
 
+import com.mediscreen.note.configuration.CacheConfiguration;
+import com.mediscreen.note.domain.BulkItemResult;
 import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePage;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
 import com.mediscreen.note.exception.ResourceNotFoundException;
 import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.IReadPreferenceRouter;
 import com.mediscreen.note.repository.NoteRepository;
+import com.mediscreen.note.repository.ReadOperation;
+import org.bson.types.ObjectId;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Class in charge of managing the services for Note entities.
@@ -14,12 +42,30 @@ import java.util.List;
 @Service
 public class NoteServiceImpl implements INoteService {
 
+    private static final String PATIENT_ID_FIELD = "patientId";
+
+    private static final Set<String> PATCHABLE_FIELDS = new HashSet<>(Arrays.asList(PATIENT_ID_FIELD, "patientLastName", "patientFirstName", "noteText"));
+
     private final NoteRepository noteRepository;
     private final INoteRepositoryCustom noteRepositoryCustom;
+    private final IPatientIdAllocator patientIdAllocator;
+    private final IPatientHistoryInvalidator patientHistoryInvalidator;
+    private final ITriggerTermRollupService triggerTermRollupService;
+    private final IPatientDirectory patientDirectory;
+    private final Validator validator;
+    private final IReadPreferenceRouter readPreferenceRouter;
 
-    public NoteServiceImpl(NoteRepository noteRepository, INoteRepositoryCustom noteRepositoryCustom) {
+    public NoteServiceImpl(NoteRepository noteRepository, INoteRepositoryCustom noteRepositoryCustom, IPatientIdAllocator patientIdAllocator,
+                           IPatientHistoryInvalidator patientHistoryInvalidator, ITriggerTermRollupService triggerTermRollupService, IPatientDirectory patientDirectory,
+                           Validator validator, IReadPreferenceRouter readPreferenceRouter) {
         this.noteRepository = noteRepository;
         this.noteRepositoryCustom = noteRepositoryCustom;
+        this.patientIdAllocator = patientIdAllocator;
+        this.patientHistoryInvalidator = patientHistoryInvalidator;
+        this.triggerTermRollupService = triggerTermRollupService;
+        this.patientDirectory = patientDirectory;
+        this.validator = validator;
+        this.readPreferenceRouter = readPreferenceRouter;
     }
 
     /**
@@ -31,7 +77,7 @@ public class NoteServiceImpl implements INoteService {
      */
     @Override
     public Note findNoteById(String id) throws ResourceNotFoundException {
-        return noteRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException(id));
+        return readPreferenceRouter.read(ReadOperation.NOTE, () -> noteRepository.findById(id)).orElseThrow(() -> new ResourceNotFoundException(id));
     }
 
     /**
@@ -42,9 +88,10 @@ public class NoteServiceImpl implements INoteService {
      * @throws ResourceNotFoundException if no note is found for the given patient id
      */
     @Override
+    @Cacheable(cacheNames = CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE, sync = true)
     public List<Note> findNotesByPatientId(long patientId) throws ResourceNotFoundException {
 
-        List<Note> notes = noteRepository.findByPatientId(patientId);
+        List<Note> notes = readPreferenceRouter.read(ReadOperation.HISTORY, () -> noteRepository.findByPatientId(patientId));
 
         if(notes.isEmpty()) {
             throw new ResourceNotFoundException(patientId);
@@ -61,8 +108,119 @@ public class NoteServiceImpl implements INoteService {
      * @return The list of notes corresponding to the patient last name and first name
      */
     @Override
+    @Cacheable(cacheNames = CacheConfiguration.NOTES_BY_PATIENT_NAME_CACHE, sync = true)
     public List<Note> findNotesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName) {
-        return noteRepository.findByPatientLastNameAndPatientFirstName(patientLastName, patientFirstName);
+        return readPreferenceRouter.read(ReadOperation.HISTORY, () -> noteRepository.findByPatientLastNameAndPatientFirstName(patientLastName, patientFirstName));
+    }
+
+    /**
+     * Return the identity of a patient given its id, without reading its notes.
+     *
+     * @param patientId The id of the patient
+     * @return The identity of the patient
+     * @throws ResourceNotFoundException if no patient is found for the given patient id
+     */
+    @Override
+    public PatientIdentity findPatientIdentityById(long patientId) throws ResourceNotFoundException {
+
+        PatientIdentity identity = patientDirectory.findById(patientId);
+
+        if(identity == null) {
+            throw new ResourceNotFoundException(patientId);
+        }
+
+        return identity;
+    }
+
+    /**
+     * Return the identity of a patient given its last name and first name, without reading its notes.
+     * A new id is allocated for a new patient.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The identity of the patient
+     */
+    @Override
+    public PatientIdentity getOrCreatePatientIdentity(String patientLastName, String patientFirstName) {
+        return patientDirectory.getOrCreate(patientLastName, patientFirstName);
+    }
+
+    /**
+     * Return the summaries of the notes of a patient given its id, without the full note texts.
+     *
+     * @param patientId The id of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    @Override
+    public List<NoteSummary> findNoteSummariesByPatientId(long patientId, int previewLength) throws ResourceNotFoundException {
+
+        List<NoteSummary> noteSummaries = readPreferenceRouter.read(ReadOperation.HISTORY_SUMMARY, () -> noteRepositoryCustom.findNoteSummariesByPatientId(patientId, previewLength));
+
+        if(noteSummaries.isEmpty()) {
+            throw new ResourceNotFoundException(patientId);
+        }
+
+        return noteSummaries;
+    }
+
+    /**
+     * Return the summaries of the notes of a patient given its last name and first name, without the full note texts.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param previewLength The maximum number of characters of the note text previews
+     * @return The list of the summaries of the notes of the patient
+     */
+    @Override
+    public List<NoteSummary> findNoteSummariesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName, int previewLength) {
+        return readPreferenceRouter.read(ReadOperation.HISTORY_SUMMARY, () -> noteRepositoryCustom.findNoteSummariesByPatientLastNameAndFirstName(patientLastName, patientFirstName, previewLength));
+    }
+
+    /**
+     * Count, case and accent insensitively, the occurrences of trigger terms in the notes of a patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @param terms The trigger terms to count
+     * @return The trigger term counts of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    @Override
+    public TriggerTermCount countTriggerTermsByPatientId(long patientId, List<String> terms) throws ResourceNotFoundException {
+
+        List<TriggerTermCount> triggerTermCounts = readPreferenceRouter.read(ReadOperation.TRIGGER_TERM_COUNT, () -> noteRepositoryCustom.countTriggerTerms(Collections.singletonList(patientId), terms));
+
+        if(triggerTermCounts.isEmpty()) {
+            throw new ResourceNotFoundException(patientId);
+        }
+
+        return triggerTermCounts.get(0);
+    }
+
+    /**
+     * Count, case and accent insensitively, the occurrences of trigger terms in the notes of a batch of patients given their ids.
+     *
+     * @param patientIds The ids of the patients
+     * @param terms The trigger terms to count
+     * @return The trigger term counts of each patient having notes
+     */
+    @Override
+    public List<TriggerTermCount> countTriggerTerms(List<Long> patientIds, List<String> terms) {
+        return readPreferenceRouter.read(ReadOperation.TRIGGER_TERM_COUNT, () -> noteRepositoryCustom.countTriggerTerms(patientIds, terms));
+    }
+
+    /**
+     * Return the trigger term counts of all the notes of a patient given its id, read from the rollup maintained when its notes are written.
+     * The trigger terms are the ones of the configured dictionary.
+     *
+     * @param patientId The id of the patient
+     * @return The trigger term counts of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    @Override
+    public TriggerTermCount getTriggerTermRollupByPatientId(long patientId) throws ResourceNotFoundException {
+        return triggerTermRollupService.getTriggerTermCounts(patientId);
     }
 
     /**
@@ -76,19 +234,247 @@ public class NoteServiceImpl implements INoteService {
     }
 
     /**
-     * Update a note.
+     * Return a page of notes, ordered by note id.
+     * The page starts after the note with the afterId cursor, or ends before the note with the beforeId cursor.
+     * The page is read causally consistent with the writes of the read-after-write token, so that a page read after a write of the same user shows it.
+     *
+     * @param afterId The id of the note after which the page starts, or null
+     * @param beforeId The id of the note before which the page ends, or null
+     * @param pageSize The maximum number of notes in the page
+     * @param readAfterWriteToken The token returned after the last writes of the user, or null
+     * @return The page of notes, with the cursors of the next and previous pages
+     */
+    @Override
+    public NotePage findNotesPage(String afterId, String beforeId, int pageSize, String readAfterWriteToken) {
+
+        // One more note than the page size is read to know if there is a following page
+        if (beforeId != null) {
+            List<Note> notes = readPreferenceRouter.readAfterWrite(ReadOperation.NOTE_LIST, readAfterWriteToken, () -> noteRepositoryCustom.findNotesBeforeId(beforeId, pageSize + 1));
+            boolean hasPreviousPage = notes.size() > pageSize;
+            if (hasPreviousPage) {
+                notes = notes.subList(0, pageSize);
+            }
+            Collections.reverse(notes);
+            if (notes.isEmpty()) {
+                return new NotePage(notes, null, null);
+            }
+            return new NotePage(notes, notes.get(notes.size() - 1).getId(), hasPreviousPage ? notes.get(0).getId() : null);
+        }
+
+        List<Note> notes = readPreferenceRouter.readAfterWrite(ReadOperation.NOTE_LIST, readAfterWriteToken, () -> noteRepositoryCustom.findNotesAfterId(afterId, pageSize + 1));
+        boolean hasNextPage = notes.size() > pageSize;
+        if (hasNextPage) {
+            notes = notes.subList(0, pageSize);
+        }
+        if (notes.isEmpty()) {
+            return new NotePage(notes, null, null);
+        }
+        return new NotePage(notes, hasNextPage ? notes.get(notes.size() - 1).getId() : null, afterId != null ? notes.get(0).getId() : null);
+    }
+
+    /**
+     * Export the notes, optionally restricted to a range of patient ids, one by one without loading them all in memory.
+     *
+     * @param fromPatientId The lowest patient id of the notes (inclusive), or null
+     * @param toPatientId The highest patient id of the notes (inclusive), or null
+     * @param noteConsumer The consumer receiving each exported note
+     * @return The number of notes exported
+     */
+    @Override
+    public long exportNotes(Long fromPatientId, Long toPatientId, Consumer<Note> noteConsumer) {
+
+        long nbNotes = 0L;
+
+        try (CloseableIterator<Note> notes = readPreferenceRouter.read(ReadOperation.EXPORT, () -> noteRepositoryCustom.streamNotes(fromPatientId, toPatientId))) {
+            while (notes.hasNext()) {
+                noteConsumer.accept(notes.next());
+                nbNotes++;
+            }
+        }
+
+        return nbNotes;
+    }
+
+    /**
+     * Return a cursor over the notes, optionally restricted to a range of patient ids, for the consumers pulling the notes one by one.
+     * The cursor must be closed after use.
      *
-     * @param note The note to update
-     * @return The note updated
+     * @param fromPatientId The lowest patient id of the notes (inclusive), or null
+     * @param toPatientId The highest patient id of the notes (inclusive), or null
+     * @return The cursor over the notes
+     */
+    @Override
+    public CloseableIterator<Note> streamNotes(Long fromPatientId, Long toPatientId) {
+        return readPreferenceRouter.read(ReadOperation.EXPORT, () -> noteRepositoryCustom.streamNotes(fromPatientId, toPatientId));
+    }
+
+    /**
+     * Export the notes of a batch of patients, ordered by patient id, one by one without loading them all in memory.
+     * The notes of all patients are read with one query, instead of one query per patient.
+     *
+     * @param patientIds The ids of the patients
+     * @param noteConsumer The consumer receiving each exported note
+     * @return The number of notes exported
+     */
+    @Override
+    public long exportPatientHistories(Collection<Long> patientIds, Consumer<Note> noteConsumer) {
+
+        long nbNotes = 0L;
+
+        try (CloseableIterator<Note> notes = readPreferenceRouter.read(ReadOperation.EXPORT, () -> noteRepositoryCustom.streamNotesByPatientIds(patientIds))) {
+            while (notes.hasNext()) {
+                noteConsumer.accept(notes.next());
+                nbNotes++;
+            }
+        }
+
+        return nbNotes;
+    }
+
+    /**
+     * Update a note, only if it has not been updated since it was read.
+     *
+     * @param note The note to update, with the version it was read with
+     * @return The note updated, with its new version
      * @throws ResourceNotFoundException if the note to update does not exist
+     * @throws OptimisticLockingFailureException if the note has been updated since it was read
+     */
+    @Override
+    public Note updateNote(Note note) throws ResourceNotFoundException, OptimisticLockingFailureException {
+
+        Note previousNote = readPreferenceRouter.write(() -> noteRepositoryCustom.updateNoteIfVersionMatches(note));
+
+        if (previousNote == null) {
+            // No note updated -> a second round-trip, only in this case, tells a missing note from a note updated since it was read
+            if (!noteRepository.existsById(note.getId())) {
+                throw new ResourceNotFoundException(note.getId());
+            }
+            throw new OptimisticLockingFailureException("Note " + note.getId() + " has been updated since version " + note.getVersion());
+        }
+
+        note.setVersion(note.getVersion() == null ? 1L : note.getVersion() + 1L);
+
+        onNoteUpdated(previousNote, note);
+
+        return note;
+    }
+
+    /**
+     * Patch a note with a JSON merge patch, only writing the fields of the patch.
+     *
+     * @param id The id of the note to patch
+     * @param version The version the note must have to be patched, or null to patch the note whatever its version
+     * @param patch The JSON merge patch, the fields given with a null value being removed
+     * @return The note patched, with its new version
+     * @throws IllegalArgumentException if the patch is not valid
+     * @throws ResourceNotFoundException if the note to patch does not exist
+     * @throws OptimisticLockingFailureException if the note does not have the version given
+     */
+    @Override
+    public Note patchNote(String id, Long version, Map<String, Object> patch) throws ResourceNotFoundException, OptimisticLockingFailureException {
+
+        List<String> patchErrors = validatePatch(patch);
+        if (!patchErrors.isEmpty()) {
+            throw new IllegalArgumentException(String.join(", ", patchErrors));
+        }
+
+        Map<String, Object> fieldValues = toFieldValues(patch);
+
+        Note previousNote = readPreferenceRouter.write(() -> noteRepositoryCustom.patchNote(id, version, fieldValues));
+
+        if (previousNote == null) {
+            if (version == null || !noteRepository.existsById(id)) {
+                throw new ResourceNotFoundException(id);
+            }
+            throw new OptimisticLockingFailureException("Note " + id + " has been updated since version " + version);
+        }
+
+        Note notePatched = applyFieldValues(previousNote, fieldValues);
+
+        onNoteUpdated(previousNote, notePatched);
+
+        return notePatched;
+    }
+
+    /**
+     * Patch notes in bulk with JSON merge patches, the notes being read in one query and patched in one bulk write.
+     * A note is patched only if it has not been updated since it was read, and since the version of its patch if given.
+     *
+     * @param notePatches The patches of the notes
+     * @return The result of the patch of each note, in the order of the patches
      */
     @Override
-    public Note updateNote(Note note) throws ResourceNotFoundException {
+    public List<BulkItemResult> patchNotes(List<NotePatch> notePatches) {
+
+        BulkItemResult[] results = new BulkItemResult[notePatches.size()];
+        Set<String> ids = new HashSet<>();
+
+        for (int i = 0; i < notePatches.size(); i++) {
+            NotePatch notePatch = notePatches.get(i);
+            List<String> patchErrors = validatePatch(notePatch.getPatch());
+            if (!StringUtils.hasText(notePatch.getId())) {
+                results[i] = BulkItemResult.error(i, "Id is mandatory");
+            } else if (!patchErrors.isEmpty()) {
+                results[i] = BulkItemResult.error(i, String.join(", ", patchErrors));
+            } else if (!ids.add(notePatch.getId())) {
+                results[i] = BulkItemResult.error(i, "Note " + notePatch.getId() + " is patched more than once in the bulk");
+            }
+        }
+
+        Map<String, Note> previousNotes = new HashMap<>();
+        for (Note note : noteRepositoryCustom.findNotesByIds(ids)) {
+            previousNotes.put(note.getId(), note);
+        }
 
-        noteRepository.findById(note.getId()).orElseThrow(() -> new ResourceNotFoundException(note.getId()));
+        // The notes are patched only if they still have the version they were read with
+        List<NotePatch> patchesToWrite = new ArrayList<>();
+        List<Integer> patchesToWriteIndexes = new ArrayList<>();
+        for (int i = 0; i < notePatches.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            NotePatch notePatch = notePatches.get(i);
+            Note previousNote = previousNotes.get(notePatch.getId());
+            if (previousNote == null) {
+                results[i] = BulkItemResult.error(i, "No note found for id " + notePatch.getId());
+            } else if (notePatch.getVersion() != null && !notePatch.getVersion().equals(previousNote.getVersion())) {
+                results[i] = BulkItemResult.error(i, "Note " + notePatch.getId() + " has been updated since version " + notePatch.getVersion());
+            } else {
+                // Loaded before the bulk write, which deletes the GridFS file of the previous note text
+                previousNote.getNoteText();
+                patchesToWrite.add(new NotePatch(notePatch.getId(), previousNote.getVersion(), toFieldValues(notePatch.getPatch())));
+                patchesToWriteIndexes.add(i);
+            }
+        }
 
-        return noteRepository.save(note);
+        long nbNotesMatched = readPreferenceRouter.write(() -> noteRepositoryCustom.patchNotesIfVersionsMatch(patchesToWrite));
 
+        // Some notes have been updated between the read and the bulk write -> the notes are read again to know which patches were written
+        Map<String, Note> currentNotes = null;
+        if (nbNotesMatched < patchesToWrite.size()) {
+            currentNotes = new HashMap<>();
+            for (NotePatch notePatch : patchesToWrite) {
+                currentNotes.put(notePatch.getId(), null);
+            }
+            for (Note note : noteRepositoryCustom.findNotesByIds(currentNotes.keySet())) {
+                currentNotes.put(note.getId(), note);
+            }
+        }
+
+        for (int j = 0; j < patchesToWrite.size(); j++) {
+            int i = patchesToWriteIndexes.get(j);
+            NotePatch notePatch = patchesToWrite.get(j);
+            Note previousNote = previousNotes.get(notePatch.getId());
+            Note notePatched = applyFieldValues(previousNote, notePatch.getPatch());
+            if (currentNotes != null && !isSameNote(notePatched, currentNotes.get(notePatch.getId()))) {
+                results[i] = BulkItemResult.error(i, "Note " + notePatch.getId() + " has been updated concurrently");
+                continue;
+            }
+            results[i] = BulkItemResult.success(i, notePatched.getId(), notePatched.getPatientId());
+            onNoteUpdated(previousNote, notePatched);
+        }
+
+        return Arrays.asList(results);
     }
 
     /**
@@ -100,7 +486,162 @@ public class NoteServiceImpl implements INoteService {
     @Override
     public Note createNote(Note note) {
 
-        return noteRepository.save(note);
+        Note noteCreated = readPreferenceRouter.write(() -> noteRepository.save(note));
+
+        triggerTermRollupService.addNotes(Collections.singletonList(noteCreated));
+
+        patientDirectory.register(Collections.singletonList(identityOf(noteCreated)));
+
+        patientHistoryInvalidator.invalidate(noteCreated);
+
+        return noteCreated;
+    }
+
+    /**
+     * Create notes in bulk.
+     * The patient of each note is given either by its id or by its last name and first name, a new id being allocated for a new patient.
+     *
+     * @param notes The notes to create
+     * @return The result of the creation of each note, in the order of the notes
+     */
+    @Override
+    public List<BulkItemResult> createNotes(List<Note> notes) {
+
+        BulkItemResult[] results = new BulkItemResult[notes.size()];
+        Set<Long> patientIds = new HashSet<>();
+        Set<PatientIdentity> patientNames = new HashSet<>();
+
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            if (!StringUtils.hasText(note.getNoteText())) {
+                results[i] = BulkItemResult.error(i, "Note text is mandatory");
+            } else if (note.getPatientId() > 0L) {
+                patientIds.add(note.getPatientId());
+            } else if (StringUtils.hasText(note.getPatientLastName()) && StringUtils.hasText(note.getPatientFirstName())) {
+                patientNames.add(new PatientIdentity(0L, note.getPatientLastName(), note.getPatientFirstName()));
+            } else {
+                results[i] = BulkItemResult.error(i, "PatientId or PatientLastName and PatientFirstName are mandatory");
+            }
+        }
+
+        // The identities of all the patients are resolved from the patient directory
+        Map<Long, PatientIdentity> identitiesById = new HashMap<>();
+        Map<PatientIdentity, PatientIdentity> identitiesByName = new HashMap<>();
+        for (PatientIdentity identity : patientDirectory.findIdentities(patientIds, patientNames)) {
+            identitiesById.put(identity.getPatientId(), identity);
+            identitiesByName.putIfAbsent(new PatientIdentity(0L, identity.getPatientLastName(), identity.getPatientFirstName()), identity);
+        }
+
+        // New patients for Notes -> we allocate their ids, shared by all their notes in the request
+        Set<PatientIdentity> newPatientNames = new HashSet<>(patientNames);
+        newPatientNames.removeAll(identitiesByName.keySet());
+        if (!newPatientNames.isEmpty()) {
+            for (PatientIdentity identity : patientDirectory.createIdentities(newPatientNames)) {
+                identitiesByName.putIfAbsent(new PatientIdentity(0L, identity.getPatientLastName(), identity.getPatientFirstName()), identity);
+            }
+        }
+
+        List<Note> notesToInsert = new ArrayList<>();
+        List<Integer> notesToInsertIndexes = new ArrayList<>();
+        for (int i = 0; i < notes.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            Note note = notes.get(i);
+            PatientIdentity identity;
+            if (note.getPatientId() > 0L) {
+                identity = identitiesById.get(note.getPatientId());
+                if (identity == null) {
+                    results[i] = BulkItemResult.error(i, "No patient found for patient id " + note.getPatientId());
+                    continue;
+                }
+            } else {
+                identity = identitiesByName.get(new PatientIdentity(0L, note.getPatientLastName(), note.getPatientFirstName()));
+                if (identity == null) {
+                    results[i] = BulkItemResult.error(i, "No patient id allocated for patient " + note.getPatientLastName() + " " + note.getPatientFirstName());
+                    continue;
+                }
+            }
+            note.setId(new ObjectId().toHexString());
+            note.setPatientId(identity.getPatientId());
+            note.setPatientLastName(identity.getPatientLastName());
+            note.setPatientFirstName(identity.getPatientFirstName());
+            notesToInsert.add(note);
+            notesToInsertIndexes.add(i);
+        }
+
+        Map<Integer, String> insertErrors = readPreferenceRouter.write(() -> noteRepositoryCustom.insertNotes(notesToInsert));
+
+        List<Note> notesInserted = new ArrayList<>();
+        Set<PatientIdentity> patientsUpdated = new HashSet<>();
+        for (int j = 0; j < notesToInsert.size(); j++) {
+            int i = notesToInsertIndexes.get(j);
+            Note note = notesToInsert.get(j);
+            String insertError = insertErrors.get(j);
+            if (insertError == null) {
+                results[i] = BulkItemResult.success(i, note.getId(), note.getPatientId());
+                notesInserted.add(note);
+                // Only the patients of the notes inserted have a new history
+                if (patientsUpdated.add(new PatientIdentity(note.getPatientId(), note.getPatientLastName(), note.getPatientFirstName()))) {
+                    patientHistoryInvalidator.invalidate(note);
+                }
+            } else {
+                results[i] = BulkItemResult.error(i, insertError);
+            }
+        }
+
+        triggerTermRollupService.addNotes(notesInserted);
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Insert notes accepted by the ingestion queue, their ids and patients being already set.
+     * A note already inserted, replayed after a restart, is reported as a success and is not counted twice in the rollups.
+     *
+     * @param notes The notes to insert
+     * @return The result of the insertion of each note, in the order of the notes
+     */
+    @Override
+    public List<BulkItemResult> insertAcceptedNotes(List<Note> notes) {
+
+        Map<Integer, String> insertErrors = readPreferenceRouter.write(() -> noteRepositoryCustom.insertNotesIfAbsent(notes));
+
+        List<BulkItemResult> results = new ArrayList<>(notes.size());
+        List<Note> notesInserted = new ArrayList<>();
+        Set<PatientIdentity> patientsUpdated = new LinkedHashSet<>();
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            String insertError = insertErrors.get(i);
+            if (insertError == null) {
+                notesInserted.add(note);
+            }
+            if (insertError == null || INoteRepositoryCustom.NOTE_ALREADY_INSERTED.equals(insertError)) {
+                results.add(BulkItemResult.success(i, note.getId(), note.getPatientId()));
+                // A note already inserted may have been inserted just before a restart, without its patient history being evicted
+                if (patientsUpdated.add(identityOf(note))) {
+                    patientHistoryInvalidator.invalidate(note);
+                }
+            } else {
+                results.add(BulkItemResult.error(i, insertError));
+            }
+        }
+
+        triggerTermRollupService.addNotes(notesInserted);
+
+        patientDirectory.register(new ArrayList<>(patientsUpdated));
+
+        return results;
+    }
+
+    /**
+     * Return a token of the writes known by the instance, to be given back to the reads of the same user which must see them.
+     *
+     * @return The read-after-write token, or null if no write is known
+     */
+    @Override
+    public String getReadAfterWriteToken() {
+        return readPreferenceRouter.getReadAfterWriteToken();
     }
 
     /**
@@ -113,4 +654,139 @@ public class NoteServiceImpl implements INoteService {
 
         return noteRepositoryCustom.findMaxPatientId();
     }
+
+    /**
+     * Return a new patient id, to be used for a patient having no note yet.
+     *
+     * @return The new patient id
+     */
+    @Override
+    public long getNextPatientId() {
+
+        return patientIdAllocator.nextPatientId();
+    }
+
+    /**
+     * Update the trigger term rollups, the patient directory and the cached patient histories after a note has been updated.
+     *
+     * @param previousNote The note before its update
+     * @param noteUpdated The note updated
+     */
+    private void onNoteUpdated(Note previousNote, Note noteUpdated) {
+
+        triggerTermRollupService.replaceNote(previousNote, noteUpdated);
+
+        patientDirectory.register(Collections.singletonList(identityOf(noteUpdated)));
+
+        // The patient of the note may have changed -> both the previous and the new patient histories are evicted
+        patientHistoryInvalidator.invalidate(previousNote);
+        patientHistoryInvalidator.invalidate(noteUpdated);
+    }
+
+    /**
+     * Validate a JSON merge patch of a note against the fields which can be patched and the constraints declared on the Note class.
+     *
+     * @param patch The JSON merge patch
+     * @return The error messages, empty if the patch is valid
+     */
+    private List<String> validatePatch(Map<String, Object> patch) {
+
+        List<String> patchErrors = new ArrayList<>();
+
+        if (patch == null || patch.isEmpty()) {
+            patchErrors.add("Patch is empty");
+            return patchErrors;
+        }
+
+        for (Map.Entry<String, Object> fieldValue : patch.entrySet()) {
+            String field = fieldValue.getKey();
+            Object value = fieldValue.getValue();
+            if (!PATCHABLE_FIELDS.contains(field)) {
+                patchErrors.add("Field " + field + " can not be patched");
+            } else if (PATIENT_ID_FIELD.equals(field)) {
+                if (!(value instanceof Integer || value instanceof Long) || ((Number) value).longValue() <= 0L) {
+                    patchErrors.add("PatientId must be a positive integer");
+                }
+            } else if (value != null && !(value instanceof String)) {
+                patchErrors.add("Field " + field + " must be a string");
+            } else {
+                for (ConstraintViolation<Note> violation : validator.validateValue(Note.class, field, value)) {
+                    patchErrors.add(violation.getMessage());
+                }
+            }
+        }
+
+        return patchErrors;
+    }
+
+    /**
+     * Return the values of the fields of a valid JSON merge patch, with the types of the fields of the Note class.
+     *
+     * @param patch The JSON merge patch
+     * @return The values of the fields to patch, by field name
+     */
+    private static Map<String, Object> toFieldValues(Map<String, Object> patch) {
+        Map<String, Object> fieldValues = new LinkedHashMap<>(patch);
+        if (fieldValues.containsKey(PATIENT_ID_FIELD)) {
+            fieldValues.put(PATIENT_ID_FIELD, ((Number) fieldValues.get(PATIENT_ID_FIELD)).longValue());
+        }
+        return fieldValues;
+    }
+
+    /**
+     * Return a copy of a note with the values of the fields of a patch, and the version following the version of the note.
+     *
+     * @param note The note
+     * @param fieldValues The values of the fields to patch, by field name
+     * @return The note patched
+     */
+    private static Note applyFieldValues(Note note, Map<String, Object> fieldValues) {
+        Note notePatched = new Note(note.getPatientLastName(), note.getPatientFirstName(), note.getNoteText());
+        notePatched.setId(note.getId());
+        notePatched.setPatientId(note.getPatientId());
+        notePatched.setVersion(note.getVersion() == null ? 1L : note.getVersion() + 1L);
+        for (Map.Entry<String, Object> fieldValue : fieldValues.entrySet()) {
+            switch (fieldValue.getKey()) {
+                case PATIENT_ID_FIELD:
+                    notePatched.setPatientId((Long) fieldValue.getValue());
+                    break;
+                case "patientLastName":
+                    notePatched.setPatientLastName((String) fieldValue.getValue());
+                    break;
+                case "patientFirstName":
+                    notePatched.setPatientFirstName((String) fieldValue.getValue());
+                    break;
+                default:
+                    notePatched.setNoteText((String) fieldValue.getValue());
+                    break;
+            }
+        }
+        return notePatched;
+    }
+
+    /**
+     * Return whether a note read from the database is the note expected, with the same version and the same field values.
+     *
+     * @param expectedNote The note expected
+     * @param note The note read, or null
+     * @return true if the note read is the note expected
+     */
+    private static boolean isSameNote(Note expectedNote, Note note) {
+        return note != null
+                && Objects.equals(expectedNote.getVersion(), note.getVersion())
+                && expectedNote.getPatientId() == note.getPatientId()
+                && Objects.equals(expectedNote.getPatientLastName(), note.getPatientLastName())
+                && Objects.equals(expectedNote.getPatientFirstName(), note.getPatientFirstName())
+                && Objects.equals(expectedNote.getNoteText(), note.getNoteText());
+    }
+
+    /**
+     * Return the identity of the patient of a note.
+     *
+     * @param note The note
+     * @return The identity of the patient of the note
+     */
+    private static PatientIdentity identityOf(Note note) {
+        return new PatientIdentity(note.getPatientId(), note.getPatientLastName(), note.getPatientFirstName());
+    }
 }
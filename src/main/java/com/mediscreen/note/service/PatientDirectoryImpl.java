@@ -0,0 +1,323 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.IPatientIdentityRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class in charge of resolving the identities of the patients from in-memory hash indexes by id and by last name and first name.
+ * The indexes mirror the collection of the identities of the patients, loaded in the background when the application starts.
+ * A patient not indexed yet is read from this collection, then from the notes for a patient whose notes were written before the collection existed.
+ */
+@Service
+public class PatientDirectoryImpl implements IPatientDirectory {
+
+    private static final Logger logger = LoggerFactory.getLogger(PatientDirectoryImpl.class);
+
+    private final IPatientIdentityRepository patientIdentityRepository;
+    private final INoteRepositoryCustom noteRepositoryCustom;
+    private final IPatientIdAllocator patientIdAllocator;
+    private final boolean loadOnStartup;
+
+    private final ConcurrentMap<Long, PatientIdentity> identitiesById = new ConcurrentHashMap<>();
+
+    // The keys are the last names and first names of the patients, with a patient id 0
+    private final ConcurrentMap<PatientIdentity, PatientIdentity> identitiesByName = new ConcurrentHashMap<>();
+
+    public PatientDirectoryImpl(IPatientIdentityRepository patientIdentityRepository, INoteRepositoryCustom noteRepositoryCustom, IPatientIdAllocator patientIdAllocator,
+                                @Value("${note.patient-directory.load-on-startup:true}") boolean loadOnStartup) {
+        this.patientIdentityRepository = patientIdentityRepository;
+        this.noteRepositoryCustom = noteRepositoryCustom;
+        this.patientIdAllocator = patientIdAllocator;
+        this.loadOnStartup = loadOnStartup;
+    }
+
+    /**
+     * Start the loading of the identities of the patients in a background thread when the application is started.
+     *
+     * @param event The event published when the application is started
+     */
+    @EventListener(ApplicationStartedEvent.class)
+    public void onApplicationStarted(ApplicationStartedEvent event) {
+        if (!loadOnStartup) {
+            return;
+        }
+        Thread loadThread = new Thread(this::load, "patient-directory-loader");
+        loadThread.setDaemon(true);
+        loadThread.start();
+    }
+
+    /**
+     * Load the identities of all the patients in the in-memory indexes.
+     * When the collection of the identities is empty, it is first filled with the identities of the patients having notes.
+     */
+    public void load() {
+
+        try {
+            if (!patientIdentityRepository.existsIdentity()) {
+                List<PatientIdentity> identitiesNotSaved = patientIdentityRepository.saveIdentities(noteRepositoryCustom.findAllPatientIdentities());
+                for (PatientIdentity identity : identitiesNotSaved) {
+                    logger.warn("Identity of patient {} not saved, its last name and first name being the ones of another patient", identity.getPatientId());
+                }
+            }
+
+            long nbIdentities = 0L;
+            try (CloseableIterator<PatientIdentity> identities = patientIdentityRepository.streamIdentities()) {
+                while (identities.hasNext()) {
+                    // An identity indexed meanwhile by a write is more recent than the one loaded
+                    PatientIdentity identity = identities.next();
+                    if (identitiesById.putIfAbsent(identity.getPatientId(), identity) == null) {
+                        identitiesByName.putIfAbsent(nameOf(identity), identity);
+                    }
+                    nbIdentities++;
+                }
+            }
+
+            logger.info("Patient directory loaded : {} patient identities", nbIdentities);
+
+        } catch (Exception e) {
+            logger.error("Error : patient directory not loaded", e);
+        }
+    }
+
+    /**
+     * Return the identity of a patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @return The identity of the patient, or null if the patient is unknown
+     */
+    @Override
+    public PatientIdentity findById(long patientId) {
+        PatientIdentity identity = identitiesById.get(patientId);
+        if (identity != null) {
+            return identity;
+        }
+        List<PatientIdentity> identities = findIdentities(Collections.singletonList(patientId), Collections.emptyList());
+        return identities.isEmpty() ? null : identities.get(0);
+    }
+
+    /**
+     * Return the identity of a patient given its last name and first name.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The identity of the patient, or null if the patient is unknown
+     */
+    @Override
+    public PatientIdentity findByName(String patientLastName, String patientFirstName) {
+        PatientIdentity patientName = new PatientIdentity(0L, patientLastName, patientFirstName);
+        PatientIdentity identity = identitiesByName.get(patientName);
+        if (identity != null) {
+            return identity;
+        }
+        List<PatientIdentity> identities = findIdentities(Collections.emptyList(), Collections.singletonList(patientName));
+        return identities.isEmpty() ? null : identities.get(0);
+    }
+
+    /**
+     * Return the identities of patients, given their ids or their last names and first names.
+     * The patients not indexed are read in one query from the collection of the identities, then in one query from the notes.
+     *
+     * @param patientIds The ids of the patients
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities of the known patients
+     */
+    @Override
+    public List<PatientIdentity> findIdentities(Collection<Long> patientIds, Collection<PatientIdentity> patientNames) {
+
+        List<PatientIdentity> identities = new ArrayList<>();
+        Set<Long> patientIdsNotIndexed = new LinkedHashSet<>();
+        Set<PatientIdentity> patientNamesNotIndexed = new LinkedHashSet<>();
+
+        for (Long patientId : patientIds) {
+            PatientIdentity identity = identitiesById.get(patientId);
+            if (identity != null) {
+                identities.add(identity);
+            } else {
+                patientIdsNotIndexed.add(patientId);
+            }
+        }
+        for (PatientIdentity patientName : patientNames) {
+            PatientIdentity identity = identitiesByName.get(nameOf(patientName));
+            if (identity != null) {
+                identities.add(identity);
+            } else {
+                patientNamesNotIndexed.add(nameOf(patientName));
+            }
+        }
+
+        if (patientIdsNotIndexed.isEmpty() && patientNamesNotIndexed.isEmpty()) {
+            return identities;
+        }
+
+        for (PatientIdentity identity : patientIdentityRepository.findIdentities(patientIdsNotIndexed, patientNamesNotIndexed)) {
+            index(identity);
+            identities.add(identity);
+            patientIdsNotIndexed.remove(identity.getPatientId());
+            patientNamesNotIndexed.remove(nameOf(identity));
+        }
+
+        if (patientIdsNotIndexed.isEmpty() && patientNamesNotIndexed.isEmpty()) {
+            return identities;
+        }
+
+        // Patients whose notes were written before the collection of the identities existed
+        List<PatientIdentity> identitiesFromNotes = noteRepositoryCustom.findPatientIdentities(patientIdsNotIndexed, patientNamesNotIndexed);
+        register(identitiesFromNotes);
+        identities.addAll(identitiesFromNotes);
+
+        return identities;
+    }
+
+    /**
+     * Return the identity of a patient given its last name and first name, a new id being allocated for a new patient.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The identity of the patient
+     */
+    @Override
+    public PatientIdentity getOrCreate(String patientLastName, String patientFirstName) {
+        PatientIdentity identity = findByName(patientLastName, patientFirstName);
+        if (identity != null) {
+            return identity;
+        }
+        // New patient for Notes -> we allocate a new id
+        return createIdentities(Collections.singletonList(new PatientIdentity(0L, patientLastName, patientFirstName))).get(0);
+    }
+
+    /**
+     * Create the identities of new patients, a new id being allocated for each of them.
+     * A patient created meanwhile with the same last name and first name keeps its id.
+     *
+     * @param patientNames The patients given by their last names and first names, the patient ids being ignored
+     * @return The list of the identities of the patients
+     */
+    @Override
+    public List<PatientIdentity> createIdentities(Collection<PatientIdentity> patientNames) {
+
+        Set<PatientIdentity> distinctPatientNames = new LinkedHashSet<>();
+        for (PatientIdentity patientName : patientNames) {
+            distinctPatientNames.add(nameOf(patientName));
+        }
+
+        List<PatientIdentity> newIdentities = new ArrayList<>();
+        for (PatientIdentity patientName : distinctPatientNames) {
+            newIdentities.add(new PatientIdentity(patientIdAllocator.nextPatientId(), patientName.getPatientLastName(), patientName.getPatientFirstName()));
+        }
+
+        List<PatientIdentity> identitiesNotSaved = patientIdentityRepository.saveIdentities(newIdentities);
+
+        List<PatientIdentity> identities = new ArrayList<>();
+        for (PatientIdentity identity : newIdentities) {
+            if (!identitiesNotSaved.contains(identity)) {
+                index(identity);
+                identities.add(identity);
+            }
+        }
+
+        if (!identitiesNotSaved.isEmpty()) {
+            // Patients created meanwhile by another request -> their identities are read
+            for (PatientIdentity identity : patientIdentityRepository.findIdentities(Collections.emptyList(), identitiesNotSaved)) {
+                index(identity);
+                identities.add(identity);
+            }
+        }
+
+        return identities;
+    }
+
+    /**
+     * Register the identities of the patients of notes written, the last name and first name of a patient being the ones of its last note written.
+     * Only the identities not already indexed are saved, so that registering a known patient costs no database round-trip.
+     *
+     * @param identities The identities of the patients
+     */
+    @Override
+    public void register(Collection<PatientIdentity> identities) {
+
+        Set<PatientIdentity> identitiesChanged = new LinkedHashSet<>();
+        for (PatientIdentity identity : identities) {
+            if (identity.getPatientId() > 0L && !identity.equals(identitiesById.get(identity.getPatientId()))) {
+                identitiesChanged.add(identity);
+            }
+        }
+
+        if (identitiesChanged.isEmpty()) {
+            return;
+        }
+
+        List<PatientIdentity> identitiesNotSaved = patientIdentityRepository.saveIdentities(new ArrayList<>(identitiesChanged));
+
+        for (PatientIdentity identity : identitiesChanged) {
+            if (identitiesNotSaved.contains(identity)) {
+                logger.warn("Identity of patient {} not saved, its last name and first name being the ones of another patient", identity.getPatientId());
+            } else {
+                index(identity);
+            }
+        }
+    }
+
+    /**
+     * Remove the identity of a patient from the in-memory indexes, so that it is read again from the collection of the identities.
+     *
+     * @param patientId The id of the patient
+     */
+    @Override
+    public void evict(long patientId) {
+        PatientIdentity identity = identitiesById.remove(patientId);
+        if (identity != null) {
+            identitiesByName.remove(nameOf(identity), identity);
+        }
+    }
+
+    /**
+     * Remove all the identities from the in-memory indexes, so that they are read again from the collection of the identities.
+     */
+    @Override
+    public void evictAll() {
+        identitiesById.clear();
+        identitiesByName.clear();
+    }
+
+    /**
+     * Index an identity by id and by last name and first name, replacing the previous identity of the patient.
+     *
+     * @param identity The identity to index
+     */
+    private void index(PatientIdentity identity) {
+        identitiesById.compute(identity.getPatientId(), (patientId, previousIdentity) -> {
+            if (previousIdentity != null) {
+                identitiesByName.remove(nameOf(previousIdentity), previousIdentity);
+            }
+            identitiesByName.put(nameOf(identity), identity);
+            return identity;
+        });
+    }
+
+    /**
+     * Return the key of the index by last name and first name of an identity.
+     *
+     * @param identity The identity
+     * @return The last name and first name of the identity, with a patient id 0
+     */
+    private static PatientIdentity nameOf(PatientIdentity identity) {
+        return new PatientIdentity(0L, identity.getPatientLastName(), identity.getPatientFirstName());
+    }
+}
@@ -0,0 +1,65 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.configuration.CacheConfiguration;
+import com.mediscreen.note.domain.Note;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+
+/**
+ * Class in charge of invalidating the local caches of the patient histories.
+ * The cached notes are evicted before the entity tags change : a history read concurrently with a new entity tag is loaded from the database,
+ * and not serialized from the notes cached before the write.
+ */
+@Service
+public class PatientHistoryInvalidatorImpl implements IPatientHistoryInvalidator {
+
+    private final CacheManager cacheManager;
+    private final IPatientHistoryResponseCache patientHistoryResponseCache;
+
+    public PatientHistoryInvalidatorImpl(CacheManager cacheManager, IPatientHistoryResponseCache patientHistoryResponseCache) {
+        this.cacheManager = cacheManager;
+        this.patientHistoryResponseCache = patientHistoryResponseCache;
+    }
+
+    /**
+     * Invalidate the cached histories of the patient of a note, so that the next reads get the notes from the database, and change their entity tags.
+     *
+     * @param note The note whose patient history has changed
+     */
+    @Override
+    public void invalidate(Note note) {
+
+        Cache notesByPatientIdCache = cacheManager.getCache(CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE);
+        if (notesByPatientIdCache != null) {
+            notesByPatientIdCache.evict(note.getPatientId());
+        }
+
+        Cache notesByPatientNameCache = cacheManager.getCache(CacheConfiguration.NOTES_BY_PATIENT_NAME_CACHE);
+        if (notesByPatientNameCache != null) {
+            notesByPatientNameCache.evict(new SimpleKey(note.getPatientLastName(), note.getPatientFirstName()));
+        }
+
+        // The entity tags change last : a history read with a new entity tag is loaded from the database, not from the notes evicted above
+        patientHistoryResponseCache.invalidate(note);
+    }
+
+    /**
+     * Invalidate the cached histories of all the patients.
+     */
+    @Override
+    public void invalidateAll() {
+
+        for (String cacheName : Arrays.asList(CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE, CacheConfiguration.NOTES_BY_PATIENT_NAME_CACHE)) {
+            Cache cache = cacheManager.getCache(cacheName);
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+
+        patientHistoryResponseCache.invalidateAll();
+    }
+}
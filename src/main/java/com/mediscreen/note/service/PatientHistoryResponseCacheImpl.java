@@ -0,0 +1,154 @@
+package com.mediscreen.note.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mediscreen.note.domain.Note;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Class in charge of caching the serialized patient history responses and their entity tags, in memory.
+ * Each patient history has a version number, taken from a counter incremented each time a note of the patient is written.
+ * The entity tag is made of an epoch, drawn when the instance starts, and of the version number. As the counter only increases,
+ * a version number evicted from the bounded cache of versions is replaced by a new one : entity tags can only change, never be reused.
+ * The responses are cached with the entity tag they were loaded for, in a cache bounded by their total size.
+ */
+@Component
+public class PatientHistoryResponseCacheImpl implements IPatientHistoryResponseCache {
+
+    static final String RESPONSES_CACHE_NAME = "patientHistoryResponses";
+
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+
+    private final AtomicLong versionCounter = new AtomicLong();
+
+    private final Cache<Object, Long> versions;
+
+    private final Cache<Object, CachedResponse> responses;
+
+    public PatientHistoryResponseCacheImpl(@Value("${note.history-response-cache.max-versions:100000}") long maxVersions,
+                                           @Value("${note.history-response-cache.max-bytes:67108864}") long maxBytes,
+                                           ObjectProvider<MeterRegistry> meterRegistry) {
+        this.versions = Caffeine.newBuilder().maximumSize(maxVersions).build();
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .<Object, CachedResponse>weigher((key, response) -> response.body.length)
+                .recordStats()
+                .build();
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, responses, RESPONSES_CACHE_NAME));
+    }
+
+    /**
+     * Return the entity tag of the current version of the history of a patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @return The strong entity tag, quoted
+     */
+    @Override
+    public String getETagByPatientId(long patientId) {
+        return getETag(patientId);
+    }
+
+    /**
+     * Return the entity tag of the current version of the history of a patient given its last name and first name.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The strong entity tag, quoted
+     */
+    @Override
+    public String getETagByPatientName(String patientLastName, String patientFirstName) {
+        return getETag(new SimpleKey(patientLastName, patientFirstName));
+    }
+
+    /**
+     * Return the serialized history of a patient given its id, for a given entity tag. The history is loaded and cached if it is not cached for this entity tag.
+     *
+     * @param patientId The id of the patient
+     * @param eTag The entity tag of the history
+     * @param responseLoader The loader of the serialized history
+     * @return The serialized history
+     */
+    @Override
+    public byte[] getResponseByPatientId(long patientId, String eTag, Supplier<byte[]> responseLoader) {
+        return getResponse(patientId, eTag, responseLoader);
+    }
+
+    /**
+     * Return the serialized history of a patient given its last name and first name, for a given entity tag. The history is loaded and cached if it is not cached for this entity tag.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param eTag The entity tag of the history
+     * @param responseLoader The loader of the serialized history
+     * @return The serialized history
+     */
+    @Override
+    public byte[] getResponseByPatientName(String patientLastName, String patientFirstName, String eTag, Supplier<byte[]> responseLoader) {
+        return getResponse(new SimpleKey(patientLastName, patientFirstName), eTag, responseLoader);
+    }
+
+    /**
+     * Change the entity tags of the histories of the patient of a note, and so invalidate their cached responses.
+     *
+     * @param note The note whose patient history has changed
+     */
+    @Override
+    public void invalidate(Note note) {
+        invalidate(note.getPatientId());
+        invalidate(new SimpleKey(note.getPatientLastName(), note.getPatientFirstName()));
+    }
+
+    /**
+     * Change the entity tags of the histories of all the patients, and so invalidate all the cached responses.
+     * The versions evicted are replaced by new ones drawn from the counter, so the previous entity tags are not reused.
+     */
+    @Override
+    public void invalidateAll() {
+        versions.invalidateAll();
+        responses.invalidateAll();
+    }
+
+    private String getETag(Object key) {
+        return "\"" + epoch + "-" + versions.get(key, k -> versionCounter.incrementAndGet()) + "\"";
+    }
+
+    private byte[] getResponse(Object key, String eTag, Supplier<byte[]> responseLoader) {
+        CachedResponse cachedResponse = responses.getIfPresent(key);
+        if (cachedResponse != null && cachedResponse.eTag.equals(eTag)) {
+            return cachedResponse.body;
+        }
+        // The response may have been loaded after the version changed again -> it is only served for the entity tag read before loading it
+        byte[] body = responseLoader.get();
+        responses.put(key, new CachedResponse(eTag, body));
+        return body;
+    }
+
+    private void invalidate(Object key) {
+        versions.put(key, versionCounter.incrementAndGet());
+        responses.invalidate(key);
+    }
+
+    /**
+     * A serialized response and the entity tag it was loaded for.
+     */
+    private static final class CachedResponse {
+
+        private final String eTag;
+
+        private final byte[] body;
+
+        private CachedResponse(String eTag, byte[] body) {
+            this.eTag = eTag;
+            this.body = body;
+        }
+    }
+}
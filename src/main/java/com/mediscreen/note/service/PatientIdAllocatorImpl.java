@@ -0,0 +1,67 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.ISequenceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Class in charge of allocating ids for new patients using a hi/lo algorithm.
+ * Blocks of ids are reserved with an atomic increment of the patient id sequence and then handed out in-process,
+ * so most allocations do not need any round-trip to the database.
+ */
+@Service
+public class PatientIdAllocatorImpl implements IPatientIdAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(PatientIdAllocatorImpl.class);
+
+    static final String PATIENT_ID_SEQUENCE = "patientId";
+
+    private final ISequenceRepository sequenceRepository;
+    private final INoteRepositoryCustom noteRepositoryCustom;
+    private final long blockSize;
+
+    private boolean sequenceInitialized;
+    private long nextId = 1L;
+    private long maxId = 0L;
+
+    public PatientIdAllocatorImpl(ISequenceRepository sequenceRepository, INoteRepositoryCustom noteRepositoryCustom, @Value("${note.patient-id.block-size:20}") long blockSize) {
+        this.sequenceRepository = sequenceRepository;
+        this.noteRepositoryCustom = noteRepositoryCustom;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Return a new patient id, never returned before by any instance of the microservice.
+     *
+     * @return The new patient id
+     */
+    @Override
+    public synchronized long nextPatientId() {
+
+        if (nextId > maxId) {
+            reserveBlock();
+        }
+
+        return nextId++;
+    }
+
+    /**
+     * Reserve the next block of ids in the patient id sequence.
+     * The sequence is first raised to the max patient id already in the database, for notes created before the sequence existed.
+     */
+    private void reserveBlock() {
+
+        if (!sequenceInitialized) {
+            sequenceRepository.ensureSequenceAtLeast(PATIENT_ID_SEQUENCE, noteRepositoryCustom.findMaxPatientId());
+            sequenceInitialized = true;
+        }
+
+        maxId = sequenceRepository.incrementSequence(PATIENT_ID_SEQUENCE, blockSize);
+        nextId = maxId - blockSize + 1L;
+
+        logger.debug("Patient ids block reserved : {} to {}", nextId, maxId);
+    }
+}
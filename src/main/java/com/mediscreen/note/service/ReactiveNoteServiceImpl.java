@@ -0,0 +1,117 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.repository.ReactiveNoteRepository;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Collections;
+
+/**
+ * Class in charge of managing the non-blocking services for Note entities.
+ */
+@Service
+public class ReactiveNoteServiceImpl implements IReactiveNoteService {
+
+    private final ReactiveNoteRepository reactiveNoteRepository;
+    private final IPatientDirectory patientDirectory;
+    private final IPatientHistoryInvalidator patientHistoryInvalidator;
+    private final ITriggerTermRollupService triggerTermRollupService;
+
+    public ReactiveNoteServiceImpl(ReactiveNoteRepository reactiveNoteRepository, IPatientDirectory patientDirectory, IPatientHistoryInvalidator patientHistoryInvalidator, ITriggerTermRollupService triggerTermRollupService) {
+        this.reactiveNoteRepository = reactiveNoteRepository;
+        this.patientDirectory = patientDirectory;
+        this.patientHistoryInvalidator = patientHistoryInvalidator;
+        this.triggerTermRollupService = triggerTermRollupService;
+    }
+
+    /**
+     * Return the notes given patient id.
+     *
+     * @param patientId The id of the patient
+     * @return The notes corresponding to the patient id, or an error ResourceNotFoundException if no note is found for the given patient id
+     */
+    @Override
+    public Flux<Note> findNotesByPatientId(long patientId) {
+        return reactiveNoteRepository.findByPatientId(patientId)
+                .switchIfEmpty(Mono.defer(() -> Mono.<Note>error(new ResourceNotFoundException(patientId))));
+    }
+
+    /**
+     * Return the notes given patient last name and first name.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @return The notes corresponding to the patient last name and first name
+     */
+    @Override
+    public Flux<Note> findNotesByPatientLastNameAndFirstName(String patientLastName, String patientFirstName) {
+        return reactiveNoteRepository.findByPatientLastNameAndPatientFirstName(patientLastName, patientFirstName);
+    }
+
+    /**
+     * Create a note for an existing patient given its id.
+     *
+     * @param patientId The id of the patient
+     * @param noteText The text of the note
+     * @return The note created, or an error ResourceNotFoundException if no patient is found for the given patient id
+     */
+    @Override
+    public Mono<Note> createNoteByPatientId(long patientId, String noteText) {
+        // A patient not indexed yet by the patient directory needs a database round-trip -> on a thread allowed to block
+        return Mono.fromCallable(() -> patientDirectory.findById(patientId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .switchIfEmpty(Mono.defer(() -> Mono.<PatientIdentity>error(new ResourceNotFoundException(patientId))))
+                .map(identity -> {
+                    // Patient is already existing -> we get its last name and first name from its identity
+                    Note noteToAdd = new Note(identity.getPatientLastName(), identity.getPatientFirstName(), noteText);
+                    noteToAdd.setPatientId(patientId);
+                    return noteToAdd;
+                })
+                .flatMap(this::saveNote);
+    }
+
+    /**
+     * Create a note for a patient given its last name and first name, a new id being allocated for a new patient.
+     *
+     * @param patientLastName The last name of the patient
+     * @param patientFirstName The first name of the patient
+     * @param noteText The text of the note
+     * @return The note created
+     */
+    @Override
+    public Mono<Note> createNoteByPatientLastNameAndFirstName(String patientLastName, String patientFirstName, String noteText) {
+        // A new patient or a patient not indexed yet by the patient directory needs a database round-trip -> on a thread allowed to block
+        return Mono.fromCallable(() -> patientDirectory.getOrCreate(patientLastName, patientFirstName))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(identity -> {
+                    Note noteToAdd = new Note(patientLastName, patientFirstName, noteText);
+                    noteToAdd.setPatientId(identity.getPatientId());
+                    return noteToAdd;
+                })
+                .flatMap(this::saveNote);
+    }
+
+    /**
+     * Save a note, add its trigger terms to the rollup of its patient, register its patient and invalidate the cached histories of its patient.
+     *
+     * @param note The note to save
+     * @return The note saved
+     */
+    private Mono<Note> saveNote(Note note) {
+        return reactiveNoteRepository.save(note)
+                // The rollup and the patient identity are updated with blocking database round-trips -> on a thread allowed to block
+                .flatMap(noteSaved -> Mono.fromRunnable(() -> {
+                            triggerTermRollupService.addNotes(Collections.singletonList(noteSaved));
+                            patientDirectory.register(Collections.singletonList(
+                                    new PatientIdentity(noteSaved.getPatientId(), noteSaved.getPatientLastName(), noteSaved.getPatientFirstName())));
+                        })
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .thenReturn(noteSaved))
+                .doOnNext(patientHistoryInvalidator::invalidate);
+    }
+}
@@ -0,0 +1,170 @@
+package com.mediscreen.note.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Class in charge of finding the trigger terms of a dictionary in note texts, case and accent insensitively.
+ * The terms are matched all at once in a single pass over the text, with an Aho-Corasick automaton built once from the dictionary.
+ * Instances are immutable and can be shared between threads.
+ */
+public final class TriggerTermMatcher {
+
+    private static final int ROOT_STATE = 0;
+
+    private final List<String> terms;
+
+    private final String dictionaryHash;
+
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+
+    private final List<List<Integer>> outputs = new ArrayList<>();
+
+    private int[] failures;
+
+    public TriggerTermMatcher(List<String> terms) {
+        List<String> dictionaryTerms = new ArrayList<>();
+        for (String term : terms) {
+            String dictionaryTerm = term.trim();
+            if (dictionaryTerm.isEmpty() || dictionaryTerms.contains(dictionaryTerm)) {
+                continue;
+            }
+            // Terms are used as field names in the per-patient rollups
+            if (dictionaryTerm.contains(".") || dictionaryTerm.startsWith("$")) {
+                throw new IllegalArgumentException("Trigger term " + dictionaryTerm + " can not contain '.' nor start with '$'");
+            }
+            dictionaryTerms.add(dictionaryTerm);
+        }
+        this.terms = Collections.unmodifiableList(dictionaryTerms);
+        this.dictionaryHash = hash(this.terms);
+        buildAutomaton();
+    }
+
+    /**
+     * Return the terms of the dictionary.
+     *
+     * @return The list of terms
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    /**
+     * Return a hash identifying the terms of the dictionary, changing whenever a term is added, removed or modified.
+     *
+     * @return The hash of the dictionary
+     */
+    public String getDictionaryHash() {
+        return dictionaryHash;
+    }
+
+    /**
+     * Count the occurrences of the terms of the dictionary in a text.
+     *
+     * @param text The text
+     * @return The number of occurrences of each term found in the text, the terms not found being absent
+     */
+    public Map<String, Long> countTerms(String text) {
+        Map<String, Long> termCounts = new LinkedHashMap<>();
+        if (text == null) {
+            return termCounts;
+        }
+        int state = ROOT_STATE;
+        for (char character : normalize(text).toCharArray()) {
+            state = nextState(state, character);
+            for (int termIndex : outputs.get(state)) {
+                termCounts.merge(terms.get(termIndex), 1L, Long::sum);
+            }
+        }
+        return termCounts;
+    }
+
+    /**
+     * Return a text without accents, in lower case and with its whitespace sequences replaced by one space.
+     *
+     * @param text The text
+     * @return The normalized text
+     */
+    static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .replaceAll("\\s+", " ")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private int nextState(int state, char character) {
+        Integer next = transitions.get(state).get(character);
+        while (next == null && state != ROOT_STATE) {
+            state = failures[state];
+            next = transitions.get(state).get(character);
+        }
+        return next == null ? ROOT_STATE : next;
+    }
+
+    private void buildAutomaton() {
+
+        // Trie of the normalized terms
+        addState();
+        for (int termIndex = 0; termIndex < terms.size(); termIndex++) {
+            int state = ROOT_STATE;
+            for (char character : normalize(terms.get(termIndex)).toCharArray()) {
+                Integer next = transitions.get(state).get(character);
+                if (next == null) {
+                    next = addState();
+                    transitions.get(state).put(character, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(termIndex);
+        }
+
+        // Failure links, computed breadth first so that the link of a state is known before the ones of its children
+        // The states at depth 1 fail to the root
+        failures = new int[transitions.size()];
+        Queue<Integer> states = new ArrayDeque<>(transitions.get(ROOT_STATE).values());
+        while (!states.isEmpty()) {
+            int state = states.remove();
+            for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet()) {
+                int child = transition.getValue();
+                int failure = nextState(failures[state], transition.getKey());
+                failures[child] = failure;
+                outputs.get(child).addAll(outputs.get(failure));
+                states.add(child);
+            }
+        }
+    }
+
+    private int addState() {
+        transitions.add(new HashMap<>());
+        outputs.add(new ArrayList<>());
+        return transitions.size() - 1;
+    }
+
+    private static String hash(List<String> terms) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String term : terms) {
+                digest.update(term.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hash.append(String.format("%02x", b));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not available", e);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NoteTermCounts;
+import com.mediscreen.note.domain.TriggerTermCount;
+import com.mediscreen.note.domain.TriggerTermRollup;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.ITriggerTermRollupRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class in charge of managing the per-patient trigger term rollups.
+ * The rollups are updated with the trigger terms of each note written, so that the trigger term counts of a patient are read in one document.
+ * The trigger terms are held per note and per version of the note : a note written again, or both written and recomputed, is counted once.
+ * A missing rollup, or a rollup computed with another dictionary, is computed from the notes of its patient when read,
+ * and all the rollups are rebuilt in parallel at startup when the dictionary has changed.
+ * A recomputed rollup is only saved if no note has been written to it since its notes were read, otherwise it is computed again.
+ */
+@Service
+public class TriggerTermRollupServiceImpl implements ITriggerTermRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TriggerTermRollupServiceImpl.class);
+
+    private static final int REBUILD_RANGES_PER_THREAD = 4;
+
+    private static final int MAX_RECOMPUTE_ATTEMPTS = 5;
+
+    private final ITriggerTermRollupRepository triggerTermRollupRepository;
+    private final INoteRepositoryCustom noteRepositoryCustom;
+    private final TriggerTermMatcher triggerTermMatcher;
+    private final int rebuildParallelism;
+    private final boolean rebuildOnStartup;
+
+    public TriggerTermRollupServiceImpl(ITriggerTermRollupRepository triggerTermRollupRepository, INoteRepositoryCustom noteRepositoryCustom, TriggerTermMatcher triggerTermMatcher,
+                                        @Value("${note.trigger-term-rollups.rebuild-parallelism:4}") int rebuildParallelism,
+                                        @Value("${note.trigger-term-rollups.rebuild-on-startup:true}") boolean rebuildOnStartup) {
+        this.triggerTermRollupRepository = triggerTermRollupRepository;
+        this.noteRepositoryCustom = noteRepositoryCustom;
+        this.triggerTermMatcher = triggerTermMatcher;
+        this.rebuildParallelism = Math.max(1, rebuildParallelism);
+        this.rebuildOnStartup = rebuildOnStartup;
+    }
+
+    /**
+     * Start the rebuild of the rollups in a background thread when the application is started, if they were computed with another dictionary.
+     *
+     * @param event The event published when the application is started
+     */
+    @EventListener(ApplicationStartedEvent.class)
+    public void onApplicationStarted(ApplicationStartedEvent event) {
+        if (!rebuildOnStartup) {
+            return;
+        }
+        Thread rebuildThread = new Thread(() -> {
+            try {
+                String dictionaryHash = triggerTermMatcher.getDictionaryHash();
+                if (triggerTermRollupRepository.existsRollupWithDictionaryHashNot(dictionaryHash)
+                        || (!triggerTermRollupRepository.existsRollup() && noteRepositoryCustom.findMaxPatientId() > 0L)) {
+                    rebuildRollups();
+                }
+            } catch (Exception e) {
+                logger.error("Error : trigger term rollups not rebuilt", e);
+            }
+        }, "trigger-term-rollup-rebuild");
+        rebuildThread.setDaemon(true);
+        rebuildThread.start();
+    }
+
+    /**
+     * Add the trigger terms of created notes to the rollups of their patients.
+     *
+     * @param notes The notes created
+     */
+    @Override
+    public void addNotes(List<Note> notes) {
+        Map<Long, Map<String, NoteTermCounts>> noteTermCounts = new HashMap<>();
+        for (Note note : notes) {
+            noteTermCounts.computeIfAbsent(note.getPatientId(), patientId -> new HashMap<>()).put(note.getId(), countTerms(note));
+        }
+        writeNoteTermCounts(noteTermCounts, Collections.emptyMap());
+    }
+
+    /**
+     * Replace the trigger terms of the previous version of an updated note by the ones of its new version, in the rollups of its patients.
+     *
+     * @param previousNote The note before the update
+     * @param updatedNote The note after the update
+     */
+    @Override
+    public void replaceNote(Note previousNote, Note updatedNote) {
+        // The patient of the note may have changed -> the terms are removed from the previous patient and set in the new one
+        Map<Long, Map<String, Long>> removedNoteVersions = new HashMap<>();
+        if (previousNote.getPatientId() != updatedNote.getPatientId()) {
+            removedNoteVersions.put(previousNote.getPatientId(), Collections.singletonMap(previousNote.getId(), noteVersion(previousNote)));
+        }
+        Map<Long, Map<String, NoteTermCounts>> noteTermCounts = new HashMap<>();
+        noteTermCounts.put(updatedNote.getPatientId(), Collections.singletonMap(updatedNote.getId(), countTerms(updatedNote)));
+        writeNoteTermCounts(noteTermCounts, removedNoteVersions);
+    }
+
+    /**
+     * Return the trigger term counts of all the notes of a patient, read from its rollup.
+     * A missing rollup, or a rollup computed with another dictionary, is recomputed from the notes of the patient.
+     *
+     * @param patientId The id of the patient
+     * @return The trigger term counts of the patient
+     * @throws ResourceNotFoundException if no note is found for the given patient id
+     */
+    @Override
+    public TriggerTermCount getTriggerTermCounts(long patientId) throws ResourceNotFoundException {
+
+        TriggerTermRollup rollup = triggerTermRollupRepository.findRollup(patientId);
+
+        if (rollup == null || !triggerTermMatcher.getDictionaryHash().equals(rollup.getDictionaryHash())) {
+            rollup = recomputeRollup(patientId, rollup);
+            if (rollup == null) {
+                throw new ResourceNotFoundException(patientId);
+            }
+        }
+
+        Map<String, Long> rollupTermCounts = rollup.sumTermCounts();
+        Map<String, Long> termCounts = new LinkedHashMap<>();
+        int distinctTermCount = 0;
+        for (String term : triggerTermMatcher.getTerms()) {
+            long termCount = rollupTermCounts.getOrDefault(term, 0L);
+            termCounts.put(term, termCount);
+            if (termCount > 0L) {
+                distinctTermCount++;
+            }
+        }
+        return new TriggerTermCount(patientId, termCounts, distinctTermCount);
+    }
+
+    /**
+     * Recompute the rollups of all the patients from their notes.
+     * The range of patient ids is split in ranges rebuilt in parallel, each one reading its notes with a cursor.
+     * Rollups of patients having no note anymore are deleted. The rollups written while their range is read are recomputed alone.
+     */
+    @Override
+    public void rebuildRollups() {
+
+        String dictionaryHash = triggerTermMatcher.getDictionaryHash();
+        long maxPatientId = noteRepositoryCustom.findMaxPatientId();
+        long nbRanges = (long) rebuildParallelism * REBUILD_RANGES_PER_THREAD;
+        long rangeSize = Math.max(1L, (maxPatientId + nbRanges - 1) / nbRanges);
+
+        logger.info("Rebuild of the trigger term rollups started for dictionary {}", dictionaryHash);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(rebuildParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "trigger-term-rollup-rebuild-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Integer>> rebuilds = new ArrayList<>();
+            for (long fromPatientId = 0L; fromPatientId <= maxPatientId; fromPatientId += rangeSize) {
+                long rangeFromPatientId = fromPatientId;
+                long rangeToPatientId = Math.min(fromPatientId + rangeSize - 1, maxPatientId);
+                rebuilds.add(executor.submit(() -> rebuildRollups(rangeFromPatientId, rangeToPatientId)));
+            }
+            int nbRollups = 0;
+            for (Future<Integer> rebuild : rebuilds) {
+                nbRollups += rebuild.get();
+            }
+            long nbRollupsDeleted = triggerTermRollupRepository.deleteRollupsWithDictionaryHashNot(dictionaryHash);
+
+            logger.info("Rebuild of the trigger term rollups done : {} rollups rebuilt, {} rollups deleted", nbRollups, nbRollupsDeleted);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Rebuild of the trigger term rollups interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rebuild of the trigger term rollups failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Recompute and save the rollups of a range of patients.
+     *
+     * @param fromPatientId The lowest patient id (inclusive)
+     * @param toPatientId The highest patient id (inclusive)
+     * @return The number of rollups saved
+     */
+    private int rebuildRollups(long fromPatientId, long toPatientId) {
+
+        // The versions are read before the notes : a rollup written after its notes are read has another version and is not overwritten
+        Map<Long, Long> versions = triggerTermRollupRepository.findRollupVersions(fromPatientId, toPatientId);
+        List<TriggerTermRollup> rollups = new ArrayList<>(computeRollups(fromPatientId, toPatientId).values());
+        for (TriggerTermRollup rollup : rollups) {
+            rollup.setVersion(versions.getOrDefault(rollup.getPatientId(), 0L));
+        }
+
+        Set<Long> changedPatientIds = triggerTermRollupRepository.saveRollupsIfUnchanged(rollups);
+        for (long patientId : changedPatientIds) {
+            recomputeRollup(patientId, triggerTermRollupRepository.findRollup(patientId));
+        }
+        return rollups.size();
+    }
+
+    /**
+     * Recompute the rollup of a patient from its notes and save it, if it has not been written since it was read.
+     * Otherwise the rollup is read and recomputed again, up to a number of attempts.
+     *
+     * @param patientId The id of the patient
+     * @param rollup The rollup read before the notes, or null if the patient has no rollup
+     * @return The recomputed rollup, or null if the patient has no note
+     */
+    private TriggerTermRollup recomputeRollup(long patientId, TriggerTermRollup rollup) {
+
+        for (int attempt = 1; ; attempt++) {
+
+            TriggerTermRollup recomputedRollup = computeRollups(patientId, patientId).get(patientId);
+            if (recomputedRollup == null) {
+                return null;
+            }
+            recomputedRollup.setVersion(rollup != null ? rollup.getVersion() : 0L);
+
+            if (triggerTermRollupRepository.saveRollupsIfUnchanged(Collections.singletonList(recomputedRollup)).isEmpty()) {
+                return recomputedRollup;
+            }
+            if (attempt == MAX_RECOMPUTE_ATTEMPTS) {
+                // The rollup left as is keeps the other dictionary hash, or none, so that it is recomputed again when read
+                logger.warn("Trigger term rollup of patient {} not saved : written concurrently {} times", patientId, attempt);
+                return recomputedRollup;
+            }
+
+            rollup = triggerTermRollupRepository.findRollup(patientId);
+        }
+    }
+
+    /**
+     * Compute the rollups of a range of patients from their notes, read with a cursor.
+     *
+     * @param fromPatientId The lowest patient id (inclusive)
+     * @param toPatientId The highest patient id (inclusive)
+     * @return The rollups of the patients having notes, by patient id
+     */
+    private Map<Long, TriggerTermRollup> computeRollups(long fromPatientId, long toPatientId) {
+        String dictionaryHash = triggerTermMatcher.getDictionaryHash();
+        Map<Long, TriggerTermRollup> rollups = new HashMap<>();
+        try (CloseableIterator<Note> notes = noteRepositoryCustom.streamNotes(fromPatientId, toPatientId)) {
+            while (notes.hasNext()) {
+                Note note = notes.next();
+                TriggerTermRollup rollup = rollups.computeIfAbsent(note.getPatientId(), patientId -> new TriggerTermRollup(patientId, new HashMap<>(), dictionaryHash));
+                rollup.getNotes().put(note.getId(), countTerms(note));
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Return the trigger term counts of a version of a note.
+     *
+     * @param note The note
+     * @return The trigger term counts of the note, with its version
+     */
+    private NoteTermCounts countTerms(Note note) {
+        return new NoteTermCounts(noteVersion(note), new HashMap<>(triggerTermMatcher.countTerms(note.getNoteText())));
+    }
+
+    /**
+     * Return the version of a note, 0 for a note inserted without version.
+     *
+     * @param note The note
+     * @return The version of the note
+     */
+    private static long noteVersion(Note note) {
+        return note.getVersion() != null ? note.getVersion() : 0L;
+    }
+
+    /**
+     * Write the trigger term counts of notes to the rollups. If they can not be written, the rollups are deleted so that they are recomputed when read.
+     *
+     * @param noteTermCounts The term counts of the notes to set, by note id, by patient id
+     * @param removedNoteVersions The versions of the notes to remove, by note id, by patient id
+     */
+    private void writeNoteTermCounts(Map<Long, Map<String, NoteTermCounts>> noteTermCounts, Map<Long, Map<String, Long>> removedNoteVersions) {
+        Set<Long> patientIds = new HashSet<>(noteTermCounts.keySet());
+        patientIds.addAll(removedNoteVersions.keySet());
+        try {
+            if (!removedNoteVersions.isEmpty()) {
+                triggerTermRollupRepository.removeNoteTermCounts(removedNoteVersions);
+            }
+            triggerTermRollupRepository.setNoteTermCounts(noteTermCounts);
+        } catch (RuntimeException e) {
+            logger.error("Error : trigger term rollups of patients {} not updated", patientIds, e);
+            try {
+                triggerTermRollupRepository.deleteRollups(patientIds);
+            } catch (RuntimeException deleteException) {
+                logger.error("Error : trigger term rollups of patients {} not deleted", patientIds, deleteException);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.mediscreen.note.configuration;
+
+import com.mediscreen.note.domain.Note;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Class including tests for the ChecksumRepositoryPopulatorFactoryBean Class.
+ */
+@ActiveProfiles("test")
+@ExtendWith(SpringExtension.class)
+@DataMongoTest
+public class ChecksumRepositoryPopulatorFactoryBeanTest {
+
+    private static final String NOTES_JSON = "[{\"_class\":\"com.mediscreen.note.domain.Note\",\"patientId\":1,\"patientLastName\":\"PatientLastName\",\"patientFirstName\":\"PatientFirstName\",\"noteText\":\"NoteText%d\"}]";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @BeforeEach
+    public void setup() {
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(ChecksumRepositoryPopulatorFactoryBean.CHECKSUMS_COLLECTION);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(ChecksumRepositoryPopulatorFactoryBean.CHECKSUMS_COLLECTION);
+    }
+
+    @Test
+    public void onApplicationEvent_whenFileAlreadyLoaded() throws Exception {
+        // ARRANGE
+        populate(new ClassPathResource("data.json"));
+
+        // ACT
+        populate(new ClassPathResource("data.json"));
+
+        // ASSERT
+        assertEquals(29L, mongoTemplate.count(new Query(), Note.class));
+    }
+
+    @Test
+    public void onApplicationEvent_whenFileChanged() throws Exception {
+        // ARRANGE
+        populate(new ByteArrayResource(String.format(NOTES_JSON, 1).getBytes(StandardCharsets.UTF_8)));
+
+        // ACT
+        populate(new ByteArrayResource(String.format(NOTES_JSON, 2).getBytes(StandardCharsets.UTF_8)));
+
+        // ASSERT
+        assertEquals(2L, mongoTemplate.count(new Query(), Note.class));
+    }
+
+    @Test
+    public void onApplicationEvent_whenNotesDeleted() throws Exception {
+        // ARRANGE
+        populate(new ClassPathResource("data.json"));
+        mongoTemplate.dropCollection(Note.class);
+
+        // ACT
+        populate(new ClassPathResource("data.json"));
+
+        // ASSERT
+        assertEquals(29L, mongoTemplate.count(new Query(), Note.class));
+    }
+
+    @Test
+    public void checksum() {
+        // ARRANGE
+        ChecksumRepositoryPopulatorFactoryBean populator1 = new ChecksumRepositoryPopulatorFactoryBean(mongoTemplate, "data.json");
+        populator1.setResources(new Resource[]{new ByteArrayResource(String.format(NOTES_JSON, 1).getBytes(StandardCharsets.UTF_8))});
+        ChecksumRepositoryPopulatorFactoryBean populator2 = new ChecksumRepositoryPopulatorFactoryBean(mongoTemplate, "data.json");
+        populator2.setResources(new Resource[]{new ByteArrayResource(String.format(NOTES_JSON, 2).getBytes(StandardCharsets.UTF_8))});
+
+        // ACT & ASSERT
+        assertEquals(populator1.checksum(), populator1.checksum());
+        assertNotEquals(populator1.checksum(), populator2.checksum());
+    }
+
+    /**
+     * Populate the database with a json file, as done when the application context is refreshed.
+     *
+     * @param resource The json file
+     */
+    private void populate(Resource resource) throws Exception {
+        ChecksumRepositoryPopulatorFactoryBean populator = new ChecksumRepositoryPopulatorFactoryBean(mongoTemplate, "data.json");
+        populator.setResources(new Resource[]{resource});
+        populator.setApplicationContext(applicationContext);
+        populator.afterPropertiesSet();
+        populator.onApplicationEvent(new ContextRefreshedEvent(applicationContext));
+    }
+}
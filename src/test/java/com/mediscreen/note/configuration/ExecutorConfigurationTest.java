@@ -0,0 +1,69 @@
+package com.mediscreen.note.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including unit tests for the ExecutorConfiguration Class.
+ */
+public class ExecutorConfigurationTest {
+
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor jsonExecutorUnderTest;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        jsonExecutorUnderTest = ExecutorConfiguration.jsonExecutor(1, 1,
+                new StaticListableBeanFactory(Collections.singletonMap("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        jsonExecutorUnderTest.shutdownNow();
+    }
+
+    @Test
+    public void jsonExecutor_whenSaturated() throws InterruptedException {
+        // ARRANGE
+        CountDownLatch started = new CountDownLatch(1);
+        jsonExecutorUnderTest.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        jsonExecutorUnderTest.execute(this::awaitRelease);
+
+        // ACT & ASSERT
+        assertThrows(RejectedExecutionException.class, () -> jsonExecutorUnderTest.execute(this::awaitRelease));
+        assertEquals(1.0, meterRegistry.get("executor.active").tag("name", "json").gauge().value());
+        assertEquals(1.0, meterRegistry.get("executor.queued").tag("name", "json").gauge().value());
+        assertEquals(0.0, meterRegistry.get("executor.queue.remaining").tag("name", "json").gauge().value());
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.mediscreen.note.configuration;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including tests for the NoteIndexManager Class.
+ */
+@ActiveProfiles("test")
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+public class NoteIndexManagerTest {
+
+    @Autowired
+    private NoteIndexManager noteIndexManagerUnderTest;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void setup(){
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(PatientIdentity.class);
+    }
+
+    @AfterEach
+    public void tearDown(){
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(PatientIdentity.class);
+    }
+
+    @Test
+    public void ensureIndexes() {
+        // ACT
+        noteIndexManagerUnderTest.ensureIndexes();
+
+        // ASSERT
+        List<String> indexNames = mongoTemplate.indexOps(Note.class).getIndexInfo().stream().map(IndexInfo::getName).collect(Collectors.toList());
+        assertTrue(indexNames.contains("patientId"));
+        assertTrue(indexNames.contains("patientLastName_patientFirstName"));
+        List<IndexInfo> patientIdentityIndexes = mongoTemplate.indexOps(PatientIdentity.class).getIndexInfo();
+        assertTrue(patientIdentityIndexes.stream().anyMatch(indexInfo -> "patientLastName_patientFirstName".equals(indexInfo.getName()) && indexInfo.isUnique()));
+        assertEquals(Status.UP, noteIndexManagerUnderTest.health().getStatus());
+    }
+}
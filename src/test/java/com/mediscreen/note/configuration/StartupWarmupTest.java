@@ -0,0 +1,36 @@
+package com.mediscreen.note.configuration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including unit tests for the StartupWarmup Class.
+ */
+public class StartupWarmupTest {
+
+    @Test
+    public void warmUp() {
+        // ARRANGE
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        RootBeanDefinition lazyBeanDefinition = new RootBeanDefinition(ArrayList.class);
+        lazyBeanDefinition.setLazyInit(true);
+        beanFactory.registerBeanDefinition("lazyBean", lazyBeanDefinition);
+        RootBeanDefinition prototypeBeanDefinition = new RootBeanDefinition(ArrayList.class);
+        prototypeBeanDefinition.setScope(RootBeanDefinition.SCOPE_PROTOTYPE);
+        beanFactory.registerBeanDefinition("prototypeBean", prototypeBeanDefinition);
+        StartupWarmup startupWarmupUnderTest = new StartupWarmup(beanFactory);
+
+        // ACT
+        startupWarmupUnderTest.warmUp();
+
+        // ASSERT
+        assertTrue(beanFactory.containsSingleton("lazyBean"));
+        assertFalse(beanFactory.containsSingleton("prototypeBean"));
+    }
+}
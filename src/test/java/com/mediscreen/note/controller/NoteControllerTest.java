@@ -1,22 +1,47 @@
 package com.mediscreen.note.controller;
 
+import com.mediscreen.note.configuration.ExecutorConfiguration;
+import com.mediscreen.note.domain.BulkItemResult;
 import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePage;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
 import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.service.INoteIngestionQueue;
 import com.mediscreen.note.service.INoteService;
+import com.mediscreen.note.service.IPatientHistoryResponseCache;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import javax.servlet.http.Cookie;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -24,6 +49,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * Class including unit tests for the NoteController Class.
  */
 @WebMvcTest(value = NoteController.class)
+@Import(ExecutorConfiguration.class)
 @ActiveProfiles("test")
 public class NoteControllerTest {
 
@@ -35,6 +61,22 @@ public class NoteControllerTest {
     @MockBean
     private INoteService mockNoteService;
 
+    @MockBean
+    private IPatientHistoryResponseCache mockPatientHistoryResponseCache;
+
+    @MockBean
+    private INoteIngestionQueue mockNoteIngestionQueue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        // The serialized patient histories are not cached : they are loaded for each request
+        doReturn("\"epoch-1\"").when(mockPatientHistoryResponseCache).getETagByPatientId(anyLong());
+        doReturn("\"epoch-2\"").when(mockPatientHistoryResponseCache).getETagByPatientName(anyString(), anyString());
+        doAnswer(invocation -> ((Supplier<byte[]>) invocation.getArgument(2)).get()).when(mockPatientHistoryResponseCache).getResponseByPatientId(anyLong(), anyString(), any());
+        doAnswer(invocation -> ((Supplier<byte[]>) invocation.getArgument(3)).get()).when(mockPatientHistoryResponseCache).getResponseByPatientName(anyString(), anyString(), anyString(), any());
+    }
+
     @Test
     public void getNotes() {
         //ARRANGE
@@ -47,11 +89,14 @@ public class NoteControllerTest {
         notesToFind.add(noteToFind2);
         notesToFind.add(noteToFind3);
 
-        doReturn(notesToFind).when(mockNoteService).findAllNotes();
+        doReturn(new NotePage(notesToFind, "5fa9cd63681c104404d45c23", null)).when(mockNoteService).findNotesPage(null, null, 20, null);
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/notes/list"))
+            MvcResult mvcResult = mockMvc.perform(get("/notes/list"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isOk())
                     .andExpect(model().attribute("notes", notesToFind))
                     .andExpect(view().name("notes/list"));
@@ -59,7 +104,67 @@ public class NoteControllerTest {
             logger.error("Error in MockMvc", e);
         }
 
-        verify(mockNoteService, times(1)).findAllNotes();
+        verify(mockNoteService, times(1)).findNotesPage(null, null, 20, null);
+    }
+
+    @Test
+    public void getNotes_withCursorAndSizeAboveMax() {
+        //ARRANGE
+        doReturn(new NotePage(new ArrayList<>(), null, null)).when(mockNoteService).findNotesPage("5fa9cd63681c104404d45c23", null, 100, null);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/notes/list")
+                    .param("after", "5fa9cd63681c104404d45c23")
+                    .param("size", "1000"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(view().name("notes/list"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).findNotesPage("5fa9cd63681c104404d45c23", null, 100, null);
+    }
+
+    @Test
+    public void getNotes_whenCursorMalformed() {
+        //ACT & ASSERT
+        try {
+            mockMvc.perform(get("/notes/list")
+                    .param("after", "notAnId"))
+                    .andExpect(status().isBadRequest());
+            mockMvc.perform(get("/notes/list")
+                    .param("before", "5fa9cd63681c104404d45c2"))
+                    .andExpect(status().isBadRequest());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, never()).findNotesPage(any(), any(), anyInt(), any());
+    }
+
+    @Test
+    public void getNotes_withReadAfterWriteCookie() {
+        //ARRANGE
+        doReturn(new NotePage(new ArrayList<>(), null, null)).when(mockNoteService).findNotesPage(null, null, 20, "readAfterWriteToken");
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/notes/list")
+                    .cookie(new Cookie("noteReadAfterWrite", "readAfterWriteToken")))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(view().name("notes/list"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).findNotesPage(null, null, 20, "readAfterWriteToken");
     }
 
     @Test
@@ -72,7 +177,10 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/notes/5fa9cd63681c104404d45c23"))
+            MvcResult mvcResult = mockMvc.perform(get("/notes/5fa9cd63681c104404d45c23"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isOk())
                     .andExpect(model().attribute("notes", noteToFind))
                     .andExpect(view().name("notes/list"));
@@ -90,7 +198,10 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/notes/5fa9cd63681c104404d45c24"))
+            MvcResult mvcResult = mockMvc.perform(get("/notes/5fa9cd63681c104404d45c24"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isNotFound())
                     .andExpect(view().name("errorResourceNotFound"));
         } catch (Exception e) {
@@ -116,9 +227,12 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/patHistoryByPatientLastNameAndFirstName")
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryByPatientLastNameAndFirstName")
                     .param("lastName","PatientLastName")
                     .param("firstName","PatientFirstName"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isOk())
                     .andExpect(model().attribute("notes", notesToFind))
                     .andExpect(view().name("notes/list"));
@@ -147,9 +261,12 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/patHistoryByFamilyAndGiven")
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryByFamilyAndGiven")
                     .param("family","PatientLastName")
                     .param("given","PatientFirstName"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isOk());
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
@@ -177,8 +294,11 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/patHistoryByPatientId")
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryByPatientId")
                     .param("patId","1"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isFound());
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
@@ -186,6 +306,70 @@ public class NoteControllerTest {
         verify(mockNoteService, times(1)).findNotesByPatientId(1L);
     }
 
+    @Test
+    public void getPatientHistoryByPatientId_withETag() {
+        //ARRANGE
+        Note noteToFind = new Note("PatientLastName", "PatientFirstName","NoteText1");
+        noteToFind.setPatientId(1L);
+        doReturn(Collections.singletonList(noteToFind)).when(mockNoteService).findNotesByPatientId(1L);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryByPatientId")
+                    .param("patId","1"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isFound())
+                    .andExpect(header().string(HttpHeaders.ETAG, "\"epoch-1\""))
+                    .andExpect(jsonPath("$[0].noteText").value("NoteText1"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockPatientHistoryResponseCache, times(1)).getResponseByPatientId(eq(1L), eq("\"epoch-1\""), any());
+    }
+
+    @Test
+    public void getPatientHistoryByPatientId_whenNotModified() {
+        //ARRANGE
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryByPatientId")
+                    .param("patId","1")
+                    .header(HttpHeaders.IF_NONE_MATCH, "\"epoch-1\""))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().string(HttpHeaders.ETAG, "\"epoch-1\""));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockPatientHistoryResponseCache, never()).getResponseByPatientId(anyLong(), anyString(), any());
+        verify(mockNoteService, never()).findNotesByPatientId(anyLong());
+    }
+
+    @Test
+    public void getPatientHistoryByFamilyAndGiven_whenNotModified() {
+        //ARRANGE
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryByFamilyAndGiven")
+                    .param("family","PatientLastName")
+                    .param("given","PatientFirstName")
+                    .header(HttpHeaders.IF_NONE_MATCH, "\"epoch-0\", \"epoch-2\""))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isNotModified());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, never()).findNotesByPatientLastNameAndFirstName(anyString(), anyString());
+    }
+
     @Test
     public void getPatientHistoryByPatientId_whenIdPatientNotExist() {
         //ARRANGE
@@ -193,8 +377,11 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/patHistoryByPatientId")
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryByPatientId")
                     .param("patId","1"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isNotFound());
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
@@ -203,6 +390,353 @@ public class NoteControllerTest {
         verify(mockNoteService, times(1)).findNotesByPatientId(1L);
     }
 
+    @Test
+    public void getPatientHistorySummaryByPatientId_whenIdPatientExist() {
+        //ARRANGE
+        List<NoteSummary> noteSummariesToFind = new ArrayList<>();
+        noteSummariesToFind.add(new NoteSummary("5fa9cd63681c104404d45c23", 1L, "PatientLastName", "PatientFirstName", "NoteText1"));
+        noteSummariesToFind.add(new NoteSummary("5fa9cd63681c104404d45c24", 1L, "PatientLastName", "PatientFirstName", "NoteText2"));
+
+        doReturn(noteSummariesToFind).when(mockNoteService).findNoteSummariesByPatientId(1L, 100);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistorySummaryByPatientId")
+                    .param("patId","1"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[1].noteTextPreview").value("NoteText2"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, times(1)).findNoteSummariesByPatientId(1L, 100);
+    }
+
+    @Test
+    public void getPatientHistorySummaryByPatientId_whenIdPatientNotExist() {
+        //ARRANGE
+        doThrow(ResourceNotFoundException.class).when(mockNoteService).findNoteSummariesByPatientId(1L, 50);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistorySummaryByPatientId")
+                    .param("patId","1")
+                    .param("previewLength","50"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isNotFound());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, times(1)).findNoteSummariesByPatientId(1L, 50);
+    }
+
+    @Test
+    public void getPatientHistorySummaryByFamilyAndGiven() {
+        //ARRANGE
+        List<NoteSummary> noteSummariesToFind = new ArrayList<>();
+        noteSummariesToFind.add(new NoteSummary("5fa9cd63681c104404d45c23", 1L, "PatientLastName", "PatientFirstName", "NoteText1"));
+
+        doReturn(noteSummariesToFind).when(mockNoteService).findNoteSummariesByPatientLastNameAndFirstName("PatientLastName", "PatientFirstName", 100);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistorySummaryByFamilyAndGiven")
+                    .param("family","PatientLastName")
+                    .param("given","PatientFirstName"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, times(1)).findNoteSummariesByPatientLastNameAndFirstName("PatientLastName", "PatientFirstName", 100);
+    }
+
+    @Test
+    public void getTriggerTermCountsByPatientId_whenIdPatientExist() {
+        //ARRANGE
+        List<String> terms = Arrays.asList("Microalbumine", "Hemoglobin A1C");
+        Map<String, Long> termCounts = new LinkedHashMap<>();
+        termCounts.put("Microalbumine", 2L);
+        termCounts.put("Hemoglobin A1C", 0L);
+        doReturn(new TriggerTermCount(1L, termCounts, 1)).when(mockNoteService).countTriggerTermsByPatientId(1L, terms);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryTriggerTermCountsByPatientId")
+                    .param("patId","1")
+                    .param("terms","Microalbumine", "Hemoglobin A1C"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.termCounts.Microalbumine").value(2))
+                    .andExpect(jsonPath("$.distinctTermCount").value(1));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, times(1)).countTriggerTermsByPatientId(1L, terms);
+    }
+
+    @Test
+    public void getTriggerTermCountsByPatientId_whenIdPatientNotExist() {
+        //ARRANGE
+        List<String> terms = Collections.singletonList("Microalbumine");
+        doThrow(ResourceNotFoundException.class).when(mockNoteService).countTriggerTermsByPatientId(1L, terms);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryTriggerTermCountsByPatientId")
+                    .param("patId","1")
+                    .param("terms","Microalbumine"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isNotFound());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, times(1)).countTriggerTermsByPatientId(1L, terms);
+    }
+
+    @Test
+    public void getTriggerTermRollupByPatientId() {
+        //ARRANGE
+        doReturn(new TriggerTermCount(1L, Collections.singletonMap("Microalbumine", 3L), 1)).when(mockNoteService).getTriggerTermRollupByPatientId(1L);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/patHistoryTriggerTermRollupByPatientId")
+                    .param("patId","1"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.termCounts.Microalbumine").value(3));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, times(1)).getTriggerTermRollupByPatientId(1L);
+    }
+
+    @Test
+    public void getTriggerTermCounts() {
+        //ARRANGE
+        List<Long> patientIds = Arrays.asList(1L, 2L);
+        List<String> terms = Collections.singletonList("Microalbumine");
+        List<TriggerTermCount> triggerTermCounts = new ArrayList<>();
+        triggerTermCounts.add(new TriggerTermCount(1L, Collections.singletonMap("Microalbumine", 1L), 1));
+        triggerTermCounts.add(new TriggerTermCount(2L, Collections.singletonMap("Microalbumine", 0L), 0));
+        doReturn(triggerTermCounts).when(mockNoteService).countTriggerTerms(patientIds, terms);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/triggerTermCounts")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"patientIds\":[1,2],\"terms\":[\"Microalbumine\"]}"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[1].patientId").value(2));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, times(1)).countTriggerTerms(patientIds, terms);
+    }
+
+    @Test
+    public void getTriggerTermCounts_whenNoTerm() {
+        //ARRANGE
+
+        //ACT & ASSERT
+        try {
+            mockMvc.perform(post("/patHistory/triggerTermCounts")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"patientIds\":[1,2],\"terms\":[]}"))
+                    .andExpect(status().isBadRequest());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, never()).countTriggerTerms(anyList(), anyList());
+    }
+
+    @Test
+    public void getTriggerTermCounts_whenBlankTerm() {
+        //ARRANGE
+
+        //ACT & ASSERT
+        try {
+            mockMvc.perform(post("/patHistory/triggerTermCounts")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"patientIds\":[1,2],\"terms\":[\"Microalbumine\",\" \"]}"))
+                    .andExpect(status().isBadRequest());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, never()).countTriggerTerms(anyList(), anyList());
+    }
+
+    @Test
+    public void getTriggerTermCounts_whenTooManyPatientIds() {
+        //ARRANGE
+        StringBuilder patientIds = new StringBuilder("[1");
+        for (int patientId = 2; patientId <= 501; patientId++) {
+            patientIds.append(',').append(patientId);
+        }
+        patientIds.append(']');
+
+        //ACT & ASSERT
+        try {
+            mockMvc.perform(post("/patHistory/triggerTermCounts")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"patientIds\":" + patientIds + ",\"terms\":[\"Microalbumine\"]}"))
+                    .andExpect(status().isBadRequest());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, never()).countTriggerTerms(anyList(), anyList());
+    }
+
+    @Test
+    public void getTriggerTermCountsByPatientId_whenBlankTerm() {
+        //ARRANGE
+
+        //ACT & ASSERT
+        try {
+            mockMvc.perform(get("/patHistoryTriggerTermCountsByPatientId")
+                    .param("patId", "1")
+                    .param("terms", "Microalbumine", ""))
+                    .andExpect(status().isBadRequest());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+        verify(mockNoteService, never()).countTriggerTermsByPatientId(anyLong(), anyList());
+    }
+
+    @Test
+    public void exportNotes() {
+        //ARRANGE
+        doAnswer(invocation -> {
+            Consumer<Note> noteConsumer = invocation.getArgument(2);
+            noteConsumer.accept(new Note("PatientLastName", "PatientFirstName","NoteText1"));
+            noteConsumer.accept(new Note("PatientLastName", "PatientFirstName","NoteText2"));
+            return 2L;
+        }).when(mockNoteService).exportNotes(eq(1L), eq(10L), any());
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/notes/export")
+                    .param("fromPatientId","1")
+                    .param("toPatientId","10"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType("application/x-ndjson"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).exportNotes(eq(1L), eq(10L), any());
+    }
+
+    @Test
+    public void getNotesStream() {
+        //ARRANGE
+        Note note1 = new Note("PatientLastName", "PatientFirstName","NoteText1");
+        note1.setId("5fa9cd63681c104404d45c21");
+        Note note2 = new Note("PatientLastName", "PatientFirstName","NoteText2");
+        note2.setId("5fa9cd63681c104404d45c22");
+        CloseableIterator<Note> mockNotesIterator = mock(CloseableIterator.class);
+        doReturn(true, true, false).when(mockNotesIterator).hasNext();
+        doReturn(note1, note2).when(mockNotesIterator).next();
+        doReturn(mockNotesIterator).when(mockNoteService).streamNotes(1L, 10L);
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(get("/notes/list/stream")
+                    .param("fromPatientId","1")
+                    .param("toPatientId","10"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_HTML))
+                    .andExpect(content().string(containsString("NoteText1")))
+                    .andExpect(content().string(containsString("/notes/updateform/5fa9cd63681c104404d45c22")));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).streamNotes(1L, 10L);
+        verify(mockNotesIterator, times(1)).close();
+    }
+
+    @Test
+    public void getPatientHistoriesByPatientIds() {
+        //ARRANGE
+        doAnswer(invocation -> {
+            Consumer<Note> noteConsumer = invocation.getArgument(1);
+            Note note1 = new Note("PatientLastName1", "PatientFirstName1","NoteText1");
+            note1.setPatientId(1L);
+            Note note2 = new Note("PatientLastName1", "PatientFirstName1","NoteText2");
+            note2.setPatientId(1L);
+            Note note3 = new Note("PatientLastName2", "PatientFirstName2","NoteText3");
+            note3.setPatientId(2L);
+            noteConsumer.accept(note1);
+            noteConsumer.accept(note2);
+            noteConsumer.accept(note3);
+            return 3L;
+        }).when(mockNoteService).exportPatientHistories(anyCollection(), any());
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/byPatientIds")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[1,2,3,1]"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(jsonPath("$['1'].length()").value(2))
+                    .andExpect(jsonPath("$['2'][0].noteText").value("NoteText3"))
+                    .andExpect(jsonPath("$['3']").doesNotExist());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).exportPatientHistories(argThat(patientIds -> patientIds.size() == 3), any());
+    }
+
+    @Test
+    public void getPatientHistoriesByPatientIds_whenTooManyPatientIds() {
+        //ARRANGE
+        StringBuilder patientIds = new StringBuilder("[1");
+        for (int patientId = 2; patientId <= 501; patientId++) {
+            patientIds.append(',').append(patientId);
+        }
+        patientIds.append(']');
+
+        //ACT & ASSERT
+        try {
+            mockMvc.perform(post("/patHistory/byPatientIds")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(patientIds.toString()))
+                    .andExpect(status().isBadRequest());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, never()).exportPatientHistories(anyCollection(), any());
+    }
+
     @Test
     public void showNoteUpdateForm() {
         //ARRANGE
@@ -214,7 +748,10 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(get("/notes/updateform/5fa9cd63681c104404d45c23"))
+            MvcResult mvcResult = mockMvc.perform(get("/notes/updateform/5fa9cd63681c104404d45c23"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isOk())
                     .andExpect(model().attribute("note", noteTest))
                     .andExpect(view().name("notes/updateform"));
@@ -236,11 +773,14 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/notes/updateform/5fa9cd63681c104404d45c23")
+            MvcResult mvcResult = mockMvc.perform(post("/notes/updateform/5fa9cd63681c104404d45c23")
                     .param("patientId","1")
                     .param("patientLastName", "PatientLastName")
                     .param("patientFirstName", "PatientFirstName")
                     .param("noteText", "NoteText"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().is3xxRedirection())
                     .andExpect(header().string("Location", "/notes/list"));
         } catch (Exception e) {
@@ -250,6 +790,32 @@ public class NoteControllerTest {
         verify(mockNoteService, times(1)).updateNote(any(Note.class));
     }
 
+    @Test
+    public void updateNoteForm_whenVersionConflict() {
+        //ARRANGE
+        doThrow(new OptimisticLockingFailureException("Note updated")).when(mockNoteService).updateNote(any(Note.class));
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(post("/notes/updateform/5fa9cd63681c104404d45c23")
+                    .param("id", "5fa9cd63681c104404d45c23")
+                    .param("version", "3")
+                    .param("patientId","1")
+                    .param("patientLastName", "PatientLastName")
+                    .param("patientFirstName", "PatientFirstName")
+                    .param("noteText", "NoteText"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isConflict())
+                    .andExpect(view().name("errorConflict"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).updateNote(argThat(note -> Long.valueOf(3L).equals(note.getVersion())));
+    }
+
     @Test
     public void updateNoteForm_whenError() {
         //ARRANGE
@@ -261,10 +827,13 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/notes/updateform/5fa9cd63681c104404d45c23")
+            MvcResult mvcResult = mockMvc.perform(post("/notes/updateform/5fa9cd63681c104404d45c23")
                     .param("patientId","1")
                     .param("patientLastName", "PatientLastName")
                     .param("patientFirstName", "PatientFirstName"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     // error : mandatory note text is missing
                     .andExpect(model().attributeHasFieldErrors("note", "noteText"))
                     .andExpect(view().name("notes/updateform"));
@@ -292,32 +861,58 @@ public class NoteControllerTest {
     @Test
     public void validateNoteForm_whenNoErrorInFieldsAndPatientAlreadyExist() {
         //ARRANGE
-        Note notePatientAlreadyExist = new Note("PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist","NoteTextAlreadyExist");
-        notePatientAlreadyExist.setPatientId(1L);
-
-        List<Note> notesAlreadyExist = new ArrayList<>();
-        notesAlreadyExist.add(notePatientAlreadyExist);
+        PatientIdentity identityAlreadyExist = new PatientIdentity(1L, "PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist");
 
         Note noteNew = new Note("PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist","NoteTextNew");
 
-        doReturn(notesAlreadyExist).when(mockNoteService).findNotesByPatientLastNameAndFirstName("PatientLastNameAlreadyExist","PatientFirstNameAlreadyExist");
+        doReturn(identityAlreadyExist).when(mockNoteService).getOrCreatePatientIdentity("PatientLastNameAlreadyExist","PatientFirstNameAlreadyExist");
 
         doReturn(noteNew).when(mockNoteService).createNote(noteNew);
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/notes/validateform")
+            MvcResult mvcResult = mockMvc.perform(post("/notes/validateform")
                     //.param("patientId","1")
                     .param("patientLastName", "PatientLastNameAlreadyExist")
                     .param("patientFirstName", "PatientFirstNameAlreadyExist")
                     .param("noteText", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().is3xxRedirection())
                     .andExpect(header().string("Location", "/notes/list"));
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
         }
 
+        verify(mockNoteService, times(1)).createNote(argThat(note -> note.getPatientId() == 1L));
+    }
+
+    @Test
+    public void validateNoteForm_thenReadAfterWriteCookie() {
+        //ARRANGE
+        doReturn(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")).when(mockNoteService).getOrCreatePatientIdentity("PatientLastName", "PatientFirstName");
+        doReturn("readAfterWriteToken").when(mockNoteService).getReadAfterWriteToken();
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(post("/notes/validateform")
+                    .param("patientLastName", "PatientLastName")
+                    .param("patientFirstName", "PatientFirstName")
+                    .param("noteText", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().is3xxRedirection())
+                    .andExpect(header().string("Location", "/notes/list"))
+                    .andExpect(cookie().value("noteReadAfterWrite", "readAfterWriteToken"))
+                    .andExpect(cookie().path("noteReadAfterWrite", "/notes"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
         verify(mockNoteService, times(1)).createNote(any(Note.class));
+        verify(mockNoteService, times(1)).getReadAfterWriteToken();
     }
 
     @Test
@@ -325,29 +920,28 @@ public class NoteControllerTest {
         //ARRANGE
         Note noteNewPatient = new Note("NewPatientLastName", "NewPatientFirstName","NoteTextNew");
 
-        List<Note> notesNewPatient = new ArrayList<>();
-
-        doReturn(notesNewPatient).when(mockNoteService).findNotesByPatientLastNameAndFirstName("NewPatientLastName","NewPatientFirstName");
-
-        doReturn(1L).when(mockNoteService).getMaxPatientId();
+        doReturn(new PatientIdentity(2L, "NewPatientLastName", "NewPatientFirstName")).when(mockNoteService).getOrCreatePatientIdentity("NewPatientLastName","NewPatientFirstName");
 
         doReturn(noteNewPatient).when(mockNoteService).createNote(noteNewPatient);
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/notes/validateform")
+            MvcResult mvcResult = mockMvc.perform(post("/notes/validateform")
                     //.param("patientId","1")
                     .param("patientLastName", "NewPatientLastName")
                     .param("patientFirstName", "NewPatientFirstName")
                     .param("noteText", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().is3xxRedirection())
                     .andExpect(header().string("Location", "/notes/list"));
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
         }
 
-        verify(mockNoteService, times(1)).getMaxPatientId();
-        verify(mockNoteService, times(1)).createNote(any(Note.class));
+        verify(mockNoteService, times(1)).getOrCreatePatientIdentity("NewPatientLastName","NewPatientFirstName");
+        verify(mockNoteService, times(1)).createNote(argThat(note -> note.getPatientId() == 2L));
     }
 
     @Test
@@ -356,10 +950,13 @@ public class NoteControllerTest {
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/notes/validateform")
+            MvcResult mvcResult = mockMvc.perform(post("/notes/validateform")
                     //.param("patientId","1")
                     .param("patientLastName", "PatientLastName")
                     .param("patientFirstName", "PatientFirstName"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     // error : mandatory note text is missing
                     .andExpect(model().attributeHasFieldErrors("note", "noteText"))
                     .andExpect(view().name("notes/addform"));
@@ -373,80 +970,114 @@ public class NoteControllerTest {
     @Test
     public void addNoteByPatientId_whenPatientAlreadyExist() {
         //ARRANGE
-        Note notePatientAlreadyExist = new Note("PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist","NoteTextAlreadyExist");
-        notePatientAlreadyExist.setPatientId(1L);
-
-        List<Note> notesAlreadyExist = new ArrayList<>();
-        notesAlreadyExist.add(notePatientAlreadyExist);
+        PatientIdentity identityAlreadyExist = new PatientIdentity(1L, "PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist");
 
         Note noteNew = new Note("PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist","NoteTextNew");
 
-        doReturn(notesAlreadyExist).when(mockNoteService).findNotesByPatientId(1L);
+        doReturn(identityAlreadyExist).when(mockNoteService).findPatientIdentityById(1L);
 
         doReturn(noteNew).when(mockNoteService).createNote(noteNew);
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/patHistory/add")
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/add")
                     .param("patId","1")
                     .param("note", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isCreated());
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
         }
 
-        verify(mockNoteService, times(1)).findNotesByPatientId(1L);
-        verify(mockNoteService, times(1)).createNote(any(Note.class));
+        verify(mockNoteService, times(1)).findPatientIdentityById(1L);
+        verify(mockNoteService, never()).findNotesByPatientId(anyLong());
+        verify(mockNoteService, times(1)).createNote(argThat(note -> "PatientLastNameAlreadyExist".equals(note.getPatientLastName())));
+    }
+
+    @Test
+    public void addNoteByPatientId_whenIngestionQueueEnabled() {
+        //ARRANGE
+        PatientIdentity identityAlreadyExist = new PatientIdentity(1L, "PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist");
+
+        doReturn(identityAlreadyExist).when(mockNoteService).findPatientIdentityById(1L);
+        doReturn(true).when(mockNoteIngestionQueue).isEnabled();
+        doAnswer(invocation -> {
+            Note noteAccepted = invocation.getArgument(0);
+            noteAccepted.setId("5fa9cd63681c104404d45c23");
+            return noteAccepted;
+        }).when(mockNoteIngestionQueue).append(any(Note.class));
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/add")
+                    .param("patId","1")
+                    .param("note", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isAccepted())
+                    .andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/patHistory/add/5fa9cd63681c104404d45c23"));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteIngestionQueue, times(1)).append(argThat(note -> "PatientLastNameAlreadyExist".equals(note.getPatientLastName()) && "NoteTextNew".equals(note.getNoteText())));
+        verify(mockNoteService, never()).createNote(any(Note.class));
     }
 
     @Test
     public void addNoteByPatientId_whenPatientNotAlreadyExist() {
         //ARRANGE
-        doThrow(ResourceNotFoundException.class).when(mockNoteService).findNotesByPatientId(1L);
+        doThrow(ResourceNotFoundException.class).when(mockNoteService).findPatientIdentityById(1L);
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/patHistory/add")
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/add")
                     .param("patId","1")
                     .param("note", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isNotFound());
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
         }
 
-        verify(mockNoteService, times(1)).findNotesByPatientId(1L);
+        verify(mockNoteService, times(1)).findPatientIdentityById(1L);
         verify(mockNoteService, never()).createNote(any(Note.class));
     }
 
     @Test
     public void addNoteByPatientLastNameAndFirstName_whenPatientAlreadyExist() {
         //ARRANGE
-        Note notePatientAlreadyExist = new Note("PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist","NoteTextAlreadyExist");
-        notePatientAlreadyExist.setPatientId(1L);
-
-        List<Note> notesAlreadyExist = new ArrayList<>();
-        notesAlreadyExist.add(notePatientAlreadyExist);
+        PatientIdentity identityAlreadyExist = new PatientIdentity(1L, "PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist");
 
         Note noteNew = new Note("PatientLastNameAlreadyExist", "PatientFirstNameAlreadyExist","NoteTextNew");
 
-        doReturn(notesAlreadyExist).when(mockNoteService).findNotesByPatientLastNameAndFirstName("PatientLastNameAlreadyExist","PatientFirstNameAlreadyExist");
+        doReturn(identityAlreadyExist).when(mockNoteService).getOrCreatePatientIdentity("PatientLastNameAlreadyExist","PatientFirstNameAlreadyExist");
 
         doReturn(noteNew).when(mockNoteService).createNote(noteNew);
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/patHistory/addByLastNameAndFirstName")
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/addByLastNameAndFirstName")
                     //.param("patId","1")
                     .param("lastName", "PatientLastNameAlreadyExist")
                     .param("firstName", "PatientFirstNameAlreadyExist")
                     .param("note", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isCreated());
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
         }
 
-        verify(mockNoteService, times(1)).findNotesByPatientLastNameAndFirstName("PatientLastNameAlreadyExist","PatientFirstNameAlreadyExist");
-        verify(mockNoteService, times(1)).createNote(any(Note.class));
+        verify(mockNoteService, times(1)).getOrCreatePatientIdentity("PatientLastNameAlreadyExist","PatientFirstNameAlreadyExist");
+        verify(mockNoteService, never()).findNotesByPatientLastNameAndFirstName(anyString(), anyString());
+        verify(mockNoteService, times(1)).createNote(argThat(note -> note.getPatientId() == 1L));
     }
 
     @Test
@@ -454,28 +1085,150 @@ public class NoteControllerTest {
         //ARRANGE
         Note noteNewPatient = new Note("NewPatientLastName", "NewPatientFirstName","NoteTextNew");
 
-        List<Note> notesNewPatient = new ArrayList<>();
-
-        doReturn(notesNewPatient).when(mockNoteService).findNotesByPatientLastNameAndFirstName("NewPatientLastName", "NewPatientFirstName");
-
-        doReturn(1L).when(mockNoteService).getMaxPatientId();
+        doReturn(new PatientIdentity(2L, "NewPatientLastName", "NewPatientFirstName")).when(mockNoteService).getOrCreatePatientIdentity("NewPatientLastName", "NewPatientFirstName");
 
         doReturn(noteNewPatient).when(mockNoteService).createNote(noteNewPatient);
 
         //ACT & ASSERT
         try {
-            mockMvc.perform(post("/patHistory/addByLastNameAndFirstName")
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/addByLastNameAndFirstName")
                     .param("lastName", "NewPatientLastName")
                     .param("firstName", "NewPatientFirstName")
                     .param("note", "NoteTextNew"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
                     .andExpect(status().isCreated());
         } catch (Exception e) {
             logger.error("Error in MockMvc", e);
         }
 
-        verify(mockNoteService, times(1)).findNotesByPatientLastNameAndFirstName("NewPatientLastName", "NewPatientFirstName");
-        verify(mockNoteService, times(1)).getMaxPatientId();
-        verify(mockNoteService, times(1)).createNote(any(Note.class));
+        verify(mockNoteService, times(1)).getOrCreatePatientIdentity("NewPatientLastName", "NewPatientFirstName");
+        verify(mockNoteService, times(1)).createNote(argThat(note -> note.getPatientId() == 2L));
+    }
+
+    @Test
+    public void addNotesInBulk() {
+        //ARRANGE
+        doReturn(Collections.singletonList(BulkItemResult.success(0, "5fa9cd63681c104404d45c23", 1L))).when(mockNoteService).createNotes(anyList());
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/bulk")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[{\"patientId\":1,\"noteText\":\"NoteTextNew\"}]"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[0].status").value(BulkItemResult.STATUS_SUCCESS));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).createNotes(anyList());
+    }
+
+    @Test
+    public void addNotesInBulkFromNdjson() {
+        //ARRANGE
+        List<BulkItemResult> results = new ArrayList<>();
+        results.add(BulkItemResult.success(0, "5fa9cd63681c104404d45c23", 1L));
+        results.add(BulkItemResult.success(1, "5fa9cd63681c104404d45c24", 2L));
+        doReturn(results).when(mockNoteService).createNotes(anyList());
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(post("/patHistory/bulk")
+                    .contentType("application/x-ndjson")
+                    .content("{\"patientId\":1,\"noteText\":\"NoteTextNew1\"}\n{\"patientLastName\":\"NewPatientLastName\",\"patientFirstName\":\"NewPatientFirstName\",\"noteText\":\"NoteTextNew2\"}\n"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[1].patientId").value(2));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).createNotes(argThat(notes -> notes.size() == 2));
+    }
+
+    @Test
+    public void patchNote() {
+        //ARRANGE
+        Note notePatched = new Note("PatientLastName", "PatientFirstName","NoteTextPatched");
+        notePatched.setPatientId(1L);
+        notePatched.setId("5fa9cd63681c104404d45c23");
+        notePatched.setVersion(4L);
+        doReturn(notePatched).when(mockNoteService).patchNote(eq("5fa9cd63681c104404d45c23"), eq(3L), anyMap());
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(patch("/patHistory/5fa9cd63681c104404d45c23")
+                    .param("version", "3")
+                    .contentType("application/merge-patch+json")
+                    .content("{\"noteText\":\"NoteTextPatched\"}"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.noteText").value("NoteTextPatched"))
+                    .andExpect(jsonPath("$.version").value(4));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).patchNote(eq("5fa9cd63681c104404d45c23"), eq(3L), argThat(patch -> "NoteTextPatched".equals(patch.get("noteText"))));
+    }
+
+    @Test
+    public void patchNote_whenPatchNotValid() {
+        //ARRANGE
+        doThrow(new IllegalArgumentException("Note text is mandatory")).when(mockNoteService).patchNote(eq("5fa9cd63681c104404d45c23"), isNull(), anyMap());
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(patch("/patHistory/5fa9cd63681c104404d45c23")
+                    .contentType("application/merge-patch+json")
+                    .content("{\"noteText\":\"\"}"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isBadRequest());
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).patchNote(eq("5fa9cd63681c104404d45c23"), isNull(), anyMap());
+    }
+
+    @Test
+    public void patchNotesInBulk() {
+        //ARRANGE
+        List<BulkItemResult> results = new ArrayList<>();
+        results.add(BulkItemResult.success(0, "5fa9cd63681c104404d45c23", 1L));
+        results.add(BulkItemResult.error(1, "No note found for id 5fa9cd63681c104404d45c24"));
+        doReturn(results).when(mockNoteService).patchNotes(anyList());
+
+        //ACT & ASSERT
+        try {
+            MvcResult mvcResult = mockMvc.perform(patch("/patHistory/bulk")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[{\"id\":\"5fa9cd63681c104404d45c23\",\"version\":3,\"patch\":{\"noteText\":\"NoteTextPatched\"}},"
+                            + "{\"id\":\"5fa9cd63681c104404d45c24\",\"patch\":{\"patientId\":2}}]"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[0].status").value(BulkItemResult.STATUS_SUCCESS))
+                    .andExpect(jsonPath("$[1].status").value(BulkItemResult.STATUS_ERROR));
+        } catch (Exception e) {
+            logger.error("Error in MockMvc", e);
+        }
+
+        verify(mockNoteService, times(1)).patchNotes(argThat(notePatches -> notePatches.size() == 2
+                && Long.valueOf(3L).equals(notePatches.get(0).getVersion()) && notePatches.get(1).getVersion() == null));
     }
 
     @Test
@@ -0,0 +1,126 @@
+package com.mediscreen.note.controller;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.service.IReactiveNoteService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the ReactiveNoteController Class.
+ */
+@WebFluxTest(value = ReactiveNoteController.class)
+@ActiveProfiles("test")
+public class ReactiveNoteControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private IReactiveNoteService mockReactiveNoteService;
+
+    @Test
+    public void getPatientHistoryByPatientFamilyAndGiven() {
+        //ARRANGE
+        Note noteToFind1 = new Note("PatientLastName", "PatientFirstName","NoteText1");
+        noteToFind1.setPatientId(1L);
+        Note noteToFind2 = new Note("PatientLastName", "PatientFirstName","NoteText2");
+        noteToFind2.setPatientId(1L);
+
+        doReturn(Flux.just(noteToFind1, noteToFind2)).when(mockReactiveNoteService).findNotesByPatientLastNameAndFirstName("PatientLastName","PatientFirstName");
+
+        //ACT & ASSERT
+        webTestClient.get().uri("/patHistoryByFamilyAndGiven?family=PatientLastName&given=PatientFirstName")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Note.class).hasSize(2);
+
+        verify(mockReactiveNoteService, times(1)).findNotesByPatientLastNameAndFirstName("PatientLastName","PatientFirstName");
+    }
+
+    @Test
+    public void getPatientHistoryByPatientId_whenIdPatientExist() {
+        //ARRANGE
+        Note noteToFind = new Note("PatientLastName", "PatientFirstName","NoteText");
+        noteToFind.setPatientId(1L);
+
+        doReturn(Flux.just(noteToFind)).when(mockReactiveNoteService).findNotesByPatientId(1L);
+
+        //ACT & ASSERT
+        webTestClient.get().uri("/patHistoryByPatientId?patId=1")
+                .exchange()
+                .expectStatus().isFound()
+                .expectBodyList(Note.class).hasSize(1);
+
+        verify(mockReactiveNoteService, times(1)).findNotesByPatientId(1L);
+    }
+
+    @Test
+    public void getPatientHistoryByPatientId_whenIdPatientNotExist() {
+        //ARRANGE
+        doReturn(Flux.error(new ResourceNotFoundException(1L))).when(mockReactiveNoteService).findNotesByPatientId(1L);
+
+        //ACT & ASSERT
+        webTestClient.get().uri("/patHistoryByPatientId?patId=1")
+                .exchange()
+                .expectStatus().isNotFound();
+
+        verify(mockReactiveNoteService, times(1)).findNotesByPatientId(1L);
+    }
+
+    @Test
+    public void addNoteByPatientId_whenPatientAlreadyExist() {
+        //ARRANGE
+        Note noteNew = new Note("PatientLastName", "PatientFirstName","NoteTextNew");
+        noteNew.setId("5fa9cd63681c104404d45c23");
+        noteNew.setPatientId(1L);
+
+        doReturn(Mono.just(noteNew)).when(mockReactiveNoteService).createNoteByPatientId(1L, "NoteTextNew");
+
+        //ACT & ASSERT
+        webTestClient.post().uri("/patHistory/add?patId=1&note=NoteTextNew")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals("Location", "/patHistory/add/5fa9cd63681c104404d45c23");
+
+        verify(mockReactiveNoteService, times(1)).createNoteByPatientId(1L, "NoteTextNew");
+    }
+
+    @Test
+    public void addNoteByPatientId_whenPatientNotAlreadyExist() {
+        //ARRANGE
+        doReturn(Mono.error(new ResourceNotFoundException(1L))).when(mockReactiveNoteService).createNoteByPatientId(1L, "NoteTextNew");
+
+        //ACT & ASSERT
+        webTestClient.post().uri("/patHistory/add?patId=1&note=NoteTextNew")
+                .exchange()
+                .expectStatus().isNotFound();
+
+        verify(mockReactiveNoteService, times(1)).createNoteByPatientId(1L, "NoteTextNew");
+    }
+
+    @Test
+    public void addNoteByPatientLastNameAndFirstName() {
+        //ARRANGE
+        Note noteNew = new Note("NewPatientLastName", "NewPatientFirstName","NoteTextNew");
+        noteNew.setId("5fa9cd63681c104404d45c23");
+        noteNew.setPatientId(2L);
+
+        doReturn(Mono.just(noteNew)).when(mockReactiveNoteService).createNoteByPatientLastNameAndFirstName("NewPatientLastName", "NewPatientFirstName", "NoteTextNew");
+
+        //ACT & ASSERT
+        webTestClient.post().uri("/patHistory/addByLastNameAndFirstName?lastName=NewPatientLastName&firstName=NewPatientFirstName&note=NoteTextNew")
+                .exchange()
+                .expectStatus().isCreated();
+
+        verify(mockReactiveNoteService, times(1)).createNoteByPatientLastNameAndFirstName("NewPatientLastName", "NewPatientFirstName", "NoteTextNew");
+    }
+}
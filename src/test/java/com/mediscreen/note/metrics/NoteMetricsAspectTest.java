@@ -0,0 +1,162 @@
+package com.mediscreen.note.metrics;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.NoteRepository;
+import com.mediscreen.note.service.INoteService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the NoteMetricsAspect Class.
+ */
+@ActiveProfiles("test")
+@ExtendWith(MockitoExtension.class)
+public class NoteMetricsAspectTest {
+
+    @Mock
+    private INoteService mockNoteService;
+
+    @Mock
+    private NoteRepository mockNoteRepository;
+
+    @Mock
+    private INoteRepositoryCustom mockNoteRepositoryCustom;
+
+    private MeterRegistry meterRegistry;
+
+    private INoteService noteServiceUnderTest;
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        noteServiceUnderTest = proxy(mockNoteService);
+    }
+
+    @Test
+    public void recordServiceCall_whenFound() {
+        // ARRANGE
+        List<Note> notesToFind = new ArrayList<>();
+        notesToFind.add(new Note("PatientLastName", "PatientFirstName","NoteText1"));
+        notesToFind.add(new Note("PatientLastName", "PatientFirstName","NoteText2"));
+        doReturn(notesToFind).when(mockNoteService).findNotesByPatientLastNameAndFirstName("PatientLastName", "PatientFirstName");
+
+        // ACT
+        noteServiceUnderTest.findNotesByPatientLastNameAndFirstName("PatientLastName", "PatientFirstName");
+
+        // ASSERT
+        assertEquals(1L, meterRegistry.get(NoteMetricsAspect.SERVICE_CALLS_METRIC)
+                .tag("operation", "findNotesByPatientLastNameAndFirstName")
+                .tag("outcome", NoteMetricsAspect.OUTCOME_FOUND)
+                .timer().count());
+        assertEquals(2.0, meterRegistry.get(NoteMetricsAspect.SERVICE_RESULT_SIZE_METRIC)
+                .tag("operation", "findNotesByPatientLastNameAndFirstName")
+                .summary().totalAmount());
+    }
+
+    @Test
+    public void recordServiceCall_whenEmptyResult() {
+        // ARRANGE
+        doReturn(new ArrayList<>()).when(mockNoteService).findNotesByPatientLastNameAndFirstName("PatientLastName", "PatientFirstName");
+
+        // ACT
+        noteServiceUnderTest.findNotesByPatientLastNameAndFirstName("PatientLastName", "PatientFirstName");
+
+        // ASSERT
+        assertEquals(1L, meterRegistry.get(NoteMetricsAspect.SERVICE_CALLS_METRIC)
+                .tag("operation", "findNotesByPatientLastNameAndFirstName")
+                .tag("outcome", NoteMetricsAspect.OUTCOME_NOT_FOUND)
+                .timer().count());
+    }
+
+    @Test
+    public void recordServiceCall_whenResourceNotFound() {
+        // ARRANGE
+        doThrow(new ResourceNotFoundException(1L)).when(mockNoteService).findNotesByPatientId(1L);
+
+        // ACT
+        assertThrows(ResourceNotFoundException.class, () -> noteServiceUnderTest.findNotesByPatientId(1L));
+
+        // ASSERT
+        assertEquals(1L, meterRegistry.get(NoteMetricsAspect.SERVICE_CALLS_METRIC)
+                .tag("operation", "findNotesByPatientId")
+                .tag("outcome", NoteMetricsAspect.OUTCOME_NOT_FOUND)
+                .timer().count());
+    }
+
+    @Test
+    public void recordServiceCall_whenError() {
+        // ARRANGE
+        doThrow(new IllegalStateException()).when(mockNoteService).findNoteById("idNoteTest");
+
+        // ACT
+        assertThrows(IllegalStateException.class, () -> noteServiceUnderTest.findNoteById("idNoteTest"));
+
+        // ASSERT
+        assertEquals(1L, meterRegistry.get(NoteMetricsAspect.SERVICE_CALLS_METRIC)
+                .tag("operation", "findNoteById")
+                .tag("outcome", NoteMetricsAspect.OUTCOME_ERROR)
+                .timer().count());
+    }
+
+    @Test
+    public void recordRepositoryCall_whenNothingReturned() {
+        // ARRANGE
+        NoteRepository noteRepositoryUnderTest = proxy(mockNoteRepository);
+
+        // ACT
+        noteRepositoryUnderTest.deleteById("idNoteTest");
+
+        // ASSERT
+        verify(mockNoteRepository, times(1)).deleteById("idNoteTest");
+        assertEquals(1L, meterRegistry.get(NoteMetricsAspect.REPOSITORY_CALLS_METRIC)
+                .tag("operation", "deleteById")
+                .tag("outcome", NoteMetricsAspect.OUTCOME_SUCCESS)
+                .timer().count());
+    }
+
+    @Test
+    public void recordRepositoryCall_whenMapReturned() {
+        // ARRANGE
+        Map<Integer, String> insertErrors = new HashMap<>();
+        insertErrors.put(0, "Duplicate key");
+        insertErrors.put(2, "Duplicate key");
+        doReturn(insertErrors).when(mockNoteRepositoryCustom).insertNotes(anyList());
+        INoteRepositoryCustom noteRepositoryCustomUnderTest = proxy(mockNoteRepositoryCustom);
+
+        // ACT
+        noteRepositoryCustomUnderTest.insertNotes(new ArrayList<>());
+
+        // ASSERT
+        assertEquals(1L, meterRegistry.get(NoteMetricsAspect.REPOSITORY_CALLS_METRIC)
+                .tag("operation", "insertNotes")
+                .tag("outcome", NoteMetricsAspect.OUTCOME_FOUND)
+                .timer().count());
+        assertEquals(2.0, meterRegistry.get(NoteMetricsAspect.REPOSITORY_RESULT_SIZE_METRIC)
+                .tag("operation", "insertNotes")
+                .summary().totalAmount());
+    }
+
+    private <T> T proxy(T target) {
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+        proxyFactory.addAspect(new NoteMetricsAspect(meterRegistry));
+        return proxyFactory.getProxy();
+    }
+}
@@ -1,6 +1,12 @@
 package com.mediscreen.note.repository;
 
 import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -8,10 +14,21 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Class including tests for the Note entity Custom Repository.
@@ -48,4 +65,349 @@ public class NoteRepositoryCustomImplTest {
         // ASSERT
         assertEquals(0, maxPatientId);
     }
+
+    @Test
+    public void findNotesAfterId() {
+        // ARRANGE
+        Note note1 = new Note("PatientLastName", "PatientFirstName","NoteText1");
+        mongoTemplate.insert(note1);
+        Note note2 = new Note("PatientLastName", "PatientFirstName","NoteText2");
+        mongoTemplate.insert(note2);
+        Note note3 = new Note("PatientLastName", "PatientFirstName","NoteText3");
+        mongoTemplate.insert(note3);
+
+        // ACT
+        List<Note> firstNotes = noteRepositoryCustomUnderTest.findNotesAfterId(null, 2);
+        List<Note> nextNotes = noteRepositoryCustomUnderTest.findNotesAfterId(note2.getId(), 2);
+
+        // ASSERT
+        assertEquals(2, firstNotes.size());
+        assertEquals(note1.getId(), firstNotes.get(0).getId());
+        assertEquals(1, nextNotes.size());
+        assertEquals(note3.getId(), nextNotes.get(0).getId());
+    }
+
+    @Test
+    public void findNotesBeforeId() {
+        // ARRANGE
+        Note note1 = new Note("PatientLastName", "PatientFirstName","NoteText1");
+        mongoTemplate.insert(note1);
+        Note note2 = new Note("PatientLastName", "PatientFirstName","NoteText2");
+        mongoTemplate.insert(note2);
+        Note note3 = new Note("PatientLastName", "PatientFirstName","NoteText3");
+        mongoTemplate.insert(note3);
+
+        // ACT
+        List<Note> previousNotes = noteRepositoryCustomUnderTest.findNotesBeforeId(note3.getId(), 5);
+
+        // ASSERT
+        assertEquals(2, previousNotes.size());
+        assertEquals(note2.getId(), previousNotes.get(0).getId());
+        assertEquals(note1.getId(), previousNotes.get(1).getId());
+    }
+
+    @Test
+    public void streamNotes_byPatientIdRange() {
+        // ARRANGE
+        for (long patientId = 1L; patientId <= 5L; patientId++) {
+            Note note = new Note("PatientLastName" + patientId, "PatientFirstName" + patientId,"NoteText");
+            note.setPatientId(patientId);
+            mongoTemplate.insert(note);
+        }
+        List<Note> notesStreamed = new ArrayList<>();
+
+        // ACT
+        try (CloseableIterator<Note> notes = noteRepositoryCustomUnderTest.streamNotes(2L, 4L)) {
+            notes.forEachRemaining(notesStreamed::add);
+        }
+
+        // ASSERT
+        assertEquals(3, notesStreamed.size());
+    }
+
+    @Test
+    public void streamNotesByPatientIds() {
+        // ARRANGE
+        for (long patientId = 5L; patientId >= 1L; patientId--) {
+            for (int i = 0; i < 2; i++) {
+                Note note = new Note("PatientLastName" + patientId, "PatientFirstName" + patientId,"NoteText" + i);
+                note.setPatientId(patientId);
+                mongoTemplate.insert(note);
+            }
+        }
+        List<Note> notesStreamed = new ArrayList<>();
+
+        // ACT
+        try (CloseableIterator<Note> notes = noteRepositoryCustomUnderTest.streamNotesByPatientIds(Arrays.asList(4L, 2L, 6L))) {
+            notes.forEachRemaining(notesStreamed::add);
+        }
+
+        // ASSERT
+        assertEquals(4, notesStreamed.size());
+        assertEquals(2L, notesStreamed.get(0).getPatientId());
+        assertEquals(2L, notesStreamed.get(1).getPatientId());
+        assertEquals(4L, notesStreamed.get(2).getPatientId());
+        assertEquals(4L, notesStreamed.get(3).getPatientId());
+    }
+
+    @Test
+    public void updateNoteIfVersionMatches_whenVersionMatches() {
+        // ARRANGE
+        Note note = new Note("PatientLastName", "PatientFirstName","NoteText");
+        note.setPatientId(1L);
+        mongoTemplate.insert(note);
+        Note noteToUpdate = new Note("PatientLastName", "PatientFirstName","NoteTextUpdated");
+        noteToUpdate.setPatientId(1L);
+        noteToUpdate.setId(note.getId());
+        noteToUpdate.setVersion(note.getVersion());
+
+        // ACT
+        Note previousNote = noteRepositoryCustomUnderTest.updateNoteIfVersionMatches(noteToUpdate);
+
+        // ASSERT
+        assertEquals("NoteText", previousNote.getNoteText());
+        Note noteUpdated = mongoTemplate.findById(note.getId(), Note.class);
+        assertEquals("NoteTextUpdated", noteUpdated.getNoteText());
+        assertEquals(note.getVersion() + 1L, noteUpdated.getVersion());
+    }
+
+    @Test
+    public void updateNoteIfVersionMatches_whenVersionChanged() {
+        // ARRANGE
+        Note note = new Note("PatientLastName", "PatientFirstName","NoteText");
+        note.setPatientId(1L);
+        mongoTemplate.insert(note);
+        Note noteToUpdate = new Note("PatientLastName", "PatientFirstName","NoteTextUpdated");
+        noteToUpdate.setPatientId(1L);
+        noteToUpdate.setId(note.getId());
+        noteToUpdate.setVersion(note.getVersion());
+        noteRepositoryCustomUnderTest.updateNoteIfVersionMatches(noteToUpdate);
+
+        // ACT
+        Note previousNote = noteRepositoryCustomUnderTest.updateNoteIfVersionMatches(noteToUpdate);
+
+        // ASSERT
+        assertNull(previousNote);
+    }
+
+    @Test
+    public void updateNoteIfVersionMatches_whenNoteWithoutVersion() {
+        // ARRANGE
+        ObjectId id = new ObjectId();
+        mongoTemplate.insert(new Document("_id", id).append("patientId", 1L).append("patientLastName", "PatientLastName")
+                .append("patientFirstName", "PatientFirstName").append("noteText", "NoteText"), mongoTemplate.getCollectionName(Note.class));
+        Note noteToUpdate = new Note("PatientLastName", "PatientFirstName","NoteTextUpdated");
+        noteToUpdate.setPatientId(1L);
+        noteToUpdate.setId(id.toHexString());
+
+        // ACT
+        Note previousNote = noteRepositoryCustomUnderTest.updateNoteIfVersionMatches(noteToUpdate);
+
+        // ASSERT
+        assertEquals("NoteText", previousNote.getNoteText());
+        assertEquals(1L, mongoTemplate.findById(id.toHexString(), Note.class).getVersion());
+    }
+
+    @Test
+    public void patchNote() {
+        // ARRANGE
+        Note note = new Note("PatientLastName", "PatientFirstName","NoteText");
+        note.setPatientId(1L);
+        mongoTemplate.insert(note);
+        Map<String, Object> fieldValues = new HashMap<>();
+        fieldValues.put("noteText", "NoteTextPatched");
+        fieldValues.put("patientFirstName", null);
+
+        // ACT
+        Note previousNote = noteRepositoryCustomUnderTest.patchNote(note.getId(), note.getVersion(), fieldValues);
+
+        // ASSERT
+        assertEquals("NoteText", previousNote.getNoteText());
+        Note notePatched = mongoTemplate.findById(note.getId(), Note.class);
+        assertEquals("NoteTextPatched", notePatched.getNoteText());
+        assertEquals("PatientLastName", notePatched.getPatientLastName());
+        assertNull(notePatched.getPatientFirstName());
+        assertEquals(note.getVersion() + 1L, notePatched.getVersion());
+    }
+
+    @Test
+    public void patchNote_whenVersionChanged() {
+        // ARRANGE
+        Note note = new Note("PatientLastName", "PatientFirstName","NoteText");
+        note.setPatientId(1L);
+        mongoTemplate.insert(note);
+        noteRepositoryCustomUnderTest.patchNote(note.getId(), null, Collections.singletonMap("noteText", "NoteTextPatched"));
+
+        // ACT
+        Note previousNote = noteRepositoryCustomUnderTest.patchNote(note.getId(), note.getVersion(), Collections.singletonMap("noteText", "NoteTextPatchedAgain"));
+
+        // ASSERT
+        assertNull(previousNote);
+        assertEquals("NoteTextPatched", mongoTemplate.findById(note.getId(), Note.class).getNoteText());
+    }
+
+    @Test
+    public void patchNotesIfVersionsMatch() {
+        // ARRANGE
+        Note note1 = new Note("PatientLastName", "PatientFirstName","NoteText1");
+        note1.setPatientId(1L);
+        mongoTemplate.insert(note1);
+        Note note2 = new Note("PatientLastName", "PatientFirstName","NoteText2");
+        note2.setPatientId(1L);
+        mongoTemplate.insert(note2);
+        List<NotePatch> notePatches = new ArrayList<>();
+        notePatches.add(new NotePatch(note1.getId(), note1.getVersion(), Collections.singletonMap("noteText", "NoteText1Patched")));
+        notePatches.add(new NotePatch(note2.getId(), note2.getVersion() + 1L, Collections.singletonMap("noteText", "NoteText2Patched")));
+
+        // ACT
+        long nbNotesMatched = noteRepositoryCustomUnderTest.patchNotesIfVersionsMatch(notePatches);
+
+        // ASSERT
+        assertEquals(1L, nbNotesMatched);
+        assertEquals("NoteText1Patched", mongoTemplate.findById(note1.getId(), Note.class).getNoteText());
+        assertEquals("NoteText2", mongoTemplate.findById(note2.getId(), Note.class).getNoteText());
+    }
+
+    @Test
+    public void findNotesByIds() {
+        // ARRANGE
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Note note = new Note("PatientLastName", "PatientFirstName","NoteText" + i);
+            note.setPatientId(1L);
+            mongoTemplate.insert(note);
+            ids.add(note.getId());
+        }
+
+        // ACT
+        List<Note> notes = noteRepositoryCustomUnderTest.findNotesByIds(Arrays.asList(ids.get(0), ids.get(2), new ObjectId().toHexString()));
+
+        // ASSERT
+        assertEquals(2, notes.size());
+    }
+
+    @Test
+    public void findPatientIdentities() {
+        // ARRANGE
+        for (long patientId = 1L; patientId <= 3L; patientId++) {
+            for (int i = 0; i < 2; i++) {
+                Note note = new Note("PatientLastName" + patientId, "PatientFirstName" + patientId,"NoteText" + i);
+                note.setPatientId(patientId);
+                mongoTemplate.insert(note);
+            }
+        }
+
+        // ACT
+        List<PatientIdentity> identities = noteRepositoryCustomUnderTest.findPatientIdentities(
+                Collections.singletonList(1L),
+                Collections.singletonList(new PatientIdentity(0L, "PatientLastName3", "PatientFirstName3")));
+
+        // ASSERT
+        assertEquals(2, identities.size());
+        assertTrue(identities.contains(new PatientIdentity(1L, "PatientLastName1", "PatientFirstName1")));
+        assertTrue(identities.contains(new PatientIdentity(3L, "PatientLastName3", "PatientFirstName3")));
+    }
+
+    @Test
+    public void findAllPatientIdentities() {
+        // ARRANGE
+        for (long patientId = 1L; patientId <= 3L; patientId++) {
+            for (int i = 0; i < 2; i++) {
+                Note note = new Note("PatientLastName" + patientId, "PatientFirstName" + patientId,"NoteText" + i);
+                note.setPatientId(patientId);
+                mongoTemplate.insert(note);
+            }
+        }
+
+        // ACT
+        List<PatientIdentity> identities = noteRepositoryCustomUnderTest.findAllPatientIdentities();
+
+        // ASSERT
+        assertEquals(3, identities.size());
+        assertTrue(identities.contains(new PatientIdentity(2L, "PatientLastName2", "PatientFirstName2")));
+    }
+
+    @Test
+    public void insertNotes_whenDuplicateId() {
+        // ARRANGE
+        String duplicateId = new ObjectId().toHexString();
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Note note = new Note("PatientLastName", "PatientFirstName","NoteText" + i);
+            note.setId(i == 2 ? duplicateId : new ObjectId().toHexString());
+            notes.add(note);
+        }
+        notes.get(0).setId(duplicateId);
+
+        // ACT
+        Map<Integer, String> errors = noteRepositoryCustomUnderTest.insertNotes(notes);
+
+        // ASSERT
+        assertEquals(1, errors.size());
+        assertTrue(errors.containsKey(2));
+        assertEquals(2L, mongoTemplate.count(new Query(), Note.class));
+    }
+
+    @Test
+    public void findNoteSummariesByPatientId() {
+        // ARRANGE
+        Note note1 = new Note("PatientLastName", "PatientFirstName","Patient states that they are feeling terrific");
+        note1.setPatientId(1L);
+        mongoTemplate.insert(note1);
+        Note note2 = new Note("PatientLastName", "PatientFirstName","Short");
+        note2.setPatientId(1L);
+        mongoTemplate.insert(note2);
+
+        // ACT
+        List<NoteSummary> noteSummaries = noteRepositoryCustomUnderTest.findNoteSummariesByPatientId(1L, 14);
+
+        // ASSERT
+        assertEquals(2, noteSummaries.size());
+        NoteSummary noteSummary1 = noteSummaries.stream().filter(noteSummary -> noteSummary.getId().equals(note1.getId())).findFirst().get();
+        assertEquals("Patient states", noteSummary1.getNoteTextPreview());
+        assertEquals(1L, noteSummary1.getPatientId());
+        assertEquals("PatientLastName", noteSummary1.getPatientLastName());
+        NoteSummary noteSummary2 = noteSummaries.stream().filter(noteSummary -> noteSummary.getId().equals(note2.getId())).findFirst().get();
+        assertEquals("Short", noteSummary2.getNoteTextPreview());
+    }
+
+    @Test
+    public void countTriggerTerms() {
+        // ARRANGE
+        Note note1 = new Note("PatientLastName1", "PatientFirstName1","Microalbumine élevée, HÉMOGLOBINE  A1C normale");
+        note1.setPatientId(1L);
+        mongoTemplate.insert(note1);
+        Note note2 = new Note("PatientLastName1", "PatientFirstName1","microalbumine stable");
+        note2.setPatientId(1L);
+        mongoTemplate.insert(note2);
+        Note note3 = new Note("PatientLastName2", "PatientFirstName2","Fumeur, microalbumine");
+        note3.setPatientId(2L);
+        mongoTemplate.insert(note3);
+        Note note4 = new Note("PatientLastName3", "PatientFirstName3","Microalbumine");
+        note4.setPatientId(3L);
+        mongoTemplate.insert(note4);
+
+        // ACT
+        List<TriggerTermCount> triggerTermCounts = noteRepositoryCustomUnderTest.countTriggerTerms(Arrays.asList(1L, 2L, 4L), Arrays.asList("Microalbumine", "Hemoglobine A1C", "Anticorps"));
+
+        // ASSERT
+        assertEquals(2, triggerTermCounts.size());
+        TriggerTermCount triggerTermCount1 = triggerTermCounts.stream().filter(triggerTermCount -> triggerTermCount.getPatientId() == 1L).findFirst().get();
+        assertEquals(2L, triggerTermCount1.getTermCounts().get("Microalbumine"));
+        assertEquals(1L, triggerTermCount1.getTermCounts().get("Hemoglobine A1C"));
+        assertEquals(0L, triggerTermCount1.getTermCounts().get("Anticorps"));
+        assertEquals(2, triggerTermCount1.getDistinctTermCount());
+        TriggerTermCount triggerTermCount2 = triggerTermCounts.stream().filter(triggerTermCount -> triggerTermCount.getPatientId() == 2L).findFirst().get();
+        assertEquals(1L, triggerTermCount2.getTermCounts().get("Microalbumine"));
+        assertEquals(1, triggerTermCount2.getDistinctTermCount());
+    }
+
+    @Test
+    public void toAccentInsensitiveRegex() {
+        // ACT
+        String regex = NoteRepositoryCustomImpl.toAccentInsensitiveRegex("Réaction  A1C+");
+
+        // ASSERT
+        assertEquals("r[eèéêëEÈÉÊË][aàáâãäåAÀÁÂÃÄÅ][cçCÇ]t[iìíîïIÌÍÎÏ][oòóôõöøOÒÓÔÕÖØ][nñNÑ]\\s+[aàáâãäåAÀÁÂÃÄÅ]1[cçCÇ]\\+", regex);
+    }
 }
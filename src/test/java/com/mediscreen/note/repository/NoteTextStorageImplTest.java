@@ -0,0 +1,275 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.BulkItemResult;
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.TriggerTermCount;
+import com.mediscreen.note.domain.TriggerTermRollup;
+import com.mediscreen.note.service.INoteService;
+import com.mediscreen.note.service.ITriggerTermRollupService;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including tests for the storage of the note texts : inline, compressed or in GridFS.
+ */
+@ActiveProfiles("test")
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {"note.text-storage.compression-threshold-bytes=1024", "note.text-storage.gridfs-threshold-bytes=4096"})
+public class NoteTextStorageImplTest {
+
+    private static final String FILES_COLLECTION = NoteTextStorageImpl.BUCKET_NAME + ".files";
+
+    private static final String CHUNKS_COLLECTION = NoteTextStorageImpl.BUCKET_NAME + ".chunks";
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private INoteRepositoryCustom noteRepositoryCustom;
+
+    @Autowired
+    private INoteService noteService;
+
+    @Autowired
+    private ITriggerTermRollupService triggerTermRollupService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void setup() {
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(FILES_COLLECTION);
+        mongoTemplate.dropCollection(CHUNKS_COLLECTION);
+        mongoTemplate.dropCollection(TriggerTermRollup.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(FILES_COLLECTION);
+        mongoTemplate.dropCollection(CHUNKS_COLLECTION);
+        mongoTemplate.dropCollection(TriggerTermRollup.class);
+    }
+
+    @Test
+    public void saveNote_whenNoteTextSmall() {
+        // ARRANGE
+        Note noteToSave = new Note("PatientLastName", "PatientFirstName", "NoteText");
+
+        // ACT
+        noteRepository.save(noteToSave);
+
+        // ASSERT
+        Document document = findDocument(noteToSave.getId());
+        assertEquals("NoteText", document.getString(NoteTextStorageImpl.NOTE_TEXT_FIELD));
+        assertFalse(document.containsKey(NoteTextStorageImpl.COMPRESSED_NOTE_TEXT_FIELD));
+        assertEquals("NoteText", noteRepository.findById(noteToSave.getId()).get().getNoteText());
+    }
+
+    @Test
+    public void saveNote_whenNoteTextLarge() {
+        // ARRANGE
+        String noteText = String.join("<br>", Collections.nCopies(200, "Lab reports Microalbumine high"));
+        Note noteToSave = new Note("PatientLastName", "PatientFirstName", noteText);
+
+        // ACT
+        noteRepository.save(noteToSave);
+        Note noteFound = noteRepository.findById(noteToSave.getId()).get();
+
+        // ASSERT
+        Document document = findDocument(noteToSave.getId());
+        assertFalse(document.containsKey(NoteTextStorageImpl.NOTE_TEXT_FIELD));
+        assertTrue(document.containsKey(NoteTextStorageImpl.COMPRESSED_NOTE_TEXT_FIELD));
+        assertEquals(noteText.substring(0, 1000), document.getString(NoteTextStorageImpl.NOTE_TEXT_PREVIEW_FIELD));
+        assertFalse(noteFound.isNoteTextLoaded());
+        assertEquals(noteText, noteFound.getNoteText());
+        assertTrue(noteFound.isNoteTextLoaded());
+    }
+
+    @Test
+    public void saveNote_whenNoteTextVeryLarge() {
+        // ARRANGE
+        String noteText = randomText(20000);
+        Note noteToSave = new Note("PatientLastName", "PatientFirstName", noteText);
+
+        // ACT
+        noteRepository.save(noteToSave);
+        Note noteFound = noteRepository.findById(noteToSave.getId()).get();
+
+        // ASSERT
+        Document document = findDocument(noteToSave.getId());
+        assertFalse(document.containsKey(NoteTextStorageImpl.NOTE_TEXT_FIELD));
+        assertFalse(document.containsKey(NoteTextStorageImpl.COMPRESSED_NOTE_TEXT_FIELD));
+        assertTrue(document.containsKey(NoteTextStorageImpl.NOTE_TEXT_FILE_ID_FIELD));
+        assertEquals(1L, mongoTemplate.getCollection(FILES_COLLECTION).countDocuments());
+        assertEquals(noteText, noteFound.getNoteText());
+    }
+
+    @Test
+    public void updateNoteIfVersionMatches_whenNoteTextNoMoreVeryLarge() {
+        // ARRANGE
+        String noteText = randomText(20000);
+        Note noteToUpdate = noteRepository.save(new Note("PatientLastName", "PatientFirstName", noteText));
+        noteToUpdate.setNoteText("NoteTextUpdated");
+
+        // ACT
+        Note previousNote = noteRepositoryCustom.updateNoteIfVersionMatches(noteToUpdate);
+
+        // ASSERT
+        Document document = findDocument(noteToUpdate.getId());
+        assertEquals("NoteTextUpdated", document.getString(NoteTextStorageImpl.NOTE_TEXT_FIELD));
+        assertFalse(document.containsKey(NoteTextStorageImpl.NOTE_TEXT_FILE_ID_FIELD));
+        assertFalse(document.containsKey(NoteTextStorageImpl.NOTE_TEXT_PREVIEW_FIELD));
+        assertEquals(0L, mongoTemplate.getCollection(FILES_COLLECTION).countDocuments());
+        assertEquals(noteToUpdate.getId(), previousNote.getId());
+        assertEquals(noteText, previousNote.getNoteText());
+    }
+
+    @Test
+    public void updateNoteIfVersionMatches_whenVersionChanged() {
+        // ARRANGE
+        Note noteToUpdate = noteRepository.save(new Note("PatientLastName", "PatientFirstName", randomText(20000)));
+        noteToUpdate.setNoteText(randomText(20000));
+        noteToUpdate.setVersion(noteToUpdate.getVersion() + 1L);
+
+        // ACT
+        Note previousNote = noteRepositoryCustom.updateNoteIfVersionMatches(noteToUpdate);
+
+        // ASSERT
+        assertNull(previousNote);
+        assertEquals(1L, mongoTemplate.getCollection(FILES_COLLECTION).countDocuments());
+        assertTrue(findDocument(noteToUpdate.getId()).containsKey(NoteTextStorageImpl.NOTE_TEXT_FILE_ID_FIELD));
+    }
+
+    @Test
+    public void updateNote_whenNoteTextVeryLarge_thenPreviousNoteTextRemovedFromRollup() {
+        // ARRANGE
+        Note noteCreated = noteService.createNote(new Note("PatientLastName", "PatientFirstName", "Microalbumine " + randomText(20000)));
+        assertEquals(1L, triggerTermRollupService.getTriggerTermCounts(noteCreated.getPatientId()).getTermCounts().get("Microalbumine"));
+        Note noteToUpdate = noteService.findNoteById(noteCreated.getId());
+        noteToUpdate.setNoteText("Fumeur");
+
+        // ACT
+        noteService.updateNote(noteToUpdate);
+
+        // ASSERT
+        TriggerTermCount triggerTermCount = triggerTermRollupService.getTriggerTermCounts(noteCreated.getPatientId());
+        assertEquals(0L, triggerTermCount.getTermCounts().get("Microalbumine"));
+        assertEquals(1L, triggerTermCount.getTermCounts().get("Fumeur"));
+        assertEquals(0L, mongoTemplate.getCollection(FILES_COLLECTION).countDocuments());
+    }
+
+    @Test
+    public void patchNote_whenNoteTextVeryLarge_thenPreviousNoteTextRemovedFromRollup() {
+        // ARRANGE
+        Note noteCreated = noteService.createNote(new Note("PatientLastName", "PatientFirstName", "Microalbumine " + randomText(20000)));
+        assertEquals(1L, triggerTermRollupService.getTriggerTermCounts(noteCreated.getPatientId()).getTermCounts().get("Microalbumine"));
+
+        // ACT
+        Note notePatched = noteService.patchNote(noteCreated.getId(), null, Collections.singletonMap("noteText", "Fumeur"));
+
+        // ASSERT
+        assertEquals("Fumeur", notePatched.getNoteText());
+        TriggerTermCount triggerTermCount = triggerTermRollupService.getTriggerTermCounts(noteCreated.getPatientId());
+        assertEquals(0L, triggerTermCount.getTermCounts().get("Microalbumine"));
+        assertEquals(1L, triggerTermCount.getTermCounts().get("Fumeur"));
+    }
+
+    @Test
+    public void patchNotes_whenNoteTextVeryLarge_thenPreviousNoteTextRemovedFromRollup() {
+        // ARRANGE
+        Note noteCreated = noteService.createNote(new Note("PatientLastName", "PatientFirstName", "Microalbumine " + randomText(20000)));
+        assertEquals(1L, triggerTermRollupService.getTriggerTermCounts(noteCreated.getPatientId()).getTermCounts().get("Microalbumine"));
+
+        // ACT
+        List<BulkItemResult> results = noteService.patchNotes(Collections.singletonList(new NotePatch(noteCreated.getId(), null, Collections.singletonMap("noteText", "Fumeur"))));
+
+        // ASSERT
+        assertEquals(BulkItemResult.STATUS_SUCCESS, results.get(0).getStatus());
+        TriggerTermCount triggerTermCount = triggerTermRollupService.getTriggerTermCounts(noteCreated.getPatientId());
+        assertEquals(0L, triggerTermCount.getTermCounts().get("Microalbumine"));
+        assertEquals(1L, triggerTermCount.getTermCounts().get("Fumeur"));
+        assertEquals(0L, mongoTemplate.getCollection(FILES_COLLECTION).countDocuments());
+    }
+
+    @Test
+    public void deleteNote_whenNoteTextVeryLarge() {
+        // ARRANGE
+        Note noteToDelete = noteRepository.save(new Note("PatientLastName", "PatientFirstName", randomText(20000)));
+
+        // ACT
+        noteRepository.deleteById(noteToDelete.getId());
+
+        // ASSERT
+        assertEquals(0L, mongoTemplate.getCollection(FILES_COLLECTION).countDocuments());
+    }
+
+    @Test
+    public void findNoteSummariesByPatientId_whenNoteTextLarge() {
+        // ARRANGE
+        Note noteTest = new Note("PatientLastName", "PatientFirstName", String.join("<br>", Collections.nCopies(200, "Lab reports Microalbumine high")));
+        noteTest.setPatientId(1L);
+        noteRepository.save(noteTest);
+
+        // ACT
+        List<NoteSummary> noteSummaries = noteRepositoryCustom.findNoteSummariesByPatientId(1L, 11);
+
+        // ASSERT
+        assertEquals(1, noteSummaries.size());
+        assertEquals("Lab reports", noteSummaries.get(0).getNoteTextPreview());
+    }
+
+    @Test
+    public void countTriggerTerms_whenNoteTextLarge() {
+        // ARRANGE
+        Note noteTest1 = new Note("PatientLastName", "PatientFirstName", String.join("<br>", Collections.nCopies(200, "Lab reports Microalbumine high")));
+        noteTest1.setPatientId(1L);
+        noteRepository.save(noteTest1);
+        Note noteTest2 = new Note("PatientLastName", "PatientFirstName", "Microalbumine and anticorps");
+        noteTest2.setPatientId(1L);
+        noteRepository.save(noteTest2);
+
+        // ACT
+        List<TriggerTermCount> triggerTermCounts = noteRepositoryCustom.countTriggerTerms(Collections.singletonList(1L), Arrays.asList("Microalbumine", "Anticorps", "Fumeur"));
+
+        // ASSERT
+        assertEquals(1, triggerTermCounts.size());
+        assertEquals(Long.valueOf(201L), triggerTermCounts.get(0).getTermCounts().get("Microalbumine"));
+        assertEquals(Long.valueOf(1L), triggerTermCounts.get(0).getTermCounts().get("Anticorps"));
+        assertEquals(2, triggerTermCounts.get(0).getDistinctTermCount());
+    }
+
+    private Document findDocument(String id) {
+        return mongoTemplate.findById(id, Document.class, mongoTemplate.getCollectionName(Note.class));
+    }
+
+    private static String randomText(int length) {
+        Random random = new Random(length);
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('!' + random.nextInt(94)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.configuration.NoteIndexManager;
+import com.mediscreen.note.domain.PatientIdentity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including tests for the PatientIdentity Repository.
+ */
+@ActiveProfiles("test")
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+public class PatientIdentityRepositoryImplTest {
+
+    @Autowired
+    private IPatientIdentityRepository patientIdentityRepositoryUnderTest;
+
+    @Autowired
+    private NoteIndexManager noteIndexManager;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void setup(){
+        mongoTemplate.dropCollection(PatientIdentity.class);
+        // The unique index on the last name and first name is needed to reject the duplicates
+        noteIndexManager.ensureIndexes();
+    }
+
+    @AfterEach
+    public void tearDown(){
+        mongoTemplate.dropCollection(PatientIdentity.class);
+    }
+
+    @Test
+    public void saveIdentities_andFindIdentities() {
+        // ARRANGE
+        patientIdentityRepositoryUnderTest.saveIdentities(Arrays.asList(
+                new PatientIdentity(1L, "PatientLastName1", "PatientFirstName1"),
+                new PatientIdentity(2L, "PatientLastName2", "PatientFirstName2"),
+                new PatientIdentity(3L, "PatientLastName3", "PatientFirstName3")));
+
+        // ACT
+        List<PatientIdentity> identities = patientIdentityRepositoryUnderTest.findIdentities(
+                Collections.singletonList(1L),
+                Collections.singletonList(new PatientIdentity(0L, "PatientLastName3", "PatientFirstName3")));
+
+        // ASSERT
+        assertEquals(2, identities.size());
+        assertTrue(identities.contains(new PatientIdentity(1L, "PatientLastName1", "PatientFirstName1")));
+        assertTrue(identities.contains(new PatientIdentity(3L, "PatientLastName3", "PatientFirstName3")));
+    }
+
+    @Test
+    public void saveIdentities_whenPatientRenamed() {
+        // ARRANGE
+        patientIdentityRepositoryUnderTest.saveIdentities(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+
+        // ACT
+        List<PatientIdentity> identitiesNotSaved = patientIdentityRepositoryUnderTest.saveIdentities(Collections.singletonList(new PatientIdentity(1L, "NewPatientLastName", "PatientFirstName")));
+
+        // ASSERT
+        assertTrue(identitiesNotSaved.isEmpty());
+        assertEquals(Collections.singletonList(new PatientIdentity(1L, "NewPatientLastName", "PatientFirstName")),
+                patientIdentityRepositoryUnderTest.findIdentities(Collections.singletonList(1L), Collections.emptyList()));
+    }
+
+    @Test
+    public void saveIdentities_whenNameOfAnotherPatient() {
+        // ARRANGE
+        patientIdentityRepositoryUnderTest.saveIdentities(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+
+        // ACT
+        List<PatientIdentity> identitiesNotSaved = patientIdentityRepositoryUnderTest.saveIdentities(Arrays.asList(
+                new PatientIdentity(2L, "PatientLastName", "PatientFirstName"),
+                new PatientIdentity(3L, "OtherPatientLastName", "OtherPatientFirstName")));
+
+        // ASSERT
+        assertEquals(Collections.singletonList(new PatientIdentity(2L, "PatientLastName", "PatientFirstName")), identitiesNotSaved);
+        assertEquals(2, patientIdentityRepositoryUnderTest.findIdentities(Arrays.asList(1L, 2L, 3L), Collections.emptyList()).size());
+    }
+
+    @Test
+    public void streamIdentities() {
+        // ARRANGE
+        patientIdentityRepositoryUnderTest.saveIdentities(Arrays.asList(
+                new PatientIdentity(1L, "PatientLastName1", "PatientFirstName1"),
+                new PatientIdentity(2L, "PatientLastName2", "PatientFirstName2")));
+
+        // ACT
+        List<PatientIdentity> identitiesStreamed = new ArrayList<>();
+        try (CloseableIterator<PatientIdentity> identities = patientIdentityRepositoryUnderTest.streamIdentities()) {
+            identities.forEachRemaining(identitiesStreamed::add);
+        }
+
+        // ASSERT
+        assertEquals(2, identitiesStreamed.size());
+    }
+
+    @Test
+    public void existsIdentity() {
+        // ARRANGE
+        assertFalse(patientIdentityRepositoryUnderTest.existsIdentity());
+        patientIdentityRepositoryUnderTest.saveIdentities(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+
+        // ACT & ASSERT
+        assertTrue(patientIdentityRepositoryUnderTest.existsIdentity());
+    }
+}
@@ -0,0 +1,166 @@
+package com.mediscreen.note.repository;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonTimestamp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the ReadPreferenceRouterImpl Class.
+ */
+@ExtendWith(MockitoExtension.class)
+public class ReadPreferenceRouterImplTest {
+
+    private static final BsonTimestamp OPERATION_TIME = new BsonTimestamp((int) (System.currentTimeMillis() / 1000L), 3);
+
+    private static final BsonDocument CLUSTER_TIME = new BsonDocument("clusterTime", OPERATION_TIME)
+            .append("signature", new BsonDocument("keyId", new BsonInt64(0L)));
+
+    @Mock
+    private MongoDatabaseFactory mockDelegate;
+
+    @Mock
+    private MongoDatabaseFactory mockSessionDelegate;
+
+    @Mock
+    private MongoDatabase mockDatabase;
+
+    @Mock
+    private MongoDatabase mockSecondaryDatabase;
+
+    @Mock
+    private ClientSession mockSession;
+
+    @Test
+    public void read_whenPrimary() {
+        // ARRANGE
+        ReadPreferenceRouterImpl readPreferenceRouterUnderTest = new ReadPreferenceRouterImpl(mockDelegate, Collections.emptyMap());
+        doReturn(mockDatabase).when(mockDelegate).getMongoDatabase();
+
+        // ACT
+        MongoDatabase database = readPreferenceRouterUnderTest.read(ReadOperation.HISTORY, readPreferenceRouterUnderTest::getMongoDatabase);
+
+        // ASSERT
+        assertSame(mockDatabase, database);
+        assertEquals(ReadPreference.primary(), readPreferenceRouterUnderTest.getReadPreference(ReadOperation.HISTORY));
+        verify(mockDelegate, never()).getSession(any());
+        verify(mockDatabase, never()).withReadPreference(any());
+    }
+
+    @Test
+    public void read_whenSecondaryPreferredAndNoWrite() {
+        // ARRANGE
+        ReadPreferenceRouterImpl readPreferenceRouterUnderTest = new ReadPreferenceRouterImpl(mockDelegate, secondaryPreferred(ReadOperation.HISTORY));
+        doReturn(mockDatabase).when(mockDelegate).getMongoDatabase();
+        doReturn(mockSecondaryDatabase).when(mockDatabase).withReadPreference(ReadPreference.secondaryPreferred());
+
+        // ACT
+        MongoDatabase database = readPreferenceRouterUnderTest.read(ReadOperation.HISTORY, readPreferenceRouterUnderTest::getMongoDatabase);
+
+        // ASSERT
+        assertSame(mockSecondaryDatabase, database);
+        verify(mockDelegate, never()).getSession(any());
+        // Outside of the operation, the database is not bound to the read preference
+        assertSame(mockDatabase, readPreferenceRouterUnderTest.getMongoDatabase());
+    }
+
+    @Test
+    public void read_afterWrite_thenCausallyConsistent() {
+        // ARRANGE
+        ReadPreferenceRouterImpl readPreferenceRouterUnderTest = new ReadPreferenceRouterImpl(mockDelegate, secondaryPreferred(ReadOperation.HISTORY));
+        doReturn(mockSession).when(mockDelegate).getSession(any(ClientSessionOptions.class));
+        doReturn(mockSessionDelegate).when(mockDelegate).withSession(mockSession);
+        doReturn(mockDatabase).when(mockSessionDelegate).getMongoDatabase();
+        doReturn(mockSecondaryDatabase).when(mockDatabase).withReadPreference(ReadPreference.secondaryPreferred());
+        doReturn(OPERATION_TIME).when(mockSession).getOperationTime();
+        doReturn(CLUSTER_TIME).when(mockSession).getClusterTime();
+        readPreferenceRouterUnderTest.write(readPreferenceRouterUnderTest::getMongoDatabase);
+
+        // ACT
+        MongoDatabase database = readPreferenceRouterUnderTest.read(ReadOperation.HISTORY, readPreferenceRouterUnderTest::getMongoDatabase);
+
+        // ASSERT
+        assertSame(mockSecondaryDatabase, database);
+        verify(mockDelegate, times(2)).getSession(argThat(ClientSessionOptions::isCausallyConsistent));
+        verify(mockSession, times(1)).advanceOperationTime(OPERATION_TIME);
+        verify(mockSession, times(2)).close();
+    }
+
+    @Test
+    public void readAfterWrite_withTokenOfAnotherInstance() {
+        // ARRANGE
+        ReadPreferenceRouterImpl writingRouter = new ReadPreferenceRouterImpl(mockDelegate, secondaryPreferred(ReadOperation.NOTE_LIST));
+        doReturn(mockSession).when(mockDelegate).getSession(any(ClientSessionOptions.class));
+        doReturn(OPERATION_TIME).when(mockSession).getOperationTime();
+        doReturn(CLUSTER_TIME).when(mockSession).getClusterTime();
+        assertNull(writingRouter.getReadAfterWriteToken());
+        writingRouter.write(() -> null);
+        String readAfterWriteToken = writingRouter.getReadAfterWriteToken();
+        ReadPreferenceRouterImpl readPreferenceRouterUnderTest = new ReadPreferenceRouterImpl(mockDelegate, secondaryPreferred(ReadOperation.NOTE_LIST));
+
+        // ACT
+        readPreferenceRouterUnderTest.readAfterWrite(ReadOperation.NOTE_LIST, readAfterWriteToken, () -> null);
+
+        // ASSERT
+        assertNotNull(readAfterWriteToken);
+        verify(mockSession, times(1)).advanceOperationTime(OPERATION_TIME);
+        verify(mockSession, times(1)).advanceClusterTime(CLUSTER_TIME);
+    }
+
+    @Test
+    public void readAfterWrite_withInvalidToken() {
+        // ARRANGE
+        ReadPreferenceRouterImpl readPreferenceRouterUnderTest = new ReadPreferenceRouterImpl(mockDelegate, secondaryPreferred(ReadOperation.NOTE_LIST));
+        String futureToken = Base64.getUrlEncoder().encodeToString(new BsonDocument("operationTime", new BsonTimestamp(OPERATION_TIME.getTime() + 3600, 1))
+                .toJson().getBytes(StandardCharsets.UTF_8));
+
+        // ACT
+        readPreferenceRouterUnderTest.readAfterWrite(ReadOperation.NOTE_LIST, "NotAToken!", () -> null);
+        readPreferenceRouterUnderTest.readAfterWrite(ReadOperation.NOTE_LIST, futureToken, () -> null);
+
+        // ASSERT
+        verify(mockDelegate, never()).getSession(any());
+    }
+
+    @Test
+    public void read_whenStreamed_thenNoSession() {
+        // ARRANGE
+        ReadPreferenceRouterImpl readPreferenceRouterUnderTest = new ReadPreferenceRouterImpl(mockDelegate, secondaryPreferred(ReadOperation.EXPORT));
+        readPreferenceRouterUnderTest.advanceOperationTime(OPERATION_TIME);
+        doReturn(mockDatabase).when(mockDelegate).getMongoDatabase();
+        doReturn(mockSecondaryDatabase).when(mockDatabase).withReadPreference(ReadPreference.secondaryPreferred());
+
+        // ACT
+        MongoDatabase database = readPreferenceRouterUnderTest.read(ReadOperation.EXPORT, readPreferenceRouterUnderTest::getMongoDatabase);
+
+        // ASSERT
+        assertSame(mockSecondaryDatabase, database);
+        verify(mockDelegate, never()).getSession(any());
+    }
+
+    private static Map<ReadOperation, ReadPreference> secondaryPreferred(ReadOperation operation) {
+        Map<ReadOperation, ReadPreference> readPreferences = new EnumMap<>(ReadOperation.class);
+        readPreferences.put(operation, ReadPreference.secondaryPreferred());
+        return readPreferences;
+    }
+}
@@ -0,0 +1,95 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.Sequence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Class including tests for the Sequence Repository.
+ */
+@ActiveProfiles("test")
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+public class SequenceRepositoryImplTest {
+
+    @Autowired
+    private ISequenceRepository sequenceRepositoryUnderTest;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void setup(){
+        mongoTemplate.dropCollection(Sequence.class);
+    }
+
+    @AfterEach
+    public void tearDown(){
+        mongoTemplate.dropCollection(Sequence.class);
+    }
+
+    @Test
+    public void incrementSequence_whenSequenceNotExist() {
+        // ACT
+        long value = sequenceRepositoryUnderTest.incrementSequence("sequenceTest", 10L);
+
+        // ASSERT
+        assertEquals(10L, value);
+    }
+
+    @Test
+    public void ensureSequenceAtLeast() {
+        // ARRANGE
+        sequenceRepositoryUnderTest.ensureSequenceAtLeast("sequenceTest", 5L);
+
+        // ACT
+        sequenceRepositoryUnderTest.ensureSequenceAtLeast("sequenceTest", 3L);
+        long value = sequenceRepositoryUnderTest.incrementSequence("sequenceTest", 1L);
+
+        // ASSERT
+        assertEquals(6L, value);
+    }
+
+    @Test
+    public void incrementSequence_noDuplicateUnderConcurrentLoad() throws Exception {
+        // ARRANGE
+        int nbThreads = 8;
+        int nbIncrementsPerThread = 200;
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        ExecutorService executorService = Executors.newFixedThreadPool(nbThreads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // ACT
+        for (int t = 0; t < nbThreads; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < nbIncrementsPerThread; i++) {
+                    values.add(sequenceRepositoryUnderTest.incrementSequence("sequenceTest", 1L));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        // ASSERT
+        assertEquals(nbThreads * nbIncrementsPerThread, values.size());
+    }
+}
@@ -0,0 +1,188 @@
+package com.mediscreen.note.repository;
+
+import com.mediscreen.note.domain.NoteTermCounts;
+import com.mediscreen.note.domain.TriggerTermRollup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including tests for the TriggerTermRollup Repository.
+ */
+@ActiveProfiles("test")
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+public class TriggerTermRollupRepositoryImplTest {
+
+    @Autowired
+    private ITriggerTermRollupRepository triggerTermRollupRepositoryUnderTest;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void setup(){
+        mongoTemplate.dropCollection(TriggerTermRollup.class);
+    }
+
+    @AfterEach
+    public void tearDown(){
+        mongoTemplate.dropCollection(TriggerTermRollup.class);
+    }
+
+    @Test
+    public void setNoteTermCounts() {
+        // ARRANGE
+        Map<String, Long> termCounts = new HashMap<>();
+        termCounts.put("Microalbumine", 2L);
+        termCounts.put("Hémoglobine A1C", 1L);
+        triggerTermRollupRepositoryUnderTest.saveRollupsIfUnchanged(Collections.singletonList(new TriggerTermRollup(1L, notes("note1", 0L, termCounts), "dictionaryHash")));
+        Map<String, Long> updatedTermCounts = new HashMap<>();
+        updatedTermCounts.put("Microalbumine", 1L);
+        updatedTermCounts.put("Fumeur", 1L);
+        Map<String, NoteTermCounts> patientNotes = new HashMap<>();
+        patientNotes.put("note1", new NoteTermCounts(1L, updatedTermCounts));
+        patientNotes.put("note2", new NoteTermCounts(0L, Collections.singletonMap("Fumeur", 1L)));
+        Map<Long, Map<String, NoteTermCounts>> noteTermCounts = new HashMap<>();
+        noteTermCounts.put(1L, patientNotes);
+        noteTermCounts.put(2L, notes("note3", 0L, Collections.singletonMap("Microalbumine", 1L)));
+
+        // ACT
+        triggerTermRollupRepositoryUnderTest.setNoteTermCounts(noteTermCounts);
+
+        // ASSERT
+        TriggerTermRollup rollup = triggerTermRollupRepositoryUnderTest.findRollup(1L);
+        assertEquals(1L, rollup.sumTermCounts().get("Microalbumine"));
+        assertNull(rollup.sumTermCounts().get("Hémoglobine A1C"));
+        assertEquals(2L, rollup.sumTermCounts().get("Fumeur"));
+        assertEquals("dictionaryHash", rollup.getDictionaryHash());
+        assertEquals(3L, rollup.getVersion());
+        TriggerTermRollup rollupCreated = triggerTermRollupRepositoryUnderTest.findRollup(2L);
+        assertEquals(Collections.singletonMap("Microalbumine", 1L), rollupCreated.sumTermCounts());
+        assertNull(rollupCreated.getDictionaryHash());
+        assertFalse(triggerTermRollupRepositoryUnderTest.existsRollupWithDictionaryHashNot("dictionaryHash"));
+    }
+
+    @Test
+    public void setNoteTermCounts_whenSameOrLaterNoteVersionSet() {
+        // ARRANGE
+        triggerTermRollupRepositoryUnderTest.setNoteTermCounts(Collections.singletonMap(1L, notes("note1", 1L, Collections.singletonMap("Microalbumine", 1L))));
+
+        // ACT
+        triggerTermRollupRepositoryUnderTest.setNoteTermCounts(Collections.singletonMap(1L, notes("note1", 1L, Collections.singletonMap("Microalbumine", 1L))));
+        triggerTermRollupRepositoryUnderTest.setNoteTermCounts(Collections.singletonMap(1L, notes("note1", 0L, Collections.singletonMap("Fumeur", 1L))));
+
+        // ASSERT
+        TriggerTermRollup rollup = triggerTermRollupRepositoryUnderTest.findRollup(1L);
+        assertEquals(Collections.singletonMap("Microalbumine", 1L), rollup.sumTermCounts());
+        assertEquals(1L, rollup.getNotes().get("note1").getNoteVersion());
+    }
+
+    @Test
+    public void removeNoteTermCounts() {
+        // ARRANGE
+        Map<String, NoteTermCounts> patientNotes = new HashMap<>();
+        patientNotes.put("note1", new NoteTermCounts(1L, Collections.singletonMap("Microalbumine", 1L)));
+        patientNotes.put("note2", new NoteTermCounts(3L, Collections.singletonMap("Fumeur", 1L)));
+        triggerTermRollupRepositoryUnderTest.setNoteTermCounts(Collections.singletonMap(1L, patientNotes));
+        Map<String, Long> noteVersions = new HashMap<>();
+        noteVersions.put("note1", 1L);
+        noteVersions.put("note2", 2L);
+
+        // ACT
+        triggerTermRollupRepositoryUnderTest.removeNoteTermCounts(Collections.singletonMap(1L, noteVersions));
+
+        // ASSERT
+        TriggerTermRollup rollup = triggerTermRollupRepositoryUnderTest.findRollup(1L);
+        assertEquals(Collections.singleton("note2"), rollup.getNotes().keySet());
+        assertEquals(Collections.singletonMap("Fumeur", 1L), rollup.sumTermCounts());
+    }
+
+    @Test
+    public void saveRollupsIfUnchanged_whenRollupExist() {
+        // ARRANGE
+        triggerTermRollupRepositoryUnderTest.saveRollupsIfUnchanged(Collections.singletonList(
+                new TriggerTermRollup(1L, notes("note1", 0L, Collections.singletonMap("Microalbumine", 2L)), "previousDictionaryHash")));
+        TriggerTermRollup rollupToSave = new TriggerTermRollup(1L, notes("note1", 0L, Collections.singletonMap("Fumeur", 1L)), "dictionaryHash");
+        rollupToSave.setVersion(triggerTermRollupRepositoryUnderTest.findRollupVersions(1L, 1L).get(1L));
+
+        // ACT
+        Set<Long> changedPatientIds = triggerTermRollupRepositoryUnderTest.saveRollupsIfUnchanged(Collections.singletonList(rollupToSave));
+
+        // ASSERT
+        assertTrue(changedPatientIds.isEmpty());
+        TriggerTermRollup rollup = triggerTermRollupRepositoryUnderTest.findRollup(1L);
+        assertEquals(Collections.singletonMap("Fumeur", 1L), rollup.sumTermCounts());
+        assertEquals("dictionaryHash", rollup.getDictionaryHash());
+        assertEquals(2L, rollup.getVersion());
+    }
+
+    @Test
+    public void saveRollupsIfUnchanged_whenNoteWrittenSinceRead() {
+        // ARRANGE
+        triggerTermRollupRepositoryUnderTest.saveRollupsIfUnchanged(Collections.singletonList(
+                new TriggerTermRollup(1L, notes("note1", 0L, Collections.singletonMap("Microalbumine", 2L)), "previousDictionaryHash")));
+        Map<Long, Long> versionsRead = triggerTermRollupRepositoryUnderTest.findRollupVersions(1L, 2L);
+        // Notes written after the versions are read : their counts must survive the rollups computed before them
+        Map<Long, Map<String, NoteTermCounts>> noteTermCounts = new HashMap<>();
+        noteTermCounts.put(1L, notes("note2", 0L, Collections.singletonMap("Fumeur", 1L)));
+        noteTermCounts.put(2L, notes("note3", 0L, Collections.singletonMap("Fumeur", 1L)));
+        triggerTermRollupRepositoryUnderTest.setNoteTermCounts(noteTermCounts);
+        TriggerTermRollup rollupToSave1 = new TriggerTermRollup(1L, notes("note1", 0L, Collections.singletonMap("Microalbumine", 2L)), "dictionaryHash");
+        rollupToSave1.setVersion(versionsRead.get(1L));
+        TriggerTermRollup rollupToSave2 = new TriggerTermRollup(2L, new HashMap<>(), "dictionaryHash");
+        rollupToSave2.setVersion(versionsRead.getOrDefault(2L, 0L));
+
+        // ACT
+        Set<Long> changedPatientIds = triggerTermRollupRepositoryUnderTest.saveRollupsIfUnchanged(Arrays.asList(rollupToSave1, rollupToSave2));
+
+        // ASSERT
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), changedPatientIds);
+        assertEquals(1L, triggerTermRollupRepositoryUnderTest.findRollup(1L).sumTermCounts().get("Fumeur"));
+        assertEquals("previousDictionaryHash", triggerTermRollupRepositoryUnderTest.findRollup(1L).getDictionaryHash());
+        assertEquals(Collections.singletonMap("Fumeur", 1L), triggerTermRollupRepositoryUnderTest.findRollup(2L).sumTermCounts());
+        assertNull(triggerTermRollupRepositoryUnderTest.findRollup(2L).getDictionaryHash());
+    }
+
+    @Test
+    public void deleteRollupsWithDictionaryHashNot() {
+        // ARRANGE
+        triggerTermRollupRepositoryUnderTest.saveRollupsIfUnchanged(Arrays.asList(
+                new TriggerTermRollup(1L, notes("note1", 0L, Collections.singletonMap("Microalbumine", 2L)), "previousDictionaryHash"),
+                new TriggerTermRollup(2L, notes("note2", 0L, Collections.singletonMap("Microalbumine", 1L)), "dictionaryHash")));
+        assertTrue(triggerTermRollupRepositoryUnderTest.existsRollupWithDictionaryHashNot("dictionaryHash"));
+
+        // ACT
+        long nbRollupsDeleted = triggerTermRollupRepositoryUnderTest.deleteRollupsWithDictionaryHashNot("dictionaryHash");
+
+        // ASSERT
+        assertEquals(1L, nbRollupsDeleted);
+        assertFalse(triggerTermRollupRepositoryUnderTest.existsRollupWithDictionaryHashNot("dictionaryHash"));
+        assertTrue(triggerTermRollupRepositoryUnderTest.existsRollup());
+        assertNull(triggerTermRollupRepositoryUnderTest.findRollup(1L));
+    }
+
+    private static Map<String, NoteTermCounts> notes(String noteId, long noteVersion, Map<String, Long> termCounts) {
+        Map<String, NoteTermCounts> notes = new HashMap<>();
+        notes.put(noteId, new NoteTermCounts(noteVersion, termCounts));
+        return notes;
+    }
+}
@@ -0,0 +1,216 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.configuration.CacheConfiguration;
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.repository.IChangeStreamResumeTokenRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Class including tests for the NoteChangeStreamListener Class, the writes of another instance being made directly in the database.
+ * Change streams requiring a replica set, the tests are skipped when the test MongoDB server is not one (a single-node replica set is enough).
+ */
+@ActiveProfiles("test")
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {"note.change-stream.enabled=true", "note.change-stream.listener-name=note-test", "note.change-stream.max-await-ms=100",
+        "note.change-stream.resume-token-save-interval-ms=0"})
+public class NoteChangeStreamListenerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(NoteChangeStreamListenerTest.class);
+
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    private static final long FENCE_PATIENT_ID = 999L;
+
+    @Autowired
+    private NoteChangeStreamListener noteChangeStreamListenerUnderTest;
+
+    @Autowired
+    private IChangeStreamResumeTokenRepository changeStreamResumeTokenRepository;
+
+    @Autowired
+    private IPatientDirectory patientDirectory;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private Cache notesByPatientIdCache;
+
+    @BeforeEach
+    public void setup() {
+        assumeTrue(isReplicaSet(), "The test MongoDB server is not a replica set");
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(PatientIdentity.class);
+        notesByPatientIdCache = cacheManager.getCache(CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE);
+        await(noteChangeStreamListenerUnderTest::isListening);
+        awaitPreviousEventsProcessed();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        mongoTemplate.dropCollection(Note.class);
+        mongoTemplate.dropCollection(PatientIdentity.class);
+        if (notesByPatientIdCache != null) {
+            notesByPatientIdCache.clear();
+        }
+    }
+
+    @Test
+    public void insertNote_evictsHistoryOfPatient() {
+        // ARRANGE
+        notesByPatientIdCache.put(2L, Collections.emptyList());
+        List<Long> lagsMillis = new ArrayList<>();
+
+        // ACT
+        for (int i = 0; i < 20; i++) {
+            notesByPatientIdCache.put(1L, Collections.emptyList());
+            lagsMillis.add(TimeUnit.NANOSECONDS.toMillis(insertNoteAndAwait(1L, () -> notesByPatientIdCache.get(1L) == null)));
+        }
+
+        // ASSERT
+        assertNotNull(notesByPatientIdCache.get(2L));
+        Collections.sort(lagsMillis);
+        logger.info("Invalidation lag (ms) : p50 {}, max {}", lagsMillis.get(lagsMillis.size() / 2), lagsMillis.get(lagsMillis.size() - 1));
+    }
+
+    @Test
+    public void updateNotePatient_evictsAllHistories() {
+        // ARRANGE
+        Note noteToUpdate = mongoTemplate.insert(newNote(1L));
+        awaitPreviousEventsProcessed();
+        notesByPatientIdCache.put(1L, Collections.emptyList());
+        notesByPatientIdCache.put(2L, Collections.emptyList());
+
+        // ACT
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(noteToUpdate.getId())), new Update().set("patientId", 3L), Note.class);
+
+        // ASSERT
+        await(() -> notesByPatientIdCache.get(1L) == null && notesByPatientIdCache.get(2L) == null);
+    }
+
+    @Test
+    public void updateNoteText_evictsHistoryOfPatient() {
+        // ARRANGE
+        Note noteToUpdate = mongoTemplate.insert(newNote(1L));
+        awaitPreviousEventsProcessed();
+        notesByPatientIdCache.put(1L, Collections.emptyList());
+        notesByPatientIdCache.put(2L, Collections.emptyList());
+
+        // ACT
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(noteToUpdate.getId())), new Update().set("noteText", "NoteTextUpdated"), Note.class);
+
+        // ASSERT
+        await(() -> notesByPatientIdCache.get(1L) == null);
+        assertNotNull(notesByPatientIdCache.get(2L));
+    }
+
+    @Test
+    public void deleteNote_evictsAllHistories() {
+        // ARRANGE
+        Note noteToDelete = mongoTemplate.insert(newNote(1L));
+        awaitPreviousEventsProcessed();
+        notesByPatientIdCache.put(2L, Collections.emptyList());
+
+        // ACT
+        mongoTemplate.remove(noteToDelete);
+
+        // ASSERT
+        await(() -> notesByPatientIdCache.get(2L) == null);
+    }
+
+    @Test
+    public void savePatientIdentity_evictsPatientIdentity() {
+        // ARRANGE
+        patientDirectory.register(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+        assertEquals("PatientLastName", patientDirectory.findById(1L).getPatientLastName());
+
+        // ACT
+        mongoTemplate.save(new PatientIdentity(1L, "PatientLastNameUpdated", "PatientFirstName"));
+
+        // ASSERT
+        await(() -> "PatientLastNameUpdated".equals(patientDirectory.findById(1L).getPatientLastName()));
+        assertNull(patientDirectory.findByName("PatientLastName", "PatientFirstName"));
+    }
+
+    @Test
+    public void insertNote_storesResumeToken() {
+        // ARRANGE
+        changeStreamResumeTokenRepository.deleteResumeToken(noteChangeStreamListenerUnderTest.getListenerName());
+
+        // ACT
+        awaitPreviousEventsProcessed();
+
+        // ASSERT
+        await(() -> changeStreamResumeTokenRepository.findResumeToken(noteChangeStreamListenerUnderTest.getListenerName()) != null);
+    }
+
+    /**
+     * Wait until the events of the writes made before are processed, the events being processed in order : the history of a fence patient
+     * is cached, then a note of this patient is inserted, and its history evicted once the event of the note is processed.
+     */
+    private void awaitPreviousEventsProcessed() {
+        notesByPatientIdCache.put(FENCE_PATIENT_ID, Collections.emptyList());
+        insertNoteAndAwait(FENCE_PATIENT_ID, () -> notesByPatientIdCache.get(FENCE_PATIENT_ID) == null);
+    }
+
+    private long insertNoteAndAwait(long patientId, BooleanSupplier condition) {
+        long start = System.nanoTime();
+        mongoTemplate.insert(newNote(patientId));
+        await(condition);
+        return System.nanoTime() - start;
+    }
+
+    private static Note newNote(long patientId) {
+        Note note = new Note("PatientLastName" + patientId, "PatientFirstName", "NoteText");
+        note.setPatientId(patientId);
+        return note;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met within " + TIMEOUT_MILLIS + " ms");
+            try {
+                Thread.sleep(5L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean isReplicaSet() {
+        return mongoTemplate.getDb().runCommand(new Document("isMaster", 1)).containsKey("setName");
+    }
+}
@@ -0,0 +1,333 @@
+package com.mediscreen.note.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mediscreen.note.domain.BulkItemResult;
+import com.mediscreen.note.domain.Note;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the NoteIngestionQueueImpl Class.
+ */
+@ExtendWith(MockitoExtension.class)
+public class NoteIngestionQueueTest {
+
+    private static final long TIMEOUT_MILLIS = 5000L;
+
+    @Mock
+    private INoteService mockNoteService;
+
+    @TempDir
+    Path directory;
+
+    private final List<NoteIngestionQueueImpl> queuesToStop = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        queuesToStop.forEach(NoteIngestionQueueImpl::stop);
+    }
+
+    @Test
+    public void append_thenInsertedInBulk() throws IOException {
+        // ARRANGE
+        doAnswer(invocation -> success(invocation.getArgument(0))).when(mockNoteService).insertAcceptedNotes(anyList());
+        NoteIngestionQueueImpl noteIngestionQueueUnderTest = newQueue(100L);
+        noteIngestionQueueUnderTest.open();
+
+        // ACT
+        for (int i = 0; i < 10; i++) {
+            noteIngestionQueueUnderTest.append(newNote("NoteText" + i));
+        }
+        noteIngestionQueueUnderTest.start();
+
+        // ASSERT
+        await(() -> noteIngestionQueueUnderTest.getDepth() == 0L);
+        verify(mockNoteService, times(1)).insertAcceptedNotes(argThat(notes -> notes.size() == 10 && notes.stream().allMatch(note -> note.getId() != null)));
+        assertEquals(0L, noteIngestionQueueUnderTest.getLagMillis());
+    }
+
+    @Test
+    public void open_replaysNotesNotInserted() throws IOException {
+        // ARRANGE
+        NoteIngestionQueueImpl previousQueue = newQueue(100L);
+        previousQueue.open();
+        Note noteAccepted1 = previousQueue.append(newNote("NoteText1"));
+        Note noteAccepted2 = previousQueue.append(newNote("NoteText2"));
+        // The previous run stops before the writer is started, as after a crash
+        previousQueue.stop();
+        doAnswer(invocation -> success(invocation.getArgument(0))).when(mockNoteService).insertAcceptedNotes(anyList());
+
+        // ACT
+        NoteIngestionQueueImpl noteIngestionQueueUnderTest = newQueue(100L);
+        noteIngestionQueueUnderTest.open();
+        noteIngestionQueueUnderTest.start();
+
+        // ASSERT
+        await(() -> noteIngestionQueueUnderTest.getDepth() == 0L);
+        verify(mockNoteService, times(1)).insertAcceptedNotes(argThat(notes -> notes.size() == 2
+                && noteAccepted1.getId().equals(notes.get(0).getId()) && "NoteText1".equals(notes.get(0).getNoteText())
+                && noteAccepted2.getId().equals(notes.get(1).getId()) && notes.get(1).getPatientId() == 1L));
+        await(() -> segmentFiles().isEmpty());
+    }
+
+    @Test
+    public void open_whenLastLineTorn() throws IOException {
+        // ARRANGE
+        NoteIngestionQueueImpl previousQueue = newQueue(100L);
+        previousQueue.open();
+        Note noteAccepted = previousQueue.append(newNote("NoteText1"));
+        previousQueue.stop();
+        Files.write(segmentFiles().get(0), "{\"acceptedAt\":1,\"note\":{\"patie".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        doAnswer(invocation -> success(invocation.getArgument(0))).when(mockNoteService).insertAcceptedNotes(anyList());
+
+        // ACT
+        NoteIngestionQueueImpl noteIngestionQueueUnderTest = newQueue(100L);
+        noteIngestionQueueUnderTest.open();
+        noteIngestionQueueUnderTest.start();
+
+        // ASSERT
+        await(() -> noteIngestionQueueUnderTest.getDepth() == 0L);
+        verify(mockNoteService, times(1)).insertAcceptedNotes(argThat(notes -> notes.size() == 1 && noteAccepted.getId().equals(notes.get(0).getId())));
+    }
+
+    @Test
+    public void append_whenQueueFull() throws IOException {
+        // ARRANGE
+        NoteIngestionQueueImpl noteIngestionQueueUnderTest = newQueue(1L);
+        noteIngestionQueueUnderTest.open();
+        noteIngestionQueueUnderTest.append(newNote("NoteText1"));
+
+        // ACT & ASSERT
+        assertThrows(RejectedExecutionException.class, () -> noteIngestionQueueUnderTest.append(newNote("NoteText2")));
+        assertEquals(1L, noteIngestionQueueUnderTest.getDepth());
+    }
+
+    @Test
+    public void append_whenInsertFails_thenRetried() throws IOException {
+        // ARRANGE
+        doThrow(new IllegalStateException("Database unavailable"))
+                .doAnswer(invocation -> success(invocation.getArgument(0)))
+                .when(mockNoteService).insertAcceptedNotes(anyList());
+        NoteIngestionQueueImpl noteIngestionQueueUnderTest = newQueue(100L);
+        noteIngestionQueueUnderTest.open();
+        noteIngestionQueueUnderTest.start();
+
+        // ACT
+        Note noteAccepted = noteIngestionQueueUnderTest.append(newNote("NoteText1"));
+
+        // ASSERT
+        assertNotNull(noteAccepted.getId());
+        await(() -> noteIngestionQueueUnderTest.getDepth() == 0L);
+        verify(mockNoteService, times(2)).insertAcceptedNotes(anyList());
+    }
+
+    @Test
+    public void append_whenWriteFailsPartway_thenPartialLineDiscarded() throws IOException {
+        // ARRANGE
+        NoteIngestionQueueImpl previousQueue = new NoteIngestionQueueImpl(mockNoteService, new ObjectMapper(), new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class),
+                true, directory.toString(), true, 1000, 50L, 100L, 1024L * 1024L, 10L, 1000L) {
+            @Override
+            FileChannel openChannel(Path path) throws IOException {
+                return new PartiallyFailingFileChannel(super.openChannel(path), 1);
+            }
+        };
+        queuesToStop.add(previousQueue);
+        previousQueue.open();
+        assertThrows(UncheckedIOException.class, () -> previousQueue.append(newNote("NoteText1")));
+        Note noteAccepted = previousQueue.append(newNote("NoteText2"));
+        previousQueue.stop();
+        doAnswer(invocation -> success(invocation.getArgument(0))).when(mockNoteService).insertAcceptedNotes(anyList());
+
+        // ACT
+        NoteIngestionQueueImpl noteIngestionQueueUnderTest = newQueue(100L);
+        noteIngestionQueueUnderTest.open();
+        noteIngestionQueueUnderTest.start();
+
+        // ASSERT
+        await(() -> noteIngestionQueueUnderTest.getDepth() == 0L);
+        verify(mockNoteService, times(1)).insertAcceptedNotes(argThat(notes -> notes.size() == 1
+                && noteAccepted.getId().equals(notes.get(0).getId()) && "NoteText2".equals(notes.get(0).getNoteText())));
+    }
+
+    private NoteIngestionQueueImpl newQueue(long maxPending) {
+        NoteIngestionQueueImpl queue = new NoteIngestionQueueImpl(mockNoteService, new ObjectMapper(), new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class),
+                true, directory.toString(), true, 1000, 50L, maxPending, 1024L * 1024L, 10L, 1000L);
+        queuesToStop.add(queue);
+        return queue;
+    }
+
+    private List<Path> segmentFiles() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Note newNote(String noteText) {
+        Note note = new Note("PatientLastName", "PatientFirstName", noteText);
+        note.setPatientId(1L);
+        return note;
+    }
+
+    private static List<BulkItemResult> success(List<Note> notes) {
+        List<BulkItemResult> results = new ArrayList<>();
+        for (int i = 0; i < notes.size(); i++) {
+            results.add(BulkItemResult.success(i, notes.get(i).getId(), notes.get(i).getPatientId()));
+        }
+        return results;
+    }
+
+    /**
+     * A channel writing half of the bytes given then failing, as when the disk gets full, for a number of writes.
+     */
+    private static final class PartiallyFailingFileChannel extends FileChannel {
+
+        private final FileChannel channel;
+
+        private int nbWritesFailing;
+
+        private PartiallyFailingFileChannel(FileChannel channel, int nbWritesFailing) {
+            this.channel = channel;
+            this.nbWritesFailing = nbWritesFailing;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (nbWritesFailing == 0) {
+                return channel.write(src);
+            }
+            nbWritesFailing--;
+            ByteBuffer half = src.duplicate();
+            half.limit(src.position() + src.remaining() / 2);
+            src.position(src.position() + channel.write(half));
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met within " + TIMEOUT_MILLIS + " ms");
+            try {
+                Thread.sleep(5L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
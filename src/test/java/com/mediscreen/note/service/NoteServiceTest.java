@@ -1,22 +1,43 @@
 package com.mediscreen.note.service;
 
+import com.mediscreen.note.domain.BulkItemResult;
 import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NotePage;
+import com.mediscreen.note.domain.NotePatch;
+import com.mediscreen.note.domain.NoteSummary;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.domain.TriggerTermCount;
 import com.mediscreen.note.exception.ResourceNotFoundException;
 import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.IReadPreferenceRouter;
 import com.mediscreen.note.repository.NoteRepository;
+import com.mediscreen.note.repository.ReadOperation;
+import com.mediscreen.note.repository.ReadPreferenceRouterImpl;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.test.context.ActiveProfiles;
 
+import javax.validation.Validation;
+import javax.validation.Validator;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 /**
@@ -35,6 +56,25 @@ public class NoteServiceTest {
     @Mock
     private INoteRepositoryCustom mockNoteRepositoryCustomImpl;
 
+    @Mock
+    private IPatientIdAllocator mockPatientIdAllocator;
+
+    @Mock
+    private IPatientHistoryInvalidator mockPatientHistoryInvalidator;
+
+    @Mock
+    private ITriggerTermRollupService mockTriggerTermRollupService;
+
+    @Mock
+    private IPatientDirectory mockPatientDirectory;
+
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+    // All the operations on the primary : the queries and the writes run directly
+    @Spy
+    private IReadPreferenceRouter readPreferenceRouter = new ReadPreferenceRouterImpl(null, Collections.emptyMap());
+
     @Test
     public void findNoteById_whenIdExist() {
         // ARRANGE
@@ -122,6 +162,112 @@ public class NoteServiceTest {
         assertEquals(notesToFind, notesFound);
     }
 
+    @Test
+    public void findPatientIdentityById_whenExist() {
+        // ARRANGE
+        PatientIdentity identityToFind = new PatientIdentity(1L, "PatientLastName", "PatientFirstName");
+        doReturn(identityToFind).when(mockPatientDirectory).findById(1L);
+
+        // ACT
+        PatientIdentity identityFound = noteServiceImplUnderTest.findPatientIdentityById(1L);
+
+        // ASSERT
+        verify(mockNoteRepository, never()).findByPatientId(anyLong());
+        assertEquals(identityToFind, identityFound);
+    }
+
+    @Test
+    public void findPatientIdentityById_whenNotExist() {
+        // ARRANGE
+        doReturn(null).when(mockPatientDirectory).findById(1L);
+
+        // ACT & ASSERT
+        assertThrows(ResourceNotFoundException.class, () -> {
+            noteServiceImplUnderTest.findPatientIdentityById(1L);
+        });
+    }
+
+    @Test
+    public void getOrCreatePatientIdentity() {
+        // ARRANGE
+        PatientIdentity identityToFind = new PatientIdentity(1L, "PatientLastName", "PatientFirstName");
+        doReturn(identityToFind).when(mockPatientDirectory).getOrCreate("PatientLastName", "PatientFirstName");
+
+        // ACT
+        PatientIdentity identityFound = noteServiceImplUnderTest.getOrCreatePatientIdentity("PatientLastName", "PatientFirstName");
+
+        // ASSERT
+        verify(mockNoteRepository, never()).findByPatientLastNameAndPatientFirstName(anyString(), anyString());
+        assertEquals(identityToFind, identityFound);
+    }
+
+    @Test
+    public void findNoteSummariesByPatientId_whenExist() {
+        // ARRANGE
+        List<NoteSummary> noteSummariesToFind = new ArrayList<>();
+        noteSummariesToFind.add(new NoteSummary("idNoteTest1", 1L, "PatientLastName", "PatientFirstName", "NoteText1"));
+        doReturn(noteSummariesToFind).when(mockNoteRepositoryCustomImpl).findNoteSummariesByPatientId(1L, 100);
+
+        // ACT
+        List<NoteSummary> noteSummariesFound = noteServiceImplUnderTest.findNoteSummariesByPatientId(1L, 100);
+
+        // ASSERT
+        verify(mockNoteRepositoryCustomImpl, times(1)).findNoteSummariesByPatientId(1L, 100);
+        assertEquals(noteSummariesToFind, noteSummariesFound);
+    }
+
+    @Test
+    public void findNoteSummariesByPatientId_whenNotExist() {
+        // ARRANGE
+        doReturn(new ArrayList<>()).when(mockNoteRepositoryCustomImpl).findNoteSummariesByPatientId(1L, 100);
+
+        // ACT & ASSERT
+        assertThrows(ResourceNotFoundException.class, () -> {
+            noteServiceImplUnderTest.findNoteSummariesByPatientId(1L, 100);
+        });
+    }
+
+    @Test
+    public void countTriggerTermsByPatientId_whenExist() {
+        // ARRANGE
+        List<String> terms = Collections.singletonList("Microalbumine");
+        TriggerTermCount triggerTermCountToFind = new TriggerTermCount(1L, Collections.singletonMap("Microalbumine", 2L), 1);
+        doReturn(Collections.singletonList(triggerTermCountToFind)).when(mockNoteRepositoryCustomImpl).countTriggerTerms(Collections.singletonList(1L), terms);
+
+        // ACT
+        TriggerTermCount triggerTermCountFound = noteServiceImplUnderTest.countTriggerTermsByPatientId(1L, terms);
+
+        // ASSERT
+        verify(mockNoteRepositoryCustomImpl, times(1)).countTriggerTerms(Collections.singletonList(1L), terms);
+        assertEquals(triggerTermCountToFind, triggerTermCountFound);
+    }
+
+    @Test
+    public void countTriggerTermsByPatientId_whenNotExist() {
+        // ARRANGE
+        List<String> terms = Collections.singletonList("Microalbumine");
+        doReturn(new ArrayList<>()).when(mockNoteRepositoryCustomImpl).countTriggerTerms(Collections.singletonList(1L), terms);
+
+        // ACT & ASSERT
+        assertThrows(ResourceNotFoundException.class, () -> {
+            noteServiceImplUnderTest.countTriggerTermsByPatientId(1L, terms);
+        });
+    }
+
+    @Test
+    public void getTriggerTermRollupByPatientId() {
+        // ARRANGE
+        TriggerTermCount triggerTermCountToFind = new TriggerTermCount(1L, Collections.singletonMap("Microalbumine", 2L), 1);
+        doReturn(triggerTermCountToFind).when(mockTriggerTermRollupService).getTriggerTermCounts(1L);
+
+        // ACT
+        TriggerTermCount triggerTermCountFound = noteServiceImplUnderTest.getTriggerTermRollupByPatientId(1L);
+
+        // ASSERT
+        verify(mockTriggerTermRollupService, times(1)).getTriggerTermCounts(1L);
+        assertEquals(triggerTermCountToFind, triggerTermCountFound);
+    }
+
     @Test
     public void findAllNotes() {
         // ARRANGE
@@ -147,20 +293,141 @@ public class NoteServiceTest {
         assertEquals(notesToFind, notesFound);
     }
 
+    @Test
+    public void findNotesPage_firstPage() {
+        // ARRANGE
+        List<Note> notesToFind = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Note note = new Note("PatientLastName", "PatientFirstName", "NoteText" + i);
+            note.setId("idNoteTest" + i);
+            notesToFind.add(note);
+        }
+        doReturn(notesToFind).when(mockNoteRepositoryCustomImpl).findNotesAfterId(null, 3);
+
+        // ACT
+        NotePage notePage = noteServiceImplUnderTest.findNotesPage(null, null, 2, null);
+
+        // ASSERT
+        assertEquals(2, notePage.getNotes().size());
+        assertEquals("idNoteTest2", notePage.getNextCursor());
+        assertNull(notePage.getPreviousCursor());
+    }
+
+    @Test
+    public void findNotesPage_previousPage() {
+        // ARRANGE
+        List<Note> notesToFind = new ArrayList<>();
+        for (int i = 3; i >= 1; i--) {
+            Note note = new Note("PatientLastName", "PatientFirstName", "NoteText" + i);
+            note.setId("idNoteTest" + i);
+            notesToFind.add(note);
+        }
+        doReturn(notesToFind).when(mockNoteRepositoryCustomImpl).findNotesBeforeId("idNoteTest4", 3);
+
+        // ACT
+        NotePage notePage = noteServiceImplUnderTest.findNotesPage(null, "idNoteTest4", 2, null);
+
+        // ASSERT
+        assertEquals(2, notePage.getNotes().size());
+        assertEquals("idNoteTest2", notePage.getNotes().get(0).getId());
+        assertEquals("idNoteTest3", notePage.getNextCursor());
+        assertEquals("idNoteTest2", notePage.getPreviousCursor());
+    }
+
+    @Test
+    public void findNotesPage_withReadAfterWriteToken() {
+        // ARRANGE
+        doReturn(new ArrayList<>()).when(mockNoteRepositoryCustomImpl).findNotesAfterId(null, 3);
+
+        // ACT
+        NotePage notePage = noteServiceImplUnderTest.findNotesPage(null, null, 2, "readAfterWriteToken");
+
+        // ASSERT
+        assertTrue(notePage.getNotes().isEmpty());
+        verify(readPreferenceRouter, times(1)).readAfterWrite(eq(ReadOperation.NOTE_LIST), eq("readAfterWriteToken"), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void exportNotes() {
+        // ARRANGE
+        Note noteToExport1 = new Note("PatientLastName", "PatientFirstName", "NoteText1");
+        Note noteToExport2 = new Note("PatientLastName", "PatientFirstName", "NoteText2");
+        CloseableIterator<Note> mockNotesIterator = mock(CloseableIterator.class);
+        doReturn(true, true, false).when(mockNotesIterator).hasNext();
+        doReturn(noteToExport1, noteToExport2).when(mockNotesIterator).next();
+        doReturn(mockNotesIterator).when(mockNoteRepositoryCustomImpl).streamNotes(1L, 10L);
+        List<Note> notesExported = new ArrayList<>();
+
+        // ACT
+        long nbNotesExported = noteServiceImplUnderTest.exportNotes(1L, 10L, notesExported::add);
+
+        // ASSERT
+        assertEquals(2L, nbNotesExported);
+        assertEquals(noteToExport1, notesExported.get(0));
+        assertEquals(noteToExport2, notesExported.get(1));
+        verify(mockNotesIterator, times(1)).close();
+    }
+
+    @Test
+    public void streamNotes() {
+        // ARRANGE
+        CloseableIterator<Note> mockNotesIterator = mock(CloseableIterator.class);
+        doReturn(mockNotesIterator).when(mockNoteRepositoryCustomImpl).streamNotes(1L, 10L);
+
+        // ACT
+        CloseableIterator<Note> notesStreamed = noteServiceImplUnderTest.streamNotes(1L, 10L);
+
+        // ASSERT
+        assertEquals(mockNotesIterator, notesStreamed);
+        verify(mockNoteRepositoryCustomImpl, times(1)).streamNotes(1L, 10L);
+    }
+
+    @Test
+    public void exportPatientHistories() {
+        // ARRANGE
+        Note noteToExport1 = new Note("PatientLastName1", "PatientFirstName1", "NoteText1");
+        Note noteToExport2 = new Note("PatientLastName2", "PatientFirstName2", "NoteText2");
+        CloseableIterator<Note> mockNotesIterator = mock(CloseableIterator.class);
+        doReturn(true, true, false).when(mockNotesIterator).hasNext();
+        doReturn(noteToExport1, noteToExport2).when(mockNotesIterator).next();
+        List<Long> patientIds = Arrays.asList(1L, 2L);
+        doReturn(mockNotesIterator).when(mockNoteRepositoryCustomImpl).streamNotesByPatientIds(patientIds);
+        List<Note> notesExported = new ArrayList<>();
+
+        // ACT
+        long nbNotesExported = noteServiceImplUnderTest.exportPatientHistories(patientIds, notesExported::add);
+
+        // ASSERT
+        assertEquals(2L, nbNotesExported);
+        assertEquals(noteToExport1, notesExported.get(0));
+        assertEquals(noteToExport2, notesExported.get(1));
+        verify(mockNotesIterator, times(1)).close();
+        verify(mockNoteRepository, never()).findByPatientId(anyLong());
+    }
+
     @Test
     public void updateNote_whenIdExist() {
         // ARRANGE
         Note noteToUpdate = new Note("PatientLastName", "PatientFirstName", "NoteText");
         noteToUpdate.setPatientId(1L);
         noteToUpdate.setId("5fa9cd63681c104404d45c23");
-        doReturn(Optional.of(noteToUpdate)).when(mockNoteRepository).findById("5fa9cd63681c104404d45c23");
-        doReturn(noteToUpdate).when(mockNoteRepository).save(noteToUpdate);
+        noteToUpdate.setVersion(3L);
+        Note previousNote = new Note("PatientLastName", "PatientFirstName", "PreviousNoteText");
+        previousNote.setPatientId(1L);
+        previousNote.setId("5fa9cd63681c104404d45c23");
+        previousNote.setVersion(3L);
+        doReturn(previousNote).when(mockNoteRepositoryCustomImpl).updateNoteIfVersionMatches(noteToUpdate);
 
         // ACT
         Note noteUpdated = noteServiceImplUnderTest.updateNote(noteToUpdate);
 
         // ASSERT
-        verify(mockNoteRepository, times(1)).save(noteToUpdate);
+        verify(mockNoteRepository, never()).findById(anyString());
+        verify(mockNoteRepository, never()).save(any(Note.class));
+        verify(mockTriggerTermRollupService, times(1)).replaceNote(previousNote, noteToUpdate);
+        assertEquals(4L, noteUpdated.getVersion());
+        verify(mockPatientDirectory, times(1)).register(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
         assertEquals(noteToUpdate, noteUpdated);
     }
 
@@ -176,6 +443,165 @@ public class NoteServiceTest {
         verify(mockNoteRepository, never()).save(any(Note.class));
     }
 
+    @Test
+    public void updateNote_whenVersionConflict() {
+        // ARRANGE
+        Note noteToUpdate = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        noteToUpdate.setPatientId(1L);
+        noteToUpdate.setId("5fa9cd63681c104404d45c23");
+        noteToUpdate.setVersion(3L);
+        doReturn(null).when(mockNoteRepositoryCustomImpl).updateNoteIfVersionMatches(noteToUpdate);
+        doReturn(true).when(mockNoteRepository).existsById("5fa9cd63681c104404d45c23");
+
+        // ACT & ASSERT
+        assertThrows(OptimisticLockingFailureException.class, () -> {
+            noteServiceImplUnderTest.updateNote(noteToUpdate);
+        });
+        verify(mockTriggerTermRollupService, never()).replaceNote(any(Note.class), any(Note.class));
+        verify(mockPatientHistoryInvalidator, never()).invalidate(any(Note.class));
+    }
+
+    @Test
+    public void updateNote_whenNoteNotExist() {
+        // ARRANGE
+        Note noteToUpdate = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        noteToUpdate.setPatientId(1L);
+        noteToUpdate.setId("5fa9cd63681c104404d45c23");
+        doReturn(null).when(mockNoteRepositoryCustomImpl).updateNoteIfVersionMatches(noteToUpdate);
+        doReturn(false).when(mockNoteRepository).existsById("5fa9cd63681c104404d45c23");
+
+        // ACT & ASSERT
+        assertThrows(ResourceNotFoundException.class, () -> {
+            noteServiceImplUnderTest.updateNote(noteToUpdate);
+        });
+        verify(mockTriggerTermRollupService, never()).replaceNote(any(Note.class), any(Note.class));
+    }
+
+    @Test
+    public void patchNote() {
+        // ARRANGE
+        Note previousNote = new Note("PatientLastNam", "PatientFirstName", "NoteText");
+        previousNote.setPatientId(1L);
+        previousNote.setId("5fa9cd63681c104404d45c23");
+        previousNote.setVersion(3L);
+        Map<String, Object> patch = Collections.singletonMap("patientLastName", "PatientLastName");
+        doReturn(previousNote).when(mockNoteRepositoryCustomImpl).patchNote("5fa9cd63681c104404d45c23", 3L, patch);
+
+        // ACT
+        Note notePatched = noteServiceImplUnderTest.patchNote("5fa9cd63681c104404d45c23", 3L, patch);
+
+        // ASSERT
+        assertEquals("PatientLastName", notePatched.getPatientLastName());
+        assertEquals("NoteText", notePatched.getNoteText());
+        assertEquals(Long.valueOf(4L), notePatched.getVersion());
+        verify(mockNoteRepository, never()).save(any(Note.class));
+        verify(mockTriggerTermRollupService, times(1)).replaceNote(previousNote, notePatched);
+        verify(mockPatientDirectory, times(1)).register(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+    }
+
+    @Test
+    public void patchNote_whenPatchNotValid() {
+        // ARRANGE
+        Map<String, Object> patch = new HashMap<>();
+        patch.put("noteText", " ");
+        patch.put("patientFirstName", null);
+        patch.put("id", "otherId");
+
+        // ACT & ASSERT
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> {
+            noteServiceImplUnderTest.patchNote("5fa9cd63681c104404d45c23", null, patch);
+        });
+        assertTrue(exception.getMessage().contains("Note text is mandatory"));
+        assertTrue(exception.getMessage().contains("PatientFirstName is mandatory"));
+        assertTrue(exception.getMessage().contains("Field id can not be patched"));
+        verify(mockNoteRepositoryCustomImpl, never()).patchNote(anyString(), any(), anyMap());
+    }
+
+    @Test
+    public void patchNote_whenVersionConflict() {
+        // ARRANGE
+        Map<String, Object> patch = Collections.singletonMap("noteText", "NoteTextPatched");
+        doReturn(null).when(mockNoteRepositoryCustomImpl).patchNote("5fa9cd63681c104404d45c23", 3L, patch);
+        doReturn(true).when(mockNoteRepository).existsById("5fa9cd63681c104404d45c23");
+
+        // ACT & ASSERT
+        assertThrows(OptimisticLockingFailureException.class, () -> {
+            noteServiceImplUnderTest.patchNote("5fa9cd63681c104404d45c23", 3L, patch);
+        });
+    }
+
+    @Test
+    public void patchNote_whenNoteNotExist() {
+        // ARRANGE
+        Map<String, Object> patch = Collections.singletonMap("noteText", "NoteTextPatched");
+        doReturn(null).when(mockNoteRepositoryCustomImpl).patchNote("5fa9cd63681c104404d45c23", null, patch);
+
+        // ACT & ASSERT
+        assertThrows(ResourceNotFoundException.class, () -> {
+            noteServiceImplUnderTest.patchNote("5fa9cd63681c104404d45c23", null, patch);
+        });
+        verify(mockNoteRepository, never()).existsById(anyString());
+    }
+
+    @Test
+    public void patchNotes() {
+        // ARRANGE
+        Note note1 = new Note("PatientLastName", "PatientFirstName", "NoteText1");
+        note1.setPatientId(1L);
+        note1.setId("id1");
+        Note note2 = new Note("PatientLastName", "PatientFirstName", "NoteText2");
+        note2.setPatientId(1L);
+        note2.setId("id2");
+        note2.setVersion(5L);
+        List<NotePatch> notePatches = new ArrayList<>();
+        notePatches.add(new NotePatch("id1", null, Collections.singletonMap("noteText", "NoteText1Patched")));
+        notePatches.add(new NotePatch("id2", 4L, Collections.singletonMap("noteText", "NoteText2Patched")));
+        notePatches.add(new NotePatch("id3", null, Collections.singletonMap("noteText", "NoteText3Patched")));
+        notePatches.add(new NotePatch("id1", null, Collections.singletonMap("noteText", "NoteText1PatchedTwice")));
+        notePatches.add(new NotePatch("id4", null, Collections.singletonMap("noteText", "")));
+        doReturn(Arrays.asList(note1, note2)).when(mockNoteRepositoryCustomImpl).findNotesByIds(anyCollection());
+        doReturn(1L).when(mockNoteRepositoryCustomImpl).patchNotesIfVersionsMatch(anyList());
+
+        // ACT
+        List<BulkItemResult> results = noteServiceImplUnderTest.patchNotes(notePatches);
+
+        // ASSERT
+        verify(mockNoteRepositoryCustomImpl, times(1)).findNotesByIds(anyCollection());
+        verify(mockNoteRepositoryCustomImpl, times(1)).patchNotesIfVersionsMatch(argThat(patches -> patches.size() == 1
+                && "id1".equals(patches.get(0).getId()) && patches.get(0).getVersion() == null));
+        verify(mockTriggerTermRollupService, times(1)).replaceNote(any(Note.class), any(Note.class));
+        assertEquals(5, results.size());
+        assertEquals(BulkItemResult.STATUS_SUCCESS, results.get(0).getStatus());
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(1).getStatus());
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(2).getStatus());
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(3).getStatus());
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(4).getStatus());
+    }
+
+    @Test
+    public void patchNotes_whenNoteUpdatedConcurrently() {
+        // ARRANGE
+        Note note = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        note.setPatientId(1L);
+        note.setId("id1");
+        note.setVersion(1L);
+        Note noteUpdatedConcurrently = new Note("PatientLastName", "PatientFirstName", "NoteTextUpdatedConcurrently");
+        noteUpdatedConcurrently.setPatientId(1L);
+        noteUpdatedConcurrently.setId("id1");
+        noteUpdatedConcurrently.setVersion(2L);
+        doReturn(Collections.singletonList(note), Collections.singletonList(noteUpdatedConcurrently)).when(mockNoteRepositoryCustomImpl).findNotesByIds(anyCollection());
+        doReturn(0L).when(mockNoteRepositoryCustomImpl).patchNotesIfVersionsMatch(anyList());
+
+        // ACT
+        List<BulkItemResult> results = noteServiceImplUnderTest.patchNotes(
+                Collections.singletonList(new NotePatch("id1", null, Collections.singletonMap("noteText", "NoteTextPatched"))));
+
+        // ASSERT
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(0).getStatus());
+        verify(mockNoteRepositoryCustomImpl, times(2)).findNotesByIds(anyCollection());
+        verify(mockTriggerTermRollupService, never()).replaceNote(any(Note.class), any(Note.class));
+    }
+
     @Test
     public void createNote() {
         // ARRANGE
@@ -187,9 +613,153 @@ public class NoteServiceTest {
 
         // ASSERT
         verify(mockNoteRepository, times(1)).save(noteToCreate);
+        verify(mockTriggerTermRollupService, times(1)).addNotes(Collections.singletonList(noteToCreate));
+        verify(mockPatientDirectory, times(1)).register(Collections.singletonList(new PatientIdentity(0L, "PatientLastName", "PatientFirstName")));
         assertEquals(noteToCreate, noteCreated);
     }
 
+    @Test
+    public void createNote_invalidatePatientHistory() {
+        // ARRANGE
+        Note noteToCreate = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        noteToCreate.setPatientId(1L);
+        doReturn(noteToCreate).when(mockNoteRepository).save(noteToCreate);
+
+        // ACT
+        noteServiceImplUnderTest.createNote(noteToCreate);
+
+        // ASSERT
+        verify(mockPatientHistoryInvalidator, times(1)).invalidate(noteToCreate);
+    }
+
+    @Test
+    public void updateNote_invalidatePreviousAndNewPatientHistories() {
+        // ARRANGE
+        Note previousNote = new Note("PreviousPatientLastName", "PreviousPatientFirstName", "NoteText");
+        previousNote.setPatientId(1L);
+        previousNote.setId("5fa9cd63681c104404d45c23");
+        Note noteToUpdate = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        noteToUpdate.setPatientId(2L);
+        noteToUpdate.setId("5fa9cd63681c104404d45c23");
+        doReturn(previousNote).when(mockNoteRepositoryCustomImpl).updateNoteIfVersionMatches(noteToUpdate);
+
+        // ACT
+        noteServiceImplUnderTest.updateNote(noteToUpdate);
+
+        // ASSERT
+        verify(mockPatientHistoryInvalidator, times(1)).invalidate(previousNote);
+        verify(mockPatientHistoryInvalidator, times(1)).invalidate(noteToUpdate);
+    }
+
+    @Test
+    public void createNotes() {
+        // ARRANGE
+        Note noteExistingPatientById = new Note(null, null, "NoteText1");
+        noteExistingPatientById.setPatientId(1L);
+        Note noteExistingPatientByName = new Note("PatientLastName", "PatientFirstName", "NoteText2");
+        Note noteNewPatient1 = new Note("NewPatientLastName", "NewPatientFirstName", "NoteText3");
+        Note noteNewPatient2 = new Note("NewPatientLastName", "NewPatientFirstName", "NoteText4");
+        Note noteWithoutText = new Note("PatientLastName", "PatientFirstName", "");
+        Note noteUnknownPatientId = new Note(null, null, "NoteText5");
+        noteUnknownPatientId.setPatientId(9L);
+        List<Note> notesToCreate = new ArrayList<>();
+        notesToCreate.add(noteExistingPatientById);
+        notesToCreate.add(noteExistingPatientByName);
+        notesToCreate.add(noteNewPatient1);
+        notesToCreate.add(noteNewPatient2);
+        notesToCreate.add(noteWithoutText);
+        notesToCreate.add(noteUnknownPatientId);
+
+        List<PatientIdentity> identities = new ArrayList<>();
+        identities.add(new PatientIdentity(1L, "PatientLastName", "PatientFirstName"));
+        doReturn(identities).when(mockPatientDirectory).findIdentities(anyCollection(), anyCollection());
+        doReturn(Collections.singletonList(new PatientIdentity(2L, "NewPatientLastName", "NewPatientFirstName"))).when(mockPatientDirectory).createIdentities(anyCollection());
+        Map<Integer, String> insertErrors = new HashMap<>();
+        doReturn(insertErrors).when(mockNoteRepositoryCustomImpl).insertNotes(anyList());
+
+        // ACT
+        List<BulkItemResult> results = noteServiceImplUnderTest.createNotes(notesToCreate);
+
+        // ASSERT
+        verify(mockPatientDirectory, times(1)).findIdentities(anyCollection(), anyCollection());
+        verify(mockNoteRepositoryCustomImpl, times(1)).insertNotes(argThat(notes -> notes.size() == 4));
+        verify(mockTriggerTermRollupService, times(1)).addNotes(argThat(notes -> notes.size() == 4));
+        verify(mockPatientDirectory, times(1)).createIdentities(argThat(patientNames -> patientNames.size() == 1));
+        assertEquals(6, results.size());
+        assertEquals(BulkItemResult.STATUS_SUCCESS, results.get(0).getStatus());
+        assertEquals("PatientLastName", noteExistingPatientById.getPatientLastName());
+        assertEquals(1L, results.get(1).getPatientId());
+        assertEquals(2L, results.get(2).getPatientId());
+        assertEquals(2L, results.get(3).getPatientId());
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(4).getStatus());
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(5).getStatus());
+    }
+
+    @Test
+    public void createNotes_whenInsertError() {
+        // ARRANGE
+        Note noteToCreate = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        List<PatientIdentity> identities = new ArrayList<>();
+        identities.add(new PatientIdentity(1L, "PatientLastName", "PatientFirstName"));
+        doReturn(identities).when(mockPatientDirectory).findIdentities(anyCollection(), anyCollection());
+        doReturn(Collections.singletonMap(0, "Insert error")).when(mockNoteRepositoryCustomImpl).insertNotes(anyList());
+
+        // ACT
+        List<BulkItemResult> results = noteServiceImplUnderTest.createNotes(Collections.singletonList(noteToCreate));
+
+        // ASSERT
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(0).getStatus());
+        assertEquals("Insert error", results.get(0).getError());
+        verify(mockTriggerTermRollupService, times(1)).addNotes(Collections.emptyList());
+        verify(mockPatientHistoryInvalidator, never()).invalidate(any(Note.class));
+    }
+
+    @Test
+    public void insertAcceptedNotes() {
+        // ARRANGE
+        Note noteNew = new Note("PatientLastName", "PatientFirstName", "NoteText1");
+        noteNew.setId("5fa9cd63681c104404d45c23");
+        noteNew.setPatientId(1L);
+        Note noteAlreadyInserted = new Note("PatientLastName", "PatientFirstName", "NoteText2");
+        noteAlreadyInserted.setId("5fa9cd63681c104404d45c24");
+        noteAlreadyInserted.setPatientId(1L);
+        Note noteRejected = new Note("PatientLastName", "PatientFirstName", "NoteText3");
+        noteRejected.setId("5fa9cd63681c104404d45c25");
+        noteRejected.setPatientId(1L);
+        Map<Integer, String> insertErrors = new HashMap<>();
+        insertErrors.put(1, INoteRepositoryCustom.NOTE_ALREADY_INSERTED);
+        insertErrors.put(2, "Insert error");
+        doReturn(insertErrors).when(mockNoteRepositoryCustomImpl).insertNotesIfAbsent(anyList());
+
+        // ACT
+        List<BulkItemResult> results = noteServiceImplUnderTest.insertAcceptedNotes(Arrays.asList(noteNew, noteAlreadyInserted, noteRejected));
+
+        // ASSERT
+        assertEquals(BulkItemResult.STATUS_SUCCESS, results.get(0).getStatus());
+        assertEquals(BulkItemResult.STATUS_SUCCESS, results.get(1).getStatus());
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(2).getStatus());
+        verify(mockNoteRepositoryCustomImpl, never()).insertNotes(anyList());
+        verify(mockTriggerTermRollupService, times(1)).addNotes(Collections.singletonList(noteNew));
+        verify(mockPatientDirectory, times(1)).register(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+    }
+
+    @Test
+    public void insertAcceptedNotes_whenInsertError() {
+        // ARRANGE
+        Note noteRejected = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        noteRejected.setId("5fa9cd63681c104404d45c25");
+        noteRejected.setPatientId(1L);
+        doReturn(Collections.singletonMap(0, "Insert error")).when(mockNoteRepositoryCustomImpl).insertNotesIfAbsent(anyList());
+
+        // ACT
+        List<BulkItemResult> results = noteServiceImplUnderTest.insertAcceptedNotes(Collections.singletonList(noteRejected));
+
+        // ASSERT
+        assertEquals(BulkItemResult.STATUS_ERROR, results.get(0).getStatus());
+        verify(mockPatientHistoryInvalidator, never()).invalidate(any(Note.class));
+        verify(mockPatientDirectory, times(1)).register(Collections.emptyList());
+    }
+
     @Test
     public void getMaxPatientId() {
         // ARRANGE
@@ -202,4 +772,17 @@ public class NoteServiceTest {
         verify(mockNoteRepositoryCustomImpl, times(1)).findMaxPatientId();
         assertEquals(1L, maxPatientIdFound);
     }
+
+    @Test
+    public void getNextPatientId() {
+        // ARRANGE
+        doReturn(2L).when(mockPatientIdAllocator).nextPatientId();
+
+        // ACT
+        long nextPatientId = noteServiceImplUnderTest.getNextPatientId();
+
+        // ASSERT
+        verify(mockPatientIdAllocator, times(1)).nextPatientId();
+        assertEquals(2L, nextPatientId);
+    }
 }
@@ -0,0 +1,227 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.IPatientIdentityRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the PatientDirectoryImpl Class.
+ */
+@ActiveProfiles("test")
+@ExtendWith(MockitoExtension.class)
+public class PatientDirectoryTest {
+
+    private PatientDirectoryImpl patientDirectoryImplUnderTest;
+
+    @Mock
+    private IPatientIdentityRepository mockPatientIdentityRepository;
+
+    @Mock
+    private INoteRepositoryCustom mockNoteRepositoryCustomImpl;
+
+    @Mock
+    private IPatientIdAllocator mockPatientIdAllocator;
+
+    @BeforeEach
+    public void setup() {
+        patientDirectoryImplUnderTest = new PatientDirectoryImpl(mockPatientIdentityRepository, mockNoteRepositoryCustomImpl, mockPatientIdAllocator, false);
+    }
+
+    @Test
+    public void load_whenIdentitiesExist() {
+        // ARRANGE
+        PatientIdentity identity = new PatientIdentity(1L, "PatientLastName", "PatientFirstName");
+        doReturn(true).when(mockPatientIdentityRepository).existsIdentity();
+        doReturn(closeableIterator(Collections.singletonList(identity))).when(mockPatientIdentityRepository).streamIdentities();
+
+        // ACT
+        patientDirectoryImplUnderTest.load();
+
+        // ASSERT
+        assertEquals(identity, patientDirectoryImplUnderTest.findById(1L));
+        assertEquals(identity, patientDirectoryImplUnderTest.findByName("PatientLastName", "PatientFirstName"));
+        verify(mockNoteRepositoryCustomImpl, never()).findAllPatientIdentities();
+        verify(mockPatientIdentityRepository, never()).findIdentities(anyCollection(), anyCollection());
+    }
+
+    @Test
+    public void load_whenNoIdentityExist() {
+        // ARRANGE
+        List<PatientIdentity> identities = Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName"));
+        doReturn(false).when(mockPatientIdentityRepository).existsIdentity();
+        doReturn(identities).when(mockNoteRepositoryCustomImpl).findAllPatientIdentities();
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).saveIdentities(identities);
+        doReturn(closeableIterator(identities)).when(mockPatientIdentityRepository).streamIdentities();
+
+        // ACT
+        patientDirectoryImplUnderTest.load();
+
+        // ASSERT
+        verify(mockPatientIdentityRepository, times(1)).saveIdentities(identities);
+        assertEquals(1L, patientDirectoryImplUnderTest.findByName("PatientLastName", "PatientFirstName").getPatientId());
+    }
+
+    @Test
+    public void findById_whenNotIndexedAndInIdentityCollection() {
+        // ARRANGE
+        PatientIdentity identity = new PatientIdentity(1L, "PatientLastName", "PatientFirstName");
+        doReturn(Collections.singletonList(identity)).when(mockPatientIdentityRepository).findIdentities(Collections.singleton(1L), Collections.emptySet());
+
+        // ACT
+        PatientIdentity identityFound = patientDirectoryImplUnderTest.findById(1L);
+        PatientIdentity identityFoundAgain = patientDirectoryImplUnderTest.findById(1L);
+
+        // ASSERT
+        assertEquals(identity, identityFound);
+        assertEquals(identity, identityFoundAgain);
+        verify(mockPatientIdentityRepository, times(1)).findIdentities(anyCollection(), anyCollection());
+        verify(mockNoteRepositoryCustomImpl, never()).findPatientIdentities(anyCollection(), anyCollection());
+    }
+
+    @Test
+    public void evict() {
+        // ARRANGE
+        PatientIdentity identity = new PatientIdentity(1L, "PatientLastName", "PatientFirstName");
+        PatientIdentity identityRenamed = new PatientIdentity(1L, "PatientLastNameRenamed", "PatientFirstName");
+        doReturn(Collections.singletonList(identity), Collections.singletonList(identityRenamed))
+                .when(mockPatientIdentityRepository).findIdentities(Collections.singleton(1L), Collections.emptySet());
+        patientDirectoryImplUnderTest.findById(1L);
+
+        // ACT
+        patientDirectoryImplUnderTest.evict(1L);
+
+        // ASSERT
+        assertEquals(identityRenamed, patientDirectoryImplUnderTest.findById(1L));
+        verify(mockPatientIdentityRepository, times(2)).findIdentities(anyCollection(), anyCollection());
+    }
+
+    @Test
+    public void findById_whenOnlyInNotes() {
+        // ARRANGE
+        PatientIdentity identity = new PatientIdentity(1L, "PatientLastName", "PatientFirstName");
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).findIdentities(anyCollection(), anyCollection());
+        doReturn(Collections.singletonList(identity)).when(mockNoteRepositoryCustomImpl).findPatientIdentities(Collections.singleton(1L), Collections.emptySet());
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).saveIdentities(Collections.singletonList(identity));
+
+        // ACT
+        PatientIdentity identityFound = patientDirectoryImplUnderTest.findById(1L);
+
+        // ASSERT
+        assertEquals(identity, identityFound);
+        verify(mockPatientIdentityRepository, times(1)).saveIdentities(Collections.singletonList(identity));
+        assertEquals(identity, patientDirectoryImplUnderTest.findByName("PatientLastName", "PatientFirstName"));
+    }
+
+    @Test
+    public void findById_whenNotExist() {
+        // ARRANGE
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).findIdentities(anyCollection(), anyCollection());
+        doReturn(new ArrayList<>()).when(mockNoteRepositoryCustomImpl).findPatientIdentities(anyCollection(), anyCollection());
+
+        // ACT
+        PatientIdentity identityFound = patientDirectoryImplUnderTest.findById(1L);
+
+        // ASSERT
+        assertNull(identityFound);
+    }
+
+    @Test
+    public void getOrCreate_whenNewPatient() {
+        // ARRANGE
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).findIdentities(anyCollection(), anyCollection());
+        doReturn(new ArrayList<>()).when(mockNoteRepositoryCustomImpl).findPatientIdentities(anyCollection(), anyCollection());
+        doReturn(2L).when(mockPatientIdAllocator).nextPatientId();
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).saveIdentities(anyList());
+
+        // ACT
+        PatientIdentity identityCreated = patientDirectoryImplUnderTest.getOrCreate("NewPatientLastName", "NewPatientFirstName");
+
+        // ASSERT
+        assertEquals(new PatientIdentity(2L, "NewPatientLastName", "NewPatientFirstName"), identityCreated);
+        verify(mockPatientIdentityRepository, times(1)).saveIdentities(Collections.singletonList(identityCreated));
+        assertEquals(identityCreated, patientDirectoryImplUnderTest.findById(2L));
+    }
+
+    @Test
+    public void createIdentities_whenPatientCreatedMeanwhile() {
+        // ARRANGE
+        PatientIdentity identityNotSaved = new PatientIdentity(2L, "NewPatientLastName", "NewPatientFirstName");
+        PatientIdentity identityCreatedMeanwhile = new PatientIdentity(3L, "NewPatientLastName", "NewPatientFirstName");
+        doReturn(2L).when(mockPatientIdAllocator).nextPatientId();
+        doReturn(Collections.singletonList(identityNotSaved)).when(mockPatientIdentityRepository).saveIdentities(anyList());
+        doReturn(Collections.singletonList(identityCreatedMeanwhile)).when(mockPatientIdentityRepository).findIdentities(Collections.emptyList(), Collections.singletonList(identityNotSaved));
+
+        // ACT
+        List<PatientIdentity> identities = patientDirectoryImplUnderTest.createIdentities(Collections.singletonList(new PatientIdentity(0L, "NewPatientLastName", "NewPatientFirstName")));
+
+        // ASSERT
+        assertEquals(Collections.singletonList(identityCreatedMeanwhile), identities);
+        assertEquals(identityCreatedMeanwhile, patientDirectoryImplUnderTest.findByName("NewPatientLastName", "NewPatientFirstName"));
+    }
+
+    @Test
+    public void register_whenAlreadyIndexed() {
+        // ARRANGE
+        PatientIdentity identity = new PatientIdentity(1L, "PatientLastName", "PatientFirstName");
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).saveIdentities(anyList());
+        patientDirectoryImplUnderTest.register(Collections.singletonList(identity));
+
+        // ACT
+        patientDirectoryImplUnderTest.register(Arrays.asList(identity, identity));
+
+        // ASSERT
+        verify(mockPatientIdentityRepository, times(1)).saveIdentities(anyList());
+    }
+
+    @Test
+    public void register_whenPatientRenamed() {
+        // ARRANGE
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).saveIdentities(anyList());
+        patientDirectoryImplUnderTest.register(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+        doReturn(new ArrayList<>()).when(mockNoteRepositoryCustomImpl).findPatientIdentities(anyCollection(), anyCollection());
+        doReturn(new ArrayList<>()).when(mockPatientIdentityRepository).findIdentities(anyCollection(), anyCollection());
+
+        // ACT
+        patientDirectoryImplUnderTest.register(Collections.singletonList(new PatientIdentity(1L, "NewPatientLastName", "PatientFirstName")));
+
+        // ASSERT
+        assertEquals("NewPatientLastName", patientDirectoryImplUnderTest.findById(1L).getPatientLastName());
+        assertNull(patientDirectoryImplUnderTest.findByName("PatientLastName", "PatientFirstName"));
+    }
+
+    private static CloseableIterator<PatientIdentity> closeableIterator(List<PatientIdentity> identities) {
+        Iterator<PatientIdentity> iterator = identities.iterator();
+        return new CloseableIterator<PatientIdentity>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public PatientIdentity next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.configuration.CacheConfiguration;
+import com.mediscreen.note.domain.Note;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.interceptor.SimpleKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the PatientHistoryInvalidatorImpl Class.
+ */
+@ExtendWith(MockitoExtension.class)
+public class PatientHistoryInvalidatorTest {
+
+    @InjectMocks
+    private PatientHistoryInvalidatorImpl patientHistoryInvalidatorUnderTest;
+
+    @Mock
+    private CacheManager mockCacheManager;
+
+    @Mock
+    private IPatientHistoryResponseCache mockPatientHistoryResponseCache;
+
+    @Mock
+    private Cache mockNotesByPatientIdCache;
+
+    @Mock
+    private Cache mockNotesByPatientNameCache;
+
+    @Test
+    public void invalidate() {
+        // ARRANGE
+        Note note = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        note.setPatientId(1L);
+        doReturn(mockNotesByPatientIdCache).when(mockCacheManager).getCache(CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE);
+        doReturn(mockNotesByPatientNameCache).when(mockCacheManager).getCache(CacheConfiguration.NOTES_BY_PATIENT_NAME_CACHE);
+
+        // ACT
+        patientHistoryInvalidatorUnderTest.invalidate(note);
+
+        // ASSERT
+        verify(mockNotesByPatientIdCache, times(1)).evict(1L);
+        verify(mockNotesByPatientNameCache, times(1)).evict(new SimpleKey("PatientLastName", "PatientFirstName"));
+        verify(mockPatientHistoryResponseCache, times(1)).invalidate(note);
+    }
+
+    @Test
+    public void invalidate_evictNotesBeforeChangingEntityTag() {
+        // ARRANGE
+        Note note = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        note.setPatientId(1L);
+        Cache notesByPatientIdCache = new ConcurrentMapCache(CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE);
+        Cache notesByPatientNameCache = new ConcurrentMapCache(CacheConfiguration.NOTES_BY_PATIENT_NAME_CACHE);
+        notesByPatientIdCache.put(1L, Collections.emptyList());
+        notesByPatientNameCache.put(new SimpleKey("PatientLastName", "PatientFirstName"), Collections.emptyList());
+        doReturn(notesByPatientIdCache).when(mockCacheManager).getCache(CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE);
+        doReturn(notesByPatientNameCache).when(mockCacheManager).getCache(CacheConfiguration.NOTES_BY_PATIENT_NAME_CACHE);
+        // A history read concurrently with the new entity tag must not find the notes cached before the write
+        List<Object> notesReadWithNewEntityTag = new ArrayList<>();
+        doAnswer(invocation -> {
+            notesReadWithNewEntityTag.add(notesByPatientIdCache.get(1L));
+            notesReadWithNewEntityTag.add(notesByPatientNameCache.get(new SimpleKey("PatientLastName", "PatientFirstName")));
+            return null;
+        }).when(mockPatientHistoryResponseCache).invalidate(note);
+
+        // ACT
+        patientHistoryInvalidatorUnderTest.invalidate(note);
+
+        // ASSERT
+        verify(mockPatientHistoryResponseCache, times(1)).invalidate(note);
+        assertEquals(Arrays.asList(null, null), notesReadWithNewEntityTag);
+    }
+
+    @Test
+    public void invalidateAll() {
+        // ARRANGE
+        doReturn(mockNotesByPatientIdCache).when(mockCacheManager).getCache(CacheConfiguration.NOTES_BY_PATIENT_ID_CACHE);
+        doReturn(mockNotesByPatientNameCache).when(mockCacheManager).getCache(CacheConfiguration.NOTES_BY_PATIENT_NAME_CACHE);
+
+        // ACT
+        patientHistoryInvalidatorUnderTest.invalidateAll();
+
+        // ASSERT
+        verify(mockNotesByPatientIdCache, times(1)).clear();
+        verify(mockNotesByPatientNameCache, times(1)).clear();
+        verify(mockPatientHistoryResponseCache, times(1)).invalidateAll();
+    }
+}
@@ -0,0 +1,100 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including unit tests for the PatientHistoryResponseCacheImpl Class.
+ */
+public class PatientHistoryResponseCacheTest {
+
+    private PatientHistoryResponseCacheImpl patientHistoryResponseCacheUnderTest;
+
+    @BeforeEach
+    public void setup() {
+        patientHistoryResponseCacheUnderTest = new PatientHistoryResponseCacheImpl(1000L, 1024L * 1024L, new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+    }
+
+    @Test
+    public void getETagByPatientId() {
+        // ACT
+        String eTag = patientHistoryResponseCacheUnderTest.getETagByPatientId(1L);
+
+        // ASSERT
+        assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""));
+        assertEquals(eTag, patientHistoryResponseCacheUnderTest.getETagByPatientId(1L));
+        assertNotEquals(eTag, patientHistoryResponseCacheUnderTest.getETagByPatientId(2L));
+    }
+
+    @Test
+    public void getResponseByPatientId_whenCached() {
+        // ARRANGE
+        AtomicInteger nbLoads = new AtomicInteger();
+        String eTag = patientHistoryResponseCacheUnderTest.getETagByPatientId(1L);
+
+        // ACT
+        patientHistoryResponseCacheUnderTest.getResponseByPatientId(1L, eTag, () -> load(nbLoads, "[]"));
+        byte[] response = patientHistoryResponseCacheUnderTest.getResponseByPatientId(1L, eTag, () -> load(nbLoads, "[]"));
+
+        // ASSERT
+        assertEquals(1, nbLoads.get());
+        assertArrayEquals("[]".getBytes(StandardCharsets.UTF_8), response);
+    }
+
+    @Test
+    public void invalidate() {
+        // ARRANGE
+        AtomicInteger nbLoads = new AtomicInteger();
+        Note note = new Note("PatientLastName", "PatientFirstName", "NoteText");
+        note.setPatientId(1L);
+        String eTagById = patientHistoryResponseCacheUnderTest.getETagByPatientId(1L);
+        String eTagByName = patientHistoryResponseCacheUnderTest.getETagByPatientName("PatientLastName", "PatientFirstName");
+        patientHistoryResponseCacheUnderTest.getResponseByPatientId(1L, eTagById, () -> load(nbLoads, "[]"));
+
+        // ACT
+        patientHistoryResponseCacheUnderTest.invalidate(note);
+
+        // ASSERT
+        String newETagById = patientHistoryResponseCacheUnderTest.getETagByPatientId(1L);
+        assertNotEquals(eTagById, newETagById);
+        assertNotEquals(eTagByName, patientHistoryResponseCacheUnderTest.getETagByPatientName("PatientLastName", "PatientFirstName"));
+        byte[] response = patientHistoryResponseCacheUnderTest.getResponseByPatientId(1L, newETagById, () -> load(nbLoads, "[{}]"));
+        assertEquals(2, nbLoads.get());
+        assertArrayEquals("[{}]".getBytes(StandardCharsets.UTF_8), response);
+    }
+
+    @Test
+    public void invalidateAll() {
+        // ARRANGE
+        AtomicInteger nbLoads = new AtomicInteger();
+        String eTagById = patientHistoryResponseCacheUnderTest.getETagByPatientId(1L);
+        String eTagByName = patientHistoryResponseCacheUnderTest.getETagByPatientName("PatientLastName", "PatientFirstName");
+        patientHistoryResponseCacheUnderTest.getResponseByPatientId(1L, eTagById, () -> load(nbLoads, "[]"));
+
+        // ACT
+        patientHistoryResponseCacheUnderTest.invalidateAll();
+
+        // ASSERT
+        String newETagById = patientHistoryResponseCacheUnderTest.getETagByPatientId(1L);
+        assertNotEquals(eTagById, newETagById);
+        assertNotEquals(eTagByName, patientHistoryResponseCacheUnderTest.getETagByPatientName("PatientLastName", "PatientFirstName"));
+        patientHistoryResponseCacheUnderTest.getResponseByPatientId(1L, newETagById, () -> load(nbLoads, "[{}]"));
+        assertEquals(2, nbLoads.get());
+    }
+
+    private static byte[] load(AtomicInteger nbLoads, String response) {
+        nbLoads.incrementAndGet();
+        return response.getBytes(StandardCharsets.UTF_8);
+    }
+}
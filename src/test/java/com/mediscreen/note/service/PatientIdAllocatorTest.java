@@ -0,0 +1,131 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.ISequenceRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the PatientIdAllocatorImpl Class.
+ */
+@ActiveProfiles("test")
+@ExtendWith(MockitoExtension.class)
+public class PatientIdAllocatorTest {
+
+    @Mock
+    private ISequenceRepository mockSequenceRepository;
+
+    @Mock
+    private INoteRepositoryCustom mockNoteRepositoryCustom;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private void stubSequence() {
+        doAnswer(invocation -> {
+            long minimumValue = invocation.getArgument(1);
+            sequence.accumulateAndGet(minimumValue, Math::max);
+            return null;
+        }).when(mockSequenceRepository).ensureSequenceAtLeast(eq(PatientIdAllocatorImpl.PATIENT_ID_SEQUENCE), anyLong());
+        doAnswer(invocation -> sequence.addAndGet(invocation.getArgument(1)))
+                .when(mockSequenceRepository).incrementSequence(eq(PatientIdAllocatorImpl.PATIENT_ID_SEQUENCE), anyLong());
+    }
+
+    @Test
+    public void nextPatientId_startAfterMaxPatientIdInDatabase() {
+        // ARRANGE
+        stubSequence();
+        doReturn(5L).when(mockNoteRepositoryCustom).findMaxPatientId();
+        PatientIdAllocatorImpl patientIdAllocatorUnderTest = new PatientIdAllocatorImpl(mockSequenceRepository, mockNoteRepositoryCustom, 10L);
+
+        // ACT
+        long firstPatientId = patientIdAllocatorUnderTest.nextPatientId();
+        long secondPatientId = patientIdAllocatorUnderTest.nextPatientId();
+
+        // ASSERT
+        assertEquals(6L, firstPatientId);
+        assertEquals(7L, secondPatientId);
+        verify(mockNoteRepositoryCustom, times(1)).findMaxPatientId();
+    }
+
+    @Test
+    public void nextPatientId_oneRoundTripPerBlock() {
+        // ARRANGE
+        stubSequence();
+        doReturn(0L).when(mockNoteRepositoryCustom).findMaxPatientId();
+        PatientIdAllocatorImpl patientIdAllocatorUnderTest = new PatientIdAllocatorImpl(mockSequenceRepository, mockNoteRepositoryCustom, 10L);
+
+        // ACT
+        for (int i = 0; i < 25; i++) {
+            patientIdAllocatorUnderTest.nextPatientId();
+        }
+
+        // ASSERT
+        verify(mockSequenceRepository, times(3)).incrementSequence(PatientIdAllocatorImpl.PATIENT_ID_SEQUENCE, 10L);
+        verify(mockSequenceRepository, times(1)).ensureSequenceAtLeast(PatientIdAllocatorImpl.PATIENT_ID_SEQUENCE, 0L);
+    }
+
+    @Test
+    public void nextPatientId_noDuplicateUnderConcurrentLoad() throws Exception {
+        // ARRANGE
+        stubSequence();
+        doReturn(0L).when(mockNoteRepositoryCustom).findMaxPatientId();
+        // Several allocators sharing the same sequence, as several instances of the microservice would do
+        List<PatientIdAllocatorImpl> patientIdAllocators = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            patientIdAllocators.add(new PatientIdAllocatorImpl(mockSequenceRepository, mockNoteRepositoryCustom, 7L));
+        }
+        int nbThreads = 16;
+        int nbAllocationsPerThread = 5000;
+        Set<Long> patientIds = ConcurrentHashMap.newKeySet();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(nbThreads);
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        // ACT
+        for (int t = 0; t < nbThreads; t++) {
+            PatientIdAllocatorImpl patientIdAllocator = patientIdAllocators.get(t % patientIdAllocators.size());
+            Callable<Integer> task = () -> {
+                startLatch.await();
+                int nbDuplicates = 0;
+                for (int i = 0; i < nbAllocationsPerThread; i++) {
+                    if (!patientIds.add(patientIdAllocator.nextPatientId())) {
+                        nbDuplicates++;
+                    }
+                }
+                return nbDuplicates;
+            };
+            futures.add(executorService.submit(task));
+        }
+        startLatch.countDown();
+        int nbDuplicates = 0;
+        for (Future<Integer> future : futures) {
+            nbDuplicates += future.get();
+        }
+        executorService.shutdown();
+
+        // ASSERT
+        assertEquals(0, nbDuplicates);
+        assertEquals(nbThreads * nbAllocationsPerThread, patientIds.size());
+        assertTrue(patientIds.stream().allMatch(patientId -> patientId > 0L));
+    }
+}
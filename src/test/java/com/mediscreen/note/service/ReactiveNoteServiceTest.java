@@ -0,0 +1,108 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.PatientIdentity;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.repository.ReactiveNoteRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Collections;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the ReactiveNoteServiceImpl Class.
+ */
+@ActiveProfiles("test")
+@ExtendWith(MockitoExtension.class)
+public class ReactiveNoteServiceTest {
+
+    @InjectMocks
+    private ReactiveNoteServiceImpl reactiveNoteServiceImplUnderTest;
+
+    @Mock
+    private ReactiveNoteRepository mockReactiveNoteRepository;
+
+    @Mock
+    private IPatientDirectory mockPatientDirectory;
+
+    @Mock
+    private IPatientHistoryInvalidator mockPatientHistoryInvalidator;
+
+    @Mock
+    private ITriggerTermRollupService mockTriggerTermRollupService;
+
+    @Test
+    public void findNotesByPatientId_whenExist() {
+        // ARRANGE
+        Note noteToFind1 = new Note("PatientLastName", "PatientFirstName","NoteText1");
+        noteToFind1.setPatientId(1L);
+        Note noteToFind2 = new Note("PatientLastName", "PatientFirstName","NoteText2");
+        noteToFind2.setPatientId(1L);
+        doReturn(Flux.just(noteToFind1, noteToFind2)).when(mockReactiveNoteRepository).findByPatientId(1L);
+
+        // ACT & ASSERT
+        StepVerifier.create(reactiveNoteServiceImplUnderTest.findNotesByPatientId(1L))
+                .expectNext(noteToFind1, noteToFind2)
+                .verifyComplete();
+    }
+
+    @Test
+    public void findNotesByPatientId_whenNotExist() {
+        // ARRANGE
+        doReturn(Flux.empty()).when(mockReactiveNoteRepository).findByPatientId(1L);
+
+        // ACT & ASSERT
+        StepVerifier.create(reactiveNoteServiceImplUnderTest.findNotesByPatientId(1L))
+                .verifyError(ResourceNotFoundException.class);
+    }
+
+    @Test
+    public void createNoteByPatientId_whenPatientExist() {
+        // ARRANGE
+        doReturn(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")).when(mockPatientDirectory).findById(1L);
+        doAnswer(invocation -> Mono.just(invocation.getArgument(0))).when(mockReactiveNoteRepository).save(any(Note.class));
+
+        // ACT & ASSERT
+        StepVerifier.create(reactiveNoteServiceImplUnderTest.createNoteByPatientId(1L, "NoteTextNew"))
+                .expectNextMatches(note -> note.getPatientId() == 1L && "PatientLastName".equals(note.getPatientLastName()) && "NoteTextNew".equals(note.getNoteText()))
+                .verifyComplete();
+        verify(mockTriggerTermRollupService, times(1)).addNotes(argThat(notes -> notes.size() == 1 && "NoteTextNew".equals(notes.get(0).getNoteText())));
+        verify(mockPatientDirectory, times(1)).register(Collections.singletonList(new PatientIdentity(1L, "PatientLastName", "PatientFirstName")));
+        verify(mockPatientHistoryInvalidator, times(1)).invalidate(argThat(note -> note.getPatientId() == 1L && "NoteTextNew".equals(note.getNoteText())));
+        verify(mockReactiveNoteRepository, never()).findByPatientId(anyLong());
+    }
+
+    @Test
+    public void createNoteByPatientId_whenPatientNotExist() {
+        // ARRANGE
+        doReturn(null).when(mockPatientDirectory).findById(1L);
+
+        // ACT & ASSERT
+        StepVerifier.create(reactiveNoteServiceImplUnderTest.createNoteByPatientId(1L, "NoteTextNew"))
+                .verifyError(ResourceNotFoundException.class);
+        verify(mockReactiveNoteRepository, never()).save(any(Note.class));
+        verify(mockPatientHistoryInvalidator, never()).invalidate(any(Note.class));
+    }
+
+    @Test
+    public void createNoteByPatientLastNameAndFirstName_whenPatientNotExist() {
+        // ARRANGE
+        doReturn(new PatientIdentity(2L, "NewPatientLastName", "NewPatientFirstName")).when(mockPatientDirectory).getOrCreate("NewPatientLastName", "NewPatientFirstName");
+        doAnswer(invocation -> Mono.just(invocation.getArgument(0))).when(mockReactiveNoteRepository).save(any(Note.class));
+
+        // ACT & ASSERT
+        StepVerifier.create(reactiveNoteServiceImplUnderTest.createNoteByPatientLastNameAndFirstName("NewPatientLastName", "NewPatientFirstName", "NoteTextNew"))
+                .expectNextMatches(note -> note.getPatientId() == 2L)
+                .verifyComplete();
+        verify(mockPatientDirectory, times(1)).getOrCreate("NewPatientLastName", "NewPatientFirstName");
+    }
+}
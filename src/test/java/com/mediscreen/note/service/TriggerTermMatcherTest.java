@@ -0,0 +1,74 @@
+package com.mediscreen.note.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Class including unit tests for the TriggerTermMatcher Class.
+ */
+public class TriggerTermMatcherTest {
+
+    @Test
+    public void countTerms() {
+        // ARRANGE
+        TriggerTermMatcher triggerTermMatcher = new TriggerTermMatcher(Arrays.asList("Hémoglobine A1C", "Microalbumine", "Réaction", "Anticorps"));
+
+        // ACT
+        Map<String, Long> termCounts = triggerTermMatcher.countTerms("MICROALBUMINE élevée. Hemoglobine\n a1c stable, microalbumine en baisse. Reaction cutanée");
+
+        // ASSERT
+        assertEquals(3, termCounts.size());
+        assertEquals(2L, termCounts.get("Microalbumine"));
+        assertEquals(1L, termCounts.get("Hémoglobine A1C"));
+        assertEquals(1L, termCounts.get("Réaction"));
+    }
+
+    @Test
+    public void countTerms_whenTermsOverlap() {
+        // ARRANGE
+        TriggerTermMatcher triggerTermMatcher = new TriggerTermMatcher(Arrays.asList("Poids", "Poids stable", "stable"));
+
+        // ACT
+        Map<String, Long> termCounts = triggerTermMatcher.countTerms("Poids stable");
+
+        // ASSERT
+        assertEquals(1L, termCounts.get("Poids"));
+        assertEquals(1L, termCounts.get("Poids stable"));
+        assertEquals(1L, termCounts.get("stable"));
+    }
+
+    @Test
+    public void countTerms_whenNoText() {
+        // ARRANGE
+        TriggerTermMatcher triggerTermMatcher = new TriggerTermMatcher(Collections.singletonList("Microalbumine"));
+
+        // ACT & ASSERT
+        assertTrue(triggerTermMatcher.countTerms(null).isEmpty());
+    }
+
+    @Test
+    public void getDictionaryHash() {
+        // ARRANGE
+        TriggerTermMatcher triggerTermMatcher = new TriggerTermMatcher(Arrays.asList("Microalbumine", "Fumeur"));
+
+        // ACT & ASSERT
+        assertEquals(triggerTermMatcher.getDictionaryHash(), new TriggerTermMatcher(Arrays.asList(" Microalbumine", "Fumeur", "Fumeur")).getDictionaryHash());
+        assertNotEquals(triggerTermMatcher.getDictionaryHash(), new TriggerTermMatcher(Arrays.asList("Microalbumine", "Fumeuse")).getDictionaryHash());
+    }
+
+    @Test
+    public void createMatcher_whenTermNotAllowed() {
+        // ACT & ASSERT
+        assertThrows(IllegalArgumentException.class, () -> {
+            new TriggerTermMatcher(Collections.singletonList("Taille 1.80"));
+        });
+    }
+}
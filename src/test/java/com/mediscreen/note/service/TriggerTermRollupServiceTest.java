@@ -0,0 +1,335 @@
+package com.mediscreen.note.service;
+
+import com.mediscreen.note.domain.Note;
+import com.mediscreen.note.domain.NoteTermCounts;
+import com.mediscreen.note.domain.TriggerTermCount;
+import com.mediscreen.note.domain.TriggerTermRollup;
+import com.mediscreen.note.exception.ResourceNotFoundException;
+import com.mediscreen.note.repository.INoteRepositoryCustom;
+import com.mediscreen.note.repository.ITriggerTermRollupRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+/**
+ * Class including unit tests for the TriggerTermRollupServiceImpl Class.
+ */
+@ActiveProfiles("test")
+@ExtendWith(MockitoExtension.class)
+public class TriggerTermRollupServiceTest {
+
+    private TriggerTermRollupServiceImpl triggerTermRollupServiceImplUnderTest;
+
+    private TriggerTermMatcher triggerTermMatcher;
+
+    @Mock
+    private ITriggerTermRollupRepository mockTriggerTermRollupRepository;
+
+    @Mock
+    private INoteRepositoryCustom mockNoteRepositoryCustomImpl;
+
+    @BeforeEach
+    public void setup() {
+        triggerTermMatcher = new TriggerTermMatcher(Arrays.asList("Microalbumine", "Fumeur", "Anticorps"));
+        triggerTermRollupServiceImplUnderTest = new TriggerTermRollupServiceImpl(mockTriggerTermRollupRepository, mockNoteRepositoryCustomImpl, triggerTermMatcher, 2, false);
+    }
+
+    @Test
+    public void addNotes() {
+        // ARRANGE
+        Note note1 = note("5fa9cd63681c104404d45c23", 1L, "Microalbumine élevée, fumeur");
+        Note note2 = note("5fa9cd63681c104404d45c24", 1L, "Microalbumine stable");
+        Map<String, Long> expectedTermCounts1 = new HashMap<>();
+        expectedTermCounts1.put("Microalbumine", 1L);
+        expectedTermCounts1.put("Fumeur", 1L);
+
+        // ACT
+        triggerTermRollupServiceImplUnderTest.addNotes(Arrays.asList(note1, note2));
+
+        // ASSERT
+        verify(mockTriggerTermRollupRepository, times(1)).setNoteTermCounts(argThat(noteTermCounts -> noteTermCounts.keySet().equals(Collections.singleton(1L))
+                && noteTermCounts.get(1L).get("5fa9cd63681c104404d45c23").getTermCounts().equals(expectedTermCounts1)
+                && noteTermCounts.get(1L).get("5fa9cd63681c104404d45c24").getTermCounts().equals(Collections.singletonMap("Microalbumine", 1L))));
+        verify(mockTriggerTermRollupRepository, never()).removeNoteTermCounts(anyMap());
+    }
+
+    @Test
+    public void replaceNote_whenPatientChanged() {
+        // ARRANGE
+        Note previousNote = note("5fa9cd63681c104404d45c23", 1L, "Microalbumine, fumeur");
+        previousNote.setVersion(2L);
+        Note updatedNote = note("5fa9cd63681c104404d45c23", 2L, "Microalbumine");
+        updatedNote.setVersion(3L);
+
+        // ACT
+        triggerTermRollupServiceImplUnderTest.replaceNote(previousNote, updatedNote);
+
+        // ASSERT
+        verify(mockTriggerTermRollupRepository, times(1)).removeNoteTermCounts(Collections.singletonMap(1L, Collections.singletonMap("5fa9cd63681c104404d45c23", 2L)));
+        verify(mockTriggerTermRollupRepository, times(1)).setNoteTermCounts(argThat(noteTermCounts -> noteTermCounts.keySet().equals(Collections.singleton(2L))
+                && noteTermCounts.get(2L).get("5fa9cd63681c104404d45c23").getNoteVersion() == 3L
+                && noteTermCounts.get(2L).get("5fa9cd63681c104404d45c23").getTermCounts().equals(Collections.singletonMap("Microalbumine", 1L))));
+    }
+
+    @Test
+    public void addNotes_whenWriteFails() {
+        // ARRANGE
+        Note note = note("5fa9cd63681c104404d45c23", 1L, "Microalbumine");
+        doThrow(IllegalStateException.class).when(mockTriggerTermRollupRepository).setNoteTermCounts(anyMap());
+
+        // ACT
+        triggerTermRollupServiceImplUnderTest.addNotes(Collections.singletonList(note));
+
+        // ASSERT
+        verify(mockTriggerTermRollupRepository, times(1)).deleteRollups(Collections.singleton(1L));
+    }
+
+    @Test
+    public void getTriggerTermCounts_whenRollupUpToDate() {
+        // ARRANGE
+        Map<String, NoteTermCounts> notes = new HashMap<>();
+        notes.put("5fa9cd63681c104404d45c23", new NoteTermCounts(0L, Collections.singletonMap("Microalbumine", 2L)));
+        notes.put("5fa9cd63681c104404d45c24", new NoteTermCounts(0L, Collections.singletonMap("Microalbumine", 1L)));
+        TriggerTermRollup rollup = new TriggerTermRollup(1L, notes, triggerTermMatcher.getDictionaryHash());
+        doReturn(rollup).when(mockTriggerTermRollupRepository).findRollup(1L);
+
+        // ACT
+        TriggerTermCount triggerTermCount = triggerTermRollupServiceImplUnderTest.getTriggerTermCounts(1L);
+
+        // ASSERT
+        assertEquals(3L, triggerTermCount.getTermCounts().get("Microalbumine"));
+        assertEquals(0L, triggerTermCount.getTermCounts().get("Fumeur"));
+        assertEquals(1, triggerTermCount.getDistinctTermCount());
+        verify(mockNoteRepositoryCustomImpl, never()).streamNotes(anyLong(), anyLong());
+    }
+
+    @Test
+    public void getTriggerTermCounts_whenRollupComputedWithOtherDictionary() {
+        // ARRANGE
+        TriggerTermRollup rollup = new TriggerTermRollup(1L,
+                Collections.singletonMap("5fa9cd63681c104404d45c23", new NoteTermCounts(0L, Collections.singletonMap("Microalbumine", 3L))), "otherDictionaryHash");
+        doReturn(rollup).when(mockTriggerTermRollupRepository).findRollup(1L);
+        Note note = note("5fa9cd63681c104404d45c23", 1L, "Fumeur, anticorps");
+        doReturn(closeableIterator(Collections.singletonList(note))).when(mockNoteRepositoryCustomImpl).streamNotes(1L, 1L);
+
+        // ACT
+        TriggerTermCount triggerTermCount = triggerTermRollupServiceImplUnderTest.getTriggerTermCounts(1L);
+
+        // ASSERT
+        assertEquals(0L, triggerTermCount.getTermCounts().get("Microalbumine"));
+        assertEquals(1L, triggerTermCount.getTermCounts().get("Fumeur"));
+        assertEquals(2, triggerTermCount.getDistinctTermCount());
+        verify(mockTriggerTermRollupRepository, times(1)).saveRollupsIfUnchanged(argThat(rollups -> rollups.size() == 1 && triggerTermMatcher.getDictionaryHash().equals(rollups.get(0).getDictionaryHash())));
+    }
+
+    @Test
+    public void getTriggerTermCounts_whenNoteWrittenDuringRecompute() {
+        // ARRANGE
+        Note note1 = note("5fa9cd63681c104404d45c23", 1L, "Microalbumine");
+        Note note2 = note("5fa9cd63681c104404d45c24", 1L, "Fumeur");
+        // The rollup is created by the write of the second note, while the notes of the first computation are read
+        TriggerTermRollup rollupWritten = new TriggerTermRollup(1L,
+                Collections.singletonMap("5fa9cd63681c104404d45c24", new NoteTermCounts(0L, Collections.singletonMap("Fumeur", 1L))), null);
+        rollupWritten.setVersion(1L);
+        doReturn(null, rollupWritten).when(mockTriggerTermRollupRepository).findRollup(1L);
+        doReturn(closeableIterator(Collections.singletonList(note1)), closeableIterator(Arrays.asList(note1, note2))).when(mockNoteRepositoryCustomImpl).streamNotes(1L, 1L);
+        doReturn(Collections.singleton(1L), Collections.emptySet()).when(mockTriggerTermRollupRepository).saveRollupsIfUnchanged(anyList());
+
+        // ACT
+        TriggerTermCount triggerTermCount = triggerTermRollupServiceImplUnderTest.getTriggerTermCounts(1L);
+
+        // ASSERT
+        assertEquals(1L, triggerTermCount.getTermCounts().get("Microalbumine"));
+        assertEquals(1L, triggerTermCount.getTermCounts().get("Fumeur"));
+        verify(mockTriggerTermRollupRepository, times(1)).saveRollupsIfUnchanged(argThat(rollups -> rollups.get(0).getVersion() == 0L));
+        verify(mockTriggerTermRollupRepository, times(1)).saveRollupsIfUnchanged(argThat(rollups -> rollups.get(0).getVersion() == 1L));
+    }
+
+    @Test
+    public void getTriggerTermCounts_whenNoNote() {
+        // ARRANGE
+        doReturn(null).when(mockTriggerTermRollupRepository).findRollup(1L);
+        doReturn(closeableIterator(Collections.emptyList())).when(mockNoteRepositoryCustomImpl).streamNotes(1L, 1L);
+
+        // ACT & ASSERT
+        assertThrows(ResourceNotFoundException.class, () -> {
+            triggerTermRollupServiceImplUnderTest.getTriggerTermCounts(1L);
+        });
+        verify(mockTriggerTermRollupRepository, never()).saveRollupsIfUnchanged(anyList());
+    }
+
+    @Test
+    public void rebuildRollups() {
+        // ARRANGE
+        Note note = note("5fa9cd63681c104404d45c23", 5L, "Microalbumine");
+        doReturn(5L).when(mockNoteRepositoryCustomImpl).findMaxPatientId();
+        doAnswer(invocation -> {
+            long fromPatientId = invocation.getArgument(0);
+            long toPatientId = invocation.getArgument(1);
+            return closeableIterator(fromPatientId <= 5L && 5L <= toPatientId ? Collections.singletonList(note) : Collections.emptyList());
+        }).when(mockNoteRepositoryCustomImpl).streamNotes(anyLong(), anyLong());
+
+        // ACT
+        triggerTermRollupServiceImplUnderTest.rebuildRollups();
+
+        // ASSERT
+        verify(mockTriggerTermRollupRepository, times(1)).saveRollupsIfUnchanged(argThat(rollups -> rollups.size() == 1 && rollups.get(0).getPatientId() == 5L));
+        verify(mockTriggerTermRollupRepository, times(1)).deleteRollupsWithDictionaryHashNot(triggerTermMatcher.getDictionaryHash());
+    }
+
+    @Test
+    public void rebuildRollups_whenNoteWrittenDuringRebuild() {
+        // ARRANGE
+        Note note = note("5fa9cd63681c104404d45c23", 5L, "Microalbumine");
+        Note noteWrittenDuringRebuild = note("5fa9cd63681c104404d45c24", 5L, "Microalbumine, fumeur");
+        List<Note> notes = new CopyOnWriteArrayList<>(Collections.singletonList(note));
+        AtomicReference<TriggerTermRollup> storedRollup = stubRollupOfPatient5(notes);
+
+        // The note is written, and its terms set in the rollup, after the first read of the notes of the patient
+        AtomicBoolean written = new AtomicBoolean();
+        doAnswer(invocation -> {
+            long fromPatientId = invocation.getArgument(0);
+            long toPatientId = invocation.getArgument(1);
+            if (fromPatientId > 5L || 5L > toPatientId) {
+                return closeableIterator(Collections.emptyList());
+            }
+            CloseableIterator<Note> notesRead = closeableIterator(new ArrayList<>(notes));
+            if (written.compareAndSet(false, true)) {
+                notes.add(noteWrittenDuringRebuild);
+                triggerTermRollupServiceImplUnderTest.addNotes(Collections.singletonList(noteWrittenDuringRebuild));
+            }
+            return notesRead;
+        }).when(mockNoteRepositoryCustomImpl).streamNotes(anyLong(), anyLong());
+
+        // ACT
+        triggerTermRollupServiceImplUnderTest.rebuildRollups();
+
+        // ASSERT
+        TriggerTermRollup rollup = storedRollup.get();
+        assertEquals(2L, rollup.sumTermCounts().get("Microalbumine"));
+        assertEquals(1L, rollup.sumTermCounts().get("Fumeur"));
+        assertEquals(triggerTermMatcher.getDictionaryHash(), rollup.getDictionaryHash());
+        verify(mockNoteRepositoryCustomImpl, times(2)).streamNotes(5L, 5L);
+    }
+
+    @Test
+    public void rebuildRollups_whenNoteAddedAfterRecompute() {
+        // ARRANGE
+        Note note = note("5fa9cd63681c104404d45c23", 5L, "Microalbumine");
+        Note noteAddedLate = note("5fa9cd63681c104404d45c24", 5L, "Microalbumine, fumeur");
+        // The note is inserted before the notes are read, but its terms are set in the rollup only after the rollup is recomputed
+        List<Note> notes = new CopyOnWriteArrayList<>(Arrays.asList(note, noteAddedLate));
+        AtomicReference<TriggerTermRollup> storedRollup = stubRollupOfPatient5(notes);
+        doAnswer(invocation -> {
+            long fromPatientId = invocation.getArgument(0);
+            long toPatientId = invocation.getArgument(1);
+            return closeableIterator(fromPatientId <= 5L && 5L <= toPatientId ? new ArrayList<>(notes) : Collections.emptyList());
+        }).when(mockNoteRepositoryCustomImpl).streamNotes(anyLong(), anyLong());
+        triggerTermRollupServiceImplUnderTest.rebuildRollups();
+
+        // ACT
+        triggerTermRollupServiceImplUnderTest.addNotes(Collections.singletonList(noteAddedLate));
+
+        // ASSERT
+        TriggerTermCount triggerTermCount = triggerTermRollupServiceImplUnderTest.getTriggerTermCounts(5L);
+        assertEquals(2L, triggerTermCount.getTermCounts().get("Microalbumine"));
+        assertEquals(1L, triggerTermCount.getTermCounts().get("Fumeur"));
+        assertEquals(triggerTermMatcher.getDictionaryHash(), storedRollup.get().getDictionaryHash());
+    }
+
+    /**
+     * Stub the repository with a stand-in of the rollup of the patient 5 in the database, written as by the repository :
+     * the counts of a note are only set over an earlier version of the note, and a recomputed rollup is only saved over the version it was computed from.
+     *
+     * @param notes The notes of the patient
+     * @return The reference to the rollup stored
+     */
+    private AtomicReference<TriggerTermRollup> stubRollupOfPatient5(List<Note> notes) {
+        doReturn(5L).when(mockNoteRepositoryCustomImpl).findMaxPatientId();
+        AtomicReference<TriggerTermRollup> storedRollup = new AtomicReference<>();
+        lenient().doAnswer(invocation -> {
+            TriggerTermRollup rollup = storedRollup.get();
+            return rollup != null ? Collections.singletonMap(5L, rollup.getVersion()) : Collections.emptyMap();
+        }).when(mockTriggerTermRollupRepository).findRollupVersions(anyLong(), anyLong());
+        lenient().doAnswer(invocation -> storedRollup.get()).when(mockTriggerTermRollupRepository).findRollup(5L);
+        lenient().doAnswer(invocation -> {
+            Map<Long, Map<String, NoteTermCounts>> noteTermCounts = invocation.getArgument(0);
+            storedRollup.updateAndGet(rollup -> {
+                TriggerTermRollup writtenRollup = rollup != null
+                        ? new TriggerTermRollup(5L, new HashMap<>(rollup.getNotes()), rollup.getDictionaryHash()) : new TriggerTermRollup(5L, new HashMap<>(), null);
+                noteTermCounts.get(5L).forEach((noteId, counts) -> {
+                    NoteTermCounts currentCounts = writtenRollup.getNotes().get(noteId);
+                    if (currentCounts == null || currentCounts.getNoteVersion() < counts.getNoteVersion()) {
+                        writtenRollup.getNotes().put(noteId, counts);
+                    }
+                });
+                writtenRollup.setVersion((rollup != null ? rollup.getVersion() : 0L) + 1L);
+                return writtenRollup;
+            });
+            return null;
+        }).when(mockTriggerTermRollupRepository).setNoteTermCounts(anyMap());
+        lenient().doAnswer(invocation -> {
+            List<TriggerTermRollup> rollups = invocation.getArgument(0);
+            Set<Long> changedPatientIds = new HashSet<>();
+            for (TriggerTermRollup rollup : rollups) {
+                TriggerTermRollup currentRollup = storedRollup.get();
+                if ((currentRollup != null ? currentRollup.getVersion() : 0L) != rollup.getVersion()) {
+                    changedPatientIds.add(rollup.getPatientId());
+                    continue;
+                }
+                TriggerTermRollup savedRollup = new TriggerTermRollup(rollup.getPatientId(), rollup.getNotes(), rollup.getDictionaryHash());
+                savedRollup.setVersion(rollup.getVersion() + 1L);
+                storedRollup.set(savedRollup);
+            }
+            return changedPatientIds;
+        }).when(mockTriggerTermRollupRepository).saveRollupsIfUnchanged(anyList());
+        return storedRollup;
+    }
+
+    private static Note note(String id, long patientId, String noteText) {
+        Note note = new Note("PatientLastName", "PatientFirstName", noteText);
+        note.setId(id);
+        note.setPatientId(patientId);
+        return note;
+    }
+
+    private static CloseableIterator<Note> closeableIterator(List<Note> notes) {
+        Iterator<Note> iterator = notes.iterator();
+        return new CloseableIterator<Note>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Note next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}